@@ -0,0 +1,139 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Specifies how the I/O buffers used for reading and writing PLY files are allocated. A strategy determines the size
+ * of the buffers, whether they are allocated on the heap or as direct buffers, and whether they are taken from a pool
+ * shared by all pooled strategies instead of being allocated for every operation. Pooling avoids the allocation cost
+ * when many small files are processed. Instances are immutable and thread-safe.
+ * @author Kazó Csaba
+ */
+public final class BufferStrategy {
+	/** The smallest allowed buffer size. */
+	public static final int MINIMUM_SIZE=256;
+	/** The maximum number of idle buffers kept in the pool for each buffer size and kind. */
+	private static final int MAX_POOLED=64;
+
+	/** The default strategy: unpooled heap buffers of 8 KB. */
+	public static final BufferStrategy DEFAULT=new BufferStrategy(8192, false, false);
+
+	private static final class Pool {
+		final Queue<ByteBuffer> buffers=new ConcurrentLinkedQueue<>();
+		final AtomicInteger size=new AtomicInteger();
+	}
+	private static final ConcurrentMap<Long, Pool> POOLS=new ConcurrentHashMap<>();
+
+	private final int size;
+	private final boolean direct;
+	private final boolean pooled;
+
+	private BufferStrategy(int size, boolean direct, boolean pooled) {
+		this.size = size;
+		this.direct = direct;
+		this.pooled = pooled;
+	}
+
+	/**
+	 * Returns a strategy that allocates heap buffers of the specified size.
+	 * @param size the size of the buffers in bytes
+	 * @return a strategy using heap buffers
+	 * @throws IllegalArgumentException if {@code size} is smaller than {@link #MINIMUM_SIZE}
+	 */
+	public static BufferStrategy heap(int size) {
+		if (size<MINIMUM_SIZE) throw new IllegalArgumentException("Buffer size too small: "+size);
+		return new BufferStrategy(size, false, false);
+	}
+
+	/**
+	 * Returns a strategy that allocates direct buffers of the specified size.
+	 * @param size the size of the buffers in bytes
+	 * @return a strategy using direct buffers
+	 * @throws IllegalArgumentException if {@code size} is smaller than {@link #MINIMUM_SIZE}
+	 */
+	public static BufferStrategy direct(int size) {
+		if (size<MINIMUM_SIZE) throw new IllegalArgumentException("Buffer size too small: "+size);
+		return new BufferStrategy(size, true, false);
+	}
+
+	/**
+	 * Returns a strategy that uses the same kind of buffers as this one, but takes them from a shared pool. Buffers
+	 * are returned to the pool when the operation using them is finished.
+	 * @return a pooled version of this strategy
+	 */
+	public BufferStrategy pooled() {
+		return pooled ? this : new BufferStrategy(size, direct, true);
+	}
+
+	/**
+	 * Returns the size of the buffers.
+	 * @return the buffer size in bytes
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns whether this strategy uses direct buffers.
+	 * @return {@code true} for direct buffers, {@code false} for heap buffers
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Returns whether this strategy takes buffers from the shared pool.
+	 * @return {@code true} if buffers are reused
+	 */
+	public boolean isPooled() {
+		return pooled;
+	}
+
+	private Pool pool() {
+		Long key=direct ? -size : (long)size;
+		Pool pool=POOLS.get(key);
+		if (pool==null) {
+			Pool newPool=new Pool();
+			pool=POOLS.putIfAbsent(key, newPool);
+			if (pool==null) pool=newPool;
+		}
+		return pool;
+	}
+
+	/**
+	 * Returns a cleared, big endian buffer. The buffer should be given back with {@link #release(ByteBuffer)} when
+	 * it is no longer used.
+	 */
+	ByteBuffer acquire() {
+		if (pooled) {
+			Pool pool=pool();
+			ByteBuffer buffer=pool.buffers.poll();
+			if (buffer!=null) {
+				pool.size.decrementAndGet();
+				return buffer;
+			}
+		}
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * Gives back a buffer obtained from {@link #acquire()}. The buffer must not be used afterwards.
+	 */
+	void release(ByteBuffer buffer) {
+		if (!pooled) return;
+		Pool pool=pool();
+		if (pool.size.incrementAndGet()>MAX_POOLED) {
+			pool.size.decrementAndGet();
+			return;
+		}
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		pool.buffers.add(buffer);
+	}
+}
@@ -0,0 +1,33 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+/**
+ * A flag for cancelling long reads and writes. The readers and writers using the token check it regularly, and once it
+ * is cancelled, they close their files, give back their buffers, and throw an {@link OperationCancelledException}.
+ * A token can be shared by multiple operations, and it can be cancelled from any thread.
+ * @author Kazó Csaba
+ * @see PlyReader#setCancellationToken(CancellationToken)
+ * @see PlyWriter#setCancellationToken(CancellationToken)
+ */
+public final class CancellationToken {
+	private volatile boolean cancelled=false;
+
+	/**
+	 * Creates a new token, which is not cancelled.
+	 */
+	public CancellationToken() {}
+
+	/**
+	 * Cancels the operations using this token. A cancelled token cannot be reset.
+	 */
+	public void cancel() {
+		cancelled=true;
+	}
+
+	/**
+	 * Returns whether this token has been cancelled.
+	 * @return {@code true} if {@link #cancel()} has been called
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
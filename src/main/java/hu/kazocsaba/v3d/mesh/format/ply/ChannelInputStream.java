@@ -0,0 +1,71 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A buffered input stream reading from a channel, using a buffer provided by a {@link BufferStrategy}. Closing the
+ * stream closes the channel and gives the buffer back.
+ * @author Kazó Csaba
+ */
+class ChannelInputStream extends InputStream {
+	private final ReadableByteChannel channel;
+	private final BufferStrategy bufferStrategy;
+	private ByteBuffer buffer;
+
+	public ChannelInputStream(ReadableByteChannel channel, BufferStrategy bufferStrategy) {
+		this.channel = channel;
+		this.bufferStrategy = bufferStrategy;
+		buffer=bufferStrategy.acquire();
+		buffer.flip();
+	}
+
+	private boolean fill() throws IOException {
+		if (buffer==null) throw new IOException("Stream closed");
+		buffer.clear();
+		int read;
+		do {
+			read=channel.read(buffer);
+		} while (read==0);
+		buffer.flip();
+		return read!=-1;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (buffer==null || !buffer.hasRemaining()) {
+			if (!fill()) return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len==0) return 0;
+		if (buffer==null || !buffer.hasRemaining()) {
+			if (!fill()) return -1;
+		}
+		int count=Math.min(len, buffer.remaining());
+		buffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer==null ? 0 : buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (buffer==null) return;
+		ByteBuffer b=buffer;
+		buffer=null;
+		try {
+			channel.close();
+		} finally {
+			bufferStrategy.release(b);
+		}
+	}
+}
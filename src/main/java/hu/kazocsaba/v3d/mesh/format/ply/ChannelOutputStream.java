@@ -0,0 +1,69 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A buffered output stream writing to a channel, using a buffer provided by a {@link BufferStrategy}. Closing the
+ * stream flushes it, closes the channel and gives the buffer back.
+ * @author Kazó Csaba
+ */
+class ChannelOutputStream extends OutputStream {
+	private final WritableByteChannel channel;
+	private final BufferStrategy bufferStrategy;
+	private ByteBuffer buffer;
+
+	public ChannelOutputStream(WritableByteChannel channel, BufferStrategy bufferStrategy) {
+		this.channel = channel;
+		this.bufferStrategy = bufferStrategy;
+		buffer=bufferStrategy.acquire();
+	}
+
+	private void drain() throws IOException {
+		if (buffer==null) throw new IOException("Stream closed");
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (buffer==null || !buffer.hasRemaining()) drain();
+		buffer.put((byte)b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len>0) {
+			if (buffer==null || !buffer.hasRemaining()) drain();
+			int count=Math.min(len, buffer.remaining());
+			buffer.put(b, off, count);
+			off+=count;
+			len-=count;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (buffer==null) return;
+		try {
+			drain();
+		} finally {
+			ByteBuffer b=buffer;
+			buffer=null;
+			try {
+				channel.close();
+			} finally {
+				bufferStrategy.release(b);
+			}
+		}
+	}
+}
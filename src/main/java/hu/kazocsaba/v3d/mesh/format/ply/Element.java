@@ -9,12 +9,45 @@ import java.util.List;
  */
 class Element {
 	public String name;
-	public int count;
+	public long count;
 	public List<Property> properties=new ArrayList<>();
+	/** The offset of the instance count in the header of the file, or -1 if unknown. */
+	public long countOffset=-1;
+	/** The number of bytes available for the instance count in the header, including any padding after it. */
+	public int countWidth;
 
-	public Element(String name, int count) {
+	public Element(String name, long count) {
 		this.name = name;
 		this.count = count;
 	}
 	
+	/**
+	 * Returns the number of bytes an instance of this element occupies in a binary file.
+	 * @return the size of a record, or -1 if the element has list properties and therefore the size varies
+	 */
+	public int recordSize() {
+		int size=0;
+		for (Property p: properties) {
+			if (p instanceof ListProperty) return -1;
+			size+=((ScalarProperty)p).type.size;
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the offset of a property within the binary record of this element. Only the properties preceding the
+	 * specified one are examined, and they must all be scalar.
+	 * @param index the index of the property
+	 * @return the number of bytes preceding the property in the record, or -1 if there is a list property before it
+	 */
+	public int propertyOffset(int index) {
+		int offset=0;
+		for (int i=0; i<index; i++) {
+			Property p=properties.get(i);
+			if (p instanceof ListProperty) return -1;
+			offset+=((ScalarProperty)p).type.size;
+		}
+		return offset;
+	}
+	
 }
@@ -0,0 +1,204 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * The parsed header of a PLY file.
+ * @author Kazó Csaba
+ */
+class Header {
+	public final PlyFormat format;
+	public final List<Element> elements;
+	public final List<String> comments;
+	public final List<String> objInfo;
+	/** The offset of the first byte after the header. */
+	public final long bodyOffset;
+
+	private Header(PlyFormat format, List<Element> elements, List<String> comments, List<String> objInfo, long bodyOffset) {
+		this.format = format;
+		this.elements = elements;
+		this.comments = comments;
+		this.objInfo = objInfo;
+		this.bodyOffset = bodyOffset;
+	}
+
+	/**
+	 * Parses the header of a PLY file.
+	 * @param file the file to read
+	 * @return the header of the file
+	 * @throws InvalidPlyFormatException if the header is invalid
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Header read(Path file) throws IOException, InvalidPlyFormatException {
+		try (InputStream in=new BufferedInputStream(Files.newInputStream(file))) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Parses the header of a PLY file. The stream is left positioned at the first byte of the body.
+	 * @param in the stream to read
+	 * @return the header of the stream
+	 * @throws InvalidPlyFormatException if the header is invalid
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Header read(InputStream in) throws IOException, InvalidPlyFormatException {
+		LineReader lines=new LineReader(in);
+		String line=lines.next();
+		if (line==null || !line.equals("ply"))
+			throw new InvalidPlyFormatException("File is not in PLY format");
+
+		String format=null;
+		String version=null;
+		List<Element> elements=new ArrayList<>();
+		List<String> comments=new ArrayList<>();
+		List<String> objInfo=new ArrayList<>();
+		Element currentElement=null;
+		while (true) {
+			long lineOffset=lines.offset;
+			line=lines.next();
+			if (line==null) {
+				throw new InvalidPlyFormatException("Unexpected end of file");
+			}
+			try {
+				Scanner wordScanner=new Scanner(line).useLocale(Locale.ROOT);
+				String keyword=wordScanner.next();
+				if ("format".equals(keyword)) {
+					format=wordScanner.next();
+					version=wordScanner.next();
+					if (wordScanner.hasNext()) throw new InvalidPlyFormatException("Invalid file format");
+				} else if ("comment".equals(keyword))
+					comments.add(text(line, keyword));
+				else if ("element".equals(keyword)) {
+					String name=wordScanner.next();
+					long count=wordScanner.nextLong();
+					if (count<0) throw new InvalidPlyFormatException("Element "+name+" has negative instances");
+					if (wordScanner.hasNext()) throw new InvalidPlyFormatException("Invalid file format");
+					currentElement=new Element(name, count);
+					// the count is the last word of the line, possibly followed by padding
+					int countStart=line.length();
+					while (Character.isWhitespace(line.charAt(countStart-1))) countStart--;
+					while (!Character.isWhitespace(line.charAt(countStart-1))) countStart--;
+					currentElement.countOffset=lineOffset+countStart;
+					currentElement.countWidth=line.length()-countStart;
+					elements.add(currentElement);
+				} else if ("property".equals(keyword)) {
+					if (currentElement==null) throw new InvalidPlyFormatException("Property without element");
+					Property property;
+					String type=wordScanner.next();
+					if ("list".equals(type)) {
+						Type countType=type(wordScanner.next());
+						if (countType==Type.FLOAT || countType==Type.DOUBLE) throw new InvalidPlyFormatException("List element count type must be integral");
+						Type elemType=type(wordScanner.next());
+						String name=wordScanner.next();
+						if (wordScanner.hasNext()) throw new InvalidPlyFormatException("Invalid file format");
+						property=new ListProperty(name, countType, elemType);
+					} else {
+						String name=wordScanner.next();
+						Type scalarType=type(type);
+						property=new ScalarProperty(name, scalarType);
+					}
+					currentElement.properties.add(property);
+				} else if ("obj_info".equals(keyword)) {
+					objInfo.add(text(line, keyword));
+				} else if ("end_header".equals(keyword))
+					break;
+				else
+					throw new InvalidPlyFormatException("Unrecognized keyword in header: "+keyword);
+			} catch (NoSuchElementException e) {
+				// a missing or malformed word
+				throw new InvalidPlyFormatException("Invalid header line: "+line, e);
+			}
+		}
+		if (format==null) throw new InvalidPlyFormatException("No format specification found in header");
+		if (!"1.0".equals(version)) throw new InvalidPlyFormatException("Unknown format version: "+version);
+		PlyFormat plyFormat=PlyFormat.forKeyword(format);
+		if (plyFormat==null) throw new InvalidPlyFormatException("Invalid format: "+format);
+		return new Header(plyFormat, elements, comments, objInfo, lines.offset);
+	}
+
+	/**
+	 * Formats a header.
+	 * @param format the format of the body
+	 * @param elements the elements of the file
+	 * @param comments the comment lines
+	 * @param objInfo the obj_info lines
+	 * @return the header text, including the terminating {@code end_header} line
+	 */
+	public static byte[] format(PlyFormat format, List<Element> elements, List<String> comments, List<String> objInfo) {
+		StringBuilder header=new StringBuilder();
+		header.append("ply\n");
+		header.append("format ").append(format.keyword).append(" 1.0\n");
+		for (String comment: comments)
+			header.append("comment ").append(comment).append('\n');
+		for (String info: objInfo)
+			header.append("obj_info ").append(info).append('\n');
+		for (Element element: elements) {
+			header.append("element ").append(element.name).append(' ').append(element.count).append('\n');
+			for (Property property: element.properties) {
+				header.append("property ");
+				if (property instanceof ListProperty) {
+					ListProperty listProperty=(ListProperty)property;
+					header.append("list ").append(listProperty.countType.keyword()).append(' ').append(listProperty.elemType.keyword());
+				} else {
+					header.append(((ScalarProperty)property).type.keyword());
+				}
+				header.append(' ').append(property.name).append('\n');
+			}
+		}
+		header.append("end_header\n");
+		return header.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static Type type(String keyword) throws InvalidPlyFormatException {
+		Type type=Type.forKeyword(keyword);
+		if (type==null) throw new InvalidPlyFormatException("Unrecognized type: "+keyword);
+		return type;
+	}
+
+	/**
+	 * Returns the text of a comment-like header line following the keyword and a single separating space.
+	 */
+	private static String text(String line, String keyword) {
+		int start=line.indexOf(keyword)+keyword.length();
+		if (start<line.length() && line.charAt(start)==' ') start++;
+		return line.substring(start);
+	}
+
+	/**
+	 * Reads ASCII lines while keeping track of the number of bytes consumed. Lines are terminated by '\n', an
+	 * optional preceding '\r' is not part of the line.
+	 */
+	private static class LineReader {
+		private final InputStream in;
+		private final StringBuilder line=new StringBuilder();
+		long offset=0;
+
+		public LineReader(InputStream in) {
+			this.in = in;
+		}
+
+		public String next() throws IOException {
+			line.setLength(0);
+			while (true) {
+				int b=in.read();
+				if (b==-1) return null;
+				offset++;
+				if (b=='\n') break;
+				line.append((char)b);
+			}
+			if (line.length()>0 && line.charAt(line.length()-1)=='\r') line.setLength(line.length()-1);
+			return line.toString();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+/**
+ * The ways of loading the contents of a PLY file, for estimating the memory they need.
+ * @author Kazó Csaba
+ * @see PlyReader#estimateMemory(LoadMode)
+ */
+public enum LoadMode {
+	/** Reading the vertices as vector objects, as done by {@link PlyReader#readVertices()}. */
+	VERTICES,
+	/** Reading the vertices with packed colors, as done by {@link PlyReader#readPackedColorVertices()}. */
+	PACKED_COLOR_VERTICES,
+	/**
+	 * Reading the vertices into quantized storage, as done by {@link PlyReader#readQuantizedVertices(double)}. The
+	 * estimate assumes 32-bit storage, since the precision is not known in advance.
+	 */
+	QUANTIZED_VERTICES,
+	/** Reading the mesh as vector and array objects, as done by {@link PlyReader#readMesh()}. */
+	MESH,
+	/** Reading the mesh along with its adjacency tables, as done by {@link PlyReader#readMeshWithAdjacency()}. */
+	MESH_WITH_ADJACENCY,
+	/**
+	 * Reading the contents of the file into native memory, as done by {@link PlyReader#readOffHeap()}. The estimate is
+	 * the amount of native memory used, the heap usage is negligible.
+	 */
+	OFF_HEAP,
+	/**
+	 * Accessing the contents of the file through memory mapping, as done by {@link PlyReader#mapVertices()} and
+	 * {@link PlyReader#mapMesh()}. The mapped data is managed by the page cache of the operating system, and is not
+	 * included in the estimate.
+	 */
+	MAPPED
+}
@@ -0,0 +1,312 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.ColoredPointListImpl;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMeshImpl;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.PointListImpl;
+
+/**
+ * Reorders vertices and triangles to improve the locality of access. Vertices are sorted along a Morton (Z-order)
+ * curve, so that vertices close in space are also close in the file. Triangles are then sorted by their smallest vertex
+ * and split into chunks, and the triangles of each chunk are reordered by Tom Forsyth's linear-speed vertex cache
+ * optimization algorithm, which orders them so that consecutive triangles share vertices.
+ * <p>
+ * The sorting and the chunks are processed in parallel, using the common fork-join pool. The input objects are only
+ * accessed by the calling thread.
+ * @author Kazó Csaba
+ */
+class LocalityOptimizer {
+	/** The number of triangles optimized together. */
+	private static final int CHUNK_SIZE=1<<16;
+
+	/* The parameters of the Forsyth algorithm. */
+	private static final int CACHE_SIZE=32;
+	private static final double CACHE_DECAY_POWER=1.5;
+	private static final double LAST_TRIANGLE_SCORE=0.75;
+	private static final double VALENCE_BOOST_SCALE=2;
+	private static final double VALENCE_BOOST_POWER=0.5;
+	private static final int MAX_VALENCE=64;
+
+	private static final double[] CACHE_SCORE=new double[CACHE_SIZE];
+	private static final double[] VALENCE_SCORE=new double[MAX_VALENCE];
+	static {
+		for (int i=0; i<CACHE_SIZE; i++)
+			CACHE_SCORE[i]=i<3 ? LAST_TRIANGLE_SCORE : Math.pow(1-(i-3)/(double)(CACHE_SIZE-3), CACHE_DECAY_POWER);
+		for (int i=1; i<MAX_VALENCE; i++)
+			VALENCE_SCORE[i]=VALENCE_BOOST_SCALE*Math.pow(i, -VALENCE_BOOST_POWER);
+	}
+
+	private LocalityOptimizer() {}
+
+	/**
+	 * Returns a copy of a point list with its vertices sorted along a Morton curve. The colors of a
+	 * {@link ColoredPointList} or a {@link PackedColorPointList} are kept.
+	 */
+	public static PointList reorder(PointList points) {
+		int[] order=mortonOrder(coordinates(points));
+		return select(points, order, 0, order.length);
+	}
+
+	/**
+	 * Returns a new point list containing the specified points of a point list. The colors of a
+	 * {@link ColoredPointList} or a {@link PackedColorPointList} are kept.
+	 * @param points the point list
+	 * @param indices the array containing the indices of the points to select
+	 * @param from the index of the first element of {@code indices} to use
+	 * @param to the index after the last element of {@code indices} to use
+	 */
+	static PointList select(PointList points, int[] indices, int from, int to) {
+		List<Vector3> vertices=new ArrayList<>(to-from);
+		for (int i=from; i<to; i++)
+			vertices.add(points.getPoint(indices[i]));
+		if (points instanceof ColoredPointList) {
+			List<Color> colors=new ArrayList<>(to-from);
+			for (int i=from; i<to; i++)
+				colors.add(((ColoredPointList)points).getPointColor(indices[i]));
+			return new ColoredPointListImpl(vertices, colors);
+		}
+		if (points instanceof PackedColorPointList) {
+			PackedColorPointList packed=(PackedColorPointList)points;
+			int[] colors=new int[to-from];
+			for (int i=from; i<to; i++)
+				colors[i-from]=packed.getColor(indices[i]);
+			return new PackedColorPointList(new PointListImpl(vertices), colors, packed.hasAlpha());
+		}
+		return new PointListImpl(vertices);
+	}
+
+	/**
+	 * Returns a copy of a mesh with its vertices sorted along a Morton curve and its triangles reordered for vertex
+	 * cache efficiency.
+	 */
+	public static IndexedTriangleMesh reorder(IndexedTriangleMesh mesh) {
+		int[] order=mortonOrder(coordinates(mesh));
+		int[] newIndex=new int[order.length];
+		List<Vector3> vertices=new ArrayList<>(order.length);
+		for (int i=0; i<order.length; i++) {
+			newIndex[order[i]]=i;
+			vertices.add(mesh.getPoint(order[i]));
+		}
+		int triangleCount=mesh.getTriangleCount();
+		int[] indices=new int[triangleCount*3];
+		for (int t=0; t<triangleCount; t++)
+			for (int j=0; j<3; j++)
+				indices[t*3+j]=newIndex[mesh.getTrianglePointIndex(t, j)];
+
+		indices=optimizeTriangles(indices);
+
+		List<int[]> triangles=new ArrayList<>(triangleCount);
+		for (int t=0; t<triangleCount; t++)
+			triangles.add(new int[]{indices[t*3], indices[t*3+1], indices[t*3+2]});
+		return new IndexedTriangleMeshImpl(vertices, triangles);
+	}
+
+	private static double[] coordinates(PointList points) {
+		int n=points.getPointCount();
+		double[] coords=new double[n*3];
+		for (int i=0; i<n; i++) {
+			Vector3 p=points.getPoint(i);
+			coords[i*3]=p.getX();
+			coords[i*3+1]=p.getY();
+			coords[i*3+2]=p.getZ();
+		}
+		return coords;
+	}
+
+	/**
+	 * Computes the order of points along a Morton curve. The Morton code and the index of each point are packed into
+	 * a single {@code long}, so that the points can be sorted as primitives; the number of bits per axis is reduced
+	 * as the number of points grows.
+	 * @param coords the coordinates of the points
+	 * @return the original indices of the points in Morton order
+	 */
+	static int[] mortonOrder(double[] coords) {
+		int n=coords.length/3;
+		double[] min=new double[3], scale=new double[3];
+		for (int axis=0; axis<3; axis++) {
+			final int a=axis;
+			double lo=IntStream.range(0, n).parallel().mapToDouble(i -> coords[i*3+a]).filter(Double::isFinite).min().orElse(0);
+			double hi=IntStream.range(0, n).parallel().mapToDouble(i -> coords[i*3+a]).filter(Double::isFinite).max().orElse(0);
+			min[axis]=lo;
+			scale[axis]=hi>lo ? 1/(hi-lo) : 0;
+		}
+		int indexBits=32-Integer.numberOfLeadingZeros(Math.max(n-1, 1));
+		int axisBits=Math.min(21, (63-indexBits)/3);
+		long cells=1L<<axisBits;
+		long[] keys=new long[n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			long code=0;
+			for (int axis=0; axis<3; axis++) {
+				double value=(coords[i*3+axis]-min[axis])*scale[axis];
+				// NaN and infinite coordinates are clamped
+				long cell=value>=0 ? Math.min((long)(value*cells), cells-1) : 0;
+				code|=spread(cell)<<axis;
+			}
+			keys[i]=code<<indexBits | i;
+		});
+		Arrays.parallelSort(keys);
+		int[] order=new int[n];
+		long indexMask=(1L<<indexBits)-1;
+		for (int i=0; i<n; i++)
+			order[i]=(int)(keys[i] & indexMask);
+		return order;
+	}
+
+	/**
+	 * Inserts two zero bits before each of the lowest 21 bits of the argument.
+	 */
+	static long spread(long value) {
+		value&=0x1FFFFF;
+		value=(value | value<<32) & 0x1F00000000FFFFL;
+		value=(value | value<<16) & 0x1F0000FF0000FFL;
+		value=(value | value<<8) & 0x100F00F00F00F00FL;
+		value=(value | value<<4) & 0x10C30C30C30C30C3L;
+		value=(value | value<<2) & 0x1249249249249249L;
+		return value;
+	}
+
+	/**
+	 * Reorders triangles for vertex cache efficiency. The triangles are first sorted by their smallest vertex index,
+	 * then the chunks of the sorted list are optimized independently, in parallel.
+	 * @param indices the vertex indices of the triangles
+	 * @return the vertex indices of the reordered triangles
+	 */
+	static int[] optimizeTriangles(int[] indices) {
+		int triangleCount=indices.length/3;
+		long[] keys=new long[triangleCount];
+		IntStream.range(0, triangleCount).parallel().forEach(t ->
+				keys[t]=(long)Math.min(indices[t*3], Math.min(indices[t*3+1], indices[t*3+2]))<<31 | t);
+		Arrays.parallelSort(keys);
+		int[] sorted=new int[indices.length];
+		for (int i=0; i<triangleCount; i++) {
+			int t=(int)(keys[i] & Integer.MAX_VALUE);
+			System.arraycopy(indices, t*3, sorted, i*3, 3);
+		}
+
+		int chunkCount=(triangleCount+CHUNK_SIZE-1)/CHUNK_SIZE;
+		int[] result=new int[indices.length];
+		IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+			int from=chunk*CHUNK_SIZE*3;
+			int to=Math.min(indices.length, from+CHUNK_SIZE*3);
+			int[] optimized=forsyth(Arrays.copyOfRange(sorted, from, to));
+			System.arraycopy(optimized, 0, result, from, optimized.length);
+		});
+		return result;
+	}
+
+	/**
+	 * Reorders triangles using Tom Forsyth's algorithm. The vertices are renumbered locally, so the time and memory
+	 * used is proportional to the number of triangles.
+	 */
+	private static int[] forsyth(int[] indices) {
+		int triangleCount=indices.length/3;
+
+		// local vertex numbering
+		int[] vertexIds=indices.clone();
+		Arrays.sort(vertexIds);
+		int vertexCount=0;
+		for (int i=0; i<vertexIds.length; i++)
+			if (i==0 || vertexIds[i]!=vertexIds[i-1]) vertexIds[vertexCount++]=vertexIds[i];
+		int[] local=new int[indices.length];
+		for (int i=0; i<indices.length; i++)
+			local[i]=Arrays.binarySearch(vertexIds, 0, vertexCount, indices[i]);
+
+		// the triangles using each vertex; the active ones are kept at the front of the vertex's range
+		int[] activeCount=new int[vertexCount];
+		for (int v: local)
+			activeCount[v]++;
+		int[] offset=new int[vertexCount+1];
+		for (int v=0; v<vertexCount; v++)
+			offset[v+1]=offset[v]+activeCount[v];
+		int[] vertexTriangles=new int[indices.length];
+		int[] fill=Arrays.copyOf(offset, vertexCount);
+		for (int i=0; i<local.length; i++)
+			vertexTriangles[fill[local[i]]++]=i/3;
+
+		int[] cachePosition=new int[vertexCount];
+		Arrays.fill(cachePosition, -1);
+		double[] vertexScore=new double[vertexCount];
+		for (int v=0; v<vertexCount; v++)
+			vertexScore[v]=score(-1, activeCount[v]);
+		boolean[] added=new boolean[triangleCount];
+
+		int[] cache=new int[CACHE_SIZE+3];
+		int cacheSize=0;
+		int[] newCache=new int[CACHE_SIZE+3];
+		int[] result=new int[indices.length];
+		int best=-1;
+		int cursor=0;
+		for (int output=0; output<triangleCount; output++) {
+			if (best==-1) {
+				// no candidate in the cache, take the next remaining triangle
+				while (added[cursor]) cursor++;
+				best=cursor;
+			}
+			added[best]=true;
+			System.arraycopy(indices, best*3, result, output*3, 3);
+
+			// remove the triangle from the active lists of its vertices, and put them in front of the cache
+			int newCacheSize=0;
+			for (int j=0; j<3; j++) {
+				int v=local[best*3+j];
+				int end=offset[v]+activeCount[v];
+				for (int k=offset[v]; k<end; k++)
+					if (vertexTriangles[k]==best) {
+						vertexTriangles[k]=vertexTriangles[end-1];
+						vertexTriangles[end-1]=best;
+						break;
+					}
+				activeCount[v]--;
+				boolean present=false;
+				for (int k=0; k<newCacheSize; k++)
+					if (newCache[k]==v) present=true;
+				if (!present) newCache[newCacheSize++]=v;
+			}
+			for (int k=0; k<cacheSize; k++) {
+				int v=cache[k];
+				if (v!=local[best*3] && v!=local[best*3+1] && v!=local[best*3+2])
+					newCache[newCacheSize++]=v;
+			}
+			int[] swap=cache;
+			cache=newCache;
+			newCache=swap;
+			cacheSize=newCacheSize;
+
+			// update the scores of the vertices in the cache, and of their triangles
+			for (int k=0; k<cacheSize; k++) {
+				int v=cache[k];
+				cachePosition[v]=k<CACHE_SIZE ? k : -1;
+				vertexScore[v]=score(cachePosition[v], activeCount[v]);
+			}
+			best=-1;
+			double bestScore=-1;
+			for (int k=0; k<cacheSize; k++) {
+				int v=cache[k];
+				for (int i=offset[v]; i<offset[v]+activeCount[v]; i++) {
+					int t=vertexTriangles[i];
+					double score=vertexScore[local[t*3]]+vertexScore[local[t*3+1]]+vertexScore[local[t*3+2]];
+					if (score>bestScore) {
+						bestScore=score;
+						best=t;
+					}
+				}
+			}
+			if (cacheSize>CACHE_SIZE) cacheSize=CACHE_SIZE;
+		}
+		return result;
+	}
+
+	private static double score(int cachePosition, int activeTriangles) {
+		if (activeTriangles==0) return -1;
+		double score=cachePosition<0 ? 0 : CACHE_SCORE[cachePosition];
+		return score+VALENCE_SCORE[Math.min(activeTriangles, MAX_VALENCE-1)];
+	}
+}
@@ -0,0 +1,39 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.awt.Color;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+
+/**
+ * A colored point list that decodes the vertices from a memory mapped binary file on demand. The color components are
+ * not validated: integral components outside the 0-255 range are clamped to it, like floating point components are
+ * clamped to the 0-1 range.
+ * @author Kazó Csaba
+ */
+class MappedColoredPointList extends MappedPointList implements ColoredPointList {
+	private final Type redType, greenType, blueType;
+	private final int redOffset, greenOffset, blueOffset;
+
+	public MappedColoredPointList(MappedFile data, Element element, int xIndex, int yIndex, int zIndex, int redIndex, int greenIndex, int blueIndex) {
+		super(data, element, xIndex, yIndex, zIndex);
+		redType=((ScalarProperty)element.properties.get(redIndex)).type;
+		greenType=((ScalarProperty)element.properties.get(greenIndex)).type;
+		blueType=((ScalarProperty)element.properties.get(blueIndex)).type;
+		redOffset=element.propertyOffset(redIndex);
+		greenOffset=element.propertyOffset(greenIndex);
+		blueOffset=element.propertyOffset(blueIndex);
+	}
+
+	@Override
+	public Color getPointColor(int index) {
+		if (index<0 || index>=getPointCount()) throw new IndexOutOfBoundsException("Invalid point index: "+index);
+		long base=(long)index*stride;
+		return new Color(
+				component(redType, data.getDouble(redType, base+redOffset)),
+				component(greenType, data.getDouble(greenType, base+greenOffset)),
+				component(blueType, data.getDouble(blueType, base+blueOffset)));
+	}
+
+	private static int component(Type type, double value) {
+		return Math.min(Math.max(type.colorComponent(value), 0), 255);
+	}
+}
@@ -0,0 +1,89 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only memory mapped region of a file that can be larger than 2 GB. The region is mapped in chunks, each of
+ * which extends a few bytes into the next one, so that any single value can be read from one chunk. The object is
+ * safe for use by multiple threads.
+ * @author Kazó Csaba
+ */
+class MappedFile {
+	private static final int CHUNK_BITS=30;
+	private static final long CHUNK_MASK=(1L<<CHUNK_BITS)-1;
+	/** The number of bytes by which chunks overlap; the size of the largest value. */
+	private static final int OVERLAP=8;
+
+	private final ByteBuffer[] chunks;
+	private final long length;
+
+	/**
+	 * Maps a region of a file.
+	 * @param channel the channel of the file; it can be closed after the constructor returns
+	 * @param offset the offset of the start of the region in the file
+	 * @param length the length of the region
+	 * @param byteOrder the byte order of the values
+	 * @throws IOException if an I/O error occurs
+	 */
+	public MappedFile(FileChannel channel, long offset, long length, ByteOrder byteOrder) throws IOException {
+		this.length=length;
+		chunks=new ByteBuffer[(int)((length+CHUNK_MASK)>>>CHUNK_BITS)];
+		for (int i=0; i<chunks.length; i++) {
+			long start=(long)i<<CHUNK_BITS;
+			long size=Math.min(CHUNK_MASK+1+OVERLAP, length-start);
+			chunks[i]=channel.map(FileChannel.MapMode.READ_ONLY, offset+start, size).order(byteOrder);
+		}
+	}
+
+	/**
+	 * Maps a region of a file.
+	 * @param file the file to map
+	 * @param offset the offset of the start of the region in the file
+	 * @param length the length of the region, or -1 to map until the end of the file
+	 * @param byteOrder the byte order of the values
+	 * @return the mapped region
+	 * @throws InvalidPlyFormatException if the file is shorter than the region
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static MappedFile map(Path file, long offset, long length, ByteOrder byteOrder) throws IOException {
+		try (FileChannel channel=FileChannel.open(file, StandardOpenOption.READ)) {
+			long size=channel.size();
+			if (length==-1) length=Math.max(0, size-offset);
+			if (offset+length>size) throw new InvalidPlyFormatException("Unexpected end of file");
+			return new MappedFile(channel, offset, length, byteOrder);
+		}
+	}
+
+	/**
+	 * Returns the length of the region.
+	 * @return the number of bytes mapped
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Reads a value as a double.
+	 * @param type the type of the value
+	 * @param position the position of the value relative to the start of the region
+	 * @return the value
+	 */
+	public double getDouble(Type type, long position) {
+		return type.getDouble(chunks[(int)(position>>>CHUNK_BITS)], (int)(position & CHUNK_MASK));
+	}
+
+	/**
+	 * Reads a value as a long.
+	 * @param type the type of the value
+	 * @param position the position of the value relative to the start of the region
+	 * @return the value, truncated if it is a floating point value
+	 */
+	public long getLong(Type type, long position) {
+		return type.getLong(chunks[(int)(position>>>CHUNK_BITS)], (int)(position & CHUNK_MASK));
+	}
+}
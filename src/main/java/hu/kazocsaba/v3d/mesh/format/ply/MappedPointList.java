@@ -0,0 +1,52 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.PointList;
+
+/**
+ * A point list that decodes the vertices from a memory mapped binary file on demand.
+ * @author Kazó Csaba
+ */
+class MappedPointList implements PointList {
+	final MappedFile data;
+	private final int count;
+	final int stride;
+	private final Type xType, yType, zType;
+	private final int xOffset, yOffset, zOffset;
+
+	/**
+	 * Creates a new point list.
+	 * @param data the mapped vertex element
+	 * @param element the vertex element; it must have a fixed record size and at most {@code Integer.MAX_VALUE} instances
+	 * @param xIndex the index of the x property
+	 * @param yIndex the index of the y property
+	 * @param zIndex the index of the z property
+	 */
+	public MappedPointList(MappedFile data, Element element, int xIndex, int yIndex, int zIndex) {
+		this.data = data;
+		count=(int)element.count;
+		stride=element.recordSize();
+		xType=((ScalarProperty)element.properties.get(xIndex)).type;
+		yType=((ScalarProperty)element.properties.get(yIndex)).type;
+		zType=((ScalarProperty)element.properties.get(zIndex)).type;
+		xOffset=element.propertyOffset(xIndex);
+		yOffset=element.propertyOffset(yIndex);
+		zOffset=element.propertyOffset(zIndex);
+	}
+
+	@Override
+	public int getPointCount() {
+		return count;
+	}
+
+	@Override
+	public Vector3 getPoint(int index) {
+		if (index<0 || index>=count) throw new IndexOutOfBoundsException("Invalid point index: "+index);
+		long base=(long)index*stride;
+		return MatrixFactory.createVector(
+				data.getDouble(xType, base+xOffset),
+				data.getDouble(yType, base+yOffset),
+				data.getDouble(zType, base+zOffset));
+	}
+}
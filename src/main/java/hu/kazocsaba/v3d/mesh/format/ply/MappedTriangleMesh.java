@@ -0,0 +1,179 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.Triangle;
+
+/**
+ * A mesh that decodes vertices and triangles from a memory mapped binary file on demand.
+ * <p>
+ * Since faces are stored as lists, the location of a face cannot be computed without reading the ones before it.
+ * On the first access to the faces, the face element is scanned once to find the triangles. If every face is a
+ * triangle and every face record has the same size, then the triangles are located by their index; otherwise a table
+ * of their offsets is built. Format errors found during the scan are thrown as {@link UncheckedIOException}s wrapping
+ * an {@link InvalidPlyFormatException}.
+ * @author Kazó Csaba
+ */
+class MappedTriangleMesh implements IndexedTriangleMesh {
+	private final PointList vertices;
+	private final MappedFile faces;
+	private final Element faceElement;
+	private final int indicesPropIndex;
+	private final Type indexType;
+	private volatile FaceTable faceTable;
+
+	private static class FaceTable {
+		final int triangleCount;
+		/** The size of a face record if all faces are triangles of the same size, otherwise -1. */
+		final long stride;
+		/** The offset of the indices within a face record, if the stride is fixed. */
+		final long indexOffset;
+		/**
+		 * The offset of the indices of each triangle, shifted left by one; the lowest bit is set for the second
+		 * triangle of a quad. Only used if the stride is not fixed.
+		 */
+		final long[] triangles;
+
+		public FaceTable(int triangleCount, long stride, long indexOffset, long[] triangles) {
+			this.triangleCount = triangleCount;
+			this.stride = stride;
+			this.indexOffset = indexOffset;
+			this.triangles = triangles;
+		}
+	}
+
+	/**
+	 * Creates a new mesh.
+	 * @param vertices the vertices of the mesh
+	 * @param faces the mapped region starting with the face element
+	 * @param faceElement the face element
+	 * @param indicesPropIndex the index of the vertex_indices property of the face element
+	 */
+	public MappedTriangleMesh(PointList vertices, MappedFile faces, Element faceElement, int indicesPropIndex) {
+		this.vertices = vertices;
+		this.faces = faces;
+		this.faceElement = faceElement;
+		this.indicesPropIndex = indicesPropIndex;
+		indexType=((ListProperty)faceElement.properties.get(indicesPropIndex)).elemType;
+	}
+
+	private FaceTable faceTable() {
+		FaceTable table=faceTable;
+		if (table==null) {
+			synchronized (this) {
+				table=faceTable;
+				if (table==null) {
+					try {
+						table=scan(false);
+						if (table==null) table=scan(true);
+					} catch (InvalidPlyFormatException e) {
+						throw new UncheckedIOException(e);
+					}
+					faceTable=table;
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Scans the face element.
+	 * @param buildTable whether to build the triangle offset table
+	 * @return the face table, or {@code null} if {@code buildTable} is {@code false} and the faces do not have a fixed
+	 * stride
+	 */
+	private FaceTable scan(boolean buildTable) throws InvalidPlyFormatException {
+		long[] triangles=buildTable ? new long[(int)Math.min(faceElement.count, Integer.MAX_VALUE)] : null;
+		long triangleCount=0;
+		long stride=-1, indexOffset=-1;
+		long position=0;
+		for (long faceIndex=0; faceIndex<faceElement.count; faceIndex++) {
+			long recordStart=position;
+			long indices=-1;
+			int vertexCount=-1;
+			for (int propIndex=0; propIndex<faceElement.properties.size(); propIndex++) {
+				Property prop=faceElement.properties.get(propIndex);
+				if (prop instanceof ListProperty) {
+					ListProperty lp=(ListProperty)prop;
+					if (position+lp.countType.size>faces.length()) throw new InvalidPlyFormatException("Unexpected end of file");
+					long count=faces.getLong(lp.countType, position);
+					position+=lp.countType.size;
+					if (propIndex==indicesPropIndex) {
+						if (count<3) throw new InvalidPlyFormatException("Face with "+count+" vertices");
+						if (count>4) throw new InvalidPlyFormatException("Cannot handle faces with more than 4 vertices");
+						indices=position;
+						vertexCount=(int)count;
+					} else if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
+					position+=count*lp.elemType.size;
+				} else {
+					position+=((ScalarProperty)prop).type.size;
+				}
+			}
+			if (position>faces.length()) throw new InvalidPlyFormatException("Unexpected end of file");
+			if (buildTable) {
+				if (triangleCount+vertexCount-2>Integer.MAX_VALUE) throw new InvalidPlyFormatException("Too many triangles");
+				if (triangleCount+vertexCount-2>triangles.length)
+					triangles=Arrays.copyOf(triangles, (int)Math.min(Integer.MAX_VALUE, Math.max(triangles.length*3L/2, triangleCount+vertexCount-2)));
+				triangles[(int)triangleCount]=indices<<1;
+				if (vertexCount==4) triangles[(int)triangleCount+1]=(indices<<1) | 1;
+			} else {
+				if (vertexCount!=3) return null;
+				if (triangleCount==Integer.MAX_VALUE) throw new InvalidPlyFormatException("Too many triangles");
+				if (faceIndex==0) {
+					stride=position-recordStart;
+					indexOffset=indices-recordStart;
+				} else if (position-recordStart!=stride || indices-recordStart!=indexOffset)
+					return null;
+			}
+			triangleCount+=vertexCount-2;
+		}
+		if (buildTable) {
+			if (triangles.length!=triangleCount) triangles=Arrays.copyOf(triangles, (int)triangleCount);
+			return new FaceTable((int)triangleCount, -1, -1, triangles);
+		} else
+			return new FaceTable((int)triangleCount, stride, indexOffset, null);
+	}
+
+	@Override
+	public int getPointCount() {
+		return vertices.getPointCount();
+	}
+
+	@Override
+	public Vector3 getPoint(int index) {
+		return vertices.getPoint(index);
+	}
+
+	@Override
+	public int getTriangleCount() {
+		return faceTable().triangleCount;
+	}
+
+	@Override
+	public int getTrianglePointIndex(int triangle, int point) {
+		if (point<0 || point>2) throw new IndexOutOfBoundsException("Invalid triangle point index: "+point);
+		FaceTable table=faceTable();
+		if (triangle<0 || triangle>=table.triangleCount) throw new IndexOutOfBoundsException("Invalid triangle index: "+triangle);
+		long position;
+		if (table.stride!=-1) {
+			position=triangle*table.stride+table.indexOffset+point*indexType.size;
+		} else {
+			long entry=table.triangles[triangle];
+			// the second triangle of a quad consists of its vertices 0, 2 and 3
+			int vertex=(entry & 1)==0 || point==0 ? point : point+1;
+			position=(entry>>>1)+vertex*indexType.size;
+		}
+		return (int)faces.getLong(indexType, position);
+	}
+
+	@Override
+	public Triangle getTriangle(int index) {
+		return new Triangle(
+				getPoint(getTrianglePointIndex(index, 0)),
+				getPoint(getTrianglePointIndex(index, 1)),
+				getPoint(getTrianglePointIndex(index, 2)));
+	}
+}
@@ -0,0 +1,51 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+
+/**
+ * Thrown when loading a file would need more memory than the budget set by
+ * {@link PlyReader#setMemoryBudget(long)}. The exception is thrown before any data is decoded.
+ * @author Kazó Csaba
+ */
+public class MemoryBudgetExceededException extends IOException {
+	private final LoadMode mode;
+	private final long estimate;
+	private final long budget;
+
+	/**
+	 * Creates a new exception.
+	 * @param mode the load mode that was attempted
+	 * @param estimate the estimated number of bytes needed
+	 * @param budget the memory budget in bytes
+	 */
+	public MemoryBudgetExceededException(LoadMode mode, long estimate, long budget) {
+		super("Loading the file as "+mode+" needs an estimated "+estimate+" bytes, the budget is "+budget+" bytes");
+		this.mode = mode;
+		this.estimate = estimate;
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the load mode that was attempted.
+	 * @return the load mode exceeding the budget
+	 */
+	public LoadMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the estimated memory needed by the load.
+	 * @return the estimated number of bytes
+	 */
+	public long getEstimate() {
+		return estimate;
+	}
+
+	/**
+	 * Returns the memory budget.
+	 * @return the budget in bytes
+	 */
+	public long getBudget() {
+		return budget;
+	}
+}
@@ -0,0 +1,36 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+/**
+ * Estimates of the memory occupied by the objects created when loading PLY files. The sizes assume a 64-bit JVM with
+ * compressed references, which has 12-byte object headers, 16-byte array headers and 4-byte references.
+ * @author Kazó Csaba
+ */
+final class MemoryFootprint {
+	/** A parsed header. */
+	static final long HEADER=1024;
+	/** A vertex of a point list or mesh: a vector object (16), its array of three doubles (40) and a reference (4). */
+	static final long VERTEX=60;
+	/** A vertex color: a {@code Color} object (32) and a reference (4). */
+	static final long COLOR=36;
+	/**
+	 * A triangle of a mesh: an array of three ints (32) and a reference (4), plus the unused capacity of the list,
+	 * which grows as the faces are read.
+	 */
+	static final long TRIANGLE=40;
+
+	private MemoryFootprint() {}
+
+	/**
+	 * Returns the size of a point list of vector objects.
+	 */
+	static long pointList(long vertexCount, boolean colors) {
+		return vertexCount*(VERTEX+(colors ? COLOR : 0));
+	}
+
+	/**
+	 * Returns the size of a mesh of vector and array objects.
+	 */
+	static long mesh(long vertexCount, long triangleCount) {
+		return vertexCount*VERTEX+triangleCount*TRIANGLE;
+	}
+}
@@ -0,0 +1,190 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+
+/**
+ * A mesh along with its adjacency tables in compressed sparse row (CSR) form. A CSR table consists of an offset array
+ * with one more element than the number of vertices, and a data array: the entries belonging to vertex {@code v} are
+ * at indices {@code offsets[v]} (inclusive) to {@code offsets[v+1]} (exclusive) of the data array.
+ * <p>
+ * The half-edges of the mesh are numbered so that half-edge {@code 3*t+j} of triangle {@code t} leads from vertex
+ * {@code j} to vertex {@code (j+1)%3} of the triangle. The twin of a half-edge from {@code a} to {@code b} is the
+ * half-edge from {@code b} to {@code a}. A half-edge has no twin if it lies on the boundary of the mesh, or if its edge
+ * is non-manifold, that is, more than one half-edge leads from {@code a} to {@code b} or from {@code b} to {@code a}.
+ * <p>
+ * The arrays returned by this class are not copied, and must not be modified.
+ * @author Kazó Csaba
+ * @see PlyReader#readMeshWithAdjacency()
+ */
+public final class MeshAdjacency {
+	private final IndexedTriangleMesh mesh;
+	private final int[] vertexFaceOffsets, vertexFaces;
+	private final int[] vertexNeighborOffsets, vertexNeighbors;
+	private final int[] halfEdgeTwins;
+
+	private MeshAdjacency(IndexedTriangleMesh mesh, int[] vertexFaceOffsets, int[] vertexFaces, int[] vertexNeighborOffsets, int[] vertexNeighbors, int[] halfEdgeTwins) {
+		this.mesh = mesh;
+		this.vertexFaceOffsets = vertexFaceOffsets;
+		this.vertexFaces = vertexFaces;
+		this.vertexNeighborOffsets = vertexNeighborOffsets;
+		this.vertexNeighbors = vertexNeighbors;
+		this.halfEdgeTwins = halfEdgeTwins;
+	}
+
+	/**
+	 * Builds the adjacency tables of a mesh. The tables are built in parallel, using the common fork-join pool.
+	 * @param mesh the mesh
+	 * @param triangles the vertex indices of the triangles of the mesh, three per triangle
+	 */
+	static MeshAdjacency build(IndexedTriangleMesh mesh, int[] triangles) {
+		int vertexCount=mesh.getPointCount();
+
+		// vertex -> faces: sort (vertex, face) pairs
+		long[] keys=new long[triangles.length];
+		IntStream.range(0, triangles.length).parallel().forEach(i -> keys[i]=(long)triangles[i]<<32 | i/3);
+		Arrays.parallelSort(keys);
+		int[] vertexFaceOffsets=offsets(keys, vertexCount);
+		int[] vertexFaces=new int[keys.length];
+		IntStream.range(0, keys.length).parallel().forEach(i -> vertexFaces[i]=(int)keys[i]);
+
+		// vertex -> vertices: sort the undirected edges, then the unique edges in both directions
+		long[] edges=new long[triangles.length];
+		IntStream.range(0, triangles.length).parallel().forEach(h -> {
+			int a=triangles[h], b=triangles[next(h)];
+			edges[h]=a==b ? Long.MAX_VALUE : (long)Math.min(a, b)<<32 | Math.max(a, b);
+		});
+		Arrays.parallelSort(edges);
+		int uniqueCount=0;
+		for (int i=0; i<edges.length && edges[i]!=Long.MAX_VALUE; i++)
+			if (i==0 || edges[i]!=edges[i-1]) edges[uniqueCount++]=edges[i];
+		final int edgeCount=uniqueCount;
+		long[] directed=new long[edgeCount*2];
+		IntStream.range(0, edgeCount).parallel().forEach(e -> {
+			long a=edges[e]>>>32, b=edges[e] & 0xFFFFFFFFL;
+			directed[e*2]=a<<32 | b;
+			directed[e*2+1]=b<<32 | a;
+		});
+		Arrays.parallelSort(directed);
+		int[] vertexNeighborOffsets=offsets(directed, vertexCount);
+		int[] vertexNeighbors=new int[directed.length];
+		IntStream.range(0, directed.length).parallel().forEach(i -> vertexNeighbors[i]=(int)directed[i]);
+
+		// half-edge twins: search the faces around the end vertex
+		int[] halfEdgeTwins=new int[triangles.length];
+		IntStream.range(0, triangles.length).parallel().forEach(h -> {
+			int a=triangles[h], b=triangles[next(h)];
+			halfEdgeTwins[h]=-1;
+			if (a==b || count(triangles, vertexFaceOffsets, vertexFaces, a, b)!=1) return;
+			for (int i=vertexFaceOffsets[b]; i<vertexFaceOffsets[b+1]; i++) {
+				int face=vertexFaces[i];
+				for (int j=0; j<3; j++) {
+					int g=face*3+j;
+					if (triangles[g]==b && triangles[next(g)]==a) {
+						if (halfEdgeTwins[h]!=-1) {
+							// multiple half-edges from b to a
+							halfEdgeTwins[h]=-1;
+							return;
+						}
+						halfEdgeTwins[h]=g;
+					}
+				}
+			}
+		});
+
+		return new MeshAdjacency(mesh, vertexFaceOffsets, vertexFaces, vertexNeighborOffsets, vertexNeighbors, halfEdgeTwins);
+	}
+
+	/**
+	 * Returns the next half-edge of the triangle.
+	 */
+	private static int next(int halfEdge) {
+		return halfEdge%3==2 ? halfEdge-2 : halfEdge+1;
+	}
+
+	/**
+	 * Returns the number of half-edges leading from {@code a} to {@code b}.
+	 */
+	private static int count(int[] triangles, int[] vertexFaceOffsets, int[] vertexFaces, int a, int b) {
+		int count=0;
+		for (int i=vertexFaceOffsets[a]; i<vertexFaceOffsets[a+1]; i++) {
+			int face=vertexFaces[i];
+			for (int j=0; j<3; j++)
+				if (triangles[face*3+j]==a && triangles[next(face*3+j)]==b) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Computes the CSR offsets of sorted keys whose upper 32 bits contain the row index.
+	 */
+	private static int[] offsets(long[] keys, int rowCount) {
+		int[] offsets=new int[rowCount+1];
+		IntStream.range(0, keys.length+1).parallel().forEach(i -> {
+			int previous=i==0 ? -1 : (int)(keys[i-1]>>>32);
+			int current=i==keys.length ? rowCount : (int)(keys[i]>>>32);
+			for (int row=previous+1; row<=current; row++)
+				offsets[row]=i;
+		});
+		return offsets;
+	}
+
+	/**
+	 * Returns the mesh.
+	 * @return the mesh the tables describe
+	 */
+	public IndexedTriangleMesh getMesh() {
+		return mesh;
+	}
+
+	/**
+	 * Returns the offsets of the vertex to face table.
+	 * @return the offsets into {@link #getVertexFaces()} for each vertex, followed by the length of that array
+	 */
+	public int[] getVertexFaceOffsets() {
+		return vertexFaceOffsets;
+	}
+
+	/**
+	 * Returns the faces using each vertex, in increasing order. A degenerate face using a vertex multiple times is
+	 * listed that many times.
+	 * @return the data array of the vertex to face table
+	 */
+	public int[] getVertexFaces() {
+		return vertexFaces;
+	}
+
+	/**
+	 * Returns the offsets of the vertex to vertex table.
+	 * @return the offsets into {@link #getVertexNeighbors()} for each vertex, followed by the length of that array
+	 */
+	public int[] getVertexNeighborOffsets() {
+		return vertexNeighborOffsets;
+	}
+
+	/**
+	 * Returns the vertices connected to each vertex by an edge, in increasing order, without duplicates.
+	 * @return the data array of the vertex to vertex table
+	 */
+	public int[] getVertexNeighbors() {
+		return vertexNeighbors;
+	}
+
+	/**
+	 * Returns the twin of each half-edge.
+	 * @return the index of the twin of each half-edge, or -1 for half-edges without a twin
+	 */
+	public int[] getHalfEdgeTwins() {
+		return halfEdgeTwins;
+	}
+
+	/**
+	 * Returns whether a half-edge has no twin, because it is on the boundary of the mesh or its edge is non-manifold.
+	 * @param halfEdge the index of the half-edge
+	 * @return {@code true} if the half-edge has no twin
+	 */
+	public boolean isBoundary(int halfEdge) {
+		return halfEdgeTwins[halfEdge]==-1;
+	}
+}
@@ -0,0 +1,150 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A growable block of native memory addressed by {@code long} positions. The memory is allocated as direct buffers of
+ * at most 1 GB each, so the total size is not limited by the size of a single buffer. Values must be accessed at
+ * positions that are multiples of their size; this guarantees that no value spans two buffers.
+ * <p>
+ * The memory is freed by {@link #free()} without waiting for the garbage collector, if the runtime allows it.
+ * Concurrent reads are safe, but writes and growing the buffer must not happen concurrently with other accesses.
+ * @author Kazó Csaba
+ */
+class OffHeapBuffer {
+	private static final int CHUNK_BITS=30;
+	private static final int CHUNK_SIZE=1<<CHUNK_BITS;
+	private static final long CHUNK_MASK=CHUNK_SIZE-1;
+
+	/** Frees the memory of a direct buffer, or {@code null} if the runtime doesn't allow it. */
+	private static final Deallocator DEALLOCATOR=findDeallocator();
+
+	private interface Deallocator {
+		void free(ByteBuffer buffer) throws Exception;
+	}
+
+	private ByteBuffer[] chunks=new ByteBuffer[0];
+	private long capacity=0;
+
+	/**
+	 * Creates a new buffer.
+	 * @param capacity the initial capacity in bytes
+	 */
+	public OffHeapBuffer(long capacity) {
+		ensureCapacity(capacity);
+	}
+
+	/**
+	 * Returns the number of bytes that can be accessed.
+	 * @return the capacity of the buffer
+	 */
+	public long capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Grows the buffer, if necessary, to hold at least the specified number of bytes. The contents are preserved.
+	 * @param required the required capacity
+	 */
+	public void ensureCapacity(long required) {
+		if (required<=capacity) return;
+		long newCapacity=Math.max(required, capacity+(capacity>>1));
+		int chunkCount=(int)((newCapacity+CHUNK_MASK)>>>CHUNK_BITS);
+		ByteBuffer[] newChunks=Arrays.copyOf(chunks, chunkCount);
+		for (int i=Math.max(0, chunks.length-1); i<chunkCount; i++) {
+			int size=(int)Math.min(CHUNK_SIZE, newCapacity-((long)i<<CHUNK_BITS));
+			ByteBuffer old=newChunks[i];
+			if (old!=null && old.capacity()>=size) continue;
+			ByteBuffer chunk=ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+			if (old!=null) {
+				old.clear();
+				chunk.put(old);
+				chunk.clear();
+				release(old);
+			}
+			newChunks[i]=chunk;
+		}
+		chunks=newChunks;
+		capacity=newCapacity;
+	}
+
+	private ByteBuffer chunk(long position) {
+		return chunks[(int)(position>>>CHUNK_BITS)];
+	}
+
+	public byte get(long position) {
+		return chunk(position).get((int)(position & CHUNK_MASK));
+	}
+
+	public void put(long position, byte value) {
+		chunk(position).put((int)(position & CHUNK_MASK), value);
+	}
+
+	public int getInt(long position) {
+		return chunk(position).getInt((int)(position & CHUNK_MASK));
+	}
+
+	public void putInt(long position, int value) {
+		chunk(position).putInt((int)(position & CHUNK_MASK), value);
+	}
+
+	public float getFloat(long position) {
+		return chunk(position).getFloat((int)(position & CHUNK_MASK));
+	}
+
+	public void putFloat(long position, float value) {
+		chunk(position).putFloat((int)(position & CHUNK_MASK), value);
+	}
+
+	public double getDouble(long position) {
+		return chunk(position).getDouble((int)(position & CHUNK_MASK));
+	}
+
+	public void putDouble(long position, double value) {
+		chunk(position).putDouble((int)(position & CHUNK_MASK), value);
+	}
+
+	/**
+	 * Frees the memory of the buffer. The buffer must not be accessed afterwards.
+	 */
+	public void free() {
+		for (ByteBuffer chunk: chunks)
+			release(chunk);
+		chunks=new ByteBuffer[0];
+		capacity=0;
+	}
+
+	private static void release(ByteBuffer buffer) {
+		if (DEALLOCATOR==null) return;
+		try {
+			DEALLOCATOR.free(buffer);
+		} catch (Exception e) {
+			// the memory is freed when the buffer is garbage collected
+		}
+	}
+
+	private static Deallocator findDeallocator() {
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass=Class.forName("sun.misc.Unsafe");
+			Field field=unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			final Object unsafe=field.get(null);
+			final Method invokeCleaner=unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			return buffer -> invokeCleaner.invoke(unsafe, buffer);
+		} catch (Exception e) {
+			// try the Java 8 way
+		}
+		try {
+			final Method cleaner=Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method clean=Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> clean.invoke(cleaner.invoke(buffer));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.Closeable;
+
+/**
+ * Vertices, vertex colors and triangles stored in native memory outside the Java heap. Unlike the point lists and
+ * meshes of the {@code hu.kazocsaba.v3d.mesh} package, an instance can hold more than {@code Integer.MAX_VALUE} vertices
+ * and triangles, and its size does not affect garbage collection.
+ * <p>
+ * Coordinates are stored in single precision if every coordinate type of the file can be represented as a
+ * {@code float} exactly, and in double precision otherwise. Vertex indices are stored as unsigned 32-bit integers.
+ * <p>
+ * The memory is freed by {@link #close()}; the object cannot be used afterwards. The contents can be read by multiple
+ * threads concurrently, but the object must not be closed while another thread is accessing it.
+ * @author Kazó Csaba
+ * @see PlyReader#readOffHeap()
+ */
+public final class OffHeapMesh implements Closeable {
+	private final long vertexCount;
+	private final boolean doublePrecision;
+	private final OffHeapBuffer coordinates;
+	private final OffHeapBuffer colors;
+	private final OffHeapBuffer triangles;
+	private long addedVertices=0, addedColors=0, triangleCount=0;
+	private volatile boolean closed=false;
+
+	/**
+	 * Creates a new, empty mesh.
+	 * @param vertexCount the number of vertices
+	 * @param doublePrecision whether coordinates are stored as doubles
+	 * @param hasColors whether vertex colors are stored
+	 * @param expectedTriangles the expected number of triangles, or -1 if triangles are not stored
+	 */
+	OffHeapMesh(long vertexCount, boolean doublePrecision, boolean hasColors, long expectedTriangles) {
+		this.vertexCount = vertexCount;
+		this.doublePrecision = doublePrecision;
+		OffHeapBuffer coordinateBuffer=null, colorBuffer=null, triangleBuffer=null;
+		try {
+			coordinateBuffer=new OffHeapBuffer(vertexCount*3*(doublePrecision ? 8 : 4));
+			if (hasColors) colorBuffer=new OffHeapBuffer(vertexCount*3);
+			if (expectedTriangles!=-1) triangleBuffer=new OffHeapBuffer(expectedTriangles*12);
+		} catch (RuntimeException | Error e) {
+			if (coordinateBuffer!=null) coordinateBuffer.free();
+			if (colorBuffer!=null) colorBuffer.free();
+			throw e;
+		}
+		coordinates=coordinateBuffer;
+		colors=colorBuffer;
+		triangles=triangleBuffer;
+	}
+
+	void addVertex(double x, double y, double z) {
+		long position=addedVertices*3;
+		if (doublePrecision) {
+			coordinates.putDouble(position*8, x);
+			coordinates.putDouble(position*8+8, y);
+			coordinates.putDouble(position*8+16, z);
+		} else {
+			coordinates.putFloat(position*4, (float)x);
+			coordinates.putFloat(position*4+4, (float)y);
+			coordinates.putFloat(position*4+8, (float)z);
+		}
+		addedVertices++;
+	}
+
+	void addColor(int red, int green, int blue) throws InvalidPlyFormatException {
+		if (((red | green | blue) & ~0xFF)!=0) throw new InvalidPlyFormatException("Invalid color: "+red+" "+green+" "+blue);
+		long position=addedColors*3;
+		colors.put(position, (byte)red);
+		colors.put(position+1, (byte)green);
+		colors.put(position+2, (byte)blue);
+		addedColors++;
+	}
+
+	void addTriangle(long v1, long v2, long v3) {
+		long position=triangleCount*12;
+		triangles.ensureCapacity(position+12);
+		triangles.putInt(position, (int)v1);
+		triangles.putInt(position+4, (int)v2);
+		triangles.putInt(position+8, (int)v3);
+		triangleCount++;
+	}
+
+	private void checkOpen() {
+		if (closed) throw new IllegalStateException("Closed");
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 * @return the number of vertices
+	 */
+	public long getVertexCount() {
+		return vertexCount;
+	}
+
+	private double coordinate(long vertex, int axis) {
+		checkOpen();
+		if (vertex<0 || vertex>=vertexCount) throw new IndexOutOfBoundsException("Invalid vertex index: "+vertex);
+		long position=vertex*3+axis;
+		return doublePrecision ? coordinates.getDouble(position*8) : coordinates.getFloat(position*4);
+	}
+
+	/**
+	 * Returns the x coordinate of a vertex.
+	 * @param vertex the index of the vertex
+	 * @return the x coordinate of the vertex
+	 * @throws IndexOutOfBoundsException if the index is invalid
+	 * @throws IllegalStateException if the mesh is closed
+	 */
+	public double getX(long vertex) {
+		return coordinate(vertex, 0);
+	}
+
+	/**
+	 * Returns the y coordinate of a vertex.
+	 * @param vertex the index of the vertex
+	 * @return the y coordinate of the vertex
+	 * @throws IndexOutOfBoundsException if the index is invalid
+	 * @throws IllegalStateException if the mesh is closed
+	 */
+	public double getY(long vertex) {
+		return coordinate(vertex, 1);
+	}
+
+	/**
+	 * Returns the z coordinate of a vertex.
+	 * @param vertex the index of the vertex
+	 * @return the z coordinate of the vertex
+	 * @throws IndexOutOfBoundsException if the index is invalid
+	 * @throws IllegalStateException if the mesh is closed
+	 */
+	public double getZ(long vertex) {
+		return coordinate(vertex, 2);
+	}
+
+	/**
+	 * Returns whether vertex colors are stored.
+	 * @return {@code true} if {@link #getColor(long)} can be called
+	 */
+	public boolean hasColors() {
+		return colors!=null;
+	}
+
+	/**
+	 * Returns the color of a vertex.
+	 * @param vertex the index of the vertex
+	 * @return the color of the vertex in the form {@code 0xRRGGBB}
+	 * @throws IndexOutOfBoundsException if the index is invalid
+	 * @throws IllegalStateException if there are no colors, or the mesh is closed
+	 */
+	public int getColor(long vertex) {
+		if (colors==null) throw new IllegalStateException("No vertex colors");
+		checkOpen();
+		if (vertex<0 || vertex>=vertexCount) throw new IndexOutOfBoundsException("Invalid vertex index: "+vertex);
+		long position=vertex*3;
+		return (colors.get(position) & 0xFF)<<16 | (colors.get(position+1) & 0xFF)<<8 | (colors.get(position+2) & 0xFF);
+	}
+
+	/**
+	 * Returns whether triangles are stored.
+	 * @return {@code true} if the file had faces
+	 */
+	public boolean hasTriangles() {
+		return triangles!=null;
+	}
+
+	/**
+	 * Returns the number of triangles. Quadrilateral faces of the file are stored as two triangles.
+	 * @return the number of triangles, 0 if there are no triangles
+	 */
+	public long getTriangleCount() {
+		return triangleCount;
+	}
+
+	/**
+	 * Returns the index of a vertex of a triangle.
+	 * @param triangle the index of the triangle
+	 * @param point the index of the vertex within the triangle: 0, 1 or 2
+	 * @return the index of the vertex
+	 * @throws IndexOutOfBoundsException if an index is invalid
+	 * @throws IllegalStateException if the mesh is closed
+	 */
+	public long getTrianglePointIndex(long triangle, int point) {
+		checkOpen();
+		if (triangle<0 || triangle>=triangleCount) throw new IndexOutOfBoundsException("Invalid triangle index: "+triangle);
+		if (point<0 || point>2) throw new IndexOutOfBoundsException("Invalid triangle point index: "+point);
+		return triangles.getInt(triangle*12+point*4) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Frees the memory used by this object. Calling this function more than once has no effect.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) return;
+		closed=true;
+		coordinates.free();
+		if (colors!=null) colors.free();
+		if (triangles!=null) triangles.free();
+	}
+}
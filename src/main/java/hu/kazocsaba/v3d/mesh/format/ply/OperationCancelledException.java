@@ -0,0 +1,16 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a read or write is stopped because its {@link CancellationToken} has been cancelled.
+ * @author Kazó Csaba
+ */
+public class OperationCancelledException extends InterruptedIOException {
+	/**
+	 * Creates a new exception.
+	 */
+	public OperationCancelledException() {
+		super("Operation cancelled");
+	}
+}
@@ -0,0 +1,123 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.PointList;
+
+/**
+ * A point list with a color for each point, stored as an {@code int} in the form {@code 0xRRGGBBAA}. Unlike
+ * {@link hu.kazocsaba.v3d.mesh.ColoredPointList}, this class doesn't use {@link java.awt.Color}, so it doesn't
+ * require the AWT classes to be loaded, and it takes 4 bytes per color instead of an object.
+ * <p>
+ * The color array is not copied, and must not be modified while the list is in use.
+ * @author Kazó Csaba
+ * @see PlyReader#readPackedColorVertices()
+ */
+public final class PackedColorPointList implements PointList {
+	private final PointList points;
+	private final int[] colors;
+	private final boolean hasAlpha;
+
+	/**
+	 * Creates a new point list.
+	 * @param points the points
+	 * @param colors the color of each point in the form {@code 0xRRGGBBAA}
+	 * @param hasAlpha whether the alpha components of the colors are meaningful; if {@code false}, they should be 255
+	 * @throws IllegalArgumentException if the number of colors is not equal to the number of points
+	 */
+	public PackedColorPointList(PointList points, int[] colors, boolean hasAlpha) {
+		if (points.getPointCount()!=colors.length) throw new IllegalArgumentException("Point and color count mismatch");
+		this.points = points;
+		this.colors = colors;
+		this.hasAlpha = hasAlpha;
+	}
+
+	/**
+	 * Packs the components of a color into an {@code int}.
+	 * @param red the red component, between 0 and 255
+	 * @param green the green component, between 0 and 255
+	 * @param blue the blue component, between 0 and 255
+	 * @param alpha the alpha component, between 0 and 255
+	 * @return the color in the form {@code 0xRRGGBBAA}
+	 * @throws IllegalArgumentException if a component is out of range
+	 */
+	public static int pack(int red, int green, int blue, int alpha) {
+		if (((red | green | blue | alpha) & ~0xFF)!=0) throw new IllegalArgumentException("Invalid color: "+red+" "+green+" "+blue+" "+alpha);
+		return red<<24 | green<<16 | blue<<8 | alpha;
+	}
+
+	@Override
+	public int getPointCount() {
+		return colors.length;
+	}
+
+	@Override
+	public Vector3 getPoint(int index) {
+		return points.getPoint(index);
+	}
+
+	/**
+	 * Returns whether the colors have alpha components.
+	 * @return {@code true} if the alpha components are meaningful, {@code false} if they are all 255
+	 */
+	public boolean hasAlpha() {
+		return hasAlpha;
+	}
+
+	/**
+	 * Returns the color of a point.
+	 * @param index the index of the point
+	 * @return the color of the point in the form {@code 0xRRGGBBAA}
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int getColor(int index) {
+		return colors[index];
+	}
+
+	/**
+	 * Returns the red component of the color of a point.
+	 * @param index the index of the point
+	 * @return the red component, between 0 and 255
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int getRed(int index) {
+		return colors[index]>>>24;
+	}
+
+	/**
+	 * Returns the green component of the color of a point.
+	 * @param index the index of the point
+	 * @return the green component, between 0 and 255
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int getGreen(int index) {
+		return colors[index]>>>16 & 0xFF;
+	}
+
+	/**
+	 * Returns the blue component of the color of a point.
+	 * @param index the index of the point
+	 * @return the blue component, between 0 and 255
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int getBlue(int index) {
+		return colors[index]>>>8 & 0xFF;
+	}
+
+	/**
+	 * Returns the alpha component of the color of a point.
+	 * @param index the index of the point
+	 * @return the alpha component, between 0 and 255
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int getAlpha(int index) {
+		return colors[index] & 0xFF;
+	}
+
+	/**
+	 * Returns the colors of the points. The array is not copied, and must not be modified.
+	 * @return the color of each point in the form {@code 0xRRGGBBAA}
+	 */
+	public int[] getColors() {
+		return colors;
+	}
+}
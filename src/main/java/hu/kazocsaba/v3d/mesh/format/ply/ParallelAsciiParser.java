@@ -0,0 +1,381 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Parses the body of an ASCII PLY file in parallel, assuming that each record is on its own line. The body is divided
+ * into chunks of whole lines, and the lines in each chunk are counted in parallel. The records of the elements are
+ * then located using the element counts of the header, and the chunks are parsed concurrently, each record being
+ * passed to the handler of its element.
+ * <p>
+ * If the body does not consist of exactly one line per record, or a line cannot be parsed, the parser reports failure
+ * instead of throwing an exception, so that the caller can fall back to sequential parsing, which reports format errors
+ * accurately.
+ * @author Kazó Csaba
+ */
+class ParallelAsciiParser implements Closeable {
+	/** The maximum size of a chunk, which is read into memory at once. */
+	private static final int MAX_CHUNK_SIZE=8<<20;
+
+	/**
+	 * Receives the records of an element. Handlers are called concurrently from multiple threads, but each record is
+	 * passed to them only once.
+	 */
+	interface RecordHandler {
+		/**
+		 * Parses a record, reading the values of all properties from the tokenizer in order.
+		 * @param index the index of the record within its element
+		 * @param tokens the tokenizer positioned at the start of the record
+		 */
+		void record(long index, Tokenizer tokens);
+	}
+
+	/**
+	 * Thrown when a line doesn't match the record it should contain. It carries no stack trace, since it is used for
+	 * control flow only.
+	 */
+	private static class MisalignedException extends RuntimeException {
+		public MisalignedException() {
+			super(null, null, false, false);
+		}
+	}
+
+	private final FileChannel channel;
+	private final List<Element> elements;
+	private final int parallelism;
+	private final Progress progress;
+	/** The offset of the start of each chunk, followed by the end of the body. */
+	private long[] chunkStarts;
+	/** The index of the first line of each chunk, followed by the number of lines. */
+	private long[] chunkLines;
+	/** The index of the line of the first record of each element. */
+	private final long[] elementLines;
+
+	private ParallelAsciiParser(Path file, Header header, int parallelism, Progress progress) throws IOException {
+		elements=header.elements;
+		elementLines=new long[elements.size()+1];
+		for (int i=0; i<elements.size(); i++)
+			elementLines[i+1]=elementLines[i]+elements.get(i).count;
+		channel=FileChannel.open(file, StandardOpenOption.READ);
+		this.parallelism = parallelism;
+		this.progress = progress;
+	}
+
+	/**
+	 * Opens a file for parallel parsing, and locates the lines of its body.
+	 * @param file the file
+	 * @param header the header of the file
+	 * @param parallelism the number of threads to use
+	 * @param progress the tracker receiving the number of records and bytes parsed
+	 * @return the parser, or {@code null} if the body does not consist of one line per record
+	 * @throws IOException if an I/O error occurs
+	 */
+	static ParallelAsciiParser open(Path file, Header header, int parallelism, Progress progress) throws IOException {
+		ParallelAsciiParser parser=new ParallelAsciiParser(file, header, parallelism, progress);
+		try {
+			if (parser.split(header.bodyOffset, parallelism)) return parser;
+			parser.close();
+			return null;
+		} catch (IOException | RuntimeException | Error e) {
+			parser.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Divides the body into chunks of whole lines, and counts their lines.
+	 * @return whether the number of lines equals the number of records
+	 */
+	private boolean split(long bodyOffset, int parallelism) throws IOException {
+		long end=channel.size();
+		long length=end-bodyOffset;
+		long chunkCount=Math.max(parallelism*4L, (length+MAX_CHUNK_SIZE-1)/MAX_CHUNK_SIZE);
+		long chunkSize=Math.max(1, (length+chunkCount-1)/chunkCount);
+		List<Long> starts=new ArrayList<>();
+		starts.add(bodyOffset);
+		long position=bodyOffset+chunkSize;
+		while (position<end) {
+			// move the boundary after the next line break
+			long lineStart=nextLineStart(position-1, end);
+			if (lineStart>=end) break;
+			starts.add(lineStart);
+			position=lineStart+chunkSize;
+		}
+		chunkStarts=new long[starts.size()+1];
+		for (int i=0; i<starts.size(); i++)
+			chunkStarts[i]=starts.get(i);
+		chunkStarts[starts.size()]=end;
+
+		final long[] counts=new long[starts.size()];
+		List<Callable<Void>> tasks=new ArrayList<>();
+		for (int i=0; i<counts.length; i++) {
+			final int chunk=i;
+			tasks.add(() -> {
+				progress.check();
+				byte[] data=read(chunk);
+				long lines=0;
+				for (byte b: data)
+					if (b=='\n') lines++;
+				if (chunk==counts.length-1 && !isBlank(data, lastLineStart(data), data.length)) lines++; // unterminated last line
+				counts[chunk]=lines;
+				return null;
+			});
+		}
+		run(tasks);
+		chunkLines=new long[counts.length+1];
+		for (int i=0; i<counts.length; i++)
+			chunkLines[i+1]=chunkLines[i]+counts[i];
+		return chunkLines[counts.length]==elementLines[elements.size()];
+	}
+
+	private long nextLineStart(long position, long end) throws IOException {
+		ByteBuffer buffer=ByteBuffer.allocate(4096);
+		while (position<end) {
+			buffer.clear();
+			int read=channel.read(buffer, position);
+			if (read<=0) return end;
+			for (int i=0; i<read; i++)
+				if (buffer.get(i)=='\n') return position+i+1;
+			position+=read;
+		}
+		return end;
+	}
+
+	private static int lastLineStart(byte[] data) {
+		int i=data.length;
+		while (i>0 && data[i-1]!='\n') i--;
+		return i;
+	}
+
+	private static boolean isBlank(byte[] data, int from, int to) {
+		for (int i=from; i<to; i++)
+			if (!Tokenizer.isSpace(data[i])) return false;
+		return true;
+	}
+
+	private byte[] read(int chunk) throws IOException {
+		long start=chunkStarts[chunk];
+		byte[] data=new byte[(int)(chunkStarts[chunk+1]-start)];
+		ByteBuffer buffer=ByteBuffer.wrap(data);
+		while (buffer.hasRemaining()) {
+			int read=channel.read(buffer, start+buffer.position());
+			if (read==-1) throw new InvalidPlyFormatException("Unexpected end of file: file has been modified");
+		}
+		return data;
+	}
+
+	/**
+	 * Parses the records of the elements that have a handler.
+	 * @param handlers the handler of each element of the file, or {@code null} for the elements to skip
+	 * @return {@code true} if all records were parsed, {@code false} if a line didn't match its record
+	 * @throws IOException if an I/O error occurs
+	 */
+	boolean parse(final RecordHandler[] handlers) throws IOException {
+		final AtomicBoolean misaligned=new AtomicBoolean(false);
+		List<Callable<Void>> tasks=new ArrayList<>();
+		for (int i=0; i<chunkStarts.length-1; i++) {
+			final int chunk=i;
+			if (!needed(handlers, chunkLines[chunk], chunkLines[chunk+1])) {
+				progress.elements(chunkLines[chunk+1]-chunkLines[chunk]);
+				continue;
+			}
+			tasks.add(() -> {
+				if (misaligned.get()) return null;
+				try {
+					parseChunk(chunk, handlers);
+				} catch (MisalignedException e) {
+					misaligned.set(true);
+				}
+				return null;
+			});
+		}
+		run(tasks);
+		return !misaligned.get();
+	}
+
+	/**
+	 * Returns whether a range of lines contains records of an element with a handler.
+	 */
+	private boolean needed(RecordHandler[] handlers, long firstLine, long endLine) {
+		for (int e=0; e<handlers.length; e++)
+			if (handlers[e]!=null && elementLines[e]<endLine && elementLines[e+1]>firstLine) return true;
+		return false;
+	}
+
+	private void parseChunk(int chunk, RecordHandler[] handlers) throws IOException {
+		byte[] data=read(chunk);
+		Tokenizer tokens=new Tokenizer(data);
+		int element=0;
+		for (long line=chunkLines[chunk]; line<chunkLines[chunk+1]; line++) {
+			while (line>=elementLines[element+1]) element++;
+			int lineEnd=tokens.position;
+			while (lineEnd<data.length && data[lineEnd]!='\n') lineEnd++;
+			if (handlers[element]!=null) {
+				tokens.lineEnd=lineEnd;
+				handlers[element].record(line-elementLines[element], tokens);
+				tokens.endRecord();
+			}
+			tokens.position=lineEnd+1;
+		}
+		progress.bytes(data.length);
+		progress.elements(chunkLines[chunk+1]-chunkLines[chunk]);
+	}
+
+	private void run(List<Callable<Void>> tasks) throws IOException {
+		Workers.run(tasks, parallelism);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads the values of a record from a line. All errors, including the line ending too early, are thrown as
+	 * {@link MisalignedException}s.
+	 */
+	static class Tokenizer {
+		private final byte[] data;
+		int position=0;
+		int lineEnd;
+		private int tokenStart;
+
+		private Tokenizer(byte[] data) {
+			this.data = data;
+		}
+
+		static boolean isSpace(byte b) {
+			return b==' ' || b=='\t' || b=='\r' || b=='\n' || b=='\f' || b==0x0B;
+		}
+
+		/**
+		 * Moves to the next token, and returns its end.
+		 */
+		private int next() {
+			while (position<lineEnd && isSpace(data[position])) position++;
+			if (position==lineEnd) throw new MisalignedException();
+			tokenStart=position;
+			while (position<lineEnd && !isSpace(data[position])) position++;
+			return position;
+		}
+
+		/**
+		 * Reads a value of an integral type.
+		 */
+		long nextLong(Type type) {
+			int end=next();
+			int i=tokenStart;
+			boolean negative=false;
+			if (data[i]=='-' || data[i]=='+') {
+				negative=data[i]=='-';
+				i++;
+			}
+			if (i==end || end-i>18) {
+				// no digits, or the value may not fit in a long
+				try {
+					return checkRange(type, Long.parseLong(new String(data, tokenStart, end-tokenStart, StandardCharsets.US_ASCII)));
+				} catch (NumberFormatException e) {
+					throw new MisalignedException();
+				}
+			}
+			long value=0;
+			for (; i<end; i++) {
+				int digit=data[i]-'0';
+				if (digit<0 || digit>9) throw new MisalignedException();
+				value=value*10+digit;
+			}
+			return checkRange(type, negative ? -value : value);
+		}
+
+		private static long checkRange(Type type, long value) {
+			if (!type.contains(value)) throw new MisalignedException();
+			return value;
+		}
+
+		/**
+		 * Reads a value of any type as a double.
+		 */
+		double nextDouble(Type type) {
+			if (type.isIntegral()) return nextLong(type);
+			int end=next();
+			// other forms, such as the suffixes of Java literals, are left to the sequential parser to accept or reject
+			if (!isDecimal(tokenStart, end)) throw new MisalignedException();
+			String token=new String(data, tokenStart, end-tokenStart, StandardCharsets.US_ASCII);
+			try {
+				return type==Type.FLOAT ? Float.parseFloat(token) : Double.parseDouble(token);
+			} catch (NumberFormatException e) {
+				throw new MisalignedException();
+			}
+		}
+
+		/**
+		 * Returns whether a token is a plain decimal number, with an optional sign, fraction and exponent. These are
+		 * parsed the same way by {@link Float#parseFloat(String)} and the {@code Scanner} of the sequential parser.
+		 */
+		private boolean isDecimal(int start, int end) {
+			int i=start;
+			if (i<end && (data[i]=='-' || data[i]=='+')) i++;
+			int digits=0;
+			while (i<end && isDigit(data[i])) {
+				i++;
+				digits++;
+			}
+			if (i<end && data[i]=='.') {
+				i++;
+				while (i<end && isDigit(data[i])) {
+					i++;
+					digits++;
+				}
+			}
+			if (digits==0) return false;
+			if (i<end && (data[i]=='e' || data[i]=='E')) {
+				i++;
+				if (i<end && (data[i]=='-' || data[i]=='+')) i++;
+				if (i==end) return false;
+				while (i<end && isDigit(data[i])) i++;
+			}
+			return i==end;
+		}
+
+		private static boolean isDigit(byte b) {
+			return b>='0' && b<='9';
+		}
+
+		/**
+		 * Skips the value of a property. The values are parsed nevertheless, to find invalid ones.
+		 */
+		void skip(Property property) {
+			if (property instanceof ListProperty) {
+				ListProperty listProperty=(ListProperty)property;
+				long count=nextLong(listProperty.countType);
+				if (count<0) throw new MisalignedException();
+				for (long i=0; i<count; i++)
+					nextDouble(listProperty.elemType);
+			} else {
+				nextDouble(((ScalarProperty)property).type);
+			}
+		}
+
+		/**
+		 * Signals that the current record is misaligned with the line, or cannot be handled by the parallel parser.
+		 */
+		void fail() {
+			throw new MisalignedException();
+		}
+
+		private void endRecord() {
+			while (position<lineEnd && isSpace(data[position])) position++;
+			if (position!=lineEnd) throw new MisalignedException();
+		}
+	}
+}
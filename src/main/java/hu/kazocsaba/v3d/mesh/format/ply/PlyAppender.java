@@ -0,0 +1,215 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.PointList;
+
+/**
+ * Appends vertices to a binary PLY file in place. The new records are written at the end of the file in the format
+ * of the existing vertex element, and then the vertex count in the header is overwritten. The cost of an append is
+ * proportional to the number of new vertices, independent of the size of the file.
+ * <p>
+ * The new count must fit in the space the header has for it. Files written by a {@link PlyWriter} with
+ * {@linkplain PlyWriter#setAppendable(boolean) appendable} set have room for any count; in other files the count can
+ * only grow while it has no more digits than the original.
+ * <p>
+ * The appender holds a lock on the file while it is open, so that other processes cannot append to it at the same
+ * time. Instances are thread-safe.
+ * @author Kazó Csaba
+ * @see PlyReader#openAppender()
+ */
+public final class PlyAppender implements Closeable {
+	/** The width of the vertex count field written by {@link PlyWriter}, enough for any {@code long}. */
+	static final int COUNT_WIDTH=19;
+
+	private final FileChannel channel;
+	private final ByteOrder byteOrder;
+	private final BufferStrategy bufferStrategy;
+	private final Element vertexElement;
+	/** The role of each property of the vertex element. */
+	private final Role[] roles;
+	private final boolean hasColors;
+	/** The size of a new record, in which all lists are empty. */
+	private final int recordSize;
+	private long vertexCount;
+	/** The offset of the end of the body. */
+	private long end;
+	private boolean closed=false;
+
+	private enum Role {X, Y, Z, RED, GREEN, BLUE, ALPHA, OTHER}
+
+	/**
+	 * Opens a file for appending.
+	 * @param file the file
+	 * @param header the header of the file
+	 * @param vertexElement the vertex element, which must be followed only by elements without instances
+	 * @param propertyIndices the indices of the x, y, z, red, green, blue and alpha properties, -1 for missing ones
+	 * @param bufferStrategy the strategy for allocating buffers
+	 */
+	PlyAppender(Path file, Header header, Element vertexElement, int[] propertyIndices, BufferStrategy bufferStrategy) throws IOException {
+		this.byteOrder = header.format.byteOrder;
+		this.bufferStrategy = bufferStrategy;
+		this.vertexElement = vertexElement;
+		vertexCount=vertexElement.count;
+		roles=new Role[vertexElement.properties.size()];
+		Arrays.fill(roles, Role.OTHER);
+		for (int i=0; i<propertyIndices.length; i++)
+			if (propertyIndices[i]!=-1) roles[propertyIndices[i]]=Role.values()[i];
+		hasColors=propertyIndices[3]!=-1;
+		int size=0;
+		for (Property property: vertexElement.properties)
+			size+=property instanceof ListProperty ? ((ListProperty)property).countType.size : ((ScalarProperty)property).type.size;
+		recordSize=size;
+
+		channel=FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			channel.lock();
+			end=channel.size();
+			long expectedEnd=header.bodyOffset;
+			for (Element element: header.elements) {
+				if (element.count==0) continue;
+				int elementSize=element.recordSize();
+				if (elementSize==-1) {
+					// the size of the body cannot be computed from the header
+					expectedEnd=end;
+					break;
+				}
+				expectedEnd+=element.count*elementSize;
+			}
+			if (expectedEnd!=end) throw new InvalidPlyFormatException("File size doesn't match the header");
+		} catch (IOException | RuntimeException | Error e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Formats an element count padded with spaces to the specified width.
+	 */
+	static String formatCount(long count, int width) {
+		StringBuilder result=new StringBuilder(width).append(count);
+		while (result.length()<width) result.append(' ');
+		return result.toString();
+	}
+
+	/**
+	 * Returns the number of vertices in the file.
+	 * @return the current number of vertices, including the appended ones
+	 */
+	public synchronized long getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Appends vertices to the file. If the file has vertex colors, the points must have colors as well, either by
+	 * implementing {@link hu.kazocsaba.v3d.mesh.ColoredPointList} or being a {@link PackedColorPointList}. Colors
+	 * stored as floating point numbers are written in the [0, 1] range, and the alpha components are written if the
+	 * file has them. The vertex properties other than the coordinates and the colors are written as 0, and list
+	 * properties as empty lists. If the points have colors but the file doesn't, the colors are ignored.
+	 * <p>
+	 * The records are written before the count in the header is updated, so the file stays valid if the operation
+	 * fails. In that case the partially written records are removed from the end of the file.
+	 * @param points the vertices to append
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalStateException if the new vertex count doesn't fit in the header, or the appender is closed
+	 * @throws IllegalArgumentException if the file has vertex colors but the points don't, or a value cannot be
+	 * represented by the type of its property
+	 */
+	public synchronized void append(PointList points) throws IOException {
+		if (closed) throw new IllegalStateException("Appender is closed");
+		if (hasColors && !PlyWriter.hasColors(points)) throw new IllegalArgumentException("The points have no colors");
+		long newCount=vertexCount+points.getPointCount();
+		byte[] countText=formatCount(newCount, vertexElement.countWidth).getBytes(StandardCharsets.US_ASCII);
+		if (countText.length>vertexElement.countWidth) throw new IllegalStateException("The vertex count doesn't fit in the header");
+
+		ByteBuffer buffer=bufferStrategy.acquire();
+		ByteBuffer recordBuffer=buffer.capacity()>=recordSize ? buffer : ByteBuffer.allocate(recordSize);
+		recordBuffer.order(byteOrder);
+		long position=end;
+		try {
+			for (int i=0; i<points.getPointCount(); i++) {
+				if (recordBuffer.remaining()<recordSize) position=flush(recordBuffer, position);
+				putRecord(recordBuffer, points, i);
+			}
+			position=flush(recordBuffer, position);
+			channel.write(ByteBuffer.wrap(countText), vertexElement.countOffset);
+		} catch (IOException | RuntimeException | Error e) {
+			try {
+				channel.truncate(end);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		} finally {
+			bufferStrategy.release(buffer);
+		}
+		end=position;
+		vertexCount=newCount;
+	}
+
+	private long flush(ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position+=channel.write(buffer, position);
+		buffer.clear();
+		return position;
+	}
+
+	private void putRecord(ByteBuffer buffer, PointList points, int index) {
+		Vector3 point=points.getPoint(index);
+		int color=hasColors ? PlyWriter.packedColor(points, index) : 0;
+		for (int propIndex=0; propIndex<roles.length; propIndex++) {
+			Property property=vertexElement.properties.get(propIndex);
+			if (property instanceof ListProperty) {
+				((ListProperty)property).countType.write(buffer, 0);
+				continue;
+			}
+			Type type=((ScalarProperty)property).type;
+			switch (roles[propIndex]) {
+				case X: put(buffer, type, point.getX()); break;
+				case Y: put(buffer, type, point.getY()); break;
+				case Z: put(buffer, type, point.getZ()); break;
+				case RED: putColorComponent(buffer, type, color>>>24); break;
+				case GREEN: putColorComponent(buffer, type, color>>>16 & 0xFF); break;
+				case BLUE: putColorComponent(buffer, type, color>>>8 & 0xFF); break;
+				case ALPHA: putColorComponent(buffer, type, color & 0xFF); break;
+				default: put(buffer, type, 0);
+			}
+		}
+	}
+
+	private static void put(ByteBuffer buffer, Type type, double value) {
+		if (type==Type.FLOAT)
+			buffer.putFloat((float)value);
+		else if (type==Type.DOUBLE)
+			buffer.putDouble(value);
+		else
+			type.write(buffer, value);
+	}
+
+	private static void putColorComponent(ByteBuffer buffer, Type type, int component) {
+		if (type.isIntegral())
+			type.write(buffer, component);
+		else
+			put(buffer, type, component/255.0);
+	}
+
+	/**
+	 * Closes the file, releasing the lock on it. Calling this function on a closed appender has no effect.
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed=true;
+		channel.close();
+	}
+}
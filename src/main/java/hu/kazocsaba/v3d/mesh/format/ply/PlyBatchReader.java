@@ -0,0 +1,268 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMeshImpl;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.PointListImpl;
+
+/**
+ * Reads multiple PLY files concurrently, and merges their contents into a single mesh or point list. This is useful for
+ * data sets split into tiles.
+ * <p>
+ * The headers of the files are parsed when the reader is created, and the size of the merged result is computed from
+ * them. The files are then decoded concurrently, each one directly into its range of the merged vertex array, with the
+ * vertex indices of its faces offset by the start of the range. The vertices of the files follow each other in the
+ * order the files were specified, and so do their faces.
+ * <p>
+ * The files are read on a pool of threads created for each read, or on an executor specified at construction; on
+ * Java 21 or later, an executor using virtual threads can be passed. The reader can be used from multiple threads.
+ * @author Kazó Csaba
+ */
+public final class PlyBatchReader {
+	private final List<Path> files;
+	private final List<PlyReader> readers;
+	private final Executor executor;
+	private final int parallelism;
+	/** The index of the first vertex of each file in the merged result, followed by the total number of vertices. */
+	private final long[] vertexOffsets;
+	private final long faceCount;
+
+	/**
+	 * Creates a reader for a list of files, which reads them on a pool of threads with as many threads as there are
+	 * processors.
+	 * @param files the files to read
+	 * @throws IOException if an I/O error occurs while reading the headers
+	 * @throws InvalidPlyFormatException if the header of a file is invalid
+	 * @throws IllegalArgumentException if the list is empty
+	 */
+	public PlyBatchReader(List<Path> files) throws IOException, InvalidPlyFormatException {
+		this(files, null);
+	}
+
+	/**
+	 * Creates a reader for a list of files, which reads them on an executor.
+	 * @param files the files to read
+	 * @param executor the executor to read the files on, or {@code null} to use a pool of threads with as many threads
+	 * as there are processors
+	 * @throws IOException if an I/O error occurs while reading the headers
+	 * @throws InvalidPlyFormatException if the header of a file is invalid
+	 * @throws IllegalArgumentException if the list is empty
+	 */
+	public PlyBatchReader(List<Path> files, Executor executor) throws IOException, InvalidPlyFormatException {
+		if (files.isEmpty()) throw new IllegalArgumentException("No files");
+		this.files=Collections.unmodifiableList(new ArrayList<>(files));
+		this.executor=executor;
+		parallelism=Runtime.getRuntime().availableProcessors();
+
+		final PlyReader[] parsed=new PlyReader[this.files.size()];
+		List<Callable<Void>> tasks=new ArrayList<>(parsed.length);
+		for (int i=0; i<parsed.length; i++) {
+			final int index=i;
+			tasks.add(() -> {
+				parsed[index]=new PlyReader(this.files.get(index));
+				return null;
+			});
+		}
+		run(tasks);
+		readers=Arrays.asList(parsed);
+
+		vertexOffsets=new long[parsed.length+1];
+		long faces=0;
+		for (int i=0; i<parsed.length; i++) {
+			vertexOffsets[i+1]=vertexOffsets[i]+parsed[i].vertexCount();
+			faces+=parsed[i].faceCount();
+		}
+		faceCount=faces;
+	}
+
+	private void run(List<Callable<Void>> tasks) throws IOException {
+		if (executor==null)
+			Workers.run(tasks, parallelism);
+		else
+			Workers.run(tasks, executor);
+	}
+
+	/**
+	 * Returns the files read by this reader.
+	 * @return an unmodifiable list of the files
+	 */
+	public List<Path> getFiles() {
+		return files;
+	}
+
+	/**
+	 * Returns the total number of vertices in the files.
+	 * @return the number of vertices in the merged result
+	 */
+	public long getVertexCount() {
+		return vertexOffsets[readers.size()];
+	}
+
+	/**
+	 * Returns the total number of faces in the files. Since quadrilaterals are split into two triangles, the merged
+	 * mesh may contain more triangles than this.
+	 * @return the number of faces in the files
+	 */
+	public long getFaceCount() {
+		return faceCount;
+	}
+
+	/**
+	 * Returns whether all files contain vertex colors.
+	 * @return {@code true} if every file has vertex colors
+	 */
+	public boolean hasVertexColors() {
+		for (PlyReader reader: readers)
+			if (!reader.hasVertexColors()) return false;
+		return true;
+	}
+
+	/**
+	 * Returns whether all files contain faces.
+	 * @return {@code true} if every file has faces
+	 */
+	public boolean hasFaces() {
+		for (PlyReader reader: readers)
+			if (!reader.hasFaces()) return false;
+		return true;
+	}
+
+	/**
+	 * Reads the vertices of all files into a single point list.
+	 * @return the vertices of the files
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the format of a file is incorrect
+	 * @throws IllegalStateException if a file does not contain vertex data, or the files contain more vertices than a
+	 * point list can hold
+	 */
+	public PointList readVertices() throws IOException, InvalidPlyFormatException {
+		for (int i=0; i<readers.size(); i++)
+			if (!readers.get(i).hasVertices()) throw new IllegalStateException("No vertices in "+files.get(i));
+		Vector3[] vertices=allocateVertices();
+		decode(vertices, null, null);
+		return new PointListImpl(new ArrayList<>(Arrays.asList(vertices)));
+	}
+
+	/**
+	 * Reads the vertices of all files, along with their colors in packed form, into a single point list. The colors
+	 * have alpha components if any of the files has them; vertices of the other files are opaque.
+	 * @return the vertices of the files with their colors
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the format of a file is incorrect
+	 * @throws IllegalStateException if a file does not contain vertex colors, or the files contain more vertices than a
+	 * point list can hold
+	 */
+	public PackedColorPointList readPackedColorVertices() throws IOException, InvalidPlyFormatException {
+		boolean alpha=false;
+		for (int i=0; i<readers.size(); i++) {
+			if (!readers.get(i).hasVertexColors()) throw new IllegalStateException("No vertex colors in "+files.get(i));
+			alpha|=readers.get(i).hasVertexAlpha();
+		}
+		Vector3[] vertices=allocateVertices();
+		int[] colors=new int[vertices.length];
+		decode(vertices, colors, null);
+		return new PackedColorPointList(new PointListImpl(new ArrayList<>(Arrays.asList(vertices))), colors, alpha);
+	}
+
+	/**
+	 * Reads the meshes of all files, and merges them into a single mesh. Quadrilateral faces are split into two
+	 * triangles as in {@link PlyReader#readMesh()}.
+	 * @return the merged mesh
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the format of a file is incorrect
+	 * @throws IllegalStateException if a file doesn't contain any faces, or the files contain more vertices or faces
+	 * than a mesh can hold
+	 */
+	public IndexedTriangleMesh readMesh() throws IOException, InvalidPlyFormatException {
+		for (int i=0; i<readers.size(); i++)
+			if (!readers.get(i).hasFaces()) throw new IllegalStateException("No faces in "+files.get(i));
+		if (faceCount>Integer.MAX_VALUE) throw new IllegalStateException("Too many faces");
+		Vector3[] vertices=allocateVertices();
+		List<List<int[]>> triangles=new ArrayList<>(Collections.<List<int[]>>nCopies(readers.size(), null));
+		decode(vertices, null, triangles);
+
+		long triangleCount=0;
+		for (List<int[]> fileTriangles: triangles)
+			triangleCount+=fileTriangles.size();
+		if (triangleCount>Integer.MAX_VALUE) throw new IllegalStateException("Too many triangles");
+		List<int[]> merged=new ArrayList<>((int)triangleCount);
+		for (List<int[]> fileTriangles: triangles)
+			merged.addAll(fileTriangles);
+		return new IndexedTriangleMeshImpl(new ArrayList<>(Arrays.asList(vertices)), merged);
+	}
+
+	private Vector3[] allocateVertices() {
+		if (getVertexCount()>Integer.MAX_VALUE) throw new IllegalStateException("Too many vertices");
+		return new Vector3[(int)getVertexCount()];
+	}
+
+	/**
+	 * Decodes the files concurrently into the merged arrays.
+	 * @param vertices receives the vertices
+	 * @param colors receives the colors in the form {@code 0xRRGGBBAA}, or {@code null} to skip the colors
+	 * @param triangles receives the list of triangles of each file, or {@code null} to skip the faces
+	 */
+	private void decode(final Vector3[] vertices, final int[] colors, final List<List<int[]>> triangles) throws IOException {
+		List<Callable<Void>> tasks=new ArrayList<>(readers.size());
+		for (int i=0; i<readers.size(); i++) {
+			final int index=i;
+			tasks.add(() -> {
+				PlyReader reader=readers.get(index);
+				SliceSink sink=new SliceSink(vertices, colors, (int)vertexOffsets[index],
+						triangles==null ? null : new ArrayList<int[]>((int)reader.faceCount()));
+				reader.decode(sink, colors!=null, triangles!=null);
+				if (triangles!=null) triangles.set(index, sink.triangles);
+				return null;
+			});
+		}
+		run(tasks);
+	}
+
+	/**
+	 * A sink storing the data of a file into its range of the merged arrays.
+	 */
+	private static class SliceSink implements PlyReader.MeshSink {
+		private final Vector3[] vertices;
+		private final int[] colors;
+		private final int offset;
+		final List<int[]> triangles;
+		private int vertexIndex;
+		private int colorIndex;
+
+		public SliceSink(Vector3[] vertices, int[] colors, int offset, List<int[]> triangles) {
+			this.vertices = vertices;
+			this.colors = colors;
+			this.offset = offset;
+			this.triangles = triangles;
+			vertexIndex=offset;
+			colorIndex=offset;
+		}
+
+		@Override
+		public void vertex(double x, double y, double z) {
+			vertices[vertexIndex++]=MatrixFactory.createVector(x, y, z);
+		}
+
+		@Override
+		public void color(int red, int green, int blue, int alpha) throws InvalidPlyFormatException {
+			if (((red | green | blue | alpha) & ~0xFF)!=0) throw new InvalidPlyFormatException("Invalid color: "+red+" "+green+" "+blue+" "+alpha);
+			colors[colorIndex++]=PackedColorPointList.pack(red, green, blue, alpha);
+		}
+
+		@Override
+		public void triangle(long v1, long v2, long v3) {
+			// the total vertex count has been checked to fit in an int
+			triangles.add(new int[]{offset+(int)v1, offset+(int)v2, offset+(int)v3});
+		}
+	}
+}
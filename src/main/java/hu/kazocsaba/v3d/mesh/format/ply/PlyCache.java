@@ -0,0 +1,292 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.PointList;
+
+/**
+ * A cache of parsed PLY headers and decoded meshes and point lists, safe for use by multiple threads. Entries are keyed
+ * by the path, size and modification time of the file, so a file that is modified is read again, and the entries of
+ * its previous version are removed. When the estimated memory used by the cached objects exceeds the limit specified
+ * at construction, the least recently used entries are evicted.
+ * <p>
+ * If multiple threads request the same object at the same time, the file is only read once, and all threads receive
+ * the same object. The objects returned by the cache are shared, and must not be modified.
+ * @author Kazó Csaba
+ */
+public final class PlyCache {
+	private enum Kind {HEADER, VERTICES, MESH}
+
+	private static final class Key {
+		private final Path path;
+		private final long size;
+		private final long modified;
+		private final Kind kind;
+
+		public Key(Path path, long size, long modified, Kind kind) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.kind = kind;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other=(Key)obj;
+			return path.equals(other.path) && size==other.size && modified==other.modified && kind==other.kind;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash=path.hashCode();
+			hash=31*hash+Long.hashCode(size);
+			hash=31*hash+Long.hashCode(modified);
+			hash=31*hash+kind.hashCode();
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+		final CompletableFuture<Object> value=new CompletableFuture<>();
+		volatile long lastAccess=System.nanoTime();
+		/** The weight of the value, or -1 if it is not loaded yet. */
+		volatile long weight=-1;
+		/** Whether the entry has been removed from the map; guarded by the entry. */
+		boolean removed=false;
+	}
+
+	private final long maximumWeight;
+	private final ConcurrentHashMap<Key, Entry> entries=new ConcurrentHashMap<>();
+	private final AtomicLong weight=new AtomicLong();
+	private final ReentrantLock evictionLock=new ReentrantLock();
+
+	/**
+	 * Creates a new, empty cache.
+	 * @param maximumWeight the estimated number of bytes the cached objects may occupy
+	 * @throws IllegalArgumentException if the argument is negative
+	 */
+	public PlyCache(long maximumWeight) {
+		if (maximumWeight<0) throw new IllegalArgumentException("Negative maximum weight");
+		this.maximumWeight = maximumWeight;
+	}
+
+	/**
+	 * Returns a reader for the specified file. If the header of the file is cached, it is not parsed again. The
+	 * returned reader is not shared, its settings can be changed freely.
+	 * @param file the file to read
+	 * @return a reader for the file
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IOException if an I/O error occurs
+	 */
+	public PlyReader getReader(Path file) throws IOException, InvalidPlyFormatException {
+		return new PlyReader(header(file));
+	}
+
+	/**
+	 * Returns the vertices in the specified file, reading the file only if they are not cached.
+	 * @param file the file to read
+	 * @return the vertices of the file, as returned by {@link PlyReader#readVertices()}
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalStateException if the file does not contain vertex data
+	 */
+	public PointList getVertices(Path file) throws IOException, InvalidPlyFormatException {
+		return (PointList)get(file, Kind.VERTICES);
+	}
+
+	/**
+	 * Returns the mesh in the specified file, reading the file only if it is not cached.
+	 * @param file the file to read
+	 * @return the mesh contained in the file, as returned by {@link PlyReader#readMesh()}
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalStateException if the file doesn't contain any faces
+	 */
+	public IndexedTriangleMesh getMesh(Path file) throws IOException, InvalidPlyFormatException {
+		return (IndexedTriangleMesh)get(file, Kind.MESH);
+	}
+
+	/**
+	 * Removes all entries belonging to a file.
+	 * @param file the file whose entries to remove
+	 */
+	public void invalidate(Path file) {
+		Path path=file.toAbsolutePath().normalize();
+		for (Map.Entry<Key, Entry> e: entries.entrySet())
+			if (e.getKey().path.equals(path)) remove(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Map.Entry<Key, Entry> e: entries.entrySet())
+			remove(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Returns the estimated number of bytes occupied by the cached objects.
+	 * @return the weight of the loaded entries
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+
+	private PlyReader header(Path file) throws IOException {
+		return (PlyReader)get(file, Kind.HEADER);
+	}
+
+	private Object get(Path file, Kind kind) throws IOException {
+		Path path=file.toAbsolutePath().normalize();
+		BasicFileAttributes attributes=Files.readAttributes(path, BasicFileAttributes.class);
+		return get(new Key(path, attributes.size(), attributes.lastModifiedTime().toMillis(), kind));
+	}
+
+	private Object get(Key key) throws IOException {
+		Entry entry=entries.get(key);
+		if (entry==null) {
+			Entry newEntry=new Entry();
+			entry=entries.putIfAbsent(key, newEntry);
+			if (entry==null) {
+				// this thread is responsible for loading the value
+				removeOtherVersions(key);
+				load(key, newEntry);
+				entry=newEntry;
+			}
+		}
+		entry.lastAccess=System.nanoTime();
+		try {
+			return entry.value.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for "+key.path);
+		} catch (ExecutionException e) {
+			Throwable cause=e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private void load(Key key, Entry entry) {
+		Object value;
+		long valueWeight;
+		try {
+			switch (key.kind) {
+				case HEADER:
+					value=new PlyReader(key.path);
+					valueWeight=MemoryFootprint.HEADER;
+					break;
+				case VERTICES: {
+					PointList points=header(key).readVertices();
+					value=points;
+					valueWeight=MemoryFootprint.pointList(points.getPointCount(), points instanceof ColoredPointList);
+					break;
+				}
+				case MESH: {
+					IndexedTriangleMesh mesh=header(key).readMesh();
+					value=mesh;
+					valueWeight=MemoryFootprint.mesh(mesh.getPointCount(), mesh.getTriangleCount());
+					break;
+				}
+				default:
+					throw new AssertionError();
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			entries.remove(key, entry);
+			entry.value.completeExceptionally(e);
+			return;
+		}
+		if (!isCurrent(key)) {
+			// the file was modified while it was read, the value may not belong to the version in the key
+			entries.remove(key, entry);
+			entry.value.complete(value);
+			return;
+		}
+		synchronized (entry) {
+			entry.weight=valueWeight;
+			// the entry may have been invalidated while it was loading
+			if (!entry.removed) weight.addAndGet(valueWeight);
+		}
+		entry.value.complete(value);
+		if (weight.get()>maximumWeight) evict();
+	}
+
+	/**
+	 * Returns the reader of the header of the same file version as a key.
+	 */
+	private PlyReader header(Key key) throws IOException {
+		return (PlyReader)get(new Key(key.path, key.size, key.modified, Kind.HEADER));
+	}
+
+	/**
+	 * Returns whether the size and modification time of the file still match a key.
+	 */
+	private static boolean isCurrent(Key key) {
+		try {
+			BasicFileAttributes attributes=Files.readAttributes(key.path, BasicFileAttributes.class);
+			return attributes.size()==key.size && attributes.lastModifiedTime().toMillis()==key.modified;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the entries of the file of a key that belong to a different version of the file.
+	 */
+	private void removeOtherVersions(Key key) {
+		for (Map.Entry<Key, Entry> e: entries.entrySet()) {
+			Key other=e.getKey();
+			if (other.path.equals(key.path) && (other.size!=key.size || other.modified!=key.modified))
+				remove(other, e.getValue());
+		}
+	}
+
+	private void remove(Key key, Entry entry) {
+		if (entries.remove(key, entry)) {
+			synchronized (entry) {
+				entry.removed=true;
+				if (entry.weight!=-1) weight.addAndGet(-entry.weight);
+			}
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries until the weight is within the limit. If another thread is already
+	 * evicting, this function returns immediately, leaving the work to that thread.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock()) return;
+		try {
+			while (weight.get()>maximumWeight) {
+				Key oldestKey=null;
+				Entry oldest=null;
+				for (Map.Entry<Key, Entry> e: entries.entrySet()) {
+					Entry candidate=e.getValue();
+					if (candidate.weight==-1) continue; // still loading
+					if (oldest==null || candidate.lastAccess<oldest.lastAccess) {
+						oldestKey=e.getKey();
+						oldest=candidate;
+					}
+				}
+				if (oldest==null) break;
+				remove(oldestKey, oldest);
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.nio.ByteOrder;
+
+/**
+ * The encodings of the body of a PLY file.
+ * @author Kazó Csaba
+ */
+public enum PlyFormat {
+	/** Values are stored as text separated by whitespace. */
+	ASCII("ascii", null),
+	/** Values are stored in binary, least significant byte first. */
+	BINARY_LITTLE_ENDIAN("binary_little_endian", ByteOrder.LITTLE_ENDIAN),
+	/** Values are stored in binary, most significant byte first. */
+	BINARY_BIG_ENDIAN("binary_big_endian", ByteOrder.BIG_ENDIAN);
+
+	/** The keyword identifying this format in the header. */
+	final String keyword;
+	/** The byte order of binary formats, {@code null} for ASCII. */
+	final ByteOrder byteOrder;
+
+	private PlyFormat(String keyword, ByteOrder byteOrder) {
+		this.keyword = keyword;
+		this.byteOrder = byteOrder;
+	}
+
+	/**
+	 * Returns whether this is one of the binary formats.
+	 * @return {@code true} if values are stored in binary
+	 */
+	public boolean isBinary() {
+		return byteOrder!=null;
+	}
+
+	static PlyFormat forKeyword(String keyword) {
+		for (PlyFormat format: values())
+			if (format.keyword.equals(keyword)) return format;
+		return null;
+	}
+}
@@ -0,0 +1,746 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.PointListImpl;
+
+/**
+ * Writes a point cloud as a level of detail pyramid. The bounding cube of the points is divided by an octree, and each
+ * node of the octree is written as a binary PLY file. The root holds an evenly subsampled version of the whole cloud,
+ * and each node below it holds an evenly subsampled version of the points in its cell that are not stored by its
+ * ancestors, at twice the density of its parent. The nodes with few enough points are leaves, which hold all their
+ * remaining points. Each point is stored in exactly one node, so a viewer can refine the cloud by loading deeper nodes
+ * where more detail is needed, and the union of all nodes is the original cloud.
+ * <p>
+ * The subsample of a node is chosen by dividing its cell into a grid of {@value #SAMPLE_RESOLUTION}<sup>3</sup>
+ * cells, and taking the point closest to the center of each grid cell.
+ * <p>
+ * The pyramid is built out of core, so clouds larger than the available memory can be processed, for example by
+ * streaming them from a {@link PlyReader}. The points are first counted in the cells of a fixed octree level, and the
+ * octree is cut into chunks with at most a given number of points. The points are then distributed into temporary
+ * files, one per chunk. The chunks are processed in parallel: the subtree of each chunk is built in memory and written,
+ * except for the root of the chunk. Finally the nodes above the chunks are built bottom-up, each taking its subsample
+ * from the points of its children. The memory used is proportional to the chunk size times the parallelism.
+ * <p>
+ * The nodes are named after their octree cell: {@code r.ply} for the root, and {@code r} followed by the index of the
+ * octant on each level otherwise, such as {@code r07.ply}. The coordinates are written as floats. A manifest,
+ * {@value #MANIFEST_NAME}, lists the nodes in the form
+ * <pre>
+ * {
+ *   "pointCount": 1500000,
+ *   "nodes": [
+ *     {"file": "r.ply", "level": 0, "pointCount": 20000, "min": [0.0, 0.0, 0.0], "max": [1.0, 1.0, 1.0]},
+ *     ...
+ *   ]
+ * }</pre>
+ * where the nodes are sorted by level, and the bounds are those of the octree cell of the node.
+ * @author Kazó Csaba
+ */
+public final class PlyLodWriter {
+	/** The name of the manifest file written along with the nodes. */
+	public static final String MANIFEST_NAME="lod.json";
+	/** The default maximum number of points in a leaf. */
+	public static final int DEFAULT_MAX_NODE_SIZE=100000;
+	/** The default maximum number of points in a chunk processed in memory. */
+	public static final int DEFAULT_CHUNK_SIZE=1<<21;
+	/** The number of cells along each axis of the grid used for subsampling a node. */
+	public static final int SAMPLE_RESOLUTION=64;
+	/**
+	 * The maximum level of the octree; the nodes on this level are leaves regardless of their size. The code of a node,
+	 * holding three bits for each level, must fit in a {@code long}.
+	 */
+	private static final int MAX_LEVEL=21;
+	/** The maximum level of the cells the points are counted in for dividing them into chunks. */
+	private static final int MAX_COUNT_LEVEL=7;
+	/** The size of the buffers collecting the points of the chunks while they are distributed. */
+	private static final int CHUNK_BUFFER_SIZE=1<<14;
+
+	private int maxNodeSize=DEFAULT_MAX_NODE_SIZE;
+	private int chunkSize=DEFAULT_CHUNK_SIZE;
+	private int parallelism=Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * A node of the level of detail pyramid written by a {@link PlyLodWriter}.
+	 */
+	public static final class Node {
+		private final Path file;
+		private final int level;
+		private final int pointCount;
+		private final Vector3 min;
+		private final Vector3 max;
+
+		Node(Path file, int level, int pointCount, Vector3 min, Vector3 max) {
+			this.file = file;
+			this.level = level;
+			this.pointCount = pointCount;
+			this.min = min;
+			this.max = max;
+		}
+
+		/**
+		 * Returns the file containing the points of the node.
+		 * @return the path of the node
+		 */
+		public Path getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the level of the node in the octree.
+		 * @return the level, 0 for the root
+		 */
+		public int getLevel() {
+			return level;
+		}
+
+		/**
+		 * Returns the number of points stored in the node.
+		 * @return the number of points
+		 */
+		public int getPointCount() {
+			return pointCount;
+		}
+
+		/**
+		 * Returns the minimum corner of the octree cell of the node.
+		 * @return the minimum x, y and z coordinates of the cell
+		 */
+		public Vector3 getMin() {
+			return min;
+		}
+
+		/**
+		 * Returns the maximum corner of the octree cell of the node.
+		 * @return the maximum x, y and z coordinates of the cell
+		 */
+		public Vector3 getMax() {
+			return max;
+		}
+	}
+
+	/**
+	 * Creates a new writer with the default settings.
+	 */
+	public PlyLodWriter() {}
+
+	/**
+	 * Sets the maximum number of points in a leaf of the octree. Nodes containing more points are subsampled and
+	 * divided further. The default is {@value #DEFAULT_MAX_NODE_SIZE}.
+	 * @param maxNodeSize the maximum number of points in a leaf
+	 * @return this writer
+	 * @throws IllegalArgumentException if the argument is not positive
+	 */
+	public synchronized PlyLodWriter setMaxNodeSize(int maxNodeSize) {
+		if (maxNodeSize<1) throw new IllegalArgumentException("Invalid node size: "+maxNodeSize);
+		this.maxNodeSize = maxNodeSize;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of points in a chunk, which is processed in memory. The default is
+	 * {@value #DEFAULT_CHUNK_SIZE}. A chunk of points takes about 40 bytes per point. A chunk can be larger than this
+	 * if many points are very close to each other.
+	 * @param chunkSize the maximum number of points in a chunk
+	 * @return this writer
+	 * @throws IllegalArgumentException if the argument is not positive
+	 */
+	public synchronized PlyLodWriter setChunkSize(int chunkSize) {
+		if (chunkSize<1) throw new IllegalArgumentException("Invalid chunk size: "+chunkSize);
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Sets the number of chunks processed concurrently. The default is the number of processors.
+	 * @param parallelism the number of threads to use
+	 * @return this writer
+	 * @throws IllegalArgumentException if the argument is not positive
+	 */
+	public synchronized PlyLodWriter setParallelism(int parallelism) {
+		if (parallelism<1) throw new IllegalArgumentException("Invalid parallelism: "+parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Writes a point list as a level of detail pyramid into a directory. If {@code points} also implements
+	 * {@link ColoredPointList}, or it is a {@link PackedColorPointList}, the vertex colors are also written. Existing
+	 * files with the same names are overwritten. The point list is only accessed by the calling thread.
+	 * @param points the vertices
+	 * @param comment an optional sequence of comments separated by new line characters that will be included in the
+	 * header of each node
+	 * @param directory the directory to write the nodes and the manifest to; it is created if it doesn't exist
+	 * @return the nodes written, in the order they are listed in the manifest
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized List<Node> write(final PointList points, String comment, Path directory) throws IOException {
+		final boolean colors=PlyWriter.hasColors(points);
+		return write(new Source() {
+			@Override
+			public boolean hasColors() {
+				return colors;
+			}
+
+			@Override
+			public boolean hasAlpha() {
+				return PlyWriter.hasAlpha(points);
+			}
+
+			@Override
+			public void scan(PointVisitor visitor) throws IOException {
+				for (int i=0; i<points.getPointCount(); i++) {
+					Vector3 p=points.getPoint(i);
+					visitor.point(p.getX(), p.getY(), p.getZ(), colors ? PlyWriter.packedColor(points, i) : 0);
+				}
+			}
+		}, comment, directory);
+	}
+
+	/**
+	 * Writes the vertices of a PLY file as a level of detail pyramid into a directory. The file is streamed, so it can
+	 * be larger than the available memory; it is read three times. If the file has vertex colors, they are also
+	 * written.
+	 * @param reader the reader of the file
+	 * @param comment an optional sequence of comments separated by new line characters that will be included in the
+	 * header of each node
+	 * @param directory the directory to write the nodes and the manifest to; it is created if it doesn't exist
+	 * @return the nodes written, in the order they are listed in the manifest
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the format of the file is incorrect
+	 * @throws IllegalStateException if the file does not contain vertex data
+	 */
+	public synchronized List<Node> write(final PlyReader reader, String comment, Path directory) throws IOException, InvalidPlyFormatException {
+		if (!reader.hasVertices()) throw new IllegalStateException("No vertices");
+		final boolean colors=reader.hasVertexColors();
+		return write(new Source() {
+			@Override
+			public boolean hasColors() {
+				return colors;
+			}
+
+			@Override
+			public boolean hasAlpha() {
+				return reader.hasVertexAlpha();
+			}
+
+			@Override
+			public void scan(final PointVisitor visitor) throws IOException {
+				reader.decode(new PlyReader.MeshSink() {
+					private double x, y, z;
+
+					@Override
+					public void vertex(double x, double y, double z) throws IOException {
+						if (colors) {
+							this.x=x;
+							this.y=y;
+							this.z=z;
+						} else {
+							visitor.point(x, y, z, 0);
+						}
+					}
+
+					@Override
+					public void color(int red, int green, int blue, int alpha) throws IOException {
+						if (((red | green | blue | alpha) & ~0xFF)!=0) throw new InvalidPlyFormatException("Invalid color: "+red+" "+green+" "+blue+" "+alpha);
+						visitor.point(x, y, z, PackedColorPointList.pack(red, green, blue, alpha));
+					}
+
+					@Override
+					public void triangle(long v1, long v2, long v3) {
+						throw new AssertionError();
+					}
+				}, colors, false);
+			}
+		}, comment, directory);
+	}
+
+	/**
+	 * Receives the points of a source.
+	 */
+	private interface PointVisitor {
+		void point(double x, double y, double z, int color) throws IOException;
+	}
+
+	/**
+	 * A point cloud that can be scanned multiple times.
+	 */
+	private interface Source {
+		boolean hasColors();
+		boolean hasAlpha();
+		/** Passes all points to the visitor, with their colors in the form {@code 0xRRGGBBAA} if there are colors. */
+		void scan(PointVisitor visitor) throws IOException;
+	}
+
+	private List<Node> write(Source source, String comment, Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path temp=Files.createTempDirectory(directory, "lod");
+		try {
+			return new Build(source, comment, directory, temp).run();
+		} finally {
+			try (DirectoryStream<Path> files=Files.newDirectoryStream(temp)) {
+				for (Path file: files)
+					Files.delete(file);
+			}
+			Files.delete(temp);
+		}
+	}
+
+	/**
+	 * The state of building a pyramid.
+	 */
+	private final class Build {
+		private final Source source;
+		private final boolean colors;
+		private final String comment;
+		private final Path directory;
+		private final Path temp;
+		private final PlyWriter writer=new PlyWriter().setBinary(true).setVerticesAsFloats(true);
+		private final List<Node> nodes=Collections.synchronizedList(new ArrayList<Node>());
+		/** The minimum corner of the bounding cube. */
+		private final double[] min={Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		/** The edge length of the bounding cube. */
+		private double size;
+		private long pointCount;
+		/** The level of the cells the points are counted in. */
+		private int countLevel;
+		/** The index of the first point of each counted cell in Morton order, followed by the number of points. */
+		private long[] cellStarts;
+		/** The index of the chunk containing each counted cell. */
+		private int[] cellChunks;
+		private int chunkCount;
+
+		public Build(Source source, String comment, Path directory, Path temp) {
+			this.source = source;
+			this.colors = source.hasColors();
+			this.comment = comment;
+			this.directory = directory;
+			this.temp = temp;
+		}
+
+		public List<Node> run() throws IOException {
+			computeBounds();
+			countPoints();
+			distribute();
+			processChunks();
+			Points root=processUpper(0, 0);
+			if (root!=null) writeNode(0, 0, root, writer);
+
+			List<Node> result=new ArrayList<>(nodes);
+			Collections.sort(result, new Comparator<Node>() {
+				@Override
+				public int compare(Node n1, Node n2) {
+					if (n1.getLevel()!=n2.getLevel()) return Integer.compare(n1.getLevel(), n2.getLevel());
+					return n1.getFile().getFileName().toString().compareTo(n2.getFile().getFileName().toString());
+				}
+			});
+			writeManifest(result);
+			return Collections.unmodifiableList(result);
+		}
+
+		private void computeBounds() throws IOException {
+			final double[] max={Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+			source.scan((x, y, z, color) -> {
+				pointCount++;
+				include(0, x, max);
+				include(1, y, max);
+				include(2, z, max);
+			});
+			size=0;
+			for (int axis=0; axis<3; axis++) {
+				if (min[axis]>max[axis]) min[axis]=max[axis]=0;
+				size=Math.max(size, max[axis]-min[axis]);
+			}
+		}
+
+		private void include(int axis, double value, double[] max) {
+			if (Double.isFinite(value)) {
+				min[axis]=Math.min(min[axis], value);
+				max[axis]=Math.max(max[axis], value);
+			}
+		}
+
+		/**
+		 * Returns the index of the cell containing a coordinate on a level along an axis.
+		 */
+		private long cell(double value, int axis, int level) {
+			long cells=1L<<level;
+			double relative=size>0 ? (value-min[axis])/size : 0;
+			// NaN and infinite coordinates are clamped
+			return relative>=0 ? Math.min((long)(relative*cells), cells-1) : 0;
+		}
+
+		private int countCode(double x, double y, double z) {
+			return (int)(LocalityOptimizer.spread(cell(x, 0, countLevel))
+					| LocalityOptimizer.spread(cell(y, 1, countLevel))<<1
+					| LocalityOptimizer.spread(cell(z, 2, countLevel))<<2);
+		}
+
+		/**
+		 * Counts the points in the cells of the counting level, and divides the octree into chunks.
+		 */
+		private void countPoints() throws IOException {
+			countLevel=1;
+			while (countLevel<MAX_COUNT_LEVEL && (1L<<3*countLevel)*chunkSize<64*pointCount)
+				countLevel++;
+			cellStarts=new long[(1<<3*countLevel)+1];
+			source.scan((x, y, z, color) -> cellStarts[countCode(x, y, z)+1]++);
+			for (int c=0; c<cellStarts.length-1; c++)
+				cellStarts[c+1]+=cellStarts[c];
+			cellChunks=new int[1<<3*countLevel];
+			assignChunks(0, 0);
+		}
+
+		private long count(int level, int code) {
+			int shift=3*(countLevel-level);
+			return cellStarts[(code+1)<<shift]-cellStarts[code<<shift];
+		}
+
+		/**
+		 * Returns whether a cell of the octree, which contains points, is processed as a chunk.
+		 */
+		private boolean isChunk(int level, int code) {
+			return count(level, code)<=chunkSize || level==countLevel;
+		}
+
+		private void assignChunks(int level, int code) {
+			if (count(level, code)==0) return;
+			if (isChunk(level, code)) {
+				int shift=3*(countLevel-level);
+				Arrays.fill(cellChunks, code<<shift, (code+1)<<shift, chunkCount++);
+				return;
+			}
+			for (int octant=0; octant<8; octant++)
+				assignChunks(level+1, code<<3 | octant);
+		}
+
+		private Path chunkFile(int chunk) {
+			return temp.resolve("chunk"+chunk);
+		}
+
+		private Path pendingFile(int chunk) {
+			return temp.resolve("pending"+chunk);
+		}
+
+		/**
+		 * Writes the points into the temporary files of their chunks.
+		 */
+		private void distribute() throws IOException {
+			final ByteBuffer[] buffers=new ByteBuffer[chunkCount];
+			final int recordSize=colors ? 28 : 24;
+			source.scan((x, y, z, color) -> {
+				int chunk=cellChunks[countCode(x, y, z)];
+				ByteBuffer buffer=buffers[chunk];
+				if (buffer==null) buffer=buffers[chunk]=ByteBuffer.allocate(CHUNK_BUFFER_SIZE);
+				if (buffer.remaining()<recordSize) flush(chunk, buffer);
+				buffer.putDouble(x).putDouble(y).putDouble(z);
+				if (colors) buffer.putInt(color);
+			});
+			for (int chunk=0; chunk<chunkCount; chunk++)
+				if (buffers[chunk]!=null) flush(chunk, buffers[chunk]);
+		}
+
+		private void flush(int chunk, ByteBuffer buffer) throws IOException {
+			buffer.flip();
+			try (FileChannel channel=FileChannel.open(chunkFile(chunk), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Builds and writes the subtrees of the chunks in parallel. The points of the root of each chunk are written to
+		 * a temporary file instead, since its parent may take some of them.
+		 */
+		private void processChunks() throws IOException {
+			List<Callable<Void>> tasks=new ArrayList<>();
+			collectChunks(0, 0, tasks);
+			Workers.run(tasks, parallelism);
+		}
+
+		private void collectChunks(final int level, final int code, List<Callable<Void>> tasks) {
+			if (count(level, code)==0) return;
+			if (isChunk(level, code)) {
+				tasks.add(() -> {
+					int chunk=cellChunks[code<<3*(countLevel-level)];
+					Points points=load(chunkFile(chunk), (int)Math.min(count(level, code), Integer.MAX_VALUE-8));
+					Files.delete(chunkFile(chunk));
+					Points root=buildSubtree(level, code, points, new Sampler(), writer.copy());
+					save(root, pendingFile(chunk));
+					return null;
+				});
+				return;
+			}
+			for (int octant=0; octant<8; octant++)
+				collectChunks(level+1, code<<3 | octant, tasks);
+		}
+
+		/**
+		 * Builds the subtree of a node top-down, and writes all its nodes except the root.
+		 * @return the points of the root
+		 */
+		private Points buildSubtree(int level, long code, Points points, Sampler sampler, PlyWriter nodeWriter) throws IOException {
+			if (points.size<=maxNodeSize || level==MAX_LEVEL) return points;
+			boolean[] selected=sampler.sample(level, code, points);
+			Points[] children=new Points[8];
+			Points own=new Points(0, colors);
+			for (int i=0; i<points.size; i++) {
+				if (selected[i]) {
+					own.add(points, i);
+				} else {
+					int octant=octant(points, i, level+1);
+					if (children[octant]==null) children[octant]=new Points(0, colors);
+					children[octant].add(points, i);
+				}
+			}
+			points=null;
+			for (int octant=0; octant<8; octant++) {
+				if (children[octant]==null) continue;
+				long childCode=code<<3 | octant;
+				Points child=buildSubtree(level+1, childCode, children[octant], sampler, nodeWriter);
+				children[octant]=null;
+				writeNode(level+1, childCode, child, nodeWriter);
+			}
+			return own;
+		}
+
+		/**
+		 * Returns the octant of the cell on a level containing a point, within its parent cell.
+		 */
+		private int octant(Points points, int index, int level) {
+			int octant=0;
+			for (int axis=0; axis<3; axis++)
+				octant|=(int)(cell(points.coords[index*3+axis], axis, level) & 1)<<axis;
+			return octant;
+		}
+
+		/**
+		 * Builds the nodes above the chunks bottom-up: the subsample of each node is taken from the points of its
+		 * children, and the rest of the points of the children are written as the children.
+		 * @return the points of the node, or {@code null} if it contains no points
+		 */
+		private Points processUpper(int level, int code) throws IOException {
+			if (count(level, code)==0) return null;
+			if (isChunk(level, code)) {
+				int chunk=cellChunks[code<<3*(countLevel-level)];
+				Points points=load(pendingFile(chunk), 0);
+				Files.delete(pendingFile(chunk));
+				return points;
+			}
+			Points[] children=new Points[8];
+			Points all=new Points(0, colors);
+			int[] origins=new int[0];
+			for (int octant=0; octant<8; octant++) {
+				children[octant]=processUpper(level+1, code<<3 | octant);
+				if (children[octant]==null) continue;
+				int start=all.size;
+				for (int i=0; i<children[octant].size; i++)
+					all.add(children[octant], i);
+				origins=Arrays.copyOf(origins, all.size);
+				Arrays.fill(origins, start, all.size, octant);
+			}
+			boolean[] selected=new Sampler().sample(level, code, all);
+			Points own=new Points(0, colors);
+			Points[] rest=new Points[8];
+			for (int i=0; i<all.size; i++) {
+				if (selected[i]) {
+					own.add(all, i);
+				} else {
+					if (rest[origins[i]]==null) rest[origins[i]]=new Points(0, colors);
+					rest[origins[i]].add(all, i);
+				}
+			}
+			for (int octant=0; octant<8; octant++) {
+				if (children[octant]==null) continue;
+				writeNode(level+1, code<<3 | octant, rest[octant]!=null ? rest[octant] : new Points(0, colors), writer);
+			}
+			return own;
+		}
+
+		private double[] cellMin(int level, long code) {
+			double[] cellMin=new double[3];
+			for (int axis=0; axis<3; axis++) {
+				long cell=0;
+				for (int bit=0; bit<level; bit++)
+					cell|=(code>>>(3*bit+axis) & 1)<<bit;
+				cellMin[axis]=min[axis]+cell*size/(1L<<level);
+			}
+			return cellMin;
+		}
+
+		private void writeNode(int level, long code, Points points, PlyWriter nodeWriter) throws IOException {
+			StringBuilder name=new StringBuilder("r");
+			for (int l=level-1; l>=0; l--)
+				name.append(code>>>3*l & 7);
+			Path file=directory.resolve(name+".ply");
+			List<Vector3> vertices=new ArrayList<>(points.size);
+			for (int i=0; i<points.size; i++)
+				vertices.add(MatrixFactory.createVector(points.coords[i*3], points.coords[i*3+1], points.coords[i*3+2]));
+			PointList list=new PointListImpl(vertices);
+			if (colors) list=new PackedColorPointList(list, Arrays.copyOf(points.colors, points.size), source.hasAlpha());
+			nodeWriter.write(list, comment, file);
+
+			double[] cellMin=cellMin(level, code);
+			double cellSize=size/(1L<<level);
+			nodes.add(new Node(file, level, points.size,
+					MatrixFactory.createVector(cellMin[0], cellMin[1], cellMin[2]),
+					MatrixFactory.createVector(cellMin[0]+cellSize, cellMin[1]+cellSize, cellMin[2]+cellSize)));
+		}
+
+		private Points load(Path file, int capacity) throws IOException {
+			Points points=new Points(capacity, colors);
+			try (InputStream in=Files.newInputStream(file)) {
+				DataInputStream dis=new DataInputStream(new BufferedInputStream(in, 1<<16));
+				long recordCount=Files.size(file)/(colors ? 28 : 24);
+				for (long i=0; i<recordCount; i++) {
+					double x=dis.readDouble(), y=dis.readDouble(), z=dis.readDouble();
+					points.add(x, y, z, colors ? dis.readInt() : 0);
+				}
+			}
+			return points;
+		}
+
+		private void save(Points points, Path file) throws IOException {
+			ByteBuffer buffer=ByteBuffer.allocate(CHUNK_BUFFER_SIZE);
+			try (FileChannel channel=FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (int i=0; i<=points.size; i++) {
+					if (i==points.size || buffer.remaining()<28) {
+						buffer.flip();
+						while (buffer.hasRemaining())
+							channel.write(buffer);
+						buffer.clear();
+						if (i==points.size) break;
+					}
+					buffer.putDouble(points.coords[i*3]).putDouble(points.coords[i*3+1]).putDouble(points.coords[i*3+2]);
+					if (colors) buffer.putInt(points.colors[i]);
+				}
+			}
+		}
+
+		private void writeManifest(List<Node> nodes) throws IOException {
+			try (Writer out=Files.newBufferedWriter(directory.resolve(MANIFEST_NAME), StandardCharsets.UTF_8)) {
+				out.write("{\n");
+				out.write("  \"pointCount\": "+pointCount+",\n");
+				out.write("  \"nodes\": [");
+				for (int i=0; i<nodes.size(); i++) {
+					Node node=nodes.get(i);
+					out.write(i==0 ? "\n" : ",\n");
+					out.write("    {\"file\": \""+node.getFile().getFileName()+"\", \"level\": "+node.getLevel()
+							+", \"pointCount\": "+node.getPointCount()
+							+", \"min\": "+json(node.getMin())+", \"max\": "+json(node.getMax())+"}");
+				}
+				out.write("\n  ]\n}\n");
+			}
+		}
+
+		/**
+		 * Chooses the subsample of nodes. Each instance is used by a single thread, and reuses its grid.
+		 */
+		private final class Sampler {
+			private final int[] grid=new int[SAMPLE_RESOLUTION*SAMPLE_RESOLUTION*SAMPLE_RESOLUTION];
+
+			public Sampler() {
+				Arrays.fill(grid, -1);
+			}
+
+			/**
+			 * Selects the point closest to the center of each cell of the sampling grid of a node.
+			 */
+			public boolean[] sample(int level, long code, Points points) {
+				double[] cellMin=cellMin(level, code);
+				double scale=size>0 ? SAMPLE_RESOLUTION*(double)(1L<<level)/size : 0;
+				int[] gridCells=new int[points.size];
+				for (int i=0; i<points.size; i++) {
+					int gridCell=0;
+					double distance=0;
+					for (int axis=2; axis>=0; axis--) {
+						double value=(points.coords[i*3+axis]-cellMin[axis])*scale;
+						// NaN and infinite coordinates are clamped
+						int cell=value>=0 ? (int)Math.min(value, SAMPLE_RESOLUTION-1) : 0;
+						gridCell=gridCell*SAMPLE_RESOLUTION+cell;
+						double offset=Double.isFinite(value) ? value-cell-0.5 : 0;
+						distance+=offset*offset;
+					}
+					gridCells[i]=gridCell;
+					int best=grid[gridCell];
+					if (best==-1 || distance<distance(points, best, cellMin, scale)) grid[gridCell]=i;
+				}
+				boolean[] selected=new boolean[points.size];
+				for (int i=0; i<points.size; i++) {
+					int best=grid[gridCells[i]];
+					if (best!=-1) {
+						selected[best]=true;
+						grid[gridCells[i]]=-1;
+					}
+				}
+				return selected;
+			}
+
+			private double distance(Points points, int index, double[] cellMin, double scale) {
+				double distance=0;
+				for (int axis=0; axis<3; axis++) {
+					double value=(points.coords[index*3+axis]-cellMin[axis])*scale;
+					int cell=value>=0 ? (int)Math.min(value, SAMPLE_RESOLUTION-1) : 0;
+					double offset=Double.isFinite(value) ? value-cell-0.5 : 0;
+					distance+=offset*offset;
+				}
+				return distance;
+			}
+		}
+	}
+
+	private static String json(Vector3 v) {
+		return "["+v.getX()+", "+v.getY()+", "+v.getZ()+"]";
+	}
+
+	/**
+	 * A growable list of points with optional packed colors.
+	 */
+	private static final class Points {
+		double[] coords;
+		int[] colors;
+		int size=0;
+
+		public Points(int capacity, boolean colors) {
+			coords=new double[Math.max(capacity, 16)*3];
+			this.colors=colors ? new int[Math.max(capacity, 16)] : null;
+		}
+
+		public void add(double x, double y, double z, int color) {
+			if (size*3==coords.length) {
+				int capacity=size+(size>>1);
+				coords=Arrays.copyOf(coords, capacity*3);
+				if (colors!=null) colors=Arrays.copyOf(colors, capacity);
+			}
+			coords[size*3]=x;
+			coords[size*3+1]=y;
+			coords[size*3+2]=z;
+			if (colors!=null) colors[size]=color;
+			size++;
+		}
+
+		public void add(Points other, int index) {
+			add(other.coords[index*3], other.coords[index*3+1], other.coords[index*3+2], other.colors!=null ? other.colors[index] : 0);
+		}
+	}
+}
@@ -1,23 +1,46 @@
 package hu.kazocsaba.v3d.mesh.format.ply;
 
 import java.awt.Color;
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Scanner;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import hu.kazocsaba.math.matrix.MatrixFactory;
 import hu.kazocsaba.math.matrix.Vector3;
 import hu.kazocsaba.v3d.mesh.ColoredPointList;
@@ -32,6 +55,22 @@ import hu.kazocsaba.v3d.mesh.PointListImpl;
  * @author Kazó Csaba
  */
 public final class PlyReader {
+	/**
+	 * Executor for {@link #readMeshAsync()}. Decoding is mostly CPU-bound, so it has one thread per processor, and
+	 * excess reads wait in its queue; idle threads exit.
+	 */
+	private static final ThreadPoolExecutor ASYNC_EXECUTOR=new ThreadPoolExecutor(
+			Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+				Thread thread=new Thread(runnable, "PLY reader");
+				thread.setDaemon(true);
+				return thread;
+			});
+	static {
+		ASYNC_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+	
+	private final Header header;
 	private final List<Element> elements;
 	
 	private final Path file;
@@ -41,12 +80,22 @@ public final class PlyReader {
 	
 	private Element vertexElement=null;
 	private int vertexXPropIndex=-1, vertexYPropIndex=-1, vertexZPropIndex=-1;
-	private int vertexRedPropIndex=-1, vertexGreenPropIndex=-1, vertexBluePropIndex=-1;
+	private int vertexRedPropIndex=-1, vertexGreenPropIndex=-1, vertexBluePropIndex=-1, vertexAlphaPropIndex=-1;
 	private Element faceElement=null;
 	private int vertexIndicesPropIndex=-1;
 	
 	private final boolean hasVertices, hasVertexColors, hasFaces;
 	
+	private volatile int readAhead=0;
+	private volatile BufferStrategy bufferStrategy=BufferStrategy.DEFAULT;
+	private volatile long memoryBudget=Long.MAX_VALUE;
+	private volatile int parallelism=1;
+	private volatile ProgressListener progressListener=null;
+	private volatile CancellationToken cancellationToken=null;
+	
+	/** The minimum size of the body of an ASCII file for parsing it in parallel. */
+	private static final long MIN_PARALLEL_BODY=1<<20;
+	
 	/**
 	 * Creates a new instance that reads data from the specified file. The constructor parses the header of the PLY file,
 	 * and the user should query its contents with the {@link #hasVertices()}, {@link #hasFaces()} etc. functions before
@@ -57,75 +106,9 @@ public final class PlyReader {
 	 */
 	public PlyReader(Path file) throws IOException, InvalidPlyFormatException {
 		this.file=file;
-		try (Scanner scanner=new Scanner(file, "US-ASCII")) {
-			scanner.useLocale(Locale.ROOT);
-			String line=scanner.nextLine();
-			if (line==null || !line.equals("ply"))
-				throw new InvalidPlyFormatException("File is not in PLY format");
-
-			String format=null;
-			String version=null;
-			elements=new ArrayList<>();
-			{ // parse header
-				Element currentElement=null;
-				while (true) {
-					if (!scanner.hasNextLine()) {
-						throw new InvalidPlyFormatException("Unexpected end of file");
-					}
-					line=scanner.nextLine();
-					Scanner wordScanner=new Scanner(line);
-					String keyword=wordScanner.next();
-					if ("format".equals(keyword)) {
-						format=wordScanner.next();
-						version=wordScanner.next();
-						if (wordScanner.hasNext()) throw new InvalidPlyFormatException("Invalid file format");
-					} else if ("comment".equals(keyword))
-						continue;
-					else if ("element".equals(keyword)) {
-						String name=wordScanner.next();
-						int count=wordScanner.nextInt();
-						if (count<0) throw new InvalidPlyFormatException("Element "+name+" has negative instances");
-						if (wordScanner.hasNext()) throw new InvalidPlyFormatException("Invalid file format");
-						currentElement=new Element(name, count);
-						elements.add(currentElement);
-					} else if ("property".equals(keyword)) {
-						if (currentElement==null) throw new InvalidPlyFormatException("Property without element");
-						Property property;
-						String type=wordScanner.next();
-						if ("list".equals(type)) {
-							Type countType=parse(wordScanner.next());
-							if (countType==Type.FLOAT || countType==Type.DOUBLE) throw new InvalidPlyFormatException("List element count type must be integral");
-							Type elemType=parse(wordScanner.next());
-							String name=wordScanner.next();
-							if (wordScanner.hasNext()) throw new InvalidPlyFormatException("Invalid file format");
-							property=new ListProperty(name, countType, elemType);
-						} else {
-							String name=wordScanner.next();
-							Type scalarType=parse(type);
-							property=new ScalarProperty(name, scalarType);
-						}
-						currentElement.properties.add(property);
-					} else if ("obj_info".equals(keyword)) {
-						// ignore
-					} else if ("end_header".equals(keyword))
-						break;
-					else
-						throw new InvalidPlyFormatException("Unrecognized keyword in header: "+keyword);
-				}
-			}
-			if (format==null) throw new InvalidPlyFormatException("No format specification found in header");
-			if (!"1.0".equals(version)) throw new InvalidPlyFormatException("Unknown format version: "+version);
-			if ("ascii".equals(format)) {
-				fileFormat=null;
-			} else {
-				if ("binary_big_endian".equals(format))
-					fileFormat=ByteOrder.BIG_ENDIAN;
-				else if ("binary_little_endian".equals(format))
-					fileFormat=ByteOrder.LITTLE_ENDIAN;
-				else
-					throw new InvalidPlyFormatException("Invalid format: "+format);
-			}
-		}
+		header=Header.read(file);
+		elements=header.elements;
+		fileFormat=header.format.byteOrder;
 		
 		for (Element e: elements) {
 			if ("vertex".equals(e.name)) {
@@ -164,6 +147,11 @@ public final class PlyReader {
 							if (vertexBluePropIndex!=-1) throw new InvalidPlyFormatException("Multiple vertex.blue properties");
 							vertexBluePropIndex=pi;
 							break;
+						case "alpha":
+							if (p instanceof ListProperty) throw new InvalidPlyFormatException("Invalid vertex.alpha property");
+							if (vertexAlphaPropIndex!=-1) throw new InvalidPlyFormatException("Multiple vertex.alpha properties");
+							vertexAlphaPropIndex=pi;
+							break;
 					}
 				}
 			} else if ("face".equals(e.name)) {
@@ -200,6 +188,31 @@ public final class PlyReader {
 		}
 	}
 
+	/**
+	 * Creates a reader for the same file as another reader, sharing its parsed header. The settings of the new reader
+	 * (such as {@link #setReadAhead(int)}) have their default values.
+	 * @param prototype the reader whose header to use
+	 */
+	PlyReader(PlyReader prototype) {
+		header=prototype.header;
+		elements=prototype.elements;
+		file=prototype.file;
+		fileFormat=prototype.fileFormat;
+		vertexElement=prototype.vertexElement;
+		vertexXPropIndex=prototype.vertexXPropIndex;
+		vertexYPropIndex=prototype.vertexYPropIndex;
+		vertexZPropIndex=prototype.vertexZPropIndex;
+		vertexRedPropIndex=prototype.vertexRedPropIndex;
+		vertexGreenPropIndex=prototype.vertexGreenPropIndex;
+		vertexBluePropIndex=prototype.vertexBluePropIndex;
+		vertexAlphaPropIndex=prototype.vertexAlphaPropIndex;
+		faceElement=prototype.faceElement;
+		vertexIndicesPropIndex=prototype.vertexIndicesPropIndex;
+		hasVertices=prototype.hasVertices;
+		hasVertexColors=prototype.hasVertexColors;
+		hasFaces=prototype.hasFaces;
+	}
+
 	/**
 	 * Returns whether the PLY file contains vertex data.
 	 * @return {@code true} if the file contains vertices
@@ -214,6 +227,13 @@ public final class PlyReader {
 	public boolean hasVertexColors() {
 		return hasVertexColors;
 	}
+	/**
+	 * Returns whether the vertex colors of the PLY file have alpha components.
+	 * @return {@code true} if the file contains vertex colors with a {@code vertex.alpha} property
+	 */
+	public boolean hasVertexAlpha() {
+		return hasVertexColors && vertexAlphaPropIndex!=-1;
+	}
 	/**
 	 * Returns whether the PLY file contains a mesh.
 	 * @return {@code true} if the file contains mesh data (vertices and faces)
@@ -221,371 +241,1705 @@ public final class PlyReader {
 	public boolean hasFaces() {
 		return hasFaces;
 	}
-	private Input getInput() throws IOException {
-		if (fileFormat==null) {
-			return new AsciiInput(Files.newInputStream(file));
-		} else {
-			return new BinaryInput(Files.newByteChannel(file, StandardOpenOption.READ), fileFormat);
+	/**
+	 * Returns the format of the file.
+	 * @return the encoding of the body of the file
+	 */
+	public PlyFormat getFormat() {
+		return header.format;
+	}
+	/**
+	 * Returns the comments in the header of the file.
+	 * @return the text of the comment lines of the header, in order
+	 */
+	public List<String> getComments() {
+		return Collections.unmodifiableList(header.comments);
+	}
+	/**
+	 * Sets the number of buffers that are read ahead of the decoder. If the argument is positive, the file is read by a
+	 * background thread which fills up to {@code queueDepth} buffers while the data read previously is being decoded,
+	 * so that the I/O and the parsing of the file can proceed in parallel. If it is 0, the file is read synchronously
+	 * by the thread calling the read methods. The default is 0. The size of the buffers is determined by the
+	 * {@linkplain #setBufferStrategy(BufferStrategy) buffer strategy}.
+	 * @param queueDepth the number of buffers to read in advance, or 0 to disable reading ahead
+	 * @return this reader
+	 * @throws IllegalArgumentException if the argument is negative
+	 */
+	public PlyReader setReadAhead(int queueDepth) {
+		if (queueDepth<0) throw new IllegalArgumentException("Negative queue depth");
+		this.readAhead=queueDepth;
+		return this;
+	}
+	/**
+	 * Sets how the I/O buffers used for reading the file are allocated. The default is
+	 * {@link BufferStrategy#DEFAULT}. The buffers used for reading ahead are also allocated by this strategy.
+	 * @param bufferStrategy the strategy for allocating buffers
+	 * @return this reader
+	 */
+	public PlyReader setBufferStrategy(BufferStrategy bufferStrategy) {
+		if (bufferStrategy==null) throw new NullPointerException();
+		this.bufferStrategy=bufferStrategy;
+		return this;
+	}
+	/**
+	 * Sets the number of threads used for decoding the body of the file. If it is greater than 1, then
+	 * {@link #readVertices()}, {@link #readColoredVertices()}, {@link #readPackedColorVertices()} and
+	 * {@link #readMesh()} decode the body in parallel.
+	 * <p>
+	 * The lines of ASCII files are located and assigned to the records of the elements using the counts in the header,
+	 * and the lines are parsed concurrently. This requires each record to be on its own line, as is usual; if the file
+	 * doesn't follow this layout, or it contains an error, it is parsed sequentially.
+	 * <p>
+	 * In binary files the offsets of the vertex and face elements are computed from the header, and the elements are
+	 * decoded concurrently with positional reads, the vertex element being divided into ranges. This requires that the
+	 * elements preceding them, and the vertex element itself, have no list properties; otherwise the file is decoded
+	 * sequentially.
+	 * <p>
+	 * Small files are always decoded sequentially. The default is 1.
+	 * @param parallelism the number of threads to use
+	 * @return this reader
+	 * @throws IllegalArgumentException if the argument is not positive
+	 */
+	public PlyReader setParallelism(int parallelism) {
+		if (parallelism<1) throw new IllegalArgumentException("Invalid parallelism: "+parallelism);
+		this.parallelism=parallelism;
+		return this;
+	}
+	/**
+	 * Sets the maximum amount of memory the read methods may use. If loading the file would need more memory than
+	 * this according to {@link #estimateMemory(LoadMode)}, the read methods throw a
+	 * {@link MemoryBudgetExceededException} before decoding any data. The budget applies to the Java heap occupied by
+	 * the returned objects, and to the native memory used by {@link #readOffHeap()}. Memory mapping, streaming and
+	 * reading the vertices within a box are not limited. By default there is no budget.
+	 * @param bytes the budget in bytes, or {@code Long.MAX_VALUE} for no limit
+	 * @return this reader
+	 * @throws IllegalArgumentException if the argument is negative
+	 * @see #readVerticesWithinBudget()
+	 */
+	public PlyReader setMemoryBudget(long bytes) {
+		if (bytes<0) throw new IllegalArgumentException("Negative memory budget");
+		this.memoryBudget=bytes;
+		return this;
+	}
+	/**
+	 * Sets the listener receiving the progress of the read methods that decode the whole file, such as
+	 * {@link #readMesh()} and {@link #readVertices()}. The number of bytes read is also reported by the streams, such
+	 * as {@link #vertexStream()}, unless they are served from a memory mapped view. The memory mapped views and the
+	 * reading of the vertices within a box using a spatial index don't report progress. By default there is no
+	 * listener.
+	 * @param listener the listener, or {@code null} to remove the listener
+	 * @return this reader
+	 */
+	public PlyReader setProgressListener(ProgressListener listener) {
+		this.progressListener=listener;
+		return this;
+	}
+	/**
+	 * Sets the token for cancelling reads. The token is checked whenever a buffer of data is read from the file, by the
+	 * read methods decoding the whole file and by the streams not served from a memory mapped view; once it is
+	 * cancelled, the file is closed, the buffers are given back, and an {@link OperationCancelledException} is thrown,
+	 * wrapped in an {@link UncheckedIOException} by the streams. By default there is no token.
+	 * @param token the cancellation token, or {@code null} to remove the token
+	 * @return this reader
+	 */
+	public PlyReader setCancellationToken(CancellationToken token) {
+		this.cancellationToken=token;
+		return this;
+	}
+	/**
+	 * Estimates the memory needed to load the file in the specified way, using only the information in the header. The
+	 * estimates assume a 64-bit JVM with compressed references. Faces are assumed to be triangles; quadrilateral faces
+	 * are split into two triangles, which take twice as much memory. For {@link LoadMode#OFF_HEAP}, the estimate is the
+	 * native memory used; for the other modes, it is the size of the objects created on the Java heap, including
+	 * temporary ones still alive when the result is complete.
+	 * @param mode the way of loading the file
+	 * @return the estimated number of bytes needed
+	 * @throws IllegalStateException if the file doesn't contain the data needed by the mode: vertices, vertex colors
+	 * for {@link LoadMode#PACKED_COLOR_VERTICES}, or faces for the mesh modes
+	 */
+	public long estimateMemory(LoadMode mode) {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		long vertices=vertexElement.count;
+		long triangles=hasFaces ? faceElement.count : 0;
+		switch (mode) {
+			case VERTICES:
+				return MemoryFootprint.pointList(vertices, hasVertexColors);
+			case PACKED_COLOR_VERTICES:
+				if (!hasVertexColors) throw new IllegalStateException("No vertex colors");
+				return vertices*(MemoryFootprint.VERTEX+4);
+			case QUANTIZED_VERTICES:
+				return vertices*(3*4+(hasVertexColors ? 4 : 0));
+			case MESH:
+				if (!hasFaces) throw new IllegalStateException("No faces");
+				return MemoryFootprint.mesh(vertices, triangles);
+			case MESH_WITH_ADJACENCY:
+				if (!hasFaces) throw new IllegalStateException("No faces");
+				// per triangle: the flat indices and their copy, the sort keys, the vertex to face table, the edge
+				// keys in one and both directions, the vertex to vertex table and the twins; per vertex: the offsets
+				return MemoryFootprint.mesh(vertices, triangles)+vertices*2*4+triangles*(12+12+24+12+24+24+12+12);
+			case OFF_HEAP:
+				return vertices*((offHeapDoublePrecision() ? 24 : 12)+(hasVertexColors ? 3 : 0))+triangles*12;
+			case MAPPED:
+				// the table of the triangle offsets, if one is needed
+				return triangles*8;
+			default:
+				throw new AssertionError();
+		}
+	}
+	private void checkBudget(LoadMode mode) throws MemoryBudgetExceededException {
+		long budget=memoryBudget;
+		if (budget==Long.MAX_VALUE) return;
+		long estimate=estimateMemory(mode);
+		if (estimate>budget) throw new MemoryBudgetExceededException(mode, estimate, budget);
+	}
+	/**
+	 * Returns a new tracker for the progress of reading the file.
+	 */
+	private Progress newProgress() throws IOException {
+		long totalElements=0;
+		for (Element element: elements)
+			totalElements+=element.count;
+		return new Progress(progressListener, cancellationToken, totalElements, Files.size(file));
+	}
+	private Input getInput(Progress progress) throws IOException {
+		return openInput(file, header, bufferStrategy, readAhead, progress);
+	}
+	/**
+	 * Opens a file for reading its body. If the input cannot be created, the file is closed before this function
+	 * returns.
+	 * @param file the file to read
+	 * @param header the parsed header of the file, locating the start of the body
+	 * @param bufferStrategy the strategy for allocating buffers
+	 * @param readAhead the number of buffers to read ahead, or 0 to read synchronously
+	 * @return an input positioned at the start of the body
+	 */
+	static Input openInput(Path file, Header header, BufferStrategy bufferStrategy, int readAhead) throws IOException {
+		return openInput(file, header, bufferStrategy, readAhead, null);
+	}
+	/**
+	 * Opens a file for reading its body, tracking the progress of reading. If the input cannot be created, the file is
+	 * closed before this function returns.
+	 * @param progress the tracker counting the bytes read and checking for cancellation, or {@code null}
+	 */
+	private static Input openInput(Path file, Header header, BufferStrategy bufferStrategy, int readAhead, Progress progress) throws IOException {
+		SeekableByteChannel fileChannel=Files.newByteChannel(file, StandardOpenOption.READ);
+		ReadableByteChannel channel=fileChannel;
+		try {
+			// the header is not parsed again, so its lines don't have to fit in a buffer
+			fileChannel.position(header.bodyOffset);
+			if (progress!=null) progress.bytes(header.bodyOffset);
+			if (readAhead>0) channel=new ReadAheadChannel(channel, readAhead, bufferStrategy);
+			if (progress!=null) channel=progress.wrap(channel);
+			if (header.format.isBinary()) {
+				return new BinaryInput(channel, header.format.byteOrder, bufferStrategy);
+			} else {
+				return new AsciiInput(new ChannelInputStream(channel, bufferStrategy));
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			channel.close();
+			throw e;
 		}
 	}
 	/**
 	 * Reads vertices from the file.
 	 * @return the vertices defined by this file as a point list
 	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
 	 * @throws InvalidPlyFormatException if the file format is incorrect
-	 * @throws IllegalStateException if the file does not contain vertex data
+	 * @throws IllegalStateException if the file does not contain vertex data, or it contains more vertices than a point
+	 * list can hold
 	 */
 	public PointList readVertices() throws IOException, InvalidPlyFormatException {
 		if (!hasVertices) throw new IllegalStateException("No vertices");
 		if (hasVertexColors) return readColoredVertices();
-		
-		Input input=getInput();
-		
-		List<Vector3> vertices=new ArrayList<>(vertexElement.count);
-
-		for (Element currentElement: elements) {
-			if (currentElement==vertexElement) {
-				/* Parse vertices */
-				for (int elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
-					Vector3 v=MatrixFactory.createVector3();
-					vertices.add(v);
-					for (int propIndex=0; propIndex<currentElement.properties.size(); propIndex++) {
-						Property prop=currentElement.properties.get(propIndex);
-						if (propIndex==vertexXPropIndex) {
-							v.setX(input.read(((ScalarProperty)prop).type).doubleValue());
-						} else if (propIndex==vertexYPropIndex) {
-							v.setY(input.read(((ScalarProperty)prop).type).doubleValue());
-						} else if (propIndex==vertexZPropIndex) {
-							v.setZ(input.read(((ScalarProperty)prop).type).doubleValue());
-						} else {
-							// ignore any other property
-							if (prop instanceof ListProperty) {
-								int count=input.read(((ListProperty)prop).countType).intValue();
-								if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
-								for (int i=0; i<count; i++) {
-									input.read(((ListProperty)prop).elemType);
-								}
-							} else {
-								input.read(((ScalarProperty)prop).type);
-							}
-						}
-					}
-				}
-			} else {
-				/* Parse anything else */
-				for (int elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
-					for (int propIndex=0; propIndex<currentElement.properties.size(); propIndex++) {
-						Property prop=currentElement.properties.get(propIndex);
-						if (prop instanceof ListProperty) {
-							int count=input.read(((ListProperty)prop).countType).intValue();
-							if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
-							for (int i=0; i<count; i++) {
-								input.read(((ListProperty)prop).elemType);
-							}
-						} else {
-							input.read(((ScalarProperty)prop).type);
-						}
-					}
-				}
-			}
+		checkVertexCount();
+		checkBudget(LoadMode.VERTICES);
+		if (canParseParallel()) {
+			Vector3[] vertices=readParallel(null, null);
+			if (vertices!=null) return new PointListImpl(new ArrayList<>(Arrays.asList(vertices)));
 		}
-		input.needEnd();
-
-		return new PointListImpl(vertices);
+		
+		ListSink sink=new ListSink((int)vertexElement.count, false, false);
+		decode(sink, false, false);
+		return new PointListImpl(sink.vertices);
 	}
 	/**
 	 * Reads colored vertices from the file.
 	 * @return the vertices defined by this file as a colored point list
 	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
 	 * @throws InvalidPlyFormatException if the file format is incorrect
-	 * @throws IllegalStateException if the file does not contain colored vertex data
+	 * @throws IllegalStateException if the file does not contain colored vertex data, or it contains more vertices than
+	 * a point list can hold
 	 */
 	public ColoredPointList readColoredVertices() throws IOException, InvalidPlyFormatException {
 		if (!hasVertices) throw new IllegalStateException("No vertices");
 		if (!hasVertexColors) throw new IllegalStateException("No vertex colors");
+		checkVertexCount();
+		checkBudget(LoadMode.VERTICES);
+		if (canParseParallel()) {
+			final int[] packed=new int[(int)vertexElement.count];
+			Vector3[] vertices=readParallel(packed, null);
+			if (vertices!=null) {
+				Color[] colors=new Color[packed.length];
+				Arrays.parallelSetAll(colors, i -> new Color(packed[i]>>>8));
+				return new ColoredPointListImpl(new ArrayList<>(Arrays.asList(vertices)), new ArrayList<>(Arrays.asList(colors)));
+			}
+		}
+		
+		ListSink sink=new ListSink((int)vertexElement.count, true, false);
+		decode(sink, true, false);
+		return new ColoredPointListImpl(sink.vertices, sink.colors);
+	}
+	/**
+	 * Reads colored vertices from the file, storing the colors packed into an {@code int} array instead of creating a
+	 * {@link Color} object for each vertex. Colors stored as floating point numbers are scaled from the [0, 1] range
+	 * to 0-255. If the file has a {@code vertex.alpha} property, it is read as the alpha component of the colors;
+	 * otherwise the alpha components are 255.
+	 * @return the vertices defined by this file along with their packed colors
+	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
+	 * @throws InvalidPlyFormatException if the file format is incorrect, or a color component is out of range
+	 * @throws IllegalStateException if the file does not contain colored vertex data, or it contains more vertices than
+	 * a point list can hold
+	 */
+	public PackedColorPointList readPackedColorVertices() throws IOException, InvalidPlyFormatException {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		if (!hasVertexColors) throw new IllegalStateException("No vertex colors");
+		checkVertexCount();
+		checkBudget(LoadMode.PACKED_COLOR_VERTICES);
+		if (canParseParallel()) {
+			int[] colors=new int[(int)vertexElement.count];
+			Vector3[] vertices=readParallel(colors, null);
+			if (vertices!=null) return new PackedColorPointList(new PointListImpl(new ArrayList<>(Arrays.asList(vertices))), colors, hasVertexAlpha());
+		}
 		
-		List<Vector3> vertices=new ArrayList<>(vertexElement.count);
-		List<Color> colors=new ArrayList<>(vertexElement.count);
+		PackedSink sink=new PackedSink((int)vertexElement.count);
+		decode(sink, true, false);
+		return new PackedColorPointList(new PointListImpl(sink.vertices), sink.colors, hasVertexAlpha());
+	}
+	
+	/**
+	 * Reads vertices from the file into compact, quantized storage. The coordinates are stored as 16-bit integers if
+	 * that is sufficient for the specified precision, and as 32-bit integers otherwise, relative to the bounding box
+	 * of the vertices. The file is read twice: first to compute the bounding box, then to store the coordinates. If
+	 * the file has vertex colors, the returned object implements {@link ColoredPointList}.
+	 * @param maxError the maximum allowed difference between a stored and an original coordinate
+	 * @return the vertices defined by this file
+	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IllegalStateException if the file does not contain vertex data, it contains more vertices than a point
+	 * list can hold, or it has a vertex with an infinite or NaN coordinate
+	 * @throws IllegalArgumentException if the maximum error is not positive, or it is so small compared to the extent
+	 * of the vertices that the coordinates don't fit in 32 bits
+	 */
+	public QuantizedPointList readQuantizedVertices(double maxError) throws IOException, InvalidPlyFormatException {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		if (!(maxError>0) || Double.isInfinite(maxError)) throw new IllegalArgumentException("Invalid maximum error: "+maxError);
+		if (vertexElement.count>Integer.MAX_VALUE/3) throw new IllegalStateException("Too many vertices");
+		checkBudget(LoadMode.QUANTIZED_VERTICES);
 		
-		try (Input input=getInput()) {
-
-			for (Element currentElement: elements) {
-				if (currentElement==vertexElement) {
-					/* Parse vertices */
-					int red=-1, green=-1, blue=-1;
-					for (int elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
-						Vector3 v=MatrixFactory.createVector3();
-						vertices.add(v);
-						for (int propIndex=0; propIndex<currentElement.properties.size(); propIndex++) {
-							Property prop=currentElement.properties.get(propIndex);
-							if (propIndex==vertexXPropIndex) {
-								v.setX(input.read(((ScalarProperty)prop).type).doubleValue());
-							} else if (propIndex==vertexYPropIndex) {
-								v.setY(input.read(((ScalarProperty)prop).type).doubleValue());
-							} else if (propIndex==vertexZPropIndex) {
-								v.setZ(input.read(((ScalarProperty)prop).type).doubleValue());
-							} else if (propIndex==vertexRedPropIndex) {
-								red=input.read(((ScalarProperty)prop).type).intValue();
-							} else if (propIndex==vertexGreenPropIndex) {
-								green=input.read(((ScalarProperty)prop).type).intValue();
-							} else if (propIndex==vertexBluePropIndex) {
-								blue=input.read(((ScalarProperty)prop).type).intValue();
-							} else {
-								// ignore any other property
-								if (prop instanceof ListProperty) {
-									int count=input.read(((ListProperty)prop).countType).intValue();
-									if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
-									for (int i=0; i<count; i++) {
-										input.read(((ListProperty)prop).elemType);
-									}
-								} else {
-									input.read(((ScalarProperty)prop).type);
-								}
-							}
-						}
-						colors.add(new Color(red, green, blue));
-					}
-				} else {
-					/* Parse anything else */
-					for (int elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
-						for (int propIndex=0; propIndex<currentElement.properties.size(); propIndex++) {
-							Property prop=currentElement.properties.get(propIndex);
-							if (prop instanceof ListProperty) {
-								int count=input.read(((ListProperty)prop).countType).intValue();
-								if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
-								for (int i=0; i<count; i++) {
-									input.read(((ListProperty)prop).elemType);
-								}
-							} else {
-								input.read(((ScalarProperty)prop).type);
-							}
-						}
-					}
-				}
+		final double[] min={Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		final double[] max={Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		decode(new MeshSink() {
+			@Override
+			public void vertex(double x, double y, double z) {
+				if (!Double.isFinite(x) || !Double.isFinite(y) || !Double.isFinite(z)) throw new IllegalStateException("Cannot quantize non-finite coordinates");
+				min[0]=Math.min(min[0], x);
+				min[1]=Math.min(min[1], y);
+				min[2]=Math.min(min[2], z);
+				max[0]=Math.max(max[0], x);
+				max[1]=Math.max(max[1], y);
+				max[2]=Math.max(max[2], z);
+			}
+			@Override
+			public void color(int red, int green, int blue, int alpha) {}
+			@Override
+			public void triangle(long v1, long v2, long v3) {}
+		}, false, false);
+		
+		double step=2*maxError;
+		long levels=1;
+		for (int axis=0; axis<3; axis++) {
+			if (min[axis]>max[axis]) min[axis]=max[axis]=0; // no vertices
+			levels=Math.max(levels, (long)Math.ceil((max[axis]-min[axis])/step)+1);
+		}
+		if (levels>QuantizedPointList.levels(true)) throw new IllegalArgumentException("Maximum error too small for the extent of the vertices");
+		boolean wide=levels>QuantizedPointList.levels(false);
+		int count=(int)vertexElement.count;
+		final QuantizedPointList result=hasVertexColors ?
+				new QuantizedColoredPointList(count, min, step, wide) :
+				new QuantizedPointList(count, min, step, wide);
+		
+		decode(new MeshSink() {
+			private int index=0;
+			@Override
+			public void vertex(double x, double y, double z) {
+				result.set(index++, x, y, z);
+			}
+			@Override
+			public void color(int red, int green, int blue, int alpha) throws InvalidPlyFormatException {
+				if (((red | green | blue) & ~0xFF)!=0) throw new InvalidPlyFormatException("Invalid color: "+red+" "+green+" "+blue);
+				((QuantizedColoredPointList)result).setColor(index-1, red, green, blue);
 			}
-			input.needEnd();
+			@Override
+			public void triangle(long v1, long v2, long v3) {}
+		}, hasVertexColors, false);
+		return result;
+	}
+	
+	/**
+	 * Reads the vertices in the most complete form that fits in the {@linkplain #setMemoryBudget(long) memory budget}.
+	 * The following are tried in order:
+	 * <ol>
+	 * <li>reading the vertices with {@link #readVertices()};</li>
+	 * <li>if the file has vertex colors, reading them with {@link #readPackedColorVertices()};</li>
+	 * <li>mapping the vertices with {@link #mapVertices()}, if the file allows it;</li>
+	 * <li>reading a uniform subsample of the vertices: every {@code k}th vertex starting with the first, with the
+	 * smallest {@code k} that fits in the budget. Colors are returned in packed form.</li>
+	 * </ol>
+	 * Whether the result is a subsample can be determined by comparing its size with the number of vertices in the
+	 * file.
+	 * @return the vertices defined by this file, or a subsample of them
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IllegalStateException if the file does not contain vertex data
+	 */
+	public PointList readVerticesWithinBudget() throws IOException, InvalidPlyFormatException {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		long budget=memoryBudget;
+		long count=vertexElement.count;
+		if (count<=Integer.MAX_VALUE) {
+			if (estimateMemory(LoadMode.VERTICES)<=budget) return readVertices();
+			if (hasVertexColors && estimateMemory(LoadMode.PACKED_COLOR_VERTICES)<=budget) return readPackedColorVertices();
 		}
+		if (canMapVertices()) return mapVertices();
 		
-		return new ColoredPointListImpl(vertices, colors);
+		long vertexSize=MemoryFootprint.VERTEX+(hasVertexColors ? 4 : 0);
+		long keep=Math.max(1, Math.min(Math.min(budget/vertexSize, count), Integer.MAX_VALUE));
+		long step=(count+keep-1)/keep;
+		int kept=(int)((count+step-1)/step);
+		if (hasVertexColors) {
+			PackedSink sink=new PackedSink(kept);
+			decode(new StrideSink(sink, step), true, false);
+			return new PackedColorPointList(new PointListImpl(sink.vertices), sink.colors, hasVertexAlpha());
+		} else {
+			ListSink sink=new ListSink(kept, false, false);
+			decode(new StrideSink(sink, step), false, false);
+			return new PointListImpl(sink.vertices);
+		}
 	}
 	
 	/**
 	 * Reads a mesh from this file.
 	 * @return the mesh contained in the file
 	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
 	 * @throws InvalidPlyFormatException if the format of the file is incorrect
-	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false})
+	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false}),
+	 * or it contains more vertices or faces than a mesh can hold
 	 */
 	public IndexedTriangleMesh readMesh() throws IOException, InvalidPlyFormatException {
 		if (!hasFaces) throw new IllegalStateException("No faces");
+		checkVertexCount();
+		if (faceElement.count>Integer.MAX_VALUE) throw new IllegalStateException("Too many faces, use readOffHeap()");
+		checkBudget(LoadMode.MESH);
+		if (canParseParallel() && faceElement.count<=Integer.MAX_VALUE/4) {
+			int[] faces=new int[(int)faceElement.count*4];
+			Vector3[] vertices=readParallel(null, faces);
+			if (vertices!=null) {
+				List<int[]> triangles=new ArrayList<>(faces.length/4);
+				for (int face=0; face<faces.length; face+=4) {
+					triangles.add(new int[]{faces[face], faces[face+1], faces[face+2]});
+					if (faces[face+3]!=-1) triangles.add(new int[]{faces[face], faces[face+2], faces[face+3]});
+				}
+				return new IndexedTriangleMeshImpl(new ArrayList<>(Arrays.asList(vertices)), triangles);
+			}
+		}
 		
-		List<Vector3> vertices=new ArrayList<>(vertexElement.count);
-		List<int[]> triangles=new ArrayList<>(faceElement.count);
+		ListSink sink=new ListSink((int)vertexElement.count, false, true);
+		decode(sink, false, true);
+		return new IndexedTriangleMeshImpl(sink.vertices, sink.triangles);
+	}
+	
+	/**
+	 * Reads a mesh from this file, along with its adjacency tables: the faces around each vertex, the neighbors of each
+	 * vertex, and the twin of each half-edge. The tables are built in parallel from the triangle indices right after
+	 * they are decoded. Quadrilateral faces are split into two triangles as in {@link #readMesh()}.
+	 * @return the mesh contained in the file along with its adjacency tables
+	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
+	 * @throws InvalidPlyFormatException if the format of the file is incorrect
+	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false}),
+	 * or it contains more vertices or faces than a mesh can hold
+	 * @see MeshAdjacency
+	 */
+	public MeshAdjacency readMeshWithAdjacency() throws IOException, InvalidPlyFormatException {
+		if (!hasFaces) throw new IllegalStateException("No faces");
+		checkVertexCount();
+		if (faceElement.count>Integer.MAX_VALUE/3) throw new IllegalStateException("Too many faces, use readOffHeap()");
+		checkBudget(LoadMode.MESH_WITH_ADJACENCY);
 		
-		try (Input input=getInput()) {
+		FlatSink sink=new FlatSink((int)vertexElement.count, (int)faceElement.count);
+		decode(sink, false, true);
+		IndexedTriangleMesh mesh=new IndexedTriangleMeshImpl(sink.vertices, sink.triangles);
+		return MeshAdjacency.build(mesh, Arrays.copyOf(sink.indices, sink.indexCount));
+	}
+	
+	/**
+	 * Reads a mesh from this file, merging coincident vertices. Files converted from formats that store each triangle
+	 * separately, such as STL, repeat each vertex for every triangle using it; welding restores the shared vertices.
+	 * Triangles that become degenerate because two of their vertices are merged are removed.
+	 * <p>
+	 * With a tolerance of 0, only vertices with exactly the same coordinates are merged. Otherwise vertices within the
+	 * tolerance of a previously read vertex are merged into it. Since each vertex is merged into the first vertex
+	 * found close to it, the result may depend on the order of the vertices if they form clusters larger than the
+	 * tolerance.
+	 * @param tolerance the maximum distance of vertices to merge, or 0 to merge only equal vertices
+	 * @return the welded mesh and the number of merged vertices
+	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
+	 * @throws InvalidPlyFormatException if the format of the file is incorrect
+	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false}),
+	 * or it contains more vertices or faces than a mesh can hold
+	 * @throws IllegalArgumentException if the tolerance is negative, infinite or NaN
+	 */
+	public WeldedMesh readWeldedMesh(double tolerance) throws IOException, InvalidPlyFormatException {
+		if (!hasFaces) throw new IllegalStateException("No faces");
+		if (vertexElement.count>Integer.MAX_VALUE/3) throw new IllegalStateException("Too many vertices for welding");
+		if (faceElement.count>Integer.MAX_VALUE) throw new IllegalStateException("Too many faces, use readOffHeap()");
+		checkBudget(LoadMode.MESH);
 		
-			for (Element currentElement: elements) {
-				if (currentElement==vertexElement) {
-					/* Parse vertices */
-					for (int elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
-						Vector3 v=MatrixFactory.createVector3();
-						vertices.add(v);
-						for (int propIndex=0; propIndex<currentElement.properties.size(); propIndex++) {
-							Property prop=currentElement.properties.get(propIndex);
-							if (propIndex==vertexXPropIndex) {
-								v.setX(input.read(((ScalarProperty)prop).type).doubleValue());
-							} else if (propIndex==vertexYPropIndex) {
-								v.setY(input.read(((ScalarProperty)prop).type).doubleValue());
-							} else if (propIndex==vertexZPropIndex) {
-								v.setZ(input.read(((ScalarProperty)prop).type).doubleValue());
-							} else {
-								if (prop instanceof ListProperty) {
-									int count=input.read(((ListProperty)prop).countType).intValue();
-									if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
-									for (int i=0; i<count; i++) {
-										input.read(((ListProperty)prop).elemType);
-									}
-								} else {
-									input.read(((ScalarProperty)prop).type);
-								}
-							}
-						}
+		WeldSink sink=new WeldSink(new VertexWelder((int)vertexElement.count, tolerance), (int)vertexElement.count);
+		decode(sink, false, true);
+		return sink.finish();
+	}
+	
+	/**
+	 * Reads the vertices, and the vertex colors and faces if the file has them, into native memory. Unlike the other
+	 * read methods, this function can handle files with more than {@code Integer.MAX_VALUE} vertices or faces, and the
+	 * data it reads does not occupy the Java heap. The returned object must be closed to free the memory.
+	 * @return the contents of the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws MemoryBudgetExceededException if loading the file would exceed the
+	 * {@linkplain #setMemoryBudget(long) memory budget}
+	 * @throws InvalidPlyFormatException if the format of the file is incorrect
+	 * @throws IllegalStateException if the file does not contain vertex data
+	 */
+	public OffHeapMesh readOffHeap() throws IOException, InvalidPlyFormatException {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		checkBudget(LoadMode.OFF_HEAP);
+		final OffHeapMesh mesh=new OffHeapMesh(vertexElement.count, offHeapDoublePrecision(), hasVertexColors, hasFaces ? faceElement.count : -1);
+		try {
+			decode(new MeshSink() {
+				@Override
+				public void vertex(double x, double y, double z) {
+					mesh.addVertex(x, y, z);
+				}
+				@Override
+				public void color(int red, int green, int blue, int alpha) throws InvalidPlyFormatException {
+					mesh.addColor(red, green, blue);
+				}
+				@Override
+				public void triangle(long v1, long v2, long v3) {
+					mesh.addTriangle(v1, v2, v3);
+				}
+			}, hasVertexColors, hasFaces);
+		} catch (IOException | RuntimeException | Error e) {
+			mesh.close();
+			throw e;
+		}
+		return mesh;
+	}
+	
+	/**
+	 * Returns whether the file should be decoded in parallel.
+	 */
+	private boolean canParseParallel() throws IOException {
+		return parallelism>1 && Files.size(file)-header.bodyOffset>=MIN_PARALLEL_BODY;
+	}
+	
+	/**
+	 * Reads the vertices, and optionally the vertex colors and the faces, in parallel. ASCII files are read with the
+	 * parallel ASCII parser, binary files with {@link #readConcurrently(int[], int[], Progress)}.
+	 * @param colors receives the vertex colors in the form {@code 0xRRGGBBAA}, or {@code null} to skip the colors
+	 * @param faces receives the vertex indices of the faces, four per face, the last one being -1 for triangles; or
+	 * {@code null} to skip the faces
+	 * @return the vertices, or {@code null} if the file cannot be parsed in parallel
+	 */
+	private Vector3[] readParallel(final int[] colors, final int[] faces) throws IOException {
+		Progress progress=newProgress();
+		Vector3[] vertices=header.format.isBinary() ? readConcurrently(colors, faces, progress) : parseParallel(colors, faces, progress);
+		if (vertices!=null) progress.finish();
+		return vertices;
+	}
+	
+	/**
+	 * Reads the vertices, and optionally the vertex colors and the faces, of an ASCII file with the parallel ASCII
+	 * parser.
+	 * @return the vertices, or {@code null} if the body does not consist of one line per record
+	 */
+	private Vector3[] parseParallel(final int[] colors, final int[] faces, Progress progress) throws IOException {
+		try (ParallelAsciiParser parser=ParallelAsciiParser.open(file, header, parallelism, progress)) {
+			if (parser==null) return null;
+			final Vector3[] vertices=new Vector3[(int)vertexElement.count];
+			ParallelAsciiParser.RecordHandler[] handlers=new ParallelAsciiParser.RecordHandler[elements.size()];
+			handlers[elements.indexOf(vertexElement)]=(index, tokens) -> {
+				double x=0, y=0, z=0;
+				int red=0, green=0, blue=0, alpha=255;
+				for (int propIndex=0; propIndex<vertexElement.properties.size(); propIndex++) {
+					Property prop=vertexElement.properties.get(propIndex);
+					Type type=prop instanceof ScalarProperty ? ((ScalarProperty)prop).type : null;
+					if (propIndex==vertexXPropIndex) {
+						x=tokens.nextDouble(type);
+					} else if (propIndex==vertexYPropIndex) {
+						y=tokens.nextDouble(type);
+					} else if (propIndex==vertexZPropIndex) {
+						z=tokens.nextDouble(type);
+					} else if (colors!=null && propIndex==vertexRedPropIndex) {
+						red=type.colorComponent(tokens.nextDouble(type));
+					} else if (colors!=null && propIndex==vertexGreenPropIndex) {
+						green=type.colorComponent(tokens.nextDouble(type));
+					} else if (colors!=null && propIndex==vertexBluePropIndex) {
+						blue=type.colorComponent(tokens.nextDouble(type));
+					} else if (colors!=null && propIndex==vertexAlphaPropIndex) {
+						alpha=type.colorComponent(tokens.nextDouble(type));
+					} else {
+						tokens.skip(prop);
 					}
-				} else if (currentElement==faceElement) {
-					/* Parse faces */
-					for (int elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
-						for (int propIndex=0; propIndex<currentElement.properties.size(); propIndex++) {
-							Property prop=currentElement.properties.get(propIndex);
-							if (propIndex==vertexIndicesPropIndex) {
-								ListProperty lp=(ListProperty)prop;
-								int count=input.read(lp.countType).intValue();
-								if (count<3) throw new InvalidPlyFormatException("Face with "+count+" vertices");
-								switch (count) {
-									case 3:
-										Number v1,v2,v3,v4;
-										v1=input.read(lp.elemType);
-										if (v1.longValue()<0 || v1.longValue()>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+v1.longValue());
-										v2=input.read(lp.elemType);
-										if (v2.longValue()<0 || v2.longValue()>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+v2.longValue());
-										v3=input.read(lp.elemType);
-										if (v3.longValue()<0 || v3.longValue()>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+v3.longValue());
-										triangles.add(new int[]{v1.intValue(), v2.intValue(), v3.intValue()});
-										break;
-									case 4:
-										v1=input.read(lp.elemType);
-										if (v1.longValue()<0 || v1.longValue()>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+v1.longValue());
-										v2=input.read(lp.elemType);
-										if (v2.longValue()<0 || v2.longValue()>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+v2.longValue());
-										v3=input.read(lp.elemType);
-										if (v3.longValue()<0 || v3.longValue()>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+v3.longValue());
-										v4=input.read(lp.elemType);
-										if (v4.longValue()<0 || v4.longValue()>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+v4.longValue());
-										triangles.add(new int[]{v1.intValue(), v2.intValue(), v3.intValue()});
-										triangles.add(new int[]{v1.intValue(), v3.intValue(), v4.intValue()});
-										break;
-									default:
-										throw new InvalidPlyFormatException("Cannot handle faces with more than 4 vertices");
-								}
-							} else if (prop instanceof ListProperty) {
-								int count=input.read(((ListProperty)prop).countType).intValue();
-								if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
-								for (int i=0; i<count; i++) {
-									input.read(((ListProperty)prop).elemType);
-								}
-							} else {
-								input.read(((ScalarProperty)prop).type);
-							}
+				}
+				vertices[(int)index]=MatrixFactory.createVector(x, y, z);
+				if (colors!=null) {
+					// let the sequential parser report invalid colors
+					if (((red | green | blue | alpha) & ~0xFF)!=0) tokens.fail();
+					colors[(int)index]=PackedColorPointList.pack(red, green, blue, alpha);
+				}
+			};
+			if (faces!=null) handlers[elements.indexOf(faceElement)]=(index, tokens) -> {
+				for (int propIndex=0; propIndex<faceElement.properties.size(); propIndex++) {
+					Property prop=faceElement.properties.get(propIndex);
+					if (propIndex==vertexIndicesPropIndex) {
+						ListProperty lp=(ListProperty)prop;
+						long count=tokens.nextLong(lp.countType);
+						if (count<3 || count>4) tokens.fail();
+						faces[(int)index*4+3]=-1;
+						for (int i=0; i<count; i++) {
+							long vertex=tokens.nextLong(lp.elemType);
+							if (vertex<0 || vertex>=vertexElement.count) tokens.fail();
+							faces[(int)index*4+i]=(int)vertex;
 						}
+					} else {
+						tokens.skip(prop);
 					}
-				} else {
-					/* Parse anything else */
-					for (int elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
-						for (int propIndex=0; propIndex<currentElement.properties.size(); propIndex++) {
-							Property prop=currentElement.properties.get(propIndex);
-							if (prop instanceof ListProperty) {
-								int count=input.read(((ListProperty)prop).countType).intValue();
-								if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
-								for (int i=0; i<count; i++) {
-									input.read(((ListProperty)prop).elemType);
+				}
+			};
+			return parser.parse(handlers) ? vertices : null;
+		}
+	}
+	
+	/**
+	 * Reads the vertices, and optionally the vertex colors and the faces, of a binary file concurrently. The offsets of
+	 * the elements are computed from the header. The vertex element is divided into ranges, which are decoded by
+	 * separate workers, while another worker decodes the face element; each worker reads the file independently with
+	 * positional reads. The worker decoding the end of the last requested element also checks the rest of the file,
+	 * as the sequential decoder does.
+	 * @param colors receives the vertex colors in the form {@code 0xRRGGBBAA}, or {@code null} to skip the colors
+	 * @param faces receives the vertex indices of the faces, four per face, the last one being -1 for triangles; or
+	 * {@code null} to skip the faces
+	 * @param progress the tracker receiving the number of elements and bytes read
+	 * @return the vertices, or {@code null} if the offsets cannot be computed, or a color is invalid
+	 */
+	private Vector3[] readConcurrently(final int[] colors, final int[] faces, final Progress progress) throws IOException {
+		final long vertexOffset=elementOffset(vertexElement);
+		final int stride=vertexElement.recordSize();
+		final long faceOffset=faces==null ? -1 : elementOffset(faceElement);
+		if (vertexOffset==-1 || stride==-1 || (faces!=null && faceOffset==-1)) return null;
+		final int vertexCount=(int)vertexElement.count;
+		final Vector3[] vertices=new Vector3[vertexCount];
+		final AtomicBoolean invalidColor=new AtomicBoolean(false);
+		final int rangeCount=Math.max(1, Math.min(parallelism, vertexCount));
+		try (final FileChannel channel=FileChannel.open(file, StandardOpenOption.READ)) {
+			List<Callable<Void>> tasks=new ArrayList<>();
+			for (int r=0; r<rangeCount; r++) {
+				final int from=(int)((long)vertexCount*r/rangeCount);
+				final int to=(int)((long)vertexCount*(r+1)/rangeCount);
+				// with faces, the vertex element is followed by the face element
+				final boolean last=faces==null && r==rangeCount-1;
+				tasks.add(() -> {
+					try (Input input=openInput(channel, vertexOffset+(long)from*stride, progress)) {
+						double[] coords=new double[3];
+						int[] color=colors!=null ? new int[]{0,0,0,255} : null;
+						for (int v=from; v<to; v++) {
+							if ((v-from & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
+							readVertex(input, coords, color);
+							vertices[v]=MatrixFactory.createVector(coords[0], coords[1], coords[2]);
+							if (colors!=null) {
+								// let the sequential decoder report invalid colors
+								if (((color[0] | color[1] | color[2] | color[3]) & ~0xFF)!=0) {
+									invalidColor.set(true);
+									return null;
 								}
-							} else {
-								input.read(((ScalarProperty)prop).type);
+								colors[v]=PackedColorPointList.pack(color[0], color[1], color[2], color[3]);
 							}
 						}
+						progress.elements(to-from & Progress.MASK);
+						if (last) skipRest(input, vertexElement);
 					}
-				}
+					return null;
+				});
 			}
-			input.needEnd();
+			if (faces!=null) tasks.add(() -> {
+				try (Input input=openInput(channel, faceOffset, progress)) {
+					long[] face=new long[4];
+					for (int f=0; f<faceElement.count; f++) {
+						int count=readFace(input, face);
+						for (int i=0; i<count; i++)
+							faces[f*4+i]=(int)face[i];
+						if (count==3) faces[f*4+3]=-1;
+						if ((f & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
+					}
+					progress.elements(faceElement.count & Progress.MASK);
+					skipRest(input, faceElement);
+				}
+				return null;
+			});
+			Workers.run(tasks, parallelism);
 		}
-		return new IndexedTriangleMeshImpl(vertices, triangles);
+		if (invalidColor.get()) return null;
+		// the other elements are skipped or not read at all
+		for (Element element: elements)
+			if (element!=vertexElement && (faces==null || element!=faceElement)) progress.elements(element.count);
+		return vertices;
 	}
 	
-	interface Input extends Closeable {
-		public Number read(Type type) throws IOException;
-		public void needEnd() throws IOException;
+	/**
+	 * Opens a binary input reading a shared file channel from a position.
+	 */
+	private Input openInput(FileChannel channel, long position, Progress progress) throws IOException {
+		return new BinaryInput(progress.wrap(new PositionalChannel(channel, position)), header.format.byteOrder, bufferStrategy);
 	}
-	private static class AsciiInput implements Input {
-		private final Scanner scanner;
+	
+	/**
+	 * Skips the elements following an element, and checks that the end of the file is reached.
+	 */
+	private void skipRest(Input input, Element element) throws IOException {
+		for (int i=elements.indexOf(element)+1; i<elements.size(); i++)
+			skipElement(input, elements.get(i));
+		input.needEnd();
+	}
+	
+	/**
+	 * Returns whether the off-heap storage needs double precision to represent the coordinates exactly.
+	 */
+	private boolean offHeapDoublePrecision() {
+		for (int propIndex: new int[]{vertexXPropIndex, vertexYPropIndex, vertexZPropIndex}) {
+			Type type=((ScalarProperty)vertexElement.properties.get(propIndex)).type;
+			if (type!=Type.FLOAT && type.size>2) return true;
+		}
+		return false;
+	}
+	
+	private void checkVertexCount() {
+		if (vertexElement.count>Integer.MAX_VALUE) throw new IllegalStateException("Too many vertices, use readOffHeap()");
+	}
+	
+	/**
+	 * Returns the number of vertices in the file, or 0 if it has no vertices.
+	 */
+	long vertexCount() {
+		return hasVertices ? vertexElement.count : 0;
+	}
+	
+	/**
+	 * Returns the number of faces in the file, or 0 if it has no faces.
+	 */
+	long faceCount() {
+		return hasFaces ? faceElement.count : 0;
+	}
+	
+	/**
+	 * Decodes the contents of the file into a sink, for loaders combining the contents of multiple files.
+	 */
+	void decode(MeshSink sink, boolean readColors, boolean readFaces) throws IOException {
+		Progress progress=newProgress();
+		try (Input input=getInput(progress)) {
+			decode(input, sink, readColors, readFaces, progress);
+		}
+		progress.finish();
+	}
+	
+	/**
+	 * Receives the data decoded by {@link PlyReader#decode(Input, MeshSink, boolean, boolean, Progress)}.
+	 */
+	interface MeshSink {
+		/** Called for each vertex, in order. */
+		public void vertex(double x, double y, double z) throws IOException;
+		/**
+		 * Called after each vertex with its color, if colors are decoded. Floating point components are scaled to the
+		 * 0-255 range, and the alpha component is 255 if the file doesn't have one.
+		 */
+		public void color(int red, int green, int blue, int alpha) throws IOException;
+		/** Called for each triangle, if faces are decoded; quads are passed as two triangles. */
+		public void triangle(long v1, long v2, long v3) throws IOException;
+	}
+	
+	/**
+	 * A sink collecting the data into lists.
+	 */
+	private static class ListSink implements MeshSink {
+		final List<Vector3> vertices;
+		final List<Color> colors;
+		final List<int[]> triangles;
 
-		public AsciiInput(InputStream in) throws IOException {
-			scanner = new Scanner(new BufferedInputStream(in), "US-ASCII");
-			
-			// skip the header
-			String line;
-			do {
-				line=scanner.nextLine();
-			} while (!"end_header".equals(line));
+		public ListSink(int vertexCount, boolean colors, boolean triangles) {
+			vertices=new ArrayList<>(vertexCount);
+			this.colors=colors ? new ArrayList<Color>(vertexCount) : null;
+			this.triangles=triangles ? new ArrayList<int[]>() : null;
 		}
 
 		@Override
-		public Number read(Type type) throws IOException {
-			return type.parse(scanner);
+		public void vertex(double x, double y, double z) {
+			vertices.add(MatrixFactory.createVector(x, y, z));
 		}
 
 		@Override
-		public void needEnd() throws IOException {
-			if (scanner.hasNext())
-				throw new InvalidPlyFormatException("Invalid file format: expected end of file, found "+scanner.next());
+		public void color(int red, int green, int blue, int alpha) throws InvalidPlyFormatException {
+			if (((red | green | blue) & ~0xFF)!=0) throw new InvalidPlyFormatException("Invalid color: "+red+" "+green+" "+blue);
+			colors.add(new Color(red, green, blue));
 		}
 
 		@Override
-		public void close() throws IOException {
-			scanner.close();
+		public void triangle(long v1, long v2, long v3) {
+			// the vertex count has been checked to fit in an int
+			triangles.add(new int[]{(int)v1, (int)v2, (int)v3});
 		}
-		
 	}
-	private static class BinaryInput implements Input {
-		private final ReadableByteChannel channel;
-		private final ByteBuffer buffer;
-		private int bufferLength;
-
-		public BinaryInput(ReadableByteChannel channel, ByteOrder byteOrder) throws IOException {
-			final byte[] END="end_header".getBytes("US-ASCII");
-			byte[] endTest=new byte[END.length];
+	
+	/**
+	 * A sink collecting the vertices into a list, and their colors into an array in the form {@code 0xRRGGBBAA}.
+	 */
+	private static class PackedSink implements MeshSink {
+		final List<Vector3> vertices;
+		final int[] colors;
+		private int colorCount=0;
 
-			this.channel=channel;
-			buffer=ByteBuffer.allocate(8192).order(byteOrder);
-			bufferLength=0;
-			// skip header
-			int lineStart=0;
-			int read;
-			while (true) {
-				read=channel.read(buffer);
-				if (read==-1) throw new InvalidPlyFormatException("Cannot find the end of the header on the second pass: file has been modified");
-				bufferLength+=read;
-				for (int i=bufferLength-read; i<bufferLength; i++) {
-					if (buffer.get(i)==(byte)'\n') {
-						int length=i-lineStart;
-						if (length==END.length) {
-							buffer.position(lineStart);
-							buffer.get(endTest);
-							buffer.get(); // skip the '\n'
-							if (Arrays.equals(END, endTest)) {
-								// done skipping header
-								buffer.limit(bufferLength);
-								buffer.compact();
-								buffer.flip();
-								return;
-							}
-						}
-						lineStart=i+1;
-					}
-				}
-				if (buffer.remaining()==0) {
-					if (lineStart==0) throw new InvalidPlyFormatException("Line too long");
-					buffer.position(lineStart);
-					buffer.limit(bufferLength);
-					buffer.compact();
-					bufferLength-=lineStart;
-					lineStart=0;
-					buffer.limit(buffer.capacity());
-				}
-			}
+		public PackedSink(int vertexCount) {
+			vertices=new ArrayList<>(vertexCount);
+			colors=new int[vertexCount];
 		}
 
 		@Override
-		public Number read(Type type) throws IOException {
-			while (true) {
-				try {
-					return type.read(buffer);
-				} catch (BufferUnderflowException e) {}
-				int position=buffer.position();
-				int limit=buffer.limit();
-				
-				if (position>buffer.capacity()-20) {
-					buffer.compact();
-					limit=limit-position;
-					position=0;
-				}
-
-				buffer.limit(buffer.capacity());
-				buffer.position(limit);
-				int read=channel.read(buffer);
-				if (read==-1) throw new InvalidPlyFormatException("Unexpected end of file");
-				if (read==0) throw new AssertionError();
-				buffer.limit(limit+read);
-				buffer.position(position);
-			}
+		public void vertex(double x, double y, double z) {
+			vertices.add(MatrixFactory.createVector(x, y, z));
+		}
+
+		@Override
+		public void color(int red, int green, int blue, int alpha) throws InvalidPlyFormatException {
+			if (((red | green | blue | alpha) & ~0xFF)!=0) throw new InvalidPlyFormatException("Invalid color: "+red+" "+green+" "+blue+" "+alpha);
+			colors[colorCount++]=PackedColorPointList.pack(red, green, blue, alpha);
+		}
+
+		@Override
+		public void triangle(long v1, long v2, long v3) {
+			throw new AssertionError();
+		}
+	}
+	
+	/**
+	 * A sink collecting the data into lists, and the triangle indices into an array as well.
+	 */
+	private static class FlatSink extends ListSink {
+		int[] indices;
+		int indexCount=0;
+
+		public FlatSink(int vertexCount, int faceCount) {
+			super(vertexCount, false, true);
+			indices=new int[faceCount*3];
+		}
+
+		@Override
+		public void triangle(long v1, long v2, long v3) {
+			if (indexCount+3>indices.length) {
+				// quads are split into two triangles
+				if (indices.length>Integer.MAX_VALUE-3-indices.length/2) throw new IllegalStateException("Too many triangles");
+				indices=Arrays.copyOf(indices, indices.length+indices.length/2+3);
+			}
+			super.triangle(v1, v2, v3);
+			indices[indexCount++]=(int)v1;
+			indices[indexCount++]=(int)v2;
+			indices[indexCount++]=(int)v3;
+		}
+	}
+	
+	/**
+	 * A sink merging coincident vertices. The triangles are remapped to the unique vertices as they are read, unless
+	 * the faces precede the vertices in the file.
+	 */
+	private static class WeldSink implements MeshSink {
+		private final VertexWelder welder;
+		/** The unique vertex for each vertex of the file. */
+		private final int[] remap;
+		private int vertexCount=0;
+		private final List<int[]> triangles=new ArrayList<>();
+		/** Triangles read before the vertices, with the original indices. */
+		private final List<int[]> pending=new ArrayList<>();
+		private int removedTriangles=0;
+
+		public WeldSink(VertexWelder welder, int vertexCount) {
+			this.welder = welder;
+			remap=new int[vertexCount];
+		}
+
+		@Override
+		public void vertex(double x, double y, double z) {
+			remap[vertexCount++]=welder.add(x, y, z);
+		}
+
+		@Override
+		public void color(int red, int green, int blue, int alpha) {
+			throw new AssertionError();
+		}
+
+		@Override
+		public void triangle(long v1, long v2, long v3) {
+			if (vertexCount==remap.length)
+				add((int)v1, (int)v2, (int)v3);
+			else
+				pending.add(new int[]{(int)v1, (int)v2, (int)v3});
+		}
+
+		private void add(int v1, int v2, int v3) {
+			v1=remap[v1];
+			v2=remap[v2];
+			v3=remap[v3];
+			if (v1==v2 || v2==v3 || v3==v1)
+				removedTriangles++;
+			else
+				triangles.add(new int[]{v1, v2, v3});
+		}
+
+		public WeldedMesh finish() {
+			for (int[] triangle: pending)
+				add(triangle[0], triangle[1], triangle[2]);
+			List<Vector3> vertices=new ArrayList<>(welder.size());
+			for (int i=0; i<welder.size(); i++)
+				vertices.add(MatrixFactory.createVector(welder.coordinate(i, 0), welder.coordinate(i, 1), welder.coordinate(i, 2)));
+			return new WeldedMesh(new IndexedTriangleMeshImpl(vertices, triangles), vertexCount-welder.size(), removedTriangles);
+		}
+	}
+	
+	/**
+	 * A sink passing on only the vertices within a box, along with their colors.
+	 */
+	private static class BoxSink implements MeshSink {
+		final ListSink target;
+		final double[] min, max;
+		private boolean inside;
+
+		public BoxSink(ListSink target, double[] min, double[] max) {
+			this.target = target;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public void vertex(double x, double y, double z) {
+			inside=x>=min[0] && x<=max[0] && y>=min[1] && y<=max[1] && z>=min[2] && z<=max[2];
+			if (inside) target.vertex(x, y, z);
+		}
+
+		@Override
+		public void color(int red, int green, int blue, int alpha) throws InvalidPlyFormatException {
+			if (inside) target.color(red, green, blue, alpha);
+		}
+
+		@Override
+		public void triangle(long v1, long v2, long v3) {
+			throw new AssertionError();
+		}
+	}
+	
+	/**
+	 * A sink passing on every {@code step}th vertex, starting with the first, along with its color.
+	 */
+	private static class StrideSink implements MeshSink {
+		private final MeshSink target;
+		private final long step;
+		private long index=0;
+		private boolean selected;
+
+		public StrideSink(MeshSink target, long step) {
+			this.target = target;
+			this.step = step;
+		}
+
+		@Override
+		public void vertex(double x, double y, double z) throws IOException {
+			selected=index++%step==0;
+			if (selected) target.vertex(x, y, z);
+		}
+
+		@Override
+		public void color(int red, int green, int blue, int alpha) throws IOException {
+			if (selected) target.color(red, green, blue, alpha);
+		}
+
+		@Override
+		public void triangle(long v1, long v2, long v3) {
+			throw new AssertionError();
+		}
+	}
+	
+	/**
+	 * Decodes the body of the file, passing the vertices and optionally the colors and faces to a sink. All other data
+	 * is skipped.
+	 * @param input the input positioned at the start of the body
+	 * @param sink the receiver of the data
+	 * @param readColors whether to decode the vertex colors
+	 * @param readFaces whether to decode the faces
+	 * @param progress the tracker receiving the number of elements decoded
+	 */
+	private void decode(Input input, MeshSink sink, boolean readColors, boolean readFaces, Progress progress) throws IOException {
+		for (Element currentElement: elements) {
+			if (currentElement==vertexElement) {
+				/* Parse vertices */
+				double[] coords=new double[3];
+				int[] color=readColors ? new int[]{0, 0, 0, 255} : null;
+				for (long elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
+					readVertex(input, coords, color);
+					sink.vertex(coords[0], coords[1], coords[2]);
+					if (readColors) sink.color(color[0], color[1], color[2], color[3]);
+					if ((elemIndex & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
+				}
+				progress.elements(currentElement.count & Progress.MASK);
+			} else if (readFaces && currentElement==faceElement) {
+				/* Parse faces */
+				long[] face=new long[4];
+				for (long elemIndex=0; elemIndex<currentElement.count; elemIndex++) {
+					if (readFace(input, face)==3) {
+						sink.triangle(face[0], face[1], face[2]);
+					} else {
+						sink.triangle(face[0], face[1], face[2]);
+						sink.triangle(face[0], face[2], face[3]);
+					}
+					if ((elemIndex & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
+				}
+				progress.elements(currentElement.count & Progress.MASK);
+			} else {
+				/* Parse anything else */
+				skipElement(input, currentElement);
+				progress.elements(currentElement.count);
+			}
+		}
+		input.needEnd();
+	}
+	
+	/**
+	 * Reads a record of the vertex element.
+	 * @param coords receives the x, y and z coordinates
+	 * @param color receives the red, green and blue components, and the alpha component if the file has one, or
+	 * {@code null} if the colors are to be skipped
+	 */
+	private void readVertex(Input input, double[] coords, int[] color) throws IOException {
+		for (int propIndex=0; propIndex<vertexElement.properties.size(); propIndex++) {
+			Property prop=vertexElement.properties.get(propIndex);
+			if (propIndex==vertexXPropIndex) {
+				coords[0]=input.read(((ScalarProperty)prop).type).doubleValue();
+			} else if (propIndex==vertexYPropIndex) {
+				coords[1]=input.read(((ScalarProperty)prop).type).doubleValue();
+			} else if (propIndex==vertexZPropIndex) {
+				coords[2]=input.read(((ScalarProperty)prop).type).doubleValue();
+			} else if (color!=null && propIndex==vertexRedPropIndex) {
+				color[0]=readColorComponent(input, prop);
+			} else if (color!=null && propIndex==vertexGreenPropIndex) {
+				color[1]=readColorComponent(input, prop);
+			} else if (color!=null && propIndex==vertexBluePropIndex) {
+				color[2]=readColorComponent(input, prop);
+			} else if (color!=null && propIndex==vertexAlphaPropIndex) {
+				color[3]=readColorComponent(input, prop);
+			} else {
+				// ignore any other property
+				skip(input, prop);
+			}
+		}
+	}
+	
+	private static int readColorComponent(Input input, Property prop) throws IOException {
+		Type type=((ScalarProperty)prop).type;
+		return type.colorComponent(input.read(type).doubleValue());
+	}
+	
+	/**
+	 * Reads a record of the face element.
+	 * @param face receives the vertex indices of the face
+	 * @return the number of vertices of the face, 3 or 4
+	 */
+	private int readFace(Input input, long[] face) throws IOException {
+		int vertexCount=0;
+		for (int propIndex=0; propIndex<faceElement.properties.size(); propIndex++) {
+			Property prop=faceElement.properties.get(propIndex);
+			if (propIndex==vertexIndicesPropIndex) {
+				ListProperty lp=(ListProperty)prop;
+				long count=input.read(lp.countType).longValue();
+				if (count<3) throw new InvalidPlyFormatException("Face with "+count+" vertices");
+				if (count>4) throw new InvalidPlyFormatException("Cannot handle faces with more than 4 vertices");
+				vertexCount=(int)count;
+				for (int i=0; i<vertexCount; i++)
+					face[i]=readVertexIndex(input, lp.elemType);
+			} else {
+				skip(input, prop);
+			}
+		}
+		return vertexCount;
+	}
+	
+	private long readVertexIndex(Input input, Type type) throws IOException {
+		long index=input.read(type).longValue();
+		if (index<0 || index>=vertexElement.count) throw new InvalidPlyFormatException("Invalid vertex index: "+index);
+		return index;
+	}
+	
+	private static void skipElement(Input input, Element element) throws IOException {
+		for (long elemIndex=0; elemIndex<element.count; elemIndex++) {
+			for (Property prop: element.properties)
+				skip(input, prop);
+		}
+	}
+	
+	private static void skip(Input input, Property prop) throws IOException {
+		if (prop instanceof ListProperty) {
+			long count=input.read(((ListProperty)prop).countType).longValue();
+			if (count<0) throw new InvalidPlyFormatException("List with negative number of elements");
+			for (long i=0; i<count; i++) {
+				input.read(((ListProperty)prop).elemType);
+			}
+		} else {
+			input.read(((ScalarProperty)prop).type);
+		}
+	}
+	
+	/**
+	 * Reads a mesh from this file asynchronously. The file is read on a shared pool of background threads, one per
+	 * processor; when more reads are requested at the same time, they wait for a thread to become free. Combined with
+	 * {@link #setReadAhead(int)}, the I/O is also performed ahead of the decoding thread, by an additional thread for
+	 * each read. Applications reading many files concurrently should use {@link #readMeshAsync(Executor)} with their
+	 * own executor instead, for example one creating a virtual thread for each task.
+	 * @return a future that completes with the mesh contained in the file, or exceptionally with the
+	 * {@code IOException} that the reading caused
+	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false})
+	 */
+	public CompletableFuture<IndexedTriangleMesh> readMeshAsync() {
+		return readMeshAsync(ASYNC_EXECUTOR);
+	}
+	
+	/**
+	 * Reads a mesh from this file asynchronously, using the specified executor.
+	 * @param executor the executor to run the reading on
+	 * @return a future that completes with the mesh contained in the file, or exceptionally with the
+	 * {@code IOException} that the reading caused
+	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false})
+	 */
+	public CompletableFuture<IndexedTriangleMesh> readMeshAsync(Executor executor) {
+		if (!hasFaces) throw new IllegalStateException("No faces");
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return readMesh();
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+	
+	/**
+	 * Returns the offset of an element in the file, if it can be computed from the header.
+	 * @return the offset of the first byte of the element, or -1 if a preceding element has list properties
+	 */
+	private long elementOffset(Element element) {
+		long offset=header.bodyOffset;
+		for (Element e: elements) {
+			if (e==element) return offset;
+			if (e.count==0) continue;
+			int size=e.recordSize();
+			if (size==-1) return -1;
+			offset+=(long)size*e.count;
+		}
+		throw new AssertionError();
+	}
+	
+	/**
+	 * Returns whether vertices can be appended to the file through {@link #openAppender()}. This is the case if the
+	 * file is binary, and no element following the vertex element has any instances.
+	 * @return {@code true} if the file can be appended to
+	 */
+	public boolean canAppend() {
+		if (!hasVertices || !header.format.isBinary() || vertexElement.countOffset==-1) return false;
+		for (int i=elements.indexOf(vertexElement)+1; i<elements.size(); i++)
+			if (elements.get(i).count>0) return false;
+		return true;
+	}
+	
+	/**
+	 * Opens the file for appending vertices. The returned appender writes the new vertices in the format of the
+	 * existing ones, at the end of the file. This reader is not updated by the appends; a new reader has to be created
+	 * to read the new vertices.
+	 * @return an appender for the file, which should be closed after use
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the size of the file doesn't match its header
+	 * @throws IllegalStateException if the file cannot be appended to ({@link #canAppend()} returns {@code false})
+	 * @see PlyWriter#setAppendable(boolean)
+	 */
+	public PlyAppender openAppender() throws IOException, InvalidPlyFormatException {
+		if (!canAppend()) throw new IllegalStateException("File cannot be appended to");
+		return new PlyAppender(file, header, vertexElement, new int[]{
+				vertexXPropIndex, vertexYPropIndex, vertexZPropIndex,
+				hasVertexColors ? vertexRedPropIndex : -1, hasVertexColors ? vertexGreenPropIndex : -1, hasVertexColors ? vertexBluePropIndex : -1,
+				hasVertexColors ? vertexAlphaPropIndex : -1}, bufferStrategy);
+	}
+	
+	/**
+	 * Returns whether the vertices of the file can be accessed through {@link #mapVertices()}. This is the case if the
+	 * file is binary, the vertex element and the elements preceding it have no list properties, and the number of
+	 * vertices fits in an {@code int}.
+	 * @return {@code true} if the vertices can be memory mapped
+	 */
+	public boolean canMapVertices() {
+		return canBuildSpatialIndex() && vertexElement.count<=Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Returns whether the mesh in the file can be accessed through {@link #mapMesh()}. This is the case if the
+	 * vertices can be mapped, and the elements preceding the face element have no list properties.
+	 * @return {@code true} if the mesh can be memory mapped
+	 */
+	public boolean canMapMesh() {
+		return hasFaces && canMapVertices() && elementOffset(faceElement)!=-1;
+	}
+	
+	/**
+	 * Returns a point list that decodes the vertices from the memory mapped file on demand. No data is read in this
+	 * function: the vertices are decoded when they are accessed, and the memory used is managed by the operating
+	 * system's page cache. The returned object is safe for use by multiple threads. If the file has vertex colors,
+	 * the returned object implements {@link ColoredPointList}. The colors are not validated: integral color
+	 * components outside the 0-255 range, which the other read methods reject, are clamped to that range.
+	 * <p>
+	 * Each call to {@link PointList#getPoint(int)} returns a newly created vector. The file must not be modified while
+	 * the point list is in use.
+	 * @return a view of the vertices of the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file is shorter than its header specifies
+	 * @throws IllegalStateException if the vertices cannot be mapped ({@link #canMapVertices()} returns {@code false})
+	 */
+	public PointList mapVertices() throws IOException, InvalidPlyFormatException {
+		if (!canMapVertices()) throw new IllegalStateException("Vertices cannot be mapped");
+		MappedFile data=mapVertexElement();
+		if (hasVertexColors)
+			return new MappedColoredPointList(data, vertexElement, vertexXPropIndex, vertexYPropIndex, vertexZPropIndex, vertexRedPropIndex, vertexGreenPropIndex, vertexBluePropIndex);
+		else
+			return new MappedPointList(data, vertexElement, vertexXPropIndex, vertexYPropIndex, vertexZPropIndex);
+	}
+	
+	/**
+	 * Returns a mesh that decodes the vertices and triangles from the memory mapped file on demand. No data is read in
+	 * this function. The face element is scanned when the triangles are first accessed, to locate them, but the
+	 * triangles are decoded only when they are accessed. Vertex indices are not validated. The returned object is safe
+	 * for use by multiple threads.
+	 * <p>
+	 * Each call to {@link IndexedTriangleMesh#getPoint(int)} returns a newly created vector. The file must not be
+	 * modified while the mesh is in use.
+	 * @return a view of the mesh in the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file is shorter than its header specifies
+	 * @throws IllegalStateException if the mesh cannot be mapped ({@link #canMapMesh()} returns {@code false})
+	 */
+	public IndexedTriangleMesh mapMesh() throws IOException, InvalidPlyFormatException {
+		if (!canMapMesh()) throw new IllegalStateException("Mesh cannot be mapped");
+		PointList vertices=mapVertices();
+		MappedFile faces=MappedFile.map(file, elementOffset(faceElement), -1, fileFormat);
+		return new MappedTriangleMesh(vertices, faces, faceElement, vertexIndicesPropIndex);
+	}
+	
+	private MappedFile mapVertexElement() throws IOException {
+		return MappedFile.map(file, elementOffset(vertexElement), (long)vertexElement.recordSize()*vertexElement.count, fileFormat);
+	}
+	
+	private Type vertexPropertyType(int propIndex) {
+		return ((ScalarProperty)vertexElement.properties.get(propIndex)).type;
+	}
+	
+	/**
+	 * Returns whether a spatial index can be built for the file. This is the case if the file is binary, and the
+	 * vertex element and the elements preceding it have no list properties.
+	 * @return {@code true} if {@link #buildSpatialIndex()} can be called
+	 */
+	public boolean canBuildSpatialIndex() {
+		return hasVertices && fileFormat!=null && vertexElement.recordSize()!=-1 && elementOffset(vertexElement)!=-1;
+	}
+	
+	/**
+	 * Builds a spatial index of the vertices with the default block size, and stores it in the sidecar file of the PLY
+	 * file. The index is used by {@link #readVertices(Vector3, Vector3)}.
+	 * @return the index that was built
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file is shorter than its header specifies
+	 * @throws IllegalStateException if the index cannot be built ({@link #canBuildSpatialIndex()} returns
+	 * {@code false})
+	 * @see PlySpatialIndex
+	 */
+	public PlySpatialIndex buildSpatialIndex() throws IOException, InvalidPlyFormatException {
+		return buildSpatialIndex(PlySpatialIndex.DEFAULT_BLOCK_SIZE);
+	}
+	
+	/**
+	 * Builds a spatial index of the vertices, and stores it in the sidecar file of the PLY file. The vertices are read
+	 * in a single sequential pass. Smaller blocks make queries of small regions faster, at the cost of a larger index.
+	 * @param blockSize the number of vertices in a block of the index
+	 * @return the index that was built
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file is shorter than its header specifies
+	 * @throws IllegalStateException if the index cannot be built ({@link #canBuildSpatialIndex()} returns
+	 * {@code false})
+	 * @throws IllegalArgumentException if the block size is not positive, or it is too small for the number of
+	 * vertices
+	 */
+	public PlySpatialIndex buildSpatialIndex(int blockSize) throws IOException, InvalidPlyFormatException {
+		if (!canBuildSpatialIndex()) throw new IllegalStateException("Spatial index cannot be built");
+		if (blockSize<=0) throw new IllegalArgumentException("Invalid block size: "+blockSize);
+		long blockCount=(vertexElement.count+blockSize-1)/blockSize;
+		if (blockCount>Integer.MAX_VALUE/6) throw new IllegalArgumentException("Block size too small: "+blockSize);
+		
+		BasicFileAttributes attributes=Files.readAttributes(file, BasicFileAttributes.class);
+		MappedFile data=mapVertexElement();
+		int stride=vertexElement.recordSize();
+		int[] props={vertexXPropIndex, vertexYPropIndex, vertexZPropIndex};
+		Type[] types=new Type[3];
+		int[] offsets=new int[3];
+		for (int axis=0; axis<3; axis++) {
+			types[axis]=vertexPropertyType(props[axis]);
+			offsets[axis]=vertexElement.propertyOffset(props[axis]);
+		}
+		double[] bounds=new double[(int)blockCount*6];
+		for (int block=0; block<blockCount; block++) {
+			double[] min={Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+			double[] max={Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+			long end=Math.min((long)(block+1)*blockSize, vertexElement.count);
+			for (long vertex=(long)block*blockSize; vertex<end; vertex++) {
+				for (int axis=0; axis<3; axis++) {
+					// NaN coordinates are left out, as they are never inside a region
+					double value=data.getDouble(types[axis], vertex*stride+offsets[axis]);
+					if (value<min[axis]) min[axis]=value;
+					if (value>max[axis]) max[axis]=value;
+				}
+			}
+			System.arraycopy(min, 0, bounds, block*6, 3);
+			System.arraycopy(max, 0, bounds, block*6+3, 3);
+		}
+		PlySpatialIndex index=new PlySpatialIndex(attributes.size(), attributes.lastModifiedTime().toMillis(), vertexElement.count, blockSize, bounds);
+		index.save(file);
+		return index;
+	}
+	
+	/**
+	 * Reads the vertices within a box. A vertex is returned if each of its coordinates is between the corresponding
+	 * coordinates of {@code min} and {@code max}, inclusive. If the file has a valid spatial index, built by
+	 * {@link #buildSpatialIndex()}, then only the parts of the file that can contain such vertices are read;
+	 * otherwise the whole file is read. The result is the same in both cases: the vertices in the box, in the order
+	 * they appear in the file. If the file has vertex colors, the returned object implements {@link ColoredPointList}.
+	 * @param min the minimum coordinates of the box
+	 * @param max the maximum coordinates of the box
+	 * @return the vertices inside the box
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IllegalStateException if the file does not contain vertex data
+	 */
+	public PointList readVertices(Vector3 min, Vector3 max) throws IOException, InvalidPlyFormatException {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		BoxSink sink=new BoxSink(new ListSink(0, hasVertexColors, false),
+				new double[]{min.getX(), min.getY(), min.getZ()},
+				new double[]{max.getX(), max.getY(), max.getZ()});
+		
+		PlySpatialIndex index=canBuildSpatialIndex() ? PlySpatialIndex.load(file, vertexElement.count) : null;
+		if (index==null) {
+			decode(sink, hasVertexColors, false);
+		} else {
+			MappedFile data=mapVertexElement();
+			int stride=vertexElement.recordSize();
+			Type xType=vertexPropertyType(vertexXPropIndex), yType=vertexPropertyType(vertexYPropIndex), zType=vertexPropertyType(vertexZPropIndex);
+			int xOffset=vertexElement.propertyOffset(vertexXPropIndex), yOffset=vertexElement.propertyOffset(vertexYPropIndex), zOffset=vertexElement.propertyOffset(vertexZPropIndex);
+			Type redType=null, greenType=null, blueType=null, alphaType=null;
+			int redOffset=-1, greenOffset=-1, blueOffset=-1, alphaOffset=-1;
+			if (hasVertexColors) {
+				redType=vertexPropertyType(vertexRedPropIndex);
+				greenType=vertexPropertyType(vertexGreenPropIndex);
+				blueType=vertexPropertyType(vertexBluePropIndex);
+				redOffset=vertexElement.propertyOffset(vertexRedPropIndex);
+				greenOffset=vertexElement.propertyOffset(vertexGreenPropIndex);
+				blueOffset=vertexElement.propertyOffset(vertexBluePropIndex);
+				if (vertexAlphaPropIndex!=-1) {
+					alphaType=vertexPropertyType(vertexAlphaPropIndex);
+					alphaOffset=vertexElement.propertyOffset(vertexAlphaPropIndex);
+				}
+			}
+			for (int block=0; block<index.getBlockCount(); block++) {
+				if (!index.overlaps(block, sink.min, sink.max)) continue;
+				long first=(long)block*index.getBlockSize();
+				for (long vertex=first; vertex<first+index.blockVertexCount(block); vertex++) {
+					long base=vertex*stride;
+					sink.vertex(data.getDouble(xType, base+xOffset), data.getDouble(yType, base+yOffset), data.getDouble(zType, base+zOffset));
+					if (hasVertexColors)
+						sink.color(
+								redType.colorComponent(data.getDouble(redType, base+redOffset)),
+								greenType.colorComponent(data.getDouble(greenType, base+greenOffset)),
+								blueType.colorComponent(data.getDouble(blueType, base+blueOffset)),
+								alphaType==null ? 255 : alphaType.colorComponent(data.getDouble(alphaType, base+alphaOffset)));
+				}
+			}
+		}
+		ListSink result=sink.target;
+		return hasVertexColors ? new ColoredPointListImpl(result.vertices, result.colors) : new PointListImpl(result.vertices);
+	}
+	
+	/**
+	 * Returns a stream of the vertices of the file. The vertices are decoded as the stream is consumed, without
+	 * storing them. If the vertices can be located without reading the file ({@link #canBuildSpatialIndex()} returns
+	 * {@code true}), they are decoded from the memory mapped file, and a parallel stream splits them into ranges that
+	 * are decoded independently. Otherwise the file is read sequentially, and a parallel stream processes batches of
+	 * the vertices in parallel.
+	 * <p>
+	 * The stream should be closed to release the file. I/O errors and format errors encountered while the stream is
+	 * consumed are thrown as {@link UncheckedIOException}s.
+	 * @return a stream of the vertices, in the order they appear in the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IllegalStateException if the file does not contain vertex data
+	 */
+	public Stream<Vector3> vertexStream() throws IOException, InvalidPlyFormatException {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		if (canBuildSpatialIndex()) {
+			MappedFile data=mapVertexElement();
+			int stride=vertexElement.recordSize();
+			Type xType=vertexPropertyType(vertexXPropIndex), yType=vertexPropertyType(vertexYPropIndex), zType=vertexPropertyType(vertexZPropIndex);
+			int xOffset=vertexElement.propertyOffset(vertexXPropIndex), yOffset=vertexElement.propertyOffset(vertexYPropIndex), zOffset=vertexElement.propertyOffset(vertexZPropIndex);
+			return LongStream.range(0, vertexElement.count).mapToObj(index -> {
+				long base=index*stride;
+				return MatrixFactory.createVector(data.getDouble(xType, base+xOffset), data.getDouble(yType, base+yOffset), data.getDouble(zType, base+zOffset));
+			});
+		}
+		final Cursor cursor=new Cursor(vertexElement);
+		Spliterator<Vector3> spliterator=new Spliterators.AbstractSpliterator<Vector3>(vertexElement.count, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED) {
+			private final double[] coords=new double[3];
+			@Override
+			public boolean tryAdvance(Consumer<? super Vector3> action) {
+				if (!cursor.nextVertex(coords)) return false;
+				action.accept(MatrixFactory.createVector(coords[0], coords[1], coords[2]));
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false).onClose(cursor::close);
+	}
+	
+	/**
+	 * Returns a stream of one of the coordinates of the vertices of the file. This is the primitive counterpart of
+	 * {@link #vertexStream()}, which avoids creating vectors; see that function for the details.
+	 * @param axis the coordinate to return: 0 for x, 1 for y, 2 for z
+	 * @return a stream of the specified coordinate of the vertices, in the order they appear in the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IllegalStateException if the file does not contain vertex data
+	 * @throws IllegalArgumentException if the axis is invalid
+	 */
+	public DoubleStream coordinateStream(int axis) throws IOException, InvalidPlyFormatException {
+		if (!hasVertices) throw new IllegalStateException("No vertices");
+		if (axis<0 || axis>2) throw new IllegalArgumentException("Invalid axis: "+axis);
+		if (canBuildSpatialIndex()) {
+			MappedFile data=mapVertexElement();
+			int stride=vertexElement.recordSize();
+			int propIndex=axis==0 ? vertexXPropIndex : axis==1 ? vertexYPropIndex : vertexZPropIndex;
+			Type type=vertexPropertyType(propIndex);
+			int offset=vertexElement.propertyOffset(propIndex);
+			return LongStream.range(0, vertexElement.count).mapToDouble(index -> data.getDouble(type, index*stride+offset));
+		}
+		final Cursor cursor=new Cursor(vertexElement);
+		Spliterator.OfDouble spliterator=new Spliterators.AbstractDoubleSpliterator(vertexElement.count, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED) {
+			private final double[] coords=new double[3];
+			@Override
+			public boolean tryAdvance(DoubleConsumer action) {
+				if (!cursor.nextVertex(coords)) return false;
+				action.accept(coords[axis]);
+				return true;
+			}
+		};
+		return StreamSupport.doubleStream(spliterator, false).onClose(cursor::close);
+	}
+	
+	/**
+	 * Returns a stream of the triangles of the file, each represented by the array of its three vertex indices.
+	 * Quadrilateral faces are split into two triangles as in {@link #readMesh()}. If the mesh can be memory mapped
+	 * ({@link #canMapMesh()} returns {@code true}), the face element is scanned by this function, and a parallel
+	 * stream splits the triangles into ranges; otherwise the file is read sequentially, and a parallel stream
+	 * processes batches of the triangles in parallel.
+	 * <p>
+	 * The stream should be closed to release the file. I/O errors and format errors encountered while the stream is
+	 * consumed are thrown as {@link UncheckedIOException}s. Vertex indices are not validated if the mesh is mapped.
+	 * @return a stream of the triangles, in the order they appear in the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false}),
+	 * or it contains more vertices than an {@code int} can index
+	 */
+	public Stream<int[]> triangleStream() throws IOException, InvalidPlyFormatException {
+		if (!hasFaces) throw new IllegalStateException("No faces");
+		checkVertexCount();
+		if (canMapMesh()) {
+			IndexedTriangleMesh mesh=mapMesh();
+			return IntStream.range(0, mappedTriangleCount(mesh))
+					.mapToObj(t -> new int[]{mesh.getTrianglePointIndex(t, 0), mesh.getTrianglePointIndex(t, 1), mesh.getTrianglePointIndex(t, 2)});
+		}
+		final Cursor cursor=new Cursor(faceElement);
+		Spliterator<int[]> spliterator=new Spliterators.AbstractSpliterator<int[]>(faceElement.count, Spliterator.ORDERED | Spliterator.NONNULL) {
+			private final int[] triangle=new int[3];
+			@Override
+			public boolean tryAdvance(Consumer<? super int[]> action) {
+				if (!cursor.nextTriangle(triangle)) return false;
+				action.accept(triangle.clone());
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false).onClose(cursor::close);
+	}
+	
+	/**
+	 * Returns the vertex indices of the triangles of the file as a flat stream, three indices per triangle. This is
+	 * the primitive counterpart of {@link #triangleStream()}, which avoids creating arrays; see that function for the
+	 * details.
+	 * @return a stream of the vertex indices of the triangles, in the order they appear in the file
+	 * @throws IOException if an I/O error occurs
+	 * @throws InvalidPlyFormatException if the file format is incorrect
+	 * @throws IllegalStateException if the file doesn't contain any faces ({@link #hasFaces()} returns {@code false}),
+	 * or it contains more vertices than an {@code int} can index
+	 */
+	public IntStream triangleIndexStream() throws IOException, InvalidPlyFormatException {
+		if (!hasFaces) throw new IllegalStateException("No faces");
+		checkVertexCount();
+		if (canMapMesh()) {
+			IndexedTriangleMesh mesh=mapMesh();
+			return LongStream.range(0, 3L*mappedTriangleCount(mesh))
+					.mapToInt(index -> mesh.getTrianglePointIndex((int)(index/3), (int)(index%3)));
+		}
+		final Cursor cursor=new Cursor(faceElement);
+		Spliterator.OfInt spliterator=new Spliterators.AbstractIntSpliterator(faceElement.count*3, Spliterator.ORDERED) {
+			private final int[] triangle=new int[3];
+			private int position=3;
+			@Override
+			public boolean tryAdvance(IntConsumer action) {
+				if (position==3) {
+					if (!cursor.nextTriangle(triangle)) return false;
+					position=0;
+				}
+				action.accept(triangle[position++]);
+				return true;
+			}
+		};
+		return StreamSupport.intStream(spliterator, false).onClose(cursor::close);
+	}
+	
+	/**
+	 * Returns the number of triangles of a mapped mesh, scanning its face element if necessary.
+	 */
+	private static int mappedTriangleCount(IndexedTriangleMesh mesh) throws IOException {
+		try {
+			return mesh.getTriangleCount();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Reads the records of the vertex or the face element one by one. The input is closed when the last record is
+	 * read, or when {@link #close()} is called. Errors are thrown as {@link UncheckedIOException}s.
+	 */
+	private class Cursor {
+		private final Input input;
+		private long remaining;
+		private final long[] face=new long[4];
+		/** Whether the second triangle of a quad is still to be returned. */
+		private boolean pendingQuad=false;
+		private boolean closed=false;
+
+		public Cursor(Element element) throws IOException {
+			input=getInput(newProgress());
+			try {
+				for (Element e: elements) {
+					if (e==element) break;
+					skipElement(input, e);
+				}
+			} catch (IOException | RuntimeException | Error e) {
+				input.close();
+				throw e;
+			}
+			remaining=element.count;
+		}
+
+		public boolean nextVertex(double[] coords) {
+			if (remaining==0) {
+				close();
+				return false;
+			}
+			try {
+				readVertex(input, coords, null);
+			} catch (IOException e) {
+				close();
+				throw new UncheckedIOException(e);
+			}
+			remaining--;
+			return true;
+		}
+
+		public boolean nextTriangle(int[] triangle) {
+			if (pendingQuad) {
+				pendingQuad=false;
+				triangle[0]=(int)face[0];
+				triangle[1]=(int)face[2];
+				triangle[2]=(int)face[3];
+				return true;
+			}
+			if (remaining==0) {
+				close();
+				return false;
+			}
+			try {
+				pendingQuad=readFace(input, face)==4;
+			} catch (IOException e) {
+				close();
+				throw new UncheckedIOException(e);
+			}
+			remaining--;
+			triangle[0]=(int)face[0];
+			triangle[1]=(int)face[1];
+			triangle[2]=(int)face[2];
+			return true;
+		}
+
+		public void close() {
+			if (closed) return;
+			closed=true;
+			try {
+				input.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	interface Input extends Closeable {
+		public Number read(Type type) throws IOException;
+		public void needEnd() throws IOException;
+	}
+	static class AsciiInput implements Input {
+		private final Scanner scanner;
+
+		/**
+		 * Creates a new input. The stream should be buffered, and positioned at the start of the body.
+		 */
+		public AsciiInput(InputStream in) {
+			scanner = new Scanner(in, "US-ASCII");
+			// numbers are always formatted the same way, regardless of the default locale
+			scanner.useLocale(Locale.ROOT);
+		}
+
+		@Override
+		public Number read(Type type) throws IOException {
+			try {
+				return type.parse(scanner);
+			} catch (InvalidPlyFormatException e) {
+				checkError();
+				throw e;
+			}
+		}
+
+		@Override
+		public void needEnd() throws IOException {
+			boolean hasNext=scanner.hasNext();
+			checkError();
+			if (hasNext)
+				throw new InvalidPlyFormatException("Invalid file format: expected end of file, found "+scanner.next());
+		}
+
+		/**
+		 * Throws the last error of the underlying stream. The scanner treats errors as the end of the input, so they
+		 * would be reported as format errors, hiding cancellation among others.
+		 */
+		private void checkError() throws IOException {
+			IOException error=scanner.ioException();
+			if (error!=null) throw error;
+		}
+
+		@Override
+		public void close() throws IOException {
+			scanner.close();
+		}
+		
+	}
+	static class BinaryInput implements Input {
+		private final ReadableByteChannel channel;
+		private final BufferStrategy bufferStrategy;
+		private final ByteBuffer buffer;
+		private boolean closed=false;
+
+		/**
+		 * Creates a new input.
+		 * @param channel the channel, positioned at the data to read
+		 */
+		public BinaryInput(ReadableByteChannel channel, ByteOrder byteOrder, BufferStrategy bufferStrategy) {
+			this.channel=channel;
+			this.bufferStrategy=bufferStrategy;
+			buffer=bufferStrategy.acquire().order(byteOrder);
+			buffer.limit(0);
+		}
+
+		@Override
+		public Number read(Type type) throws IOException {
+			while (true) {
+				try {
+					return type.read(buffer);
+				} catch (BufferUnderflowException e) {}
+				fill();
+			}
+		}
+
+		/**
+		 * Makes sure that the buffer holds at least the specified number of bytes, and returns it. The argument must
+		 * not be greater than the size of a single value.
+		 */
+		ByteBuffer require(int count) throws IOException {
+			while (buffer.remaining()<count) fill();
+			return buffer;
+		}
+
+		private void fill() throws IOException {
+			int position=buffer.position();
+			int limit=buffer.limit();
+
+			if (position>buffer.capacity()-20) {
+				buffer.compact();
+				limit=limit-position;
+				position=0;
+			}
+
+			buffer.limit(buffer.capacity());
+			buffer.position(limit);
+			int read=channel.read(buffer);
+			if (read==-1) throw new InvalidPlyFormatException("Unexpected end of file");
+			if (read==0) throw new AssertionError();
+			buffer.limit(limit+read);
+			buffer.position(position);
 		}
 
 		@Override
@@ -598,9 +1952,46 @@ public final class PlyReader {
 
 		@Override
 		public void close() throws IOException {
-			channel.close();
+			if (closed) return;
+			closed=true;
+			try {
+				channel.close();
+			} finally {
+				bufferStrategy.release(buffer);
+			}
+		}
+
+	}
+	/**
+	 * Reads a file channel from a position with positional reads, so that multiple channels can read the same file
+	 * concurrently. Closing this channel doesn't close the file channel.
+	 */
+	private static class PositionalChannel implements ReadableByteChannel {
+		private final FileChannel channel;
+		private long position;
+		private boolean open=true;
+
+		public PositionalChannel(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
 		}
 
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			int read=channel.read(dst, position);
+			if (read>0) position+=read;
+			return read;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open=false;
+		}
 	}
 	/**
 	 * Reads a mesh from a PLY file.
@@ -615,16 +2006,4 @@ public final class PlyReader {
 		
 		return reader.readMesh();
 	}
-	
-	private static Type parse(String type) throws InvalidPlyFormatException {
-		if (type.equals("char")) return Type.CHAR;
-		if (type.equals("uchar")) return Type.UCHAR;
-		if (type.equals("short")) return Type.SHORT;
-		if (type.equals("ushort")) return Type.USHORT;
-		if (type.equals("int")) return Type.INT;
-		if (type.equals("uint")) return Type.UINT;
-		if (type.equals("float")) return Type.FLOAT;
-		if (type.equals("double")) return Type.DOUBLE;
-		throw new InvalidPlyFormatException("Unrecognized type: "+type);
-	}
 }
@@ -0,0 +1,934 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes PLY files with arbitrary elements and properties, taking the values from primitive arrays or buffers. The
+ * schema of the file is declared by adding elements, and binding each of their properties to a column holding the
+ * values of the property for all records:
+ * <pre>
+ * PlySchemaWriter writer=new PlySchemaWriter();
+ * writer.addElement("vertex", vertexCount)
+ *         .property("x", Type.FLOAT, x)
+ *         .property("y", Type.FLOAT, y)
+ *         .property("z", Type.FLOAT, z)
+ *         .property("intensity", Type.USHORT, intensity);
+ * writer.addElement("face", faceCount)
+ *         .listProperty("vertex_indices", Type.UCHAR, Type.INT, 3, indices);
+ * writer.write(null, file);
+ * </pre>
+ * Alternatively, the properties of an element can be declared without columns, and its records supplied as a single
+ * buffer in the binary layout of the file.
+ * <p>
+ * A column whose values have the same width as the type of the property is written bit for bit, so the values of
+ * unsigned types can be stored in the signed Java type of the same width, such as {@code short} for {@code ushort}.
+ * Other values are converted: integers must be in the range of integral types, and floating point values written as
+ * integers must be integers themselves, otherwise an {@code IllegalArgumentException} is thrown; values written as
+ * floating point numbers are rounded if necessary.
+ * <p>
+ * In the binary formats, the records are assembled one block at a time, each column filling in its values for the whole
+ * block in a single pass. If the columns are written without conversion, the values are copied with bulk operations
+ * where the layout allows, and buffers of records in the byte order of the file are written to the file directly.
+ * <p>
+ * The arrays and buffers are not copied; they are read when a file is written, and must not be modified meanwhile.
+ * @author Kazó Csaba
+ */
+public final class PlySchemaWriter {
+	private PlyFormat format=PlyFormat.BINARY_LITTLE_ENDIAN;
+	private BufferStrategy bufferStrategy=BufferStrategy.DEFAULT;
+	private ProgressListener progressListener=null;
+	private CancellationToken cancellationToken=null;
+	private final List<ElementSchema> elements=new ArrayList<>();
+
+	/**
+	 * The declaration of an element of a {@link PlySchemaWriter}, with the columns of its properties. The properties are
+	 * written in the order they are added.
+	 */
+	public final class ElementSchema {
+		private final Element element;
+		private final int count;
+		private final List<Column> columns=new ArrayList<>();
+		private ByteBuffer records=null;
+
+		ElementSchema(String name, int count) {
+			element=new Element(name, count);
+			this.count = count;
+		}
+
+		/**
+		 * Returns the name of the element.
+		 * @return the name of the element
+		 */
+		public String getName() {
+			return element.name;
+		}
+
+		/**
+		 * Returns the number of records of the element.
+		 * @return the number of records
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Adds a property whose values are taken from a {@code byte} array.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @param values the values of the property; only the first {@link #getCount()} values are written
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the array is too short
+		 */
+		public ElementSchema property(String name, Type type, byte[] values) {
+			return add(new ScalarProperty(name, type), new ByteColumn(name, type, values), values.length);
+		}
+
+		/**
+		 * Adds a property whose values are taken from a {@code short} array.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @param values the values of the property; only the first {@link #getCount()} values are written
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the array is too short
+		 */
+		public ElementSchema property(String name, Type type, short[] values) {
+			return add(new ScalarProperty(name, type), new ShortColumn(name, type, values), values.length);
+		}
+
+		/**
+		 * Adds a property whose values are taken from an {@code int} array.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @param values the values of the property; only the first {@link #getCount()} values are written
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the array is too short
+		 */
+		public ElementSchema property(String name, Type type, int[] values) {
+			return add(new ScalarProperty(name, type), new IntColumn(name, type, values), values.length);
+		}
+
+		/**
+		 * Adds a property whose values are taken from a {@code long} array.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @param values the values of the property; only the first {@link #getCount()} values are written
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the array is too short
+		 */
+		public ElementSchema property(String name, Type type, long[] values) {
+			return add(new ScalarProperty(name, type), new LongColumn(name, type, values), values.length);
+		}
+
+		/**
+		 * Adds a property whose values are taken from a {@code float} array.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @param values the values of the property; only the first {@link #getCount()} values are written
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the array is too short
+		 */
+		public ElementSchema property(String name, Type type, float[] values) {
+			return add(new ScalarProperty(name, type), new FloatColumn(name, type, values), values.length);
+		}
+
+		/**
+		 * Adds a property whose values are taken from a {@code double} array.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @param values the values of the property; only the first {@link #getCount()} values are written
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the array is too short
+		 */
+		public ElementSchema property(String name, Type type, double[] values) {
+			return add(new ScalarProperty(name, type), new DoubleColumn(name, type, values), values.length);
+		}
+
+		/**
+		 * Adds a property whose values are taken from a buffer. The buffer contains the values in the binary encoding of
+		 * the type of the property, in the byte order of the buffer, starting at its current position. The position of
+		 * the buffer is not changed.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @param values the values of the property; only the first {@link #getCount()} values are written
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the buffer is too short
+		 */
+		public ElementSchema property(String name, Type type, ByteBuffer values) {
+			ByteBuffer column=values.slice().order(values.order());
+			return add(new ScalarProperty(name, type), new BufferColumn(name, type, column), column.remaining()/type.size);
+		}
+
+		/**
+		 * Adds a property without a column. The values of such properties are taken from the buffer specified with
+		 * {@link #records(ByteBuffer)}.
+		 * @param name the name of the property
+		 * @param type the type of the property
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used
+		 */
+		public ElementSchema property(String name, Type type) {
+			return add(new ScalarProperty(name, type), null, count);
+		}
+
+		/**
+		 * Adds a list property with the same number of values in each record, such as the vertex indices of triangles.
+		 * @param name the name of the property
+		 * @param countType the type of the number of values in the list
+		 * @param elementType the type of the values in the list
+		 * @param size the number of values in each record
+		 * @param values the values of the lists of all records, one after the other
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, the size is negative or is not in the
+		 * range of the count type, or the array is too short
+		 */
+		public ElementSchema listProperty(String name, Type countType, Type elementType, int size, int[] values) {
+			if (size<0 || !countType.contains(size)) throw new IllegalArgumentException("Invalid list size: "+size);
+			return add(new ListProperty(name, countType, elementType), new ListColumn(name, countType, size, null, new IntColumn(name, elementType, values)),
+					size==0 ? count : values.length/size);
+		}
+
+		/**
+		 * Adds a list property with a varying number of values. The values of record {@code i} are
+		 * {@code values[offsets[i]]} to {@code values[offsets[i+1]-1]}.
+		 * @param name the name of the property
+		 * @param countType the type of the number of values in the list
+		 * @param elementType the type of the values in the list
+		 * @param offsets the index of the first value of each record in {@code values}, followed by the end of the values
+		 * of the last record; it must have at least {@link #getCount()}+1 elements
+		 * @param values the values of the lists of all records
+		 * @return this element
+		 * @throws IllegalArgumentException if the name is invalid or already used, or the offset array is too short
+		 */
+		public ElementSchema listProperty(String name, Type countType, Type elementType, int[] offsets, int[] values) {
+			return add(new ListProperty(name, countType, elementType), new ListColumn(name, countType, -1, offsets, new IntColumn(name, elementType, values)),
+					offsets.length-1);
+		}
+
+		/**
+		 * Sets the buffer holding the records of the element. The buffer contains the records in the binary layout of
+		 * the file, in the byte order of the buffer, starting at its current position. All properties of the element must
+		 * be added without columns. The position of the buffer is not changed.
+		 * @param data the records of the element
+		 * @return this element
+		 * @throws IllegalArgumentException if the buffer doesn't contain the declared number of records of the
+		 * properties added so far
+		 */
+		public ElementSchema records(ByteBuffer data) {
+			synchronized (PlySchemaWriter.this) {
+				ByteBuffer buffer=data.slice().order(data.order());
+				int recordSize=element.recordSize();
+				if (recordSize!=-1 && buffer.remaining()/Math.max(1, recordSize)<count) throw new IllegalArgumentException("Too few records for element "+element.name);
+				records=buffer;
+				return this;
+			}
+		}
+
+		private ElementSchema add(Property property, Column column, int length) {
+			synchronized (PlySchemaWriter.this) {
+				checkName(property.name);
+				for (Property p: element.properties)
+					if (p.name.equals(property.name)) throw new IllegalArgumentException("Duplicate property: "+property.name);
+				if (length<count) throw new IllegalArgumentException("Too few values for property "+property.name);
+				element.properties.add(property);
+				columns.add(column);
+				return this;
+			}
+		}
+
+		/**
+		 * Checks that the element can be written.
+		 */
+		private void check() {
+			if (records!=null) {
+				for (Column column: columns)
+					if (column!=null) throw new IllegalStateException("The records of element "+element.name+" are specified with both a buffer and columns");
+				if ((long)element.recordSize()*count>records.remaining()) throw new IllegalStateException("Too few records for element "+element.name);
+			} else if (columns.contains(null)) {
+				throw new IllegalStateException("No values for some properties of element "+element.name);
+			}
+		}
+
+		/**
+		 * Returns the size of a record in the binary format, or -1 if it varies.
+		 */
+		private int recordSize() {
+			int size=0;
+			for (Column column: columns) {
+				if (column.size()==-1) return -1;
+				size+=column.size();
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Creates a new writer with an empty schema, writing files in {@link PlyFormat#BINARY_LITTLE_ENDIAN} format.
+	 */
+	public PlySchemaWriter() {}
+
+	/**
+	 * Sets the format of the files written. The default is {@link PlyFormat#BINARY_LITTLE_ENDIAN}.
+	 * @param format the format of the body
+	 * @return this writer
+	 */
+	public synchronized PlySchemaWriter setFormat(PlyFormat format) {
+		if (format==null) throw new NullPointerException();
+		this.format = format;
+		return this;
+	}
+
+	/**
+	 * Sets how the buffer used for assembling the records is allocated. The default is {@link BufferStrategy#DEFAULT}.
+	 * @param bufferStrategy the strategy for allocating buffers
+	 * @return this writer
+	 */
+	public synchronized PlySchemaWriter setBufferStrategy(BufferStrategy bufferStrategy) {
+		if (bufferStrategy==null) throw new NullPointerException();
+		this.bufferStrategy = bufferStrategy;
+		return this;
+	}
+
+	/**
+	 * Sets the listener receiving the progress of writing. The total number of bytes is reported as -1. By default there
+	 * is no listener.
+	 * @param listener the listener, or {@code null} to remove the listener
+	 * @return this writer
+	 */
+	public synchronized PlySchemaWriter setProgressListener(ProgressListener listener) {
+		this.progressListener = listener;
+		return this;
+	}
+
+	/**
+	 * Sets the token for cancelling writes. Once it is cancelled, an {@link OperationCancelledException} is thrown, and
+	 * a partially written file is deleted. By default there is no token.
+	 * @param token the cancellation token, or {@code null} to remove the token
+	 * @return this writer
+	 */
+	public synchronized PlySchemaWriter setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+		return this;
+	}
+
+	/**
+	 * Adds an element to the schema. The elements are written in the order they are added.
+	 * @param name the name of the element
+	 * @param count the number of records of the element
+	 * @return the declaration of the element, for adding its properties
+	 * @throws IllegalArgumentException if the name is invalid or already used, or the count is negative
+	 */
+	public synchronized ElementSchema addElement(String name, int count) {
+		checkName(name);
+		if (count<0) throw new IllegalArgumentException("Negative count: "+count);
+		for (ElementSchema element: elements)
+			if (element.getName().equals(name)) throw new IllegalArgumentException("Duplicate element: "+name);
+		ElementSchema element=new ElementSchema(name, count);
+		elements.add(element);
+		return element;
+	}
+
+	private static void checkName(String name) {
+		if (name.isEmpty()) throw new IllegalArgumentException("Empty name");
+		for (int i=0; i<name.length(); i++)
+			if (name.charAt(i)<=' ' || name.charAt(i)>'~') throw new IllegalArgumentException("Invalid name: "+name);
+	}
+
+	/**
+	 * Writes the elements to a file.
+	 * @param comment an optional sequence of comments separated by new line characters that will be included
+	 * in the header of the PLY file
+	 * @param output the file to write to; if the write is cancelled, the partially written file is deleted
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalStateException if some properties of an element have no values
+	 * @throws IllegalArgumentException if a value cannot be represented by the type of its property
+	 */
+	public synchronized void write(String comment, Path output) throws IOException {
+		checkElements();
+		try (FileChannel channel=FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			write(comment, channel);
+		} catch (OperationCancelledException e) {
+			Files.deleteIfExists(output);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the elements to a stream. The stream is not closed.
+	 * @param comment an optional sequence of comments separated by new line characters that will be included
+	 * in the header of the PLY file
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalStateException if some properties of an element have no values
+	 * @throws IllegalArgumentException if a value cannot be represented by the type of its property
+	 */
+	public synchronized void write(String comment, OutputStream out) throws IOException {
+		checkElements();
+		write(comment, Channels.newChannel(out));
+		out.flush();
+	}
+
+	private void checkElements() {
+		for (ElementSchema element: elements)
+			element.check();
+	}
+
+	private void write(String comment, WritableByteChannel channel) throws IOException {
+		List<Element> headerElements=new ArrayList<>(elements.size());
+		long totalElements=0;
+		for (ElementSchema element: elements) {
+			headerElements.add(element.element);
+			totalElements+=element.count;
+		}
+		List<String> comments=new ArrayList<>();
+		if (comment!=null) {
+			BufferedReader r=new BufferedReader(new StringReader(comment));
+			String commentLine;
+			while ((commentLine=r.readLine())!=null)
+				comments.add(commentLine);
+		}
+		Progress progress=new Progress(progressListener, cancellationToken, totalElements, -1);
+		ByteBuffer header=ByteBuffer.wrap(Header.format(format, headerElements, comments, Collections.<String>emptyList()));
+		writeFully(channel, header, progress);
+
+		if (format.isBinary()) {
+			ByteBuffer buffer=bufferStrategy.acquire().order(format.byteOrder);
+			try {
+				for (ElementSchema element: elements)
+					writeBinary(element, channel, buffer, progress);
+			} finally {
+				bufferStrategy.release(buffer);
+			}
+		} else {
+			Writer writer=new BufferedWriter(new OutputStreamWriter(progress.wrap(Channels.newOutputStream(channel)), StandardCharsets.US_ASCII), 1<<16);
+			for (ElementSchema element: elements)
+				writeAscii(element, writer, progress);
+			writer.flush();
+		}
+		progress.finish();
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer, Progress progress) throws IOException {
+		int length=buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		progress.bytes(length);
+	}
+
+	private static void drain(WritableByteChannel channel, ByteBuffer buffer, Progress progress) throws IOException {
+		buffer.flip();
+		writeFully(channel, buffer, progress);
+		buffer.clear();
+	}
+
+	private void writeBinary(ElementSchema element, WritableByteChannel channel, ByteBuffer buffer, Progress progress) throws IOException {
+		int count=element.count;
+		if (element.records!=null) {
+			writeRecords(element, channel, buffer, progress);
+			return;
+		}
+		int recordSize=element.recordSize();
+		if (recordSize>0 && recordSize<=buffer.capacity()) {
+			// fixed layout: each column fills in its values for a block of records
+			int[] offsets=new int[element.columns.size()];
+			for (int c=1; c<offsets.length; c++)
+				offsets[c]=offsets[c-1]+element.columns.get(c-1).size();
+			int blockSize=buffer.capacity()/recordSize;
+			for (int from=0; from<count; from+=blockSize) {
+				int records=Math.min(blockSize, count-from);
+				for (int c=0; c<offsets.length; c++)
+					element.columns.get(c).fill(buffer, offsets[c], recordSize, from, records);
+				buffer.position(records*recordSize);
+				drain(channel, buffer, progress);
+				progress.elements(records);
+			}
+		} else {
+			for (int index=0; index<count; index++) {
+				for (Column column: element.columns)
+					column.write(channel, buffer, progress, index);
+				if ((index & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
+			}
+			if (buffer.position()>0) drain(channel, buffer, progress);
+			progress.elements(count & Progress.MASK);
+		}
+	}
+
+	/**
+	 * Writes the records of an element specified as a buffer.
+	 */
+	private void writeRecords(ElementSchema element, WritableByteChannel channel, ByteBuffer buffer, Progress progress) throws IOException {
+		int count=element.count;
+		int recordSize=element.element.recordSize();
+		ByteBuffer records=element.records.duplicate().order(element.records.order());
+		boolean swap=false;
+		for (Property property: element.element.properties)
+			if (((ScalarProperty)property).type.size>1 && records.order()!=format.byteOrder) swap=true;
+		if (!swap) {
+			// the layouts match, the records are written as they are
+			int blockSize=Math.max(1, buffer.capacity()/Math.max(1, recordSize));
+			for (int from=0; from<count; from+=blockSize) {
+				int blockRecords=Math.min(blockSize, count-from);
+				records.limit((from+blockRecords)*recordSize).position(from*recordSize);
+				writeFully(channel, records, progress);
+				progress.elements(blockRecords);
+			}
+			return;
+		}
+		// the byte order differs, the values are swapped one by one
+		for (int index=0; index<count; index++) {
+			int source=index*recordSize;
+			for (Property property: element.element.properties) {
+				int size=((ScalarProperty)property).type.size;
+				if (buffer.remaining()<size) drain(channel, buffer, progress);
+				copyRaw(records, source, buffer, buffer.position(), size);
+				buffer.position(buffer.position()+size);
+				source+=size;
+			}
+			if ((index & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
+		}
+		if (buffer.position()>0) drain(channel, buffer, progress);
+		progress.elements(count & Progress.MASK);
+	}
+
+	/**
+	 * Copies a binary value between buffers, converting between their byte orders.
+	 */
+	static void copyRaw(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int size) {
+		switch (size) {
+			case 1: dst.put(dstIndex, src.get(srcIndex)); break;
+			case 2: dst.putShort(dstIndex, src.getShort(srcIndex)); break;
+			case 4: dst.putInt(dstIndex, src.getInt(srcIndex)); break;
+			case 8: dst.putLong(dstIndex, src.getLong(srcIndex)); break;
+			default: throw new AssertionError();
+		}
+	}
+
+	private void writeAscii(ElementSchema element, Writer writer, Progress progress) throws IOException {
+		int count=element.count;
+		ByteBuffer records=element.records==null ? null : element.records.duplicate().order(element.records.order());
+		int recordSize=element.element.recordSize();
+		for (int index=0; index<count; index++) {
+			if (records!=null) {
+				int position=index*recordSize;
+				for (int p=0; p<element.element.properties.size(); p++) {
+					Type type=((ScalarProperty)element.element.properties.get(p)).type;
+					if (p>0) writer.write(' ');
+					writer.write(type.isIntegral() ? Long.toString(type.getLong(records, position)) :
+							type==Type.FLOAT ? Float.toString((float)type.getDouble(records, position)) : Double.toString(type.getDouble(records, position)));
+					position+=type.size;
+				}
+			} else {
+				for (int c=0; c<element.columns.size(); c++) {
+					if (c>0) writer.write(' ');
+					element.columns.get(c).format(writer, index);
+				}
+			}
+			writer.write('\n');
+			if ((index & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
+		}
+		progress.elements(count & Progress.MASK);
+	}
+
+	/**
+	 * The values of a property for all records of an element.
+	 */
+	private static abstract class Column {
+		/**
+		 * Returns the number of bytes the property occupies in a binary record, or -1 if it varies.
+		 */
+		abstract int size();
+		/**
+		 * Writes the binary values of a block of records at fixed positions of a buffer. Only called if the size is
+		 * fixed.
+		 * @param block the buffer to write to
+		 * @param offset the position of the value of the first record
+		 * @param stride the distance between the values of consecutive records
+		 * @param from the index of the first record
+		 * @param count the number of records
+		 */
+		abstract void fill(ByteBuffer block, int offset, int stride, int from, int count);
+		/**
+		 * Appends the binary value of a record to a buffer, draining it to the channel when it is full.
+		 */
+		abstract void write(WritableByteChannel channel, ByteBuffer buffer, Progress progress, int index) throws IOException;
+		/**
+		 * Writes the value of a record in ASCII format.
+		 */
+		abstract void format(Writer writer, int index) throws IOException;
+	}
+
+	/**
+	 * A column of a scalar property. The values are written without conversion if the width of the values equals the
+	 * size of the type, which the subclasses handle with specialized loops.
+	 */
+	private static abstract class ScalarColumn extends Column {
+		final String name;
+		final Type type;
+		/** Whether the values are written bit for bit. */
+		final boolean raw;
+
+		ScalarColumn(String name, Type type, boolean raw) {
+			this.name = name;
+			this.type = type;
+			this.raw = raw;
+		}
+
+		/** Returns a value as a signed integer; only used for integral values. */
+		abstract long getLong(int index);
+		/** Returns a value as a floating point number. */
+		abstract double getDouble(int index);
+		/** Returns whether the values are floating point numbers. */
+		abstract boolean isFloating();
+		/** Writes a value bit for bit at an index of a buffer. */
+		abstract void putRaw(ByteBuffer buffer, int position, int index);
+		/** Returns a value written bit for bit as an integer of the type, respecting unsignedness. */
+		abstract long getRawLong(int index);
+
+		/**
+		 * Returns a value converted to the integral type of the property.
+		 */
+		final long integral(int index) {
+			if (raw) return getRawLong(index);
+			long value;
+			if (isFloating()) {
+				double d=getDouble(index);
+				value=(long)d;
+				if (value!=d) throw new IllegalArgumentException("Value "+d+" of property "+name+" cannot be represented as "+type.keyword());
+			} else {
+				value=getLong(index);
+			}
+			if (!type.contains(value)) throw new IllegalArgumentException("Value "+value+" of property "+name+" cannot be represented as "+type.keyword());
+			return value;
+		}
+
+		final void put(ByteBuffer buffer, int position, int index) {
+			if (raw) {
+				putRaw(buffer, position, index);
+			} else if (type.isIntegral()) {
+				putIntegral(buffer, position, type, integral(index));
+			} else if (type==Type.FLOAT) {
+				buffer.putFloat(position, (float)getDouble(index));
+			} else {
+				buffer.putDouble(position, getDouble(index));
+			}
+		}
+
+		@Override
+		int size() {
+			return type.size;
+		}
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			int position=offset;
+			for (int i=from; i<from+count; i++) {
+				put(block, position, i);
+				position+=stride;
+			}
+		}
+
+		@Override
+		void write(WritableByteChannel channel, ByteBuffer buffer, Progress progress, int index) throws IOException {
+			if (buffer.remaining()<type.size) drain(channel, buffer, progress);
+			put(buffer, buffer.position(), index);
+			buffer.position(buffer.position()+type.size);
+		}
+
+		@Override
+		void format(Writer writer, int index) throws IOException {
+			if (type.isIntegral())
+				writer.write(Long.toString(integral(index)));
+			else if (type==Type.FLOAT)
+				writer.write(Float.toString((float)getDouble(index)));
+			else
+				writer.write(Double.toString(getDouble(index)));
+		}
+	}
+
+	static void putIntegral(ByteBuffer buffer, int position, Type type, long value) {
+		switch (type.size) {
+			case 1: buffer.put(position, (byte)value); break;
+			case 2: buffer.putShort(position, (short)value); break;
+			case 4: buffer.putInt(position, (int)value); break;
+			default: throw new AssertionError();
+		}
+	}
+
+	/**
+	 * Returns a buffer positioned at an offset of a block, for bulk copies into it.
+	 */
+	private static ByteBuffer at(ByteBuffer block, int offset) {
+		ByteBuffer view=block.duplicate().order(block.order());
+		view.limit(view.capacity()).position(offset);
+		return view;
+	}
+
+	private static class ByteColumn extends ScalarColumn {
+		private final byte[] values;
+
+		ByteColumn(String name, Type type, byte[] values) {
+			super(name, type, type==Type.CHAR || type==Type.UCHAR);
+			this.values = values;
+		}
+
+		@Override long getLong(int index) { return values[index]; }
+		@Override double getDouble(int index) { return values[index]; }
+		@Override boolean isFloating() { return false; }
+		@Override void putRaw(ByteBuffer buffer, int position, int index) { buffer.put(position, values[index]); }
+		@Override long getRawLong(int index) { return type==Type.UCHAR ? values[index] & 0xFF : values[index]; }
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			if (!raw) {
+				super.fill(block, offset, stride, from, count);
+			} else if (stride==1) {
+				at(block, offset).put(values, from, count);
+			} else {
+				for (int i=from, position=offset; i<from+count; i++, position+=stride)
+					block.put(position, values[i]);
+			}
+		}
+	}
+
+	private static class ShortColumn extends ScalarColumn {
+		private final short[] values;
+
+		ShortColumn(String name, Type type, short[] values) {
+			super(name, type, type==Type.SHORT || type==Type.USHORT);
+			this.values = values;
+		}
+
+		@Override long getLong(int index) { return values[index]; }
+		@Override double getDouble(int index) { return values[index]; }
+		@Override boolean isFloating() { return false; }
+		@Override void putRaw(ByteBuffer buffer, int position, int index) { buffer.putShort(position, values[index]); }
+		@Override long getRawLong(int index) { return type==Type.USHORT ? values[index] & 0xFFFF : values[index]; }
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			if (!raw) {
+				super.fill(block, offset, stride, from, count);
+			} else if (stride==2) {
+				at(block, offset).asShortBuffer().put(values, from, count);
+			} else {
+				for (int i=from, position=offset; i<from+count; i++, position+=stride)
+					block.putShort(position, values[i]);
+			}
+		}
+	}
+
+	private static class IntColumn extends ScalarColumn {
+		private final int[] values;
+
+		IntColumn(String name, Type type, int[] values) {
+			super(name, type, type==Type.INT || type==Type.UINT);
+			this.values = values;
+		}
+
+		@Override long getLong(int index) { return values[index]; }
+		@Override double getDouble(int index) { return values[index]; }
+		@Override boolean isFloating() { return false; }
+		@Override void putRaw(ByteBuffer buffer, int position, int index) { buffer.putInt(position, values[index]); }
+		@Override long getRawLong(int index) { return type==Type.UINT ? values[index] & 0xFFFFFFFFL : values[index]; }
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			if (!raw) {
+				super.fill(block, offset, stride, from, count);
+			} else if (stride==4) {
+				at(block, offset).asIntBuffer().put(values, from, count);
+			} else {
+				for (int i=from, position=offset; i<from+count; i++, position+=stride)
+					block.putInt(position, values[i]);
+			}
+		}
+	}
+
+	private static class LongColumn extends ScalarColumn {
+		private final long[] values;
+
+		LongColumn(String name, Type type, long[] values) {
+			// no PLY type is 64 bits wide, so the values are always converted
+			super(name, type, false);
+			this.values = values;
+		}
+
+		@Override long getLong(int index) { return values[index]; }
+		@Override double getDouble(int index) { return values[index]; }
+		@Override boolean isFloating() { return false; }
+		@Override void putRaw(ByteBuffer buffer, int position, int index) { throw new AssertionError(); }
+		@Override long getRawLong(int index) { throw new AssertionError(); }
+	}
+
+	private static class FloatColumn extends ScalarColumn {
+		private final float[] values;
+
+		FloatColumn(String name, Type type, float[] values) {
+			super(name, type, type==Type.FLOAT);
+			this.values = values;
+		}
+
+		@Override long getLong(int index) { throw new AssertionError(); }
+		@Override double getDouble(int index) { return values[index]; }
+		@Override boolean isFloating() { return true; }
+		@Override void putRaw(ByteBuffer buffer, int position, int index) { buffer.putFloat(position, values[index]); }
+		@Override long getRawLong(int index) { throw new AssertionError(); }
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			if (!raw) {
+				super.fill(block, offset, stride, from, count);
+			} else if (stride==4) {
+				at(block, offset).asFloatBuffer().put(values, from, count);
+			} else {
+				for (int i=from, position=offset; i<from+count; i++, position+=stride)
+					block.putFloat(position, values[i]);
+			}
+		}
+	}
+
+	private static class DoubleColumn extends ScalarColumn {
+		private final double[] values;
+
+		DoubleColumn(String name, Type type, double[] values) {
+			super(name, type, type==Type.DOUBLE);
+			this.values = values;
+		}
+
+		@Override long getLong(int index) { throw new AssertionError(); }
+		@Override double getDouble(int index) { return values[index]; }
+		@Override boolean isFloating() { return true; }
+		@Override void putRaw(ByteBuffer buffer, int position, int index) { buffer.putDouble(position, values[index]); }
+		@Override long getRawLong(int index) { throw new AssertionError(); }
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			if (!raw) {
+				super.fill(block, offset, stride, from, count);
+			} else if (stride==8) {
+				at(block, offset).asDoubleBuffer().put(values, from, count);
+			} else {
+				for (int i=from, position=offset; i<from+count; i++, position+=stride)
+					block.putDouble(position, values[i]);
+			}
+		}
+	}
+
+	/**
+	 * A column stored in a buffer in the binary encoding of the type of the property.
+	 */
+	private static class BufferColumn extends ScalarColumn {
+		private final ByteBuffer values;
+
+		BufferColumn(String name, Type type, ByteBuffer values) {
+			super(name, type, true);
+			this.values = values;
+		}
+
+		@Override long getLong(int index) { return type.getLong(values, index*type.size); }
+		@Override double getDouble(int index) { return type.getDouble(values, index*type.size); }
+		@Override boolean isFloating() { return !type.isIntegral(); }
+		@Override void putRaw(ByteBuffer buffer, int position, int index) { copyRaw(values, index*type.size, buffer, position, type.size); }
+		@Override long getRawLong(int index) { return type.getLong(values, index*type.size); }
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			if (stride==type.size && (type.size==1 || values.order()==block.order())) {
+				ByteBuffer source=values.duplicate();
+				source.limit((from+count)*type.size).position(from*type.size);
+				at(block, offset).put(source);
+			} else {
+				for (int i=from, position=offset; i<from+count; i++, position+=stride)
+					copyRaw(values, i*type.size, block, position, type.size);
+			}
+		}
+	}
+
+	/**
+	 * A column of a list property.
+	 */
+	private static class ListColumn extends Column {
+		private final String name;
+		private final Type countType;
+		/** The number of values in each list, or -1 if the lists are specified by offsets. */
+		private final int fixedSize;
+		private final int[] offsets;
+		private final IntColumn values;
+
+		ListColumn(String name, Type countType, int fixedSize, int[] offsets, IntColumn values) {
+			this.name = name;
+			this.countType = countType;
+			this.fixedSize = fixedSize;
+			this.offsets = offsets;
+			this.values = values;
+		}
+
+		private int start(int index) {
+			return fixedSize!=-1 ? index*fixedSize : offsets[index];
+		}
+
+		private int length(int index) {
+			if (fixedSize!=-1) return fixedSize;
+			int length=offsets[index+1]-offsets[index];
+			if (length<0 || !countType.contains(length)) throw new IllegalArgumentException("Invalid list length "+length+" in property "+name);
+			if (offsets[index]<0 || offsets[index+1]>values.values.length) throw new IllegalArgumentException("Invalid offset in property "+name);
+			return length;
+		}
+
+		@Override
+		int size() {
+			return fixedSize==-1 ? -1 : countType.size+fixedSize*values.type.size;
+		}
+
+		@Override
+		void fill(ByteBuffer block, int offset, int stride, int from, int count) {
+			int valueSize=values.type.size;
+			int position=offset;
+			for (int i=from; i<from+count; i++) {
+				putIntegral(block, position, countType, fixedSize);
+				int valuePosition=position+countType.size;
+				for (int v=start(i), end=v+fixedSize; v<end; v++) {
+					values.put(block, valuePosition, v);
+					valuePosition+=valueSize;
+				}
+				position+=stride;
+			}
+		}
+
+		@Override
+		void write(WritableByteChannel channel, ByteBuffer buffer, Progress progress, int index) throws IOException {
+			int length=length(index);
+			if (buffer.remaining()<countType.size) drain(channel, buffer, progress);
+			putIntegral(buffer, buffer.position(), countType, length);
+			buffer.position(buffer.position()+countType.size);
+			for (int v=start(index), end=v+length; v<end; v++)
+				values.write(channel, buffer, progress, v);
+		}
+
+		@Override
+		void format(Writer writer, int index) throws IOException {
+			int length=length(index);
+			writer.write(Integer.toString(length));
+			for (int v=start(index), end=v+length; v<end; v++) {
+				writer.write(' ');
+				values.format(writer, v);
+			}
+		}
+	}
+}
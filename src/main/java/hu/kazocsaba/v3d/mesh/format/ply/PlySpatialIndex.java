@@ -0,0 +1,142 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A spatial index of the vertices of a binary PLY file, used by {@link PlyReader#readVertices(hu.kazocsaba.math.matrix.Vector3, hu.kazocsaba.math.matrix.Vector3)}
+ * to read only the parts of the file that can contain vertices in a region. The vertex element is divided into blocks
+ * of a fixed number of consecutive vertices, and the index stores the bounding box of each block. Since the vertices
+ * of a block occupy a contiguous byte range of the file, a query only needs to decode the blocks whose bounding box
+ * overlaps the region. The index is most effective if the vertices are ordered spatially, for example by
+ * {@link PlyWriter#setReorder(boolean)}.
+ * <p>
+ * The index is stored in a sidecar file next to the PLY file, named by appending {@code .idx} to the file name. It
+ * records the size and modification time of the PLY file, and it is ignored if the file has changed since the index
+ * was built.
+ * @author Kazó Csaba
+ * @see PlyReader#buildSpatialIndex()
+ */
+public final class PlySpatialIndex {
+	/** The default number of vertices in a block. */
+	public static final int DEFAULT_BLOCK_SIZE=4096;
+
+	private static final int MAGIC=0x504C5949; // "PLYI"
+	private static final int VERSION=1;
+
+	private final long fileSize;
+	private final long fileModified;
+	private final long vertexCount;
+	private final int blockSize;
+	/** The bounding box of each block: minimum x, y, z, then maximum x, y, z. */
+	private final double[] bounds;
+
+	PlySpatialIndex(long fileSize, long fileModified, long vertexCount, int blockSize, double[] bounds) {
+		this.fileSize = fileSize;
+		this.fileModified = fileModified;
+		this.vertexCount = vertexCount;
+		this.blockSize = blockSize;
+		this.bounds = bounds;
+	}
+
+	/**
+	 * Returns the path of the sidecar file storing the index of a PLY file.
+	 * @param file the PLY file
+	 * @return the path of the index file
+	 */
+	public static Path sidecarPath(Path file) {
+		return file.resolveSibling(file.getFileName()+".idx");
+	}
+
+	/**
+	 * Returns the number of vertices in a block.
+	 * @return the block size
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns the number of blocks.
+	 * @return the number of blocks the vertex element is divided into
+	 */
+	public int getBlockCount() {
+		return bounds.length/6;
+	}
+
+	/**
+	 * Returns the number of vertices in a block; only the last block can have fewer vertices than the block size.
+	 */
+	int blockVertexCount(int block) {
+		return (int)Math.min(blockSize, vertexCount-(long)block*blockSize);
+	}
+
+	/**
+	 * Returns whether the bounding box of a block intersects a box.
+	 * @param block the index of the block
+	 * @param min the minimum x, y and z coordinates of the box
+	 * @param max the maximum x, y and z coordinates of the box
+	 */
+	boolean overlaps(int block, double[] min, double[] max) {
+		for (int axis=0; axis<3; axis++)
+			if (bounds[block*6+axis]>max[axis] || bounds[block*6+3+axis]<min[axis]) return false;
+		return true;
+	}
+
+	/**
+	 * Writes this index to the sidecar file of a PLY file.
+	 */
+	void save(Path file) throws IOException {
+		try (OutputStream out=Files.newOutputStream(sidecarPath(file))) {
+			DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeLong(fileSize);
+			dos.writeLong(fileModified);
+			dos.writeLong(vertexCount);
+			dos.writeInt(blockSize);
+			dos.writeInt(getBlockCount());
+			for (double value: bounds)
+				dos.writeDouble(value);
+			dos.flush();
+		}
+	}
+
+	/**
+	 * Reads the index of a PLY file from its sidecar file.
+	 * @param file the PLY file
+	 * @param vertexCount the number of vertices in the file
+	 * @return the index, or {@code null} if there is no index, or it doesn't belong to the current version of the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	static PlySpatialIndex load(Path file, long vertexCount) throws IOException {
+		BasicFileAttributes attributes=Files.readAttributes(file, BasicFileAttributes.class);
+		try (InputStream in=Files.newInputStream(sidecarPath(file))) {
+			DataInputStream dis=new DataInputStream(new BufferedInputStream(in));
+			if (dis.readInt()!=MAGIC || dis.readInt()!=VERSION) return null;
+			long fileSize=dis.readLong();
+			long fileModified=dis.readLong();
+			if (fileSize!=attributes.size() || fileModified!=attributes.lastModifiedTime().toMillis()) return null;
+			if (dis.readLong()!=vertexCount) return null;
+			int blockSize=dis.readInt();
+			int blockCount=dis.readInt();
+			if (blockSize<=0 || blockCount>Integer.MAX_VALUE/6 || blockCount!=(vertexCount+blockSize-1)/blockSize) return null;
+			double[] bounds=new double[blockCount*6];
+			for (int i=0; i<bounds.length; i++)
+				bounds[i]=dis.readDouble();
+			return new PlySpatialIndex(fileSize, fileModified, vertexCount, blockSize, bounds);
+		} catch (NoSuchFileException | EOFException e) {
+			return null;
+		}
+	}
+}
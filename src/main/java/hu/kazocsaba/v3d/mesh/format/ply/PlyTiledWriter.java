@@ -0,0 +1,304 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.PointList;
+
+/**
+ * Writes a large point list as a set of PLY files, each containing the points in a spatial tile. The bounding box of the
+ * points is divided by an adaptive octree: an octree cell containing more points than the maximum tile size is split
+ * into its eight octants, so dense regions are divided into smaller tiles than sparse ones. The tiles are written in
+ * parallel, along with a manifest listing the bounds and point counts of the tiles. Only the points of the tiles being
+ * written are copied at any time, so the memory needed besides the point list is proportional to the parallelism and
+ * the maximum tile size, plus a few integers per point for the order of the points.
+ * <p>
+ * The octree is built from the number of points in the cells of the deepest level, which are counted in a single pass
+ * over the points. A cell of the deepest level containing more points than the maximum tile size is written as
+ * multiple tiles with the same bounds, so no tile has more points than the maximum.
+ * <p>
+ * The tiles are named after their octree cell: {@code r.ply} for the root, and {@code r} followed by the index of the
+ * octant on each level otherwise, such as {@code r07.ply}; tiles sharing a cell get the suffixes {@code -1},
+ * {@code -2} and so on. The manifest, {@value #MANIFEST_NAME}, is a JSON document of the form
+ * <pre>
+ * {
+ *   "pointCount": 1500000,
+ *   "tiles": [
+ *     {"file": "r0.ply", "pointCount": 1000000, "min": [0.0, 0.0, 0.0], "max": [0.5, 0.5, 0.5]},
+ *     ...
+ *   ]
+ * }</pre>
+ * where the bounds are those of the octree cell of the tile. Points with infinite or NaN coordinates are placed in the
+ * tiles of the nearest cell, like points on the boundary of the bounding box.
+ * @author Kazó Csaba
+ */
+public final class PlyTiledWriter {
+	/** The name of the manifest file written along with the tiles. */
+	public static final String MANIFEST_NAME="tiles.json";
+	/** The default maximum number of points in a tile. */
+	public static final int DEFAULT_MAX_TILE_SIZE=1<<20;
+	/** The maximum depth of the octree; the deepest level has 8<sup>7</sup> cells. */
+	private static final int MAX_DEPTH=7;
+
+	private final PlyWriter writer;
+	private int maxTileSize=DEFAULT_MAX_TILE_SIZE;
+	private int parallelism=Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * A tile written by a {@link PlyTiledWriter}.
+	 */
+	public static final class Tile {
+		private final Path file;
+		private final int pointCount;
+		private final Vector3 min;
+		private final Vector3 max;
+
+		Tile(Path file, int pointCount, Vector3 min, Vector3 max) {
+			this.file = file;
+			this.pointCount = pointCount;
+			this.min = min;
+			this.max = max;
+		}
+
+		/**
+		 * Returns the file containing the points of the tile.
+		 * @return the path of the tile
+		 */
+		public Path getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the number of points in the tile.
+		 * @return the number of points
+		 */
+		public int getPointCount() {
+			return pointCount;
+		}
+
+		/**
+		 * Returns the minimum corner of the octree cell of the tile.
+		 * @return the minimum x, y and z coordinates of the cell
+		 */
+		public Vector3 getMin() {
+			return min;
+		}
+
+		/**
+		 * Returns the maximum corner of the octree cell of the tile.
+		 * @return the maximum x, y and z coordinates of the cell
+		 */
+		public Vector3 getMax() {
+			return max;
+		}
+	}
+
+	/**
+	 * Creates a new tiled writer.
+	 * @param writer the writer whose settings are used for writing the tiles; its later changes do not affect this
+	 * object
+	 */
+	public PlyTiledWriter(PlyWriter writer) {
+		this.writer=writer.copy();
+	}
+
+	/**
+	 * Sets the maximum number of points in a tile. The default is {@value #DEFAULT_MAX_TILE_SIZE}.
+	 * @param maxTileSize the maximum number of points written to a single file
+	 * @return this writer
+	 * @throws IllegalArgumentException if the argument is not positive
+	 */
+	public synchronized PlyTiledWriter setMaxTileSize(int maxTileSize) {
+		if (maxTileSize<1) throw new IllegalArgumentException("Invalid tile size: "+maxTileSize);
+		this.maxTileSize = maxTileSize;
+		return this;
+	}
+
+	/**
+	 * Sets the number of tiles written concurrently. The default is the number of processors.
+	 * @param parallelism the number of threads to use
+	 * @return this writer
+	 * @throws IllegalArgumentException if the argument is not positive
+	 */
+	public synchronized PlyTiledWriter setParallelism(int parallelism) {
+		if (parallelism<1) throw new IllegalArgumentException("Invalid parallelism: "+parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Writes a point list as tiles into a directory. If {@code points} also implements {@link ColoredPointList}, or it
+	 * is a {@link PackedColorPointList}, the vertex colors are also written. Existing files with the same names are
+	 * overwritten. The point list is only accessed by the calling thread.
+	 * @param points the vertices
+	 * @param comment an optional sequence of comments separated by new line characters that will be included
+	 * in the header of each tile
+	 * @param directory the directory to write the tiles and the manifest to; it is created if it doesn't exist
+	 * @return the tiles written, in the order they are listed in the manifest
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized List<Tile> write(PointList points, String comment, Path directory) throws IOException {
+		int n=points.getPointCount();
+		double[] min={Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		double[] max={Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for (int i=0; i<n; i++) {
+			Vector3 p=points.getPoint(i);
+			for (int axis=0; axis<3; axis++) {
+				double value=p.getCoord(axis);
+				if (Double.isFinite(value)) {
+					min[axis]=Math.min(min[axis], value);
+					max[axis]=Math.max(max[axis], value);
+				}
+			}
+		}
+		for (int axis=0; axis<3; axis++) {
+			if (min[axis]>max[axis]) min[axis]=max[axis]=0;
+		}
+
+		// count the points in the cells of the deepest level, indexed by their Morton code
+		int depth=depth(n);
+		int cellsPerAxis=1<<depth;
+		int[] cells=new int[n];
+		int[] cellStarts=new int[(1<<3*depth)+1];
+		for (int i=0; i<n; i++) {
+			Vector3 p=points.getPoint(i);
+			long code=0;
+			for (int axis=0; axis<3; axis++) {
+				double extent=max[axis]-min[axis];
+				double value=extent>0 ? (p.getCoord(axis)-min[axis])/extent : 0;
+				// NaN and infinite coordinates are clamped
+				long cell=value>=0 ? Math.min((long)(value*cellsPerAxis), cellsPerAxis-1) : 0;
+				code|=LocalityOptimizer.spread(cell)<<axis;
+			}
+			cells[i]=(int)code;
+			cellStarts[(int)code+1]++;
+		}
+		for (int c=0; c<cellStarts.length-1; c++)
+			cellStarts[c+1]+=cellStarts[c];
+
+		// sort the points by cell, so that each octree cell is a contiguous range
+		int[] order=new int[n];
+		{
+			int[] next=cellStarts.clone();
+			for (int i=0; i<n; i++)
+				order[next[cells[i]]++]=i;
+		}
+		cells=null;
+
+		List<int[]> leaves=new ArrayList<>();
+		split(0, 0, depth, cellStarts, leaves);
+
+		Files.createDirectories(directory);
+		final List<Tile> tiles=new ArrayList<>();
+		final List<int[]> ranges=new ArrayList<>();
+		for (int[] leaf: leaves) {
+			int level=leaf[0], code=leaf[1];
+			int shift=3*(depth-level);
+			int from=cellStarts[code<<shift], to=cellStarts[(code+1)<<shift];
+			int parts=(to-from+maxTileSize-1)/maxTileSize;
+			double[] cellMin=new double[3], cellMax=new double[3];
+			for (int axis=0; axis<3; axis++) {
+				int cell=0;
+				for (int bit=0; bit<level; bit++)
+					cell|=(code>>>(3*bit+axis) & 1)<<bit;
+				double extent=(max[axis]-min[axis])/(1<<level);
+				cellMin[axis]=min[axis]+cell*extent;
+				cellMax[axis]=cell==(1<<level)-1 ? max[axis] : min[axis]+(cell+1)*extent;
+			}
+			StringBuilder name=new StringBuilder("r");
+			for (int l=level-1; l>=0; l--)
+				name.append(code>>>3*l & 7);
+			for (int part=0; part<parts; part++) {
+				int partFrom=from+(int)((long)(to-from)*part/parts);
+				int partTo=from+(int)((long)(to-from)*(part+1)/parts);
+				Path file=directory.resolve(name+(parts>1 ? "-"+(part+1) : "")+".ply");
+				tiles.add(new Tile(file, partTo-partFrom,
+						MatrixFactory.createVector(cellMin[0], cellMin[1], cellMin[2]),
+						MatrixFactory.createVector(cellMax[0], cellMax[1], cellMax[2])));
+				ranges.add(new int[]{partFrom, partTo});
+			}
+		}
+
+		// the points of the tiles are copied just before they are written, so only the tiles being written are held in
+		// memory besides the point list
+		for (int batch=0; batch<tiles.size(); batch+=parallelism) {
+			int batchEnd=Math.min(batch+parallelism, tiles.size());
+			List<Callable<Void>> tasks=new ArrayList<>(batchEnd-batch);
+			for (int i=batch; i<batchEnd; i++) {
+				final Tile tile=tiles.get(i);
+				final PointList tilePoints=LocalityOptimizer.select(points, order, ranges.get(i)[0], ranges.get(i)[1]);
+				tasks.add(() -> {
+					writer.copy().write(tilePoints, comment, tile.getFile());
+					return null;
+				});
+			}
+			Workers.run(tasks, parallelism);
+		}
+
+		writeManifest(n, tiles, directory.resolve(MANIFEST_NAME));
+		return Collections.unmodifiableList(tiles);
+	}
+
+	/**
+	 * Returns the depth of the deepest level of the octree. It is chosen so that the average number of points in the
+	 * cells of the tiles is well below the maximum tile size.
+	 */
+	private int depth(int pointCount) {
+		int depth=1;
+		long cells=8;
+		while (depth<MAX_DEPTH && cells*maxTileSize<64L*pointCount) {
+			depth++;
+			cells*=8;
+		}
+		return depth;
+	}
+
+	/**
+	 * Finds the leaves of the octree below a cell.
+	 * @param level the level of the cell
+	 * @param code the Morton code of the cell
+	 * @param depth the level of the deepest cells
+	 * @param cellStarts the index of the first point of each deepest cell in Morton order, followed by the number of
+	 * points
+	 * @param leaves receives the level and code of the leaves containing points, in Morton order
+	 */
+	private void split(int level, int code, int depth, int[] cellStarts, List<int[]> leaves) {
+		int shift=3*(depth-level);
+		int count=cellStarts[(code+1)<<shift]-cellStarts[code<<shift];
+		if (count==0) return;
+		if (count<=maxTileSize || level==depth) {
+			leaves.add(new int[]{level, code});
+			return;
+		}
+		for (int octant=0; octant<8; octant++)
+			split(level+1, code<<3 | octant, depth, cellStarts, leaves);
+	}
+
+	private static void writeManifest(int pointCount, List<Tile> tiles, Path file) throws IOException {
+		try (Writer out=Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("{\n");
+			out.write("  \"pointCount\": "+pointCount+",\n");
+			out.write("  \"tiles\": [");
+			for (int i=0; i<tiles.size(); i++) {
+				Tile tile=tiles.get(i);
+				out.write(i==0 ? "\n" : ",\n");
+				out.write("    {\"file\": \""+tile.getFile().getFileName()+"\", \"pointCount\": "+tile.getPointCount()
+						+", \"min\": "+json(tile.getMin())+", \"max\": "+json(tile.getMax())+"}");
+			}
+			out.write("\n  ]\n}\n");
+		}
+	}
+
+	private static String json(Vector3 v) {
+		return "["+v.getX()+", "+v.getY()+", "+v.getZ()+"]";
+	}
+}
@@ -0,0 +1,278 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Converts PLY files between formats without decoding them into meshes. The records of the input file are streamed to
+ * the output one by one, so the memory used does not depend on the size of the file. All elements, properties, comments
+ * and obj_info lines of the input are preserved, unless explicitly removed, and property types can be changed.
+ * <p>
+ * If neither the format nor the schema is changed, the body of the file is copied without being parsed.
+ * @author Kazó Csaba
+ */
+public final class PlyTranscoder {
+	private static final int BUFFER_SIZE=1<<16;
+
+	private PlyFormat format=null;
+	private final Set<String> removedElements=new HashSet<>();
+	private final Set<String> removedProperties=new HashSet<>();
+	private final Map<String, Type> propertyTypes=new HashMap<>();
+	private final Map<String, Type> countTypes=new HashMap<>();
+
+	/**
+	 * Creates a new transcoder. By default, it keeps the format of the input file and copies every element and
+	 * property without changes.
+	 */
+	public PlyTranscoder() {}
+
+	/**
+	 * Sets the format of the output.
+	 * @param format the format of the files to write, or {@code null} to keep the format of the input
+	 * @return this transcoder
+	 */
+	public synchronized PlyTranscoder setFormat(PlyFormat format) {
+		this.format = format;
+		return this;
+	}
+
+	/**
+	 * Excludes an element from the output. Names that don't occur in the input are ignored.
+	 * @param element the name of the element to leave out
+	 * @return this transcoder
+	 */
+	public synchronized PlyTranscoder removeElement(String element) {
+		removedElements.add(element);
+		return this;
+	}
+
+	/**
+	 * Excludes a property from the output. If all the properties of an element are removed, the element is also left
+	 * out. Names that don't occur in the input are ignored.
+	 * @param element the name of the element
+	 * @param property the name of the property to leave out
+	 * @return this transcoder
+	 */
+	public synchronized PlyTranscoder removeProperty(String element, String property) {
+		removedProperties.add(key(element, property));
+		return this;
+	}
+
+	/**
+	 * Sets the type a property is written with. For list properties, this is the type of the list elements.
+	 * Values that cannot be represented exactly in the new type cause the transcoding to fail. Names that don't occur
+	 * in the input are ignored.
+	 * @param element the name of the element
+	 * @param property the name of the property
+	 * @param type the type to write the values of the property as, or {@code null} to keep the type of the input
+	 * @return this transcoder
+	 */
+	public synchronized PlyTranscoder setPropertyType(String element, String property, Type type) {
+		if (type==null)
+			propertyTypes.remove(key(element, property));
+		else
+			propertyTypes.put(key(element, property), type);
+		return this;
+	}
+
+	/**
+	 * Sets the type the length of a list property is written with. Names that don't occur in the input, or that
+	 * belong to scalar properties, are ignored.
+	 * @param element the name of the element
+	 * @param property the name of the list property
+	 * @param type the integral type to write the list lengths as, or {@code null} to keep the type of the input
+	 * @return this transcoder
+	 * @throws IllegalArgumentException if {@code type} is not an integral type
+	 */
+	public synchronized PlyTranscoder setListCountType(String element, String property, Type type) {
+		if (type==null)
+			countTypes.remove(key(element, property));
+		else {
+			if (!type.isIntegral()) throw new IllegalArgumentException("List count type must be integral");
+			countTypes.put(key(element, property), type);
+		}
+		return this;
+	}
+
+	private static String key(String element, String property) {
+		// names cannot contain whitespace
+		return element+' '+property;
+	}
+
+	/**
+	 * Transcodes a PLY file. The result is written to a temporary file in the directory of the output, which then
+	 * replaces the output; if transcoding fails, the output is left unchanged.
+	 * @param input the file to read
+	 * @param output the file to write to
+	 * @throws InvalidPlyFormatException if the format of the input is incorrect
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if a value of the input cannot be represented in the type set for its property,
+	 * or the input and the output are the same file
+	 */
+	public synchronized void transcode(Path input, Path output) throws IOException, InvalidPlyFormatException {
+		if (Files.exists(output) && Files.isSameFile(input, output)) throw new IllegalArgumentException("Cannot transcode a file into itself");
+		// not Files.createTempFile, so that the output gets the default permissions of new files
+		Path temp=output.toAbsolutePath().resolveSibling(output.getFileName()+"."+Long.toHexString(ThreadLocalRandom.current().nextLong())+".tmp");
+		try {
+			try (FileChannel channel=FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				transcode(input, channel);
+			}
+			try {
+				Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Transcodes a PLY file, writing the result to a stream. The stream is not closed.
+	 * @param input the file to read
+	 * @param out the stream to write to
+	 * @throws InvalidPlyFormatException if the format of the input is incorrect
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if a value of the input cannot be represented in the type set for its property
+	 */
+	public synchronized void transcode(Path input, OutputStream out) throws IOException, InvalidPlyFormatException {
+		transcode(input, Channels.newChannel(out));
+		out.flush();
+	}
+
+	private void transcode(Path input, WritableByteChannel channel) throws IOException {
+		Header header=Header.read(input);
+		PlyFormat outputFormat=format==null ? header.format : format;
+
+		// the output property for each input property, null if it is removed
+		Property[][] targets=new Property[header.elements.size()][];
+		List<Element> outputElements=new ArrayList<>();
+		boolean changed=outputFormat!=header.format;
+		for (int ei=0; ei<header.elements.size(); ei++) {
+			Element element=header.elements.get(ei);
+			targets[ei]=new Property[element.properties.size()];
+			if (removedElements.contains(element.name)) {
+				changed=true;
+				continue;
+			}
+			Element outputElement=new Element(element.name, element.count);
+			for (int pi=0; pi<element.properties.size(); pi++) {
+				Property property=element.properties.get(pi);
+				String key=key(element.name, property.name);
+				if (removedProperties.contains(key)) {
+					changed=true;
+					continue;
+				}
+				Property target;
+				if (property instanceof ListProperty) {
+					ListProperty listProperty=(ListProperty)property;
+					Type countType=countTypes.containsKey(key) ? countTypes.get(key) : listProperty.countType;
+					Type elemType=propertyTypes.containsKey(key) ? propertyTypes.get(key) : listProperty.elemType;
+					if (countType!=listProperty.countType || elemType!=listProperty.elemType) changed=true;
+					target=new ListProperty(property.name, countType, elemType);
+				} else {
+					Type type=propertyTypes.containsKey(key) ? propertyTypes.get(key) : ((ScalarProperty)property).type;
+					if (type!=((ScalarProperty)property).type) changed=true;
+					target=new ScalarProperty(property.name, type);
+				}
+				targets[ei][pi]=target;
+				outputElement.properties.add(target);
+			}
+			if (!outputElement.properties.isEmpty())
+				outputElements.add(outputElement);
+		}
+
+		ByteBuffer headerBytes=ByteBuffer.wrap(Header.format(outputFormat, outputElements, header.comments, header.objInfo));
+		while (headerBytes.hasRemaining())
+			channel.write(headerBytes);
+
+		if (!changed) {
+			// the body can be copied as it is
+			try (FileChannel in=FileChannel.open(input, StandardOpenOption.READ)) {
+				long position=header.bodyOffset;
+				long size=in.size();
+				while (position<size)
+					position+=in.transferTo(position, size-position, channel);
+			}
+			return;
+		}
+
+		try (PlyReader.Input in=PlyReader.openInput(input, header, BufferStrategy.DEFAULT, 0)) {
+			PlyWriter.Output out=outputFormat.isBinary() ?
+					new PlyWriter.BinaryOutput(channel, outputFormat.byteOrder, BUFFER_SIZE) :
+					new PlyWriter.AsciiOutput(new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.US_ASCII), BUFFER_SIZE));
+			PlyReader.BinaryInput binaryIn=in instanceof PlyReader.BinaryInput ? (PlyReader.BinaryInput)in : null;
+			PlyWriter.BinaryOutput binaryOut=out instanceof PlyWriter.BinaryOutput ? (PlyWriter.BinaryOutput)out : null;
+
+			for (int ei=0; ei<header.elements.size(); ei++) {
+				Element element=header.elements.get(ei);
+				Property[] elementTargets=targets[ei];
+				boolean kept=false;
+				for (int pi=0; pi<elementTargets.length && !kept; pi++)
+					if (elementTargets[pi]!=null) kept=true;
+				for (long elemIndex=0; elemIndex<element.count; elemIndex++) {
+					for (int propIndex=0; propIndex<elementTargets.length; propIndex++) {
+						Property prop=element.properties.get(propIndex);
+						Property target=elementTargets[propIndex];
+						if (prop instanceof ListProperty) {
+							ListProperty listProp=(ListProperty)prop;
+							Number count=in.read(listProp.countType);
+							if (count.longValue()<0) throw new InvalidPlyFormatException("List with negative number of elements");
+							Type elemType=null;
+							if (target!=null) {
+								out.write(((ListProperty)target).countType, count);
+								elemType=((ListProperty)target).elemType;
+							}
+							for (long i=count.longValue(); i>0; i--)
+								transfer(in, binaryIn, listProp.elemType, out, binaryOut, elemType);
+						} else {
+							transfer(in, binaryIn, ((ScalarProperty)prop).type, out, binaryOut, target==null ? null : ((ScalarProperty)target).type);
+						}
+					}
+					if (kept) out.endRecord();
+				}
+			}
+			in.needEnd();
+			out.flush();
+		}
+	}
+
+	/**
+	 * Transfers a single value from the input to the output.
+	 * @param type the type of the value in the input
+	 * @param targetType the type of the value in the output, or {@code null} if it is to be skipped
+	 */
+	private static void transfer(PlyReader.Input in, PlyReader.BinaryInput binaryIn, Type type, PlyWriter.Output out, PlyWriter.BinaryOutput binaryOut, Type targetType) throws IOException {
+		if (binaryIn!=null) {
+			if (targetType==null) {
+				ByteBuffer buffer=binaryIn.require(type.size);
+				buffer.position(buffer.position()+type.size);
+				return;
+			} else if (targetType==type && binaryOut!=null) {
+				type.copy(binaryIn.require(type.size), binaryOut.require(type.size));
+				return;
+			}
+		}
+		Number value=in.read(type);
+		if (targetType!=null) out.write(targetType, value);
+	}
+}
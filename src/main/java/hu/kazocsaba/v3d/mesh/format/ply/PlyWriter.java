@@ -1,6 +1,6 @@
 package hu.kazocsaba.v3d.mesh.format.ply;
 
-import java.io.BufferedOutputStream;
+import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -8,8 +8,12 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import hu.kazocsaba.math.matrix.Vector3;
 import hu.kazocsaba.v3d.mesh.ColoredPointList;
 import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
@@ -24,6 +28,11 @@ import hu.kazocsaba.v3d.mesh.TriangleMesh;
 public class PlyWriter {
 	private boolean binary=false;
 	private boolean verticesAsFloats=false;
+	private boolean reorder=false;
+	private boolean appendable=false;
+	private BufferStrategy bufferStrategy=BufferStrategy.DEFAULT;
+	private ProgressListener progressListener=null;
+	private CancellationToken cancellationToken=null;
 	
 	/**
 	 * Creates a new writer instance. By default, it is set to create binary format and to store vertex coordinates
@@ -53,22 +62,108 @@ public class PlyWriter {
 	}
 
 	/**
-	 * Writes a point list to a file in PLY format. If {@code points} also implements {@link ColoredPointList}, the
-	 * vertex colors will also be written.
+	 * Sets whether the vertices and triangles should be reordered to improve the locality of access. If enabled, the
+	 * vertices are sorted along a Morton (Z-order) curve, so that vertices close in space are stored close to each
+	 * other, and the triangles of meshes are ordered so that consecutive triangles share vertices, which improves the
+	 * efficiency of the vertex cache of GPUs rendering them. The reordering is performed in parallel for large inputs.
+	 * The default is {@code false}, writing the vertices and triangles in their original order.
+	 * @param reorder whether to optimize the order of vertices and triangles
+	 * @return this writer
+	 */
+	public synchronized PlyWriter setReorder(boolean reorder) {
+		this.reorder = reorder;
+		return this;
+	}
+
+	/**
+	 * Sets whether point lists should be written so that vertices can be appended to the file later with a
+	 * {@link PlyAppender}. If enabled, the vertex count in the header is padded with spaces to a fixed width, so that
+	 * it can be overwritten with any larger count. Appending is only possible to binary files. The default is
+	 * {@code false}.
+	 * @param appendable whether to reserve space for the vertex count
+	 * @return this writer
+	 * @see PlyReader#openAppender()
+	 */
+	public synchronized PlyWriter setAppendable(boolean appendable) {
+		this.appendable = appendable;
+		return this;
+	}
+
+	/**
+	 * Sets how the I/O buffers used for writing files are allocated. The default is {@link BufferStrategy#DEFAULT}.
+	 * This setting only affects the functions writing to a {@code Path}; streams are written directly.
+	 * @param bufferStrategy the strategy for allocating buffers
+	 * @return this writer
+	 */
+	public synchronized PlyWriter setBufferStrategy(BufferStrategy bufferStrategy) {
+		if (bufferStrategy==null) throw new NullPointerException();
+		this.bufferStrategy = bufferStrategy;
+		return this;
+	}
+
+	/**
+	 * Sets the listener receiving the progress of writing. The total number of bytes is not known in advance, so it is
+	 * reported as -1. By default there is no listener.
+	 * @param listener the listener, or {@code null} to remove the listener
+	 * @return this writer
+	 */
+	public synchronized PlyWriter setProgressListener(ProgressListener listener) {
+		this.progressListener = listener;
+		return this;
+	}
+
+	/**
+	 * Sets the token for cancelling writes. The token is checked periodically while the body is written; once it is
+	 * cancelled, an {@link OperationCancelledException} is thrown. A partially written file is deleted, while the
+	 * contents of a stream are left incomplete. By default there is no token.
+	 * @param token the cancellation token, or {@code null} to remove the token
+	 * @return this writer
+	 */
+	public synchronized PlyWriter setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+		return this;
+	}
+
+	/**
+	 * Returns a new writer with the same settings as this one, for writing multiple files concurrently. The
+	 * cancellation token is shared, but the progress listener is not copied, since it must not be called concurrently.
+	 */
+	synchronized PlyWriter copy() {
+		PlyWriter copy=new PlyWriter();
+		copy.binary=binary;
+		copy.verticesAsFloats=verticesAsFloats;
+		copy.reorder=reorder;
+		copy.appendable=appendable;
+		copy.bufferStrategy=bufferStrategy;
+		copy.cancellationToken=cancellationToken;
+		return copy;
+	}
+
+	private OutputStream open(Path output) throws IOException {
+		return new ChannelOutputStream(Files.newByteChannel(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), bufferStrategy);
+	}
+
+	/**
+	 * Writes a point list to a file in PLY format. If {@code points} also implements {@link ColoredPointList}, or it is
+	 * a {@link PackedColorPointList}, the vertex colors will also be written.
 	 * @param points the vertices
 	 * @param comment an optional sequence of comments separated by new line characters that will be included
 	 * in the header of the PLY file
-	 * @param output the file to write to
+	 * @param output the file to write to; if the write is cancelled, the partially written file is deleted
 	 * @throws IOException if an I/O error occurs
 	 */
 	public synchronized void write(PointList points, String comment, Path output) throws IOException {
-		try (BufferedOutputStream bos=new BufferedOutputStream(Files.newOutputStream(output))) {
+		try (OutputStream bos=open(output)) {
 			write(points, comment, bos);
+		} catch (OperationCancelledException e) {
+			Files.deleteIfExists(output);
+			throw e;
 		}
 	}
 	/**
-	 * Writes a point list to a stream in PLY format. If {@code points} also implements {@link ColoredPointList}, the
-	 * vertex colors will also be written.
+	 * Writes a point list to a stream in PLY format. If {@code points} also implements {@link ColoredPointList}, or it
+	 * is a {@link PackedColorPointList}, the vertex colors will also be written. Packed colors are written without
+	 * creating {@link java.awt.Color} objects, along with their alpha components if they have any.
 	 * @param points the vertices
 	 * @param comment an optional sequence of comments separated by new line characters that will be included
 	 * in the header of the PLY file
@@ -76,6 +171,9 @@ public class PlyWriter {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public synchronized void write(PointList points, String comment, OutputStream out) throws IOException {
+		if (reorder) points=LocalityOptimizer.reorder(points);
+		Progress progress=new Progress(progressListener, cancellationToken, points.getPointCount(), -1);
+		out=progress.wrap(out);
 		// header
 		{
 			Writer writer=new OutputStreamWriter(out);
@@ -92,14 +190,15 @@ public class PlyWriter {
 					writer.write('\n');
 				}
 			}
-			writer.write("element vertex "+points.getPointCount()+"\n");
+			writer.write("element vertex "+(appendable ? PlyAppender.formatCount(points.getPointCount(), PlyAppender.COUNT_WIDTH) : points.getPointCount())+"\n");
 			writer.write("property "+(verticesAsFloats ? "float" : "double")+" x\n");
 			writer.write("property "+(verticesAsFloats ? "float" : "double")+" y\n");
 			writer.write("property "+(verticesAsFloats ? "float" : "double")+" z\n");
-			if (points instanceof ColoredPointList) {
+			if (hasColors(points)) {
 				writer.write("property uchar red\n");
 				writer.write("property uchar green\n");
 				writer.write("property uchar blue\n");
+				if (hasAlpha(points)) writer.write("property uchar alpha\n");
 			}
 			writer.write("element face 0\n");
 			writer.write("end_header\n");
@@ -107,20 +206,24 @@ public class PlyWriter {
 		}
 		// body
 		if (binary)
-			writeBinary(points, out);
+			writeBinary(points, out, progress);
 		else
-			writeAscii(points, out);
+			writeAscii(points, out, progress);
+		progress.finish();
 	}
 	/**
 	 * Writes a mesh to a file in PLY format.
 	 * @param mesh the mesh to write
 	 * @param comment optional multi-line comment to write to the output; can be {@code null}
-	 * @param output the file to write to
+	 * @param output the file to write to; if the write is cancelled, the partially written file is deleted
 	 * @throws IOException if an I/O error occurs
 	 */
 	public synchronized void write(TriangleMesh mesh, String comment, Path output) throws IOException {
-		try (BufferedOutputStream bos=new BufferedOutputStream(Files.newOutputStream(output))) {
+		try (OutputStream bos=open(output)) {
 			write(mesh, comment, bos);
+		} catch (OperationCancelledException e) {
+			Files.deleteIfExists(output);
+			throw e;
 		}
 	}
 	/**
@@ -132,6 +235,9 @@ public class PlyWriter {
 	 */
 	public synchronized void write(TriangleMesh mesh, String comment, OutputStream out) throws IOException {
 		IndexedTriangleMesh indexedMesh=Meshes.toIndexed(mesh);
+		if (reorder) indexedMesh=LocalityOptimizer.reorder(indexedMesh);
+		Progress progress=new Progress(progressListener, cancellationToken, (long)indexedMesh.getPointCount()+indexedMesh.getTriangleCount(), -1);
+		out=progress.wrap(out);
 		// header
 		{
 			Writer writer=new OutputStreamWriter(out, "UTF-8");
@@ -159,43 +265,40 @@ public class PlyWriter {
 		}
 		// body
 		if (binary)
-			writeBinary(indexedMesh, out);
+			writeBinary(indexedMesh, out, progress);
 		else
-			writeAscii(indexedMesh, out);
+			writeAscii(indexedMesh, out, progress);
+		progress.finish();
 	}
-	private void writeBinary(PointList points, OutputStream bos) throws IOException {
+	private void writeBinary(PointList points, OutputStream bos, Progress progress) throws IOException {
 		DataOutputStream dos=new DataOutputStream(bos);
+		boolean colored=hasColors(points), alpha=hasAlpha(points);
 		if (verticesAsFloats) {
 			for (int i=0; i<points.getPointCount(); i++) {
 				Vector3 p=points.getPoint(i);
 				dos.writeFloat((float)p.getX());
 				dos.writeFloat((float)p.getY());
 				dos.writeFloat((float)p.getZ());
-				if (points instanceof ColoredPointList) {
-					ColoredPointList cpl=(ColoredPointList)points;
-					dos.write(cpl.getPointColor(i).getRed());
-					dos.write(cpl.getPointColor(i).getGreen());
-					dos.write(cpl.getPointColor(i).getBlue());
-				}
+				if (colored) writeColor(dos, packedColor(points, i), alpha);
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(points.getPointCount() & Progress.MASK);
 		} else {
 			for (int i=0; i<points.getPointCount(); i++) {
 				Vector3 p=points.getPoint(i);
 				dos.writeDouble(p.getX());
 				dos.writeDouble(p.getY());
 				dos.writeDouble(p.getZ());
-				if (points instanceof ColoredPointList) {
-					ColoredPointList cpl=(ColoredPointList)points;
-					dos.write(cpl.getPointColor(i).getRed());
-					dos.write(cpl.getPointColor(i).getGreen());
-					dos.write(cpl.getPointColor(i).getBlue());
-				}
+				if (colored) writeColor(dos, packedColor(points, i), alpha);
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(points.getPointCount() & Progress.MASK);
 		}
 		dos.flush();
 	}
-	private void writeAscii(PointList points, OutputStream bos) throws IOException {
+	private void writeAscii(PointList points, OutputStream bos, Progress progress) throws IOException {
 		Writer writer=new OutputStreamWriter(bos, "UTF-8");
+		boolean colored=hasColors(points), alpha=hasAlpha(points);
 		if (verticesAsFloats) {
 			for (int i=0; i<points.getPointCount(); i++) {
 				Vector3 p=points.getPoint(i);
@@ -204,17 +307,11 @@ public class PlyWriter {
 				writer.write(Float.toString((float)p.getY()));
 				writer.write(' ');
 				writer.write(Float.toString((float)p.getZ()));
-				if (points instanceof ColoredPointList) {
-					ColoredPointList cpl=(ColoredPointList)points;
-					writer.write(' ');
-					writer.write(Integer.toString(cpl.getPointColor(i).getRed()));
-					writer.write(' ');
-					writer.write(Integer.toString(cpl.getPointColor(i).getGreen()));
-					writer.write(' ');
-					writer.write(Integer.toString(cpl.getPointColor(i).getBlue()));
-				}
+				if (colored) writeColor(writer, packedColor(points, i), alpha);
 				writer.write('\n');
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(points.getPointCount() & Progress.MASK);
 		} else {
 			for (int i=0; i<points.getPointCount(); i++) {
 				Vector3 p=points.getPoint(i);
@@ -223,21 +320,47 @@ public class PlyWriter {
 				writer.write(Double.toString(p.getY()));
 				writer.write(' ');
 				writer.write(Double.toString(p.getZ()));
-				if (points instanceof ColoredPointList) {
-					ColoredPointList cpl=(ColoredPointList)points;
-					writer.write(' ');
-					writer.write(Integer.toString(cpl.getPointColor(i).getRed()));
-					writer.write(' ');
-					writer.write(Integer.toString(cpl.getPointColor(i).getGreen()));
-					writer.write(' ');
-					writer.write(Integer.toString(cpl.getPointColor(i).getBlue()));
-				}
+				if (colored) writeColor(writer, packedColor(points, i), alpha);
 				writer.write('\n');
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(points.getPointCount() & Progress.MASK);
 		}
 		writer.flush();
 	}
-	private void writeBinary(IndexedTriangleMesh indexedMesh, OutputStream bos) throws IOException {
+	static boolean hasColors(PointList points) {
+		return points instanceof ColoredPointList || points instanceof PackedColorPointList;
+	}
+	static boolean hasAlpha(PointList points) {
+		return points instanceof PackedColorPointList && ((PackedColorPointList)points).hasAlpha();
+	}
+	/**
+	 * Returns the color of a point packed into an {@code int} as {@code 0xRRGGBBAA}. The points must have colors.
+	 */
+	static int packedColor(PointList points, int index) {
+		if (points instanceof PackedColorPointList) return ((PackedColorPointList)points).getColor(index);
+		Color color=((ColoredPointList)points).getPointColor(index);
+		return PackedColorPointList.pack(color.getRed(), color.getGreen(), color.getBlue(), 255);
+	}
+	private static void writeColor(DataOutputStream dos, int color, boolean alpha) throws IOException {
+		dos.write(color>>>24);
+		dos.write(color>>>16);
+		dos.write(color>>>8);
+		if (alpha) dos.write(color);
+	}
+	private static void writeColor(Writer writer, int color, boolean alpha) throws IOException {
+		writer.write(' ');
+		writer.write(Integer.toString(color>>>24));
+		writer.write(' ');
+		writer.write(Integer.toString(color>>>16 & 0xFF));
+		writer.write(' ');
+		writer.write(Integer.toString(color>>>8 & 0xFF));
+		if (alpha) {
+			writer.write(' ');
+			writer.write(Integer.toString(color & 0xFF));
+		}
+	}
+	private void writeBinary(IndexedTriangleMesh indexedMesh, OutputStream bos, Progress progress) throws IOException {
 		DataOutputStream dos=new DataOutputStream(bos);
 		if (verticesAsFloats) {
 			for (int i=0; i<indexedMesh.getPointCount(); i++) {
@@ -245,24 +368,30 @@ public class PlyWriter {
 				dos.writeFloat((float)p.getX());
 				dos.writeFloat((float)p.getY());
 				dos.writeFloat((float)p.getZ());
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(indexedMesh.getPointCount() & Progress.MASK);
 		} else {
 			for (int i=0; i<indexedMesh.getPointCount(); i++) {
 				Vector3 p=indexedMesh.getPoint(i);
 				dos.writeDouble(p.getX());
 				dos.writeDouble(p.getY());
 				dos.writeDouble(p.getZ());
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(indexedMesh.getPointCount() & Progress.MASK);
 		}
 		for (int i=0; i<indexedMesh.getTriangleCount(); i++) {
 			dos.writeByte(3);
 			dos.writeInt(indexedMesh.getTrianglePointIndex(i, 0));
 			dos.writeInt(indexedMesh.getTrianglePointIndex(i, 1));
 			dos.writeInt(indexedMesh.getTrianglePointIndex(i, 2));
+			if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 		}
+		progress.elements(indexedMesh.getTriangleCount() & Progress.MASK);
 		dos.flush();
 	}
-	private void writeAscii(IndexedTriangleMesh indexedMesh, OutputStream bos) throws IOException {
+	private void writeAscii(IndexedTriangleMesh indexedMesh, OutputStream bos, Progress progress) throws IOException {
 		Writer writer=new OutputStreamWriter(bos, "UTF-8");
 		if (verticesAsFloats) {
 			for (int i=0; i<indexedMesh.getPointCount(); i++) {
@@ -273,7 +402,9 @@ public class PlyWriter {
 				writer.write(' ');
 				writer.write(Float.toString((float)p.getZ()));
 				writer.write('\n');
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(indexedMesh.getPointCount() & Progress.MASK);
 		} else {
 			for (int i=0; i<indexedMesh.getPointCount(); i++) {
 				Vector3 p=indexedMesh.getPoint(i);
@@ -283,7 +414,9 @@ public class PlyWriter {
 				writer.write(' ');
 				writer.write(Double.toString(p.getZ()));
 				writer.write('\n');
+				if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 			}
+			progress.elements(indexedMesh.getPointCount() & Progress.MASK);
 		}
 		for (int i=0; i<indexedMesh.getTriangleCount(); i++) {
 			writer.write("3 ");
@@ -293,7 +426,76 @@ public class PlyWriter {
 			writer.write(' ');
 			writer.write(Integer.toString(indexedMesh.getTrianglePointIndex(i, 2)));
 			writer.write('\n');
+			if ((i & Progress.MASK)==Progress.MASK) progress.elements(Progress.STEP);
 		}
+		progress.elements(indexedMesh.getTriangleCount() & Progress.MASK);
 		writer.flush();
 	}
+	
+	interface Output {
+		public void write(Type type, Number value) throws IOException;
+		public void endRecord() throws IOException;
+		public void flush() throws IOException;
+	}
+	static class AsciiOutput implements Output {
+		private final Writer writer;
+		private boolean recordStart=true;
+
+		public AsciiOutput(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(Type type, Number value) throws IOException {
+			if (!recordStart) writer.write(' ');
+			writer.write(type.format(value));
+			recordStart=false;
+		}
+
+		@Override
+		public void endRecord() throws IOException {
+			writer.write('\n');
+			recordStart=true;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writer.flush();
+		}
+		
+	}
+	static class BinaryOutput implements Output {
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer;
+
+		public BinaryOutput(WritableByteChannel channel, ByteOrder byteOrder, int bufferSize) {
+			this.channel = channel;
+			buffer=ByteBuffer.allocate(bufferSize).order(byteOrder);
+		}
+
+		@Override
+		public void write(Type type, Number value) throws IOException {
+			type.write(require(type.size), value);
+		}
+
+		/**
+		 * Makes sure that the buffer has room for the specified number of bytes, and returns it.
+		 */
+		ByteBuffer require(int count) throws IOException {
+			if (buffer.remaining()<count) flush();
+			return buffer;
+		}
+
+		@Override
+		public void endRecord() {}
+
+		@Override
+		public void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+		
+	}
 }
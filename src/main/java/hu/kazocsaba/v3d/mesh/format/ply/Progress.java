@@ -0,0 +1,164 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of an operation, reporting it to a {@link ProgressListener} and checking a
+ * {@link CancellationToken}. The counters can be updated from multiple threads.
+ * <p>
+ * The records are counted in steps of {@link #STEP}: the loops processing them call {@link #elements(long)} whenever
+ * the index of a record {@linkplain #MASK masked} equals the mask, and once more with the remainder at the end.
+ * @author Kazó Csaba
+ */
+final class Progress {
+	/** The number of records processed between updates. */
+	static final int STEP=1<<14;
+	/** The mask selecting the index of a record within its step. */
+	static final int MASK=STEP-1;
+	/** The number of bytes processed between reports. */
+	private static final long REPORT_INTERVAL=1<<20;
+
+	private final ProgressListener listener;
+	private final CancellationToken token;
+	private final long totalElements;
+	private final long totalBytes;
+	private final AtomicLong elements=new AtomicLong();
+	private final AtomicLong bytes=new AtomicLong();
+	private long reportedBytes=0;
+
+	/**
+	 * Creates a new tracker.
+	 * @param listener the listener to report to, or {@code null}
+	 * @param token the token to check, or {@code null}
+	 * @param totalElements the total number of records
+	 * @param totalBytes the total number of bytes, or -1 if unknown
+	 */
+	Progress(ProgressListener listener, CancellationToken token, long totalElements, long totalBytes) {
+		this.listener = listener;
+		this.token = token;
+		this.totalElements = totalElements;
+		this.totalBytes = totalBytes;
+	}
+
+	/**
+	 * Throws an exception if the operation has been cancelled.
+	 */
+	void check() throws OperationCancelledException {
+		if (token!=null && token.isCancelled()) throw new OperationCancelledException();
+	}
+
+	/**
+	 * Adds processed records, and reports the progress.
+	 */
+	void elements(long count) throws OperationCancelledException {
+		elements.addAndGet(count);
+		check();
+		report();
+	}
+
+	/**
+	 * Adds processed bytes, and reports the progress if enough bytes have been processed since the last report.
+	 */
+	void bytes(long count) throws OperationCancelledException {
+		long total=bytes.addAndGet(count);
+		check();
+		if (listener!=null && total-reportedBytes>=REPORT_INTERVAL) report();
+	}
+
+	private synchronized void report() {
+		if (listener==null) return;
+		long total=bytes.get();
+		reportedBytes=total;
+		// concurrent readers may read overlapping blocks
+		if (totalBytes!=-1) total=Math.min(total, totalBytes);
+		listener.progress(elements.get(), totalElements, total, totalBytes);
+	}
+
+	/**
+	 * Reports the final progress of a successful operation. If the total number of bytes is known, all of them are
+	 * reported as processed, since the parts of the file that are not read are skipped.
+	 */
+	void finish() {
+		if (totalBytes!=-1) {
+			long total=bytes.get();
+			if (total<totalBytes) bytes.addAndGet(totalBytes-total);
+		}
+		report();
+	}
+
+	/**
+	 * Returns a channel counting the bytes read through it. Each read is a point where the operation can be
+	 * cancelled.
+	 */
+	ReadableByteChannel wrap(final ReadableByteChannel channel) {
+		return new ReadableByteChannel() {
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				check();
+				int read=channel.read(dst);
+				if (read>0) bytes(read);
+				return read;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return channel.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+
+	/**
+	 * Returns a stream counting the bytes written through it. The bytes are added to the progress in batches, which
+	 * are points where the operation can be cancelled. Closing the returned stream doesn't close the underlying
+	 * stream.
+	 */
+	OutputStream wrap(OutputStream out) {
+		return new FilterOutputStream(out) {
+			private long pending=0;
+
+			private void count(long count) throws IOException {
+				pending+=count;
+				if (pending>=1<<16) flushCount();
+			}
+
+			private void flushCount() throws IOException {
+				long count=pending;
+				pending=0;
+				bytes(count);
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				count(1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				count(len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+				flushCount();
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+	}
+}
@@ -0,0 +1,22 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+/**
+ * Receives the progress of reading or writing a PLY file.
+ * @author Kazó Csaba
+ * @see PlyReader#setProgressListener(ProgressListener)
+ * @see PlyWriter#setProgressListener(ProgressListener)
+ */
+public interface ProgressListener {
+	/**
+	 * Called periodically while a file is read or written, and once more when the operation is finished. The listener
+	 * is called by the thread performing the operation, or by one of its worker threads if it is performed in
+	 * parallel, but never concurrently. It should return quickly.
+	 * <p>
+	 * If a file is read again after parallel parsing fails, the progress starts again from zero.
+	 * @param elements the number of records processed, counting the records of all elements
+	 * @param totalElements the total number of records
+	 * @param bytes the number of bytes read or written
+	 * @param totalBytes the size of the file, or -1 if it is not known in advance
+	 */
+	void progress(long elements, long totalElements, long bytes, long totalBytes);
+}
@@ -0,0 +1,28 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.awt.Color;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+
+/**
+ * A quantized point list that also stores the color of each point, packed into an {@code int}.
+ * @author Kazó Csaba
+ */
+class QuantizedColoredPointList extends QuantizedPointList implements ColoredPointList {
+	private final int[] colors;
+
+	QuantizedColoredPointList(int count, double[] origin, double step, boolean wide) {
+		super(count, origin, step, wide);
+		colors=new int[count];
+	}
+
+	void setColor(int index, int red, int green, int blue) {
+		if (((red | green | blue) & ~0xFF)!=0) throw new IllegalArgumentException("Color component out of range");
+		colors[index]=red<<16 | green<<8 | blue;
+	}
+
+	@Override
+	public Color getPointColor(int index) {
+		if (index<0 || index>=getPointCount()) throw new IndexOutOfBoundsException("Invalid point index: "+index);
+		return new Color(colors[index]);
+	}
+}
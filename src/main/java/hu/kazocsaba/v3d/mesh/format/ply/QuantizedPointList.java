@@ -0,0 +1,94 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.PointList;
+
+/**
+ * A point list storing the coordinates as 16 or 32-bit unsigned integers relative to the bounding box of the points.
+ * A coordinate is stored as the index of the nearest point of a regular grid, so each coordinate differs from the
+ * original by at most half of the grid step. Vectors are created on the fly when the points are accessed.
+ * <p>
+ * With 16-bit storage, a point occupies 6 bytes, compared to the dozens of bytes taken by a {@code Vector3} object
+ * and a reference to it. Instances are immutable and safe for use by multiple threads.
+ * @author Kazó Csaba
+ * @see PlyReader#readQuantizedVertices(double)
+ */
+public class QuantizedPointList implements PointList {
+	private final int count;
+	private final double[] origin;
+	private final double step;
+	/** The coordinates in 16-bit storage, or {@code null}. */
+	private final short[] shorts;
+	/** The coordinates in 32-bit storage, or {@code null}. */
+	private final int[] ints;
+
+	/**
+	 * Creates a new point list with uninitialized coordinates.
+	 * @param count the number of points
+	 * @param origin the minimum x, y and z coordinates
+	 * @param step the distance of neighboring grid points
+	 * @param wide whether to use 32-bit storage
+	 */
+	QuantizedPointList(int count, double[] origin, double step, boolean wide) {
+		this.count = count;
+		this.origin = origin;
+		this.step = step;
+		shorts=wide ? null : new short[count*3];
+		ints=wide ? new int[count*3] : null;
+	}
+
+	/**
+	 * Returns the number of grid points along an axis that can be stored with the specified width.
+	 */
+	static long levels(boolean wide) {
+		return wide ? 1L<<32 : 1L<<16;
+	}
+
+	void set(int index, double x, double y, double z) {
+		put(index*3, x-origin[0]);
+		put(index*3+1, y-origin[1]);
+		put(index*3+2, z-origin[2]);
+	}
+
+	private void put(int position, double offset) {
+		long value=Math.round(offset/step);
+		if (shorts!=null)
+			shorts[position]=(short)value;
+		else
+			ints[position]=(int)value;
+	}
+
+	private double get(int position, int axis) {
+		long value=shorts!=null ? shorts[position] & 0xFFFF : ints[position] & 0xFFFFFFFFL;
+		return origin[axis]+value*step;
+	}
+
+	/**
+	 * Returns the maximum difference between a stored and an original coordinate, ignoring the rounding errors of
+	 * floating point arithmetic.
+	 * @return half of the quantization step
+	 */
+	public double getMaxError() {
+		return step/2;
+	}
+
+	/**
+	 * Returns the number of bits a coordinate is stored in.
+	 * @return 16 or 32
+	 */
+	public int getBitsPerCoordinate() {
+		return shorts!=null ? 16 : 32;
+	}
+
+	@Override
+	public int getPointCount() {
+		return count;
+	}
+
+	@Override
+	public Vector3 getPoint(int index) {
+		if (index<0 || index>=count) throw new IndexOutOfBoundsException("Invalid point index: "+index);
+		return MatrixFactory.createVector(get(index*3, 0), get(index*3+1, 1), get(index*3+2, 2));
+	}
+}
@@ -0,0 +1,139 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A channel that reads ahead of its consumer. A background thread fills a fixed number of buffers from the underlying
+ * channel while the consumer is working through the data already read, so that I/O and decoding can overlap.
+ * @author Kazó Csaba
+ */
+class ReadAheadChannel implements ReadableByteChannel {
+	/** Marker put into the queue when the background reader has stopped. */
+	private static final ByteBuffer END=ByteBuffer.allocate(0);
+
+	private final ReadableByteChannel channel;
+	private final BufferStrategy bufferStrategy;
+	private final BlockingQueue<ByteBuffer> filled=new LinkedBlockingQueue<>();
+	private final BlockingQueue<ByteBuffer> empty=new LinkedBlockingQueue<>();
+	private final Thread reader;
+	private volatile IOException failure;
+
+	private ByteBuffer current;
+	private boolean open=true;
+	private boolean eof=false;
+
+	/**
+	 * Creates a new read-ahead channel and starts the background reader.
+	 * @param channel the channel to read from
+	 * @param depth the number of buffers that can be filled in advance
+	 * @param bufferStrategy the strategy for allocating the buffers
+	 */
+	public ReadAheadChannel(ReadableByteChannel channel, int depth, BufferStrategy bufferStrategy) {
+		if (depth<1) throw new IllegalArgumentException("Read-ahead depth must be positive");
+		this.channel=channel;
+		this.bufferStrategy=bufferStrategy;
+		// one more buffer than the depth: that one is being consumed while the others are filled
+		for (int i=0; i<=depth; i++)
+			empty.add(bufferStrategy.acquire());
+		reader=new Thread(this::fill, "PLY read-ahead");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void fill() {
+		try {
+			while (true) {
+				ByteBuffer buffer=empty.take();
+				buffer.clear();
+				boolean end=false;
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer)==-1) {
+						end=true;
+						break;
+					}
+				}
+				buffer.flip();
+				if (buffer.hasRemaining()) filled.put(buffer);
+				if (end) break;
+			}
+		} catch (IOException e) {
+			failure=e;
+		} catch (InterruptedException e) {
+			// the channel has been closed
+		}
+		filled.add(END);
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!open) throw new ClosedChannelException();
+		while (current==null || !current.hasRemaining()) {
+			if (eof) return -1;
+			if (current!=null) {
+				empty.add(current);
+				current=null;
+			}
+			ByteBuffer next;
+			try {
+				next=filled.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for data");
+			}
+			if (next==END) {
+				eof=true;
+				if (failure!=null) throw new IOException("Read-ahead failed", failure);
+				return -1;
+			}
+			current=next;
+		}
+		int count=Math.min(dst.remaining(), current.remaining());
+		int limit=current.limit();
+		current.limit(current.position()+count);
+		dst.put(current);
+		current.limit(limit);
+		return count;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!open) return;
+		open=false;
+		reader.interrupt();
+		try {
+			channel.close();
+		} finally {
+			// the buffers can only be given back once the reader thread is done with them
+			boolean interrupted=false;
+			while (true) {
+				try {
+					reader.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted=true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (current!=null) bufferStrategy.release(current);
+			current=null;
+			for (ByteBuffer buffer: filled)
+				if (buffer!=END) bufferStrategy.release(buffer);
+			for (ByteBuffer buffer: empty)
+				bufferStrategy.release(buffer);
+			filled.clear();
+			empty.clear();
+		}
+	}
+
+}
@@ -3,20 +3,22 @@ package hu.kazocsaba.v3d.mesh.format.ply;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.InputMismatchException;
+import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 /**
- *
+ * The types of the values that can be stored in PLY properties.
  * @author Kazó Csaba
  */
-enum Type {
-	CHAR {
+public enum Type {
+	/** Signed 8-bit integer. */
+	CHAR(1, Byte.MIN_VALUE, Byte.MAX_VALUE) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				int value=scanner.nextInt();
-				if (value<-Byte.MIN_VALUE || value>Byte.MAX_VALUE) throw new InputMismatchException("Char out of range");
+				if (value<Byte.MIN_VALUE || value>Byte.MAX_VALUE) throw new InvalidPlyFormatException("Char out of range: "+value);
 				return value;
 			} catch (InputMismatchException e) {
 				throw new InvalidPlyFormatException("Cannot parse '"+scanner.next()+"' as char", e);
@@ -25,16 +27,33 @@ enum Type {
 			}
 		}
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.get();
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.put((byte)toIntegral(value));
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.put(src.get());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.get(index);
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return buffer.get(index);
+		}
 	},
-	UCHAR {
+	/** Unsigned 8-bit integer. */
+	UCHAR(1, 0, 255) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				int value=scanner.nextInt();
-				if (value<0 || value>255) throw new InputMismatchException("Uchar out of range: "+value);
+				if (value<0 || value>255) throw new InvalidPlyFormatException("Uchar out of range: "+value);
 				return value;
 			} catch (InputMismatchException e) {
 				throw new InvalidPlyFormatException("Cannot parse '"+scanner.next()+"' as uchar", e);
@@ -43,16 +62,33 @@ enum Type {
 			}
 		}
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.get() & 0xFF;
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.put((byte)toIntegral(value));
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.put(src.get());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.get(index) & 0xFF;
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return buffer.get(index) & 0xFF;
+		}
 	},
-	SHORT {
+	/** Signed 16-bit integer. */
+	SHORT(2, Short.MIN_VALUE, Short.MAX_VALUE) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				int value=scanner.nextInt();
-				if (value<-Short.MIN_VALUE || value>Short.MAX_VALUE) throw new InputMismatchException("Short out of range");
+				if (value<Short.MIN_VALUE || value>Short.MAX_VALUE) throw new InvalidPlyFormatException("Short out of range: "+value);
 				return value;
 			} catch (InputMismatchException e) {
 				throw new InvalidPlyFormatException("Cannot parse '"+scanner.next()+"' as short", e);
@@ -61,16 +97,33 @@ enum Type {
 			}
 		}
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.getShort();
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.putShort((short)toIntegral(value));
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.putShort(src.getShort());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.getShort(index);
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return buffer.getShort(index);
+		}
 	},
-	USHORT {
+	/** Unsigned 16-bit integer. */
+	USHORT(2, 0, 65535) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				int value=scanner.nextInt();
-				if (value<0 || value>65535) throw new InputMismatchException("Ushort out of range");
+				if (value<0 || value>65535) throw new InvalidPlyFormatException("Ushort out of range: "+value);
 				return value;
 			} catch (InputMismatchException e) {
 				throw new InvalidPlyFormatException("Cannot parse '"+scanner.next()+"' as ushort", e);
@@ -80,13 +133,30 @@ enum Type {
 		}
 
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.getShort() & 0xFFFF;
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.putShort((short)toIntegral(value));
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.putShort(src.getShort());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.getShort(index) & 0xFFFF;
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return buffer.getShort(index) & 0xFFFF;
+		}
 	},
-	INT {
+	/** Signed 32-bit integer. */
+	INT(4, Integer.MIN_VALUE, Integer.MAX_VALUE) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				return scanner.nextInt();
 			} catch (InputMismatchException e) {
@@ -97,16 +167,33 @@ enum Type {
 		}
 
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.getInt();
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.putInt((int)toIntegral(value));
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.putInt(src.getInt());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.getInt(index);
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return buffer.getInt(index);
+		}
 	},
-	UINT {
+	/** Unsigned 32-bit integer. */
+	UINT(4, 0, 4294967295L) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				long value=scanner.nextLong();
-				if (value<0 || value>4294967295L) throw new InputMismatchException("Uint out of range");
+				if (value<0 || value>4294967295L) throw new InvalidPlyFormatException("Uint out of range: "+value);
 				return value;
 			} catch (InputMismatchException e) {
 				throw new InvalidPlyFormatException("Cannot parse '"+scanner.next()+"' as uint", e);
@@ -116,13 +203,30 @@ enum Type {
 		}
 
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.getInt() & 0xFFFFFFFFL;
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.putInt((int)toIntegral(value));
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.putInt(src.getInt());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.getInt(index) & 0xFFFFFFFFL;
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return buffer.getInt(index) & 0xFFFFFFFFL;
+		}
 	},
-	FLOAT {
+	/** 32-bit IEEE 754 floating point number. */
+	FLOAT(4) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				return scanner.nextFloat();
 			} catch (InputMismatchException e) {
@@ -133,13 +237,34 @@ enum Type {
 		}
 
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.getFloat();
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.putFloat(value.floatValue());
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.putFloat(src.getFloat());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.getFloat(index);
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return (long)buffer.getFloat(index);
+		}
+		@Override
+		String format(Number value) {
+			return Float.toString(value.floatValue());
+		}
 	},
-	DOUBLE {
+	/** 64-bit IEEE 754 floating point number. */
+	DOUBLE(8) {
 		@Override
-		public Number parse(Scanner scanner) throws IOException {
+		Number parse(Scanner scanner) throws IOException {
 			try {
 				return scanner.nextDouble();
 			} catch (InputMismatchException e) {
@@ -150,11 +275,133 @@ enum Type {
 		}
 
 		@Override
-		public Number read(ByteBuffer buffer) throws IOException {
+		Number read(ByteBuffer buffer) throws IOException {
 			return buffer.getDouble();
 		}
+		@Override
+		void write(ByteBuffer buffer, Number value) {
+			buffer.putDouble(value.doubleValue());
+		}
+		@Override
+		void copy(ByteBuffer src, ByteBuffer dst) {
+			dst.putDouble(src.getDouble());
+		}
+		@Override
+		double getDouble(ByteBuffer buffer, int index) {
+			return buffer.getDouble(index);
+		}
+		@Override
+		long getLong(ByteBuffer buffer, int index) {
+			return (long)buffer.getDouble(index);
+		}
+		@Override
+		String format(Number value) {
+			return Double.toString(value.doubleValue());
+		}
 
 	};
-	public abstract Number parse(Scanner scanner) throws IOException;
-	public abstract Number read(ByteBuffer buffer) throws IOException;
+	
+	/** The number of bytes a value of this type occupies in binary files. */
+	final int size;
+	private final boolean integral;
+	private final long min, max;
+
+	private Type(int size) {
+		this.size=size;
+		integral=false;
+		min=max=0;
+	}
+	private Type(int size, long min, long max) {
+		this.size=size;
+		integral=true;
+		this.min=min;
+		this.max=max;
+	}
+	
+	/**
+	 * Returns the number of bytes a value of this type occupies in binary PLY files.
+	 * @return the size of this type in bytes
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Returns whether this is an integer type.
+	 * @return {@code true} if this type stores integers, {@code false} for floating point types
+	 */
+	public boolean isIntegral() {
+		return integral;
+	}
+	
+	/**
+	 * Returns the keyword identifying this type in PLY headers.
+	 * @return the name of this type as used in the header
+	 */
+	public String keyword() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+	
+	static Type forKeyword(String keyword) {
+		for (Type type: values())
+			if (type.keyword().equals(keyword)) return type;
+		return null;
+	}
+	
+	/**
+	 * Returns whether an integer is in the range of this integral type.
+	 */
+	boolean contains(long value) {
+		return integral && value>=min && value<=max;
+	}
+	
+	/**
+	 * Converts a value to an integer in the range of this type.
+	 * @throws IllegalArgumentException if the value cannot be represented exactly by this type
+	 */
+	long toIntegral(Number value) {
+		long result=value.longValue();
+		if (result<min || result>max || ((value instanceof Float || value instanceof Double) && result!=value.doubleValue()))
+			throw new IllegalArgumentException("Value "+value+" cannot be represented as "+keyword());
+		return result;
+	}
+	
+	/**
+	 * Converts a color component of this type to the 0-255 range. Integral values are returned as they are; floating
+	 * point values are expected to be in the [0, 1] range, and they are clamped to it and scaled.
+	 */
+	int colorComponent(double value) {
+		if (integral) return (int)value;
+		return (int)Math.round(Math.min(Math.max(value, 0), 1)*255);
+	}
+	
+	/**
+	 * Formats a value of this type as it should appear in an ASCII PLY file.
+	 * @throws IllegalArgumentException if the value cannot be represented exactly by this type
+	 */
+	String format(Number value) {
+		return Long.toString(toIntegral(value));
+	}
+	
+	abstract Number parse(Scanner scanner) throws IOException;
+	abstract Number read(ByteBuffer buffer) throws IOException;
+	/**
+	 * Writes a value in the binary encoding of this type.
+	 * @throws IllegalArgumentException if the value cannot be represented exactly by this type
+	 */
+	abstract void write(ByteBuffer buffer, Number value);
+	/**
+	 * Copies a binary value of this type from one buffer to the other. If the byte orders of the buffers differ,
+	 * the bytes are swapped.
+	 */
+	abstract void copy(ByteBuffer src, ByteBuffer dst);
+	/**
+	 * Reads a binary value of this type at the specified index of the buffer, without changing its position.
+	 */
+	abstract double getDouble(ByteBuffer buffer, int index);
+	/**
+	 * Reads a binary value of this type at the specified index of the buffer, without changing its position.
+	 * Floating point values are truncated.
+	 */
+	abstract long getLong(ByteBuffer buffer, int index);
 }
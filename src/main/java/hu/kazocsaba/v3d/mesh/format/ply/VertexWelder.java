@@ -0,0 +1,137 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+/**
+ * Merges coincident vertices. Vertices are added one by one, and each is either merged into a previously added vertex
+ * or becomes a new, unique vertex. With a tolerance of 0, only vertices with exactly equal coordinates are merged.
+ * Otherwise a vertex is merged into a unique vertex within the tolerance (in Euclidean distance), if there is one; the
+ * unique vertices are found by a spatial hash with a cell size equal to the tolerance.
+ * <p>
+ * All data is kept in arrays allocated at construction, so adding a vertex doesn't allocate memory. The hash table uses
+ * open addressing with linear probing. In exact mode each slot holds a unique vertex; in tolerance mode each slot holds
+ * the first unique vertex of a grid cell, and the other vertices of the cell are chained through an array.
+ * @author Kazó Csaba
+ */
+class VertexWelder {
+	private final double tolerance;
+	private final double toleranceSquared;
+	/** The coordinates of the unique vertices. */
+	private final double[] coords;
+	/** The hash table containing unique vertex indices plus one; 0 denotes an empty slot. */
+	private final int[] table;
+	private final int mask;
+	/** The next unique vertex in the same cell, or -1; only used with a positive tolerance. */
+	private final int[] next;
+	private int size=0;
+
+	/**
+	 * Creates a new welder.
+	 * @param capacity the maximum number of vertices that will be added
+	 * @param tolerance the maximum distance of vertices to merge, or 0 to only merge equal vertices
+	 */
+	public VertexWelder(int capacity, double tolerance) {
+		if (!(tolerance>=0) || Double.isInfinite(tolerance)) throw new IllegalArgumentException("Invalid tolerance: "+tolerance);
+		if (capacity<0 || capacity>Integer.MAX_VALUE/3) throw new IllegalArgumentException("Invalid capacity: "+capacity);
+		this.tolerance = tolerance;
+		toleranceSquared=tolerance*tolerance;
+		coords=new double[capacity*3];
+		// keep the load factor at most 1/2, up to the largest power of two an array can hold; the table doesn't fill up
+		// even then, as the capacity is below 2^30
+		long tableSize=Math.min(Long.highestOneBit(Math.max(capacity, 1)*2L-1)<<1, 1<<30);
+		table=new int[(int)tableSize];
+		mask=(int)tableSize-1;
+		next=tolerance>0 ? new int[capacity] : null;
+	}
+
+	/**
+	 * Returns the number of unique vertices.
+	 * @return the number of vertices that were not merged into another one
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a coordinate of a unique vertex.
+	 * @param vertex the index of the unique vertex
+	 * @param axis 0, 1 or 2 for the x, y or z coordinate
+	 * @return the coordinate of the vertex
+	 */
+	public double coordinate(int vertex, int axis) {
+		return coords[vertex*3+axis];
+	}
+
+	/**
+	 * Adds a vertex.
+	 * @return the index of the unique vertex it was merged into, or its new unique index
+	 */
+	public int add(double x, double y, double z) {
+		// make -0.0 equal to 0.0 for hashing
+		x+=0.0;
+		y+=0.0;
+		z+=0.0;
+		return tolerance==0 ? addExact(x, y, z) : addNear(x, y, z);
+	}
+
+	private int addExact(double x, double y, double z) {
+		int slot=hash(Double.doubleToLongBits(x), Double.doubleToLongBits(y), Double.doubleToLongBits(z));
+		while (table[slot]!=0) {
+			int vertex=table[slot]-1;
+			if (coords[vertex*3]==x && coords[vertex*3+1]==y && coords[vertex*3+2]==z) return vertex;
+			slot=(slot+1) & mask;
+		}
+		int vertex=store(x, y, z);
+		table[slot]=vertex+1;
+		return vertex;
+	}
+
+	private int addNear(double x, double y, double z) {
+		long cx=cell(x), cy=cell(y), cz=cell(z);
+		for (long dx=-1; dx<=1; dx++)
+			for (long dy=-1; dy<=1; dy++)
+				for (long dz=-1; dz<=1; dz++) {
+					int slot=findCell(cx+dx, cy+dy, cz+dz);
+					if (table[slot]==0) continue;
+					for (int vertex=table[slot]-1; vertex!=-1; vertex=next[vertex]) {
+						double ex=coords[vertex*3]-x, ey=coords[vertex*3+1]-y, ez=coords[vertex*3+2]-z;
+						if (ex*ex+ey*ey+ez*ez<=toleranceSquared) return vertex;
+					}
+				}
+		int vertex=store(x, y, z);
+		int slot=findCell(cx, cy, cz);
+		next[vertex]=table[slot]-1;
+		table[slot]=vertex+1;
+		return vertex;
+	}
+
+	/**
+	 * Returns the slot of a cell: either the slot containing it, or the empty slot where it should be inserted.
+	 */
+	private int findCell(long cx, long cy, long cz) {
+		int slot=hash(cx, cy, cz);
+		while (table[slot]!=0) {
+			int vertex=table[slot]-1;
+			if (cell(coords[vertex*3])==cx && cell(coords[vertex*3+1])==cy && cell(coords[vertex*3+2])==cz) break;
+			slot=(slot+1) & mask;
+		}
+		return slot;
+	}
+
+	private long cell(double coordinate) {
+		return (long)Math.floor(coordinate/tolerance);
+	}
+
+	private int store(double x, double y, double z) {
+		int vertex=size++;
+		coords[vertex*3]=x;
+		coords[vertex*3+1]=y;
+		coords[vertex*3+2]=z;
+		return vertex;
+	}
+
+	private int hash(long a, long b, long c) {
+		long h=a*0x9E3779B97F4A7C15L ^ b*0xC2B2AE3D27D4EB4FL ^ c*0x165667B19E3779F9L;
+		h^=h>>>29;
+		h*=0xBF58476D1CE4E5B9L;
+		return (int)(h ^ h>>>32) & mask;
+	}
+}
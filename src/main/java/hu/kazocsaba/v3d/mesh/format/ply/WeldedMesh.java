@@ -0,0 +1,44 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+
+/**
+ * The result of {@link PlyReader#readWeldedMesh(double)}: a mesh whose coincident vertices have been merged, along with
+ * statistics about the merging.
+ * @author Kazó Csaba
+ */
+public final class WeldedMesh {
+	private final IndexedTriangleMesh mesh;
+	private final int mergedVertexCount;
+	private final int removedTriangleCount;
+
+	WeldedMesh(IndexedTriangleMesh mesh, int mergedVertexCount, int removedTriangleCount) {
+		this.mesh = mesh;
+		this.mergedVertexCount = mergedVertexCount;
+		this.removedTriangleCount = removedTriangleCount;
+	}
+
+	/**
+	 * Returns the welded mesh.
+	 * @return the mesh with the merged vertices
+	 */
+	public IndexedTriangleMesh getMesh() {
+		return mesh;
+	}
+
+	/**
+	 * Returns the number of vertices of the file that were merged into another vertex.
+	 * @return the number of vertices in the file minus the number of vertices in the mesh
+	 */
+	public int getMergedVertexCount() {
+		return mergedVertexCount;
+	}
+
+	/**
+	 * Returns the number of triangles that were removed because two of their vertices were merged.
+	 * @return the number of degenerate triangles removed
+	 */
+	public int getRemovedTriangleCount() {
+		return removedTriangleCount;
+	}
+}
@@ -0,0 +1,81 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the tasks of a parallel read on a dedicated pool of threads, or on an executor specified by the caller.
+ * @author Kazó Csaba
+ */
+final class Workers {
+	private Workers() {}
+
+	/**
+	 * Runs tasks concurrently on a new pool of threads and waits for all of them to finish.
+	 * @param tasks the tasks to run
+	 * @param parallelism the maximum number of tasks running at the same time
+	 * @throws IOException if a task throws an I/O error
+	 * @throws InterruptedIOException if the calling thread is interrupted while waiting; the tasks are cancelled
+	 * @see #run(List, Executor)
+	 */
+	static void run(List<? extends Callable<Void>> tasks, int parallelism) throws IOException {
+		ExecutorService pool=Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, tasks.size())), runnable -> {
+			Thread thread=new Thread(runnable, "PLY reader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			run(tasks, pool);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs tasks on an executor and waits for all of them to finish. If a task fails, the remaining tasks are
+	 * cancelled, and its exception is rethrown; I/O errors wrapped in {@link UncheckedIOException}s are unwrapped.
+	 * @param tasks the tasks to run
+	 * @param executor the executor to run the tasks on
+	 * @throws IOException if a task throws an I/O error
+	 * @throws InterruptedIOException if the calling thread is interrupted while waiting; the tasks are cancelled
+	 */
+	static void run(List<? extends Callable<Void>> tasks, Executor executor) throws IOException {
+		List<Future<Void>> futures=new ArrayList<>(tasks.size());
+		boolean done=false;
+		try {
+			for (Callable<Void> task: tasks) {
+				FutureTask<Void> future=new FutureTask<>(task);
+				futures.add(future);
+				executor.execute(future);
+			}
+			for (Future<Void> future: futures)
+				future.get();
+			done=true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading");
+		} catch (ExecutionException e) {
+			Throwable cause=e.getCause();
+			if (cause instanceof UncheckedIOException) throw ((UncheckedIOException)cause).getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		} finally {
+			if (!done) {
+				for (Future<Void> future: futures)
+					future.cancel(true);
+			}
+		}
+	}
+}
@@ -0,0 +1,448 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.PointList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the handling of the less common features of the format, and the rejection of invalid files, in each format.
+ * @author Kazó Csaba
+ */
+public class ConformanceTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private Path file(String content) throws IOException {
+		Path file=folder.newFile().toPath();
+		Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	private Path write(PlySchemaWriter writer, PlyFormat format) throws IOException {
+		Path file=folder.newFile().toPath();
+		writer.setFormat(format).write(null, file);
+		return file;
+	}
+
+	/**
+	 * Replaces the line endings of the header with CRLF, and optionally those of the body.
+	 */
+	private static void crlf(Path file, boolean body) throws IOException {
+		byte[] data=Files.readAllBytes(file);
+		String text=new String(data, StandardCharsets.ISO_8859_1);
+		int headerEnd=text.indexOf("end_header\n")+"end_header\n".length();
+		String header=text.substring(0, headerEnd).replace("\n", "\r\n");
+		String rest=text.substring(headerEnd);
+		if (body) rest=rest.replace("\n", "\r\n");
+		Files.write(file, (header+rest).getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static void assertInvalid(Path file, String message) throws IOException {
+		try {
+			new PlyReader(file).readMesh();
+			fail("Invalid file accepted");
+		} catch (InvalidPlyFormatException e) {
+			if (message!=null) assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	private static void assertInvalidVertices(Path file) throws IOException {
+		try {
+			new PlyReader(file).readVertices();
+			fail("Invalid file accepted");
+		} catch (InvalidPlyFormatException e) {}
+	}
+
+	private static void assertPoints(double[][] expected, PointList actual) {
+		assertEquals(expected.length, actual.getPointCount());
+		for (int i=0; i<expected.length; i++) {
+			assertEquals(expected[i][0], actual.getPoint(i).getX(), 0);
+			assertEquals(expected[i][1], actual.getPoint(i).getY(), 0);
+			assertEquals(expected[i][2], actual.getPoint(i).getZ(), 0);
+		}
+	}
+
+	private static final double[][] EXTREMES={
+		{Byte.MIN_VALUE, Short.MIN_VALUE, 0},
+		{Byte.MAX_VALUE, Short.MAX_VALUE, 65535},
+		{0, -1, 255}
+	};
+
+	@Test
+	public void asciiIntegralExtremes() throws IOException {
+		Path file=file("ply\nformat ascii 1.0\nelement vertex 3\nproperty char x\nproperty short y\nproperty ushort z\nend_header\n"
+				+"-128 -32768 0\n127 32767 65535\n0 -1 255\n");
+		assertPoints(EXTREMES, new PlyReader(file).readVertices());
+	}
+
+	@Test
+	public void binaryIntegralExtremes() throws IOException {
+		PlySchemaWriter writer=new PlySchemaWriter();
+		writer.addElement("vertex", 3)
+				.property("x", Type.CHAR, new byte[]{Byte.MIN_VALUE, Byte.MAX_VALUE, 0})
+				.property("y", Type.SHORT, new short[]{Short.MIN_VALUE, Short.MAX_VALUE, -1})
+				.property("z", Type.USHORT, new short[]{0, -1, 255});
+		for (PlyFormat format: PlyFormat.values())
+			assertPoints(EXTREMES, new PlyReader(write(writer, format)).readVertices());
+	}
+
+	@Test
+	public void asciiValuesOutOfRange() throws IOException {
+		String[][] cases={
+			{"char", "128"}, {"char", "-129"}, {"uchar", "256"}, {"uchar", "-1"}, {"short", "32768"}, {"short", "-32769"},
+			{"ushort", "65536"}, {"ushort", "-1"}, {"int", "2147483648"}, {"uint", "4294967296"}, {"uint", "-1"}
+		};
+		for (String[] c: cases) {
+			// the invalid value is the last one of the file
+			Path file=file("ply\nformat ascii 1.0\nelement vertex 1\nproperty float x\nproperty float y\nproperty "+c[0]+" z\n"
+					+"end_header\n0 0 "+c[1]+"\n");
+			assertInvalidVertices(file);
+		}
+	}
+
+	@Test
+	public void asciiColorComponents() throws IOException {
+		Path file=file("ply\nformat ascii 1.0\nelement vertex 2\nproperty float x\nproperty float y\nproperty float z\n"
+				+"property uchar red\nproperty uchar green\nproperty uchar blue\nproperty uchar alpha\nend_header\n"
+				+"0 0 0 0 128 255 7\n1 1 1 255 255 255 255\n");
+		PackedColorPointList points=new PlyReader(file).readPackedColorVertices();
+		assertTrue(points.hasAlpha());
+		assertEquals(0x0080FF07, points.getColor(0));
+		assertEquals(0xFFFFFFFF, points.getColor(1));
+	}
+
+	/**
+	 * Integral color components are taken as they are, so values outside the range of a byte must be rejected by every
+	 * loader instead of being truncated.
+	 */
+	@Test
+	public void colorComponentsOutOfRange() throws IOException {
+		String[][] cases={{"ushort", "1000"}, {"char", "-5"}, {"int", "256"}};
+		for (String[] c: cases) {
+			Path file=file("ply\nformat ascii 1.0\nelement vertex 2\nproperty float x\nproperty float y\nproperty float z\n"
+					+"property "+c[0]+" red\nproperty "+c[0]+" green\nproperty "+c[0]+" blue\nend_header\n"
+					+"0 0 0 1 2 3\n1 1 1 "+c[1]+" 0 0\n");
+			PlyReader reader=new PlyReader(file);
+			try {
+				reader.readColoredVertices();
+				fail("Invalid "+c[0]+" color accepted");
+			} catch (InvalidPlyFormatException e) {}
+			try {
+				reader.readPackedColorVertices();
+				fail("Invalid "+c[0]+" packed color accepted");
+			} catch (InvalidPlyFormatException e) {}
+			try {
+				reader.readQuantizedVertices(.001);
+				fail("Invalid "+c[0]+" quantized color accepted");
+			} catch (InvalidPlyFormatException e) {}
+		}
+	}
+
+	/**
+	 * The mapped view cannot validate the colors in advance, so it clamps the invalid components.
+	 */
+	@Test
+	public void mappedColorComponentsOutOfRange() throws IOException {
+		PlySchemaWriter writer=new PlySchemaWriter();
+		writer.addElement("vertex", 2)
+				.property("x", Type.FLOAT, new float[]{0, 1})
+				.property("y", Type.FLOAT, new float[]{0, 1})
+				.property("z", Type.FLOAT, new float[]{0, 1})
+				.property("red", Type.USHORT, new int[]{1000, 10})
+				.property("green", Type.CHAR, new int[]{-5, 20})
+				.property("blue", Type.INT, new int[]{255, 30});
+		for (PlyFormat format: new PlyFormat[]{PlyFormat.BINARY_BIG_ENDIAN, PlyFormat.BINARY_LITTLE_ENDIAN}) {
+			ColoredPointList points=(ColoredPointList)new PlyReader(write(writer, format)).mapVertices();
+			assertEquals(new Color(255, 0, 255), points.getPointColor(0));
+			assertEquals(new Color(10, 20, 30), points.getPointColor(1));
+		}
+	}
+
+	@Test
+	public void quads() throws IOException {
+		PlySchemaWriter writer=new PlySchemaWriter();
+		writer.addElement("vertex", 5)
+				.property("x", Type.FLOAT, new float[]{0, 1, 1, 0, 2})
+				.property("y", Type.FLOAT, new float[]{0, 0, 1, 1, 2})
+				.property("z", Type.FLOAT, new float[5]);
+		writer.addElement("face", 3)
+				.listProperty("vertex_indices", Type.UCHAR, Type.INT, new int[]{0, 4, 7, 11}, new int[]{0, 1, 2, 3, 1, 4, 2, 3, 2, 4, 0});
+		int[][] expected={{0, 1, 2}, {0, 2, 3}, {1, 4, 2}, {3, 2, 4}, {3, 4, 0}};
+		for (PlyFormat format: PlyFormat.values()) {
+			PlyReader reader=new PlyReader(write(writer, format));
+			assertTriangles(expected, reader.readMesh());
+			if (reader.canMapMesh()) assertTriangles(expected, reader.mapMesh());
+			int[] indices=reader.triangleIndexStream().toArray();
+			assertEquals(15, indices.length);
+			for (int t=0; t<5; t++)
+				for (int p=0; p<3; p++)
+					assertEquals(expected[t][p], indices[t*3+p]);
+		}
+	}
+
+	@Test
+	public void ignoredProperties() throws IOException {
+		PlySchemaWriter writer=new PlySchemaWriter();
+		writer.addElement("material", 2)
+				.property("shininess", Type.DOUBLE, new double[]{.5, 2})
+				.listProperty("name", Type.UCHAR, Type.CHAR, new int[]{0, 3, 4}, new int[]{'a', 'b', 'c', 'd'});
+		writer.addElement("vertex", 3)
+				.listProperty("tags", Type.USHORT, Type.UINT, new int[]{0, 0, 2, 5}, new int[]{1, 2, 3, 4, 5})
+				.property("x", Type.DOUBLE, new double[]{1, 2, 3})
+				.property("nx", Type.FLOAT, new float[]{.1f, .2f, .3f})
+				.property("y", Type.INT, new int[]{4, 5, 6})
+				.property("z", Type.UCHAR, new int[]{7, 8, 9})
+				.property("red", Type.UCHAR, new int[]{10, 20, 30})
+				.property("green", Type.UCHAR, new int[]{40, 50, 60})
+				.property("blue", Type.UCHAR, new int[]{70, 80, 90})
+				.property("confidence", Type.FLOAT, new float[]{1, 1, 1});
+		writer.addElement("face", 2)
+				.property("flags", Type.UINT, new int[]{-1, 0})
+				.listProperty("texcoord", Type.UCHAR, Type.FLOAT, 6, new int[12])
+				.listProperty("vertex_indices", Type.INT, Type.UINT, 3, new int[]{0, 1, 2, 2, 1, 0})
+				.listProperty("neighbors", Type.UCHAR, Type.INT, new int[]{0, 1, 1}, new int[]{1});
+		writer.addElement("edge", 1)
+				.property("vertex1", Type.INT, new int[]{0})
+				.property("vertex2", Type.INT, new int[]{1});
+		double[][] points={{1, 4, 7}, {2, 5, 8}, {3, 6, 9}};
+		for (PlyFormat format: PlyFormat.values()) {
+			PlyReader reader=new PlyReader(write(writer, format));
+			assertTrue(reader.hasVertexColors());
+			IndexedTriangleMesh mesh=reader.readMesh();
+			assertPoints(points, mesh);
+			assertTriangles(new int[][]{{0, 1, 2}, {2, 1, 0}}, mesh);
+			PackedColorPointList colors=reader.readPackedColorVertices();
+			assertPoints(points, colors);
+			assertEquals(0x0A2846FF, colors.getColor(0));
+			assertEquals(0x1E3C5AFF, colors.getColor(2));
+			assertEquals(Arrays.asList(1., 2., 3.), Arrays.asList(reader.coordinateStream(0).boxed().toArray(Double[]::new)));
+			if (reader.canMapMesh()) assertTriangles(new int[][]{{0, 1, 2}, {2, 1, 0}}, reader.mapMesh());
+		}
+	}
+
+	@Test
+	public void trailingData() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(1), 10, 5);
+		for (PlyFormat format: PlyFormat.values()) {
+			Path file=folder.newFile().toPath();
+			writeMesh(mesh, format, file);
+			append(file, format.isBinary() ? new byte[]{0} : "0\n".getBytes(StandardCharsets.US_ASCII));
+			assertInvalid(file, "end of file");
+		}
+	}
+
+	@Test
+	public void asciiTrailingWhitespace() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(2), 10, 5);
+		Path file=folder.newFile().toPath();
+		writeMesh(mesh, PlyFormat.ASCII, file);
+		append(file, " \t\n\n  \r\n".getBytes(StandardCharsets.US_ASCII));
+		assertSameMesh(mesh, new PlyReader(file).readMesh());
+	}
+
+	@Test
+	public void truncatedBody() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(3), 10, 5);
+		for (PlyFormat format: PlyFormat.values()) {
+			Path file=folder.newFile().toPath();
+			writeMesh(mesh, format, file);
+			byte[] data=Files.readAllBytes(file);
+			// ASCII files are cut before the last face, so that no partial number remains
+			int cut=format.isBinary() ? 3 : data.length-1-new String(data, StandardCharsets.US_ASCII).lastIndexOf('\n', data.length-2);
+			Files.write(file, Arrays.copyOf(data, data.length-cut));
+			assertInvalid(file, "nexpected end of file");
+		}
+	}
+
+	@Test
+	public void truncatedHeader() throws IOException {
+		assertInvalid(file("ply\nformat ascii 1.0\nelement vertex 1\nproperty float x\n"), "nexpected end of file");
+	}
+
+	@Test
+	public void crlfLineEndings() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(4), 20, 30);
+		for (PlyFormat format: PlyFormat.values()) {
+			Path file=folder.newFile().toPath();
+			writeMesh(mesh, format, file);
+			crlf(file, !format.isBinary());
+			PlyReader reader=new PlyReader(file);
+			assertEquals(format, reader.getFormat());
+			assertEquals(Arrays.asList("test"), reader.getComments());
+			assertSameMesh(mesh, reader.readMesh());
+			assertEquals(30*3, reader.triangleIndexStream().count());
+			if (reader.canMapMesh()) assertSameMesh(mesh, reader.mapMesh());
+		}
+	}
+
+	@Test
+	public void crlfLineEndingsParallel() throws IOException {
+		PointList points=points(new Random(5), 100000);
+		Path file=folder.newFile().toPath();
+		writePoints(points, PlyFormat.ASCII, file);
+		crlf(file, true);
+		assertSamePoints(points, new PlyReader(file).setParallelism(4).readVertices());
+	}
+
+	/**
+	 * The parallel ASCII parser must accept exactly the values the sequential one does, and parse them the same way.
+	 */
+	@Test
+	public void parallelAsciiTokens() throws IOException {
+		PointList points=points(new Random(7), 100000);
+		Path original=folder.newFile().toPath();
+		writePoints(points, PlyFormat.ASCII, original);
+		String text=new String(Files.readAllBytes(original), StandardCharsets.US_ASCII);
+		// the first coordinate of a record in the middle of the body
+		int position=text.indexOf('\n', text.length()/2)+1;
+		int end=text.indexOf(' ', position);
+		for (String token: new String[]{"1.5f", "2d", "0x1p3", "1e", "1,5", "NaN", "+1.", ".5e-3", "1E+2"}) {
+			Path file=file(text.substring(0, position)+token+text.substring(end));
+			PointList sequential=null, parallel=null;
+			InvalidPlyFormatException sequentialError=null, parallelError=null;
+			try {
+				sequential=new PlyReader(file).setParallelism(1).readVertices();
+			} catch (InvalidPlyFormatException e) {
+				sequentialError=e;
+			}
+			try {
+				parallel=new PlyReader(file).setParallelism(4).readVertices();
+			} catch (InvalidPlyFormatException e) {
+				parallelError=e;
+			}
+			assertEquals(token, sequentialError==null, parallelError==null);
+			if (sequential!=null) assertSamePoints(sequential, parallel);
+		}
+	}
+
+	@Test
+	public void trailingWhitespaceInHeader() throws IOException {
+		PlySchemaWriter writer=new PlySchemaWriter();
+		writer.addElement("vertex", 1)
+				.property("x", Type.FLOAT, new float[]{1})
+				.property("y", Type.FLOAT, new float[]{2})
+				.property("z", Type.FLOAT, new float[]{3});
+		for (PlyFormat format: PlyFormat.values()) {
+			Path file=write(writer, format);
+			byte[] data=Files.readAllBytes(file);
+			String text=new String(data, StandardCharsets.ISO_8859_1).replace("end_header\n", " end_header \t\n");
+			Files.write(file, text.getBytes(StandardCharsets.ISO_8859_1));
+			assertPoints(new double[][]{{1, 2, 3}}, new PlyReader(file).readVertices());
+		}
+	}
+
+	@Test
+	public void defaultLocaleIsIgnored() throws IOException {
+		Locale defaultLocale=Locale.getDefault();
+		Locale.setDefault(Locale.GERMANY);
+		try {
+			PointList points=points(new Random(6), 100);
+			Path file=folder.newFile().toPath();
+			writePoints(points, PlyFormat.ASCII, file);
+			assertSamePoints(points, new PlyReader(file).readVertices());
+			assertEquals(100, new PlyReader(file).vertexStream().count());
+
+			file=file("ply\nformat ascii 1.0\nelement vertex 1\nproperty double x\nproperty double y\nproperty double z\nend_header\n"
+					+"1.5 -2.25 1e3\n");
+			assertPoints(new double[][]{{1.5, -2.25, 1000}}, new PlyReader(file).readVertices());
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	@Test
+	public void notPly() throws IOException {
+		try {
+			new PlyReader(file("OFF\n3 1 0\n"));
+			fail("Invalid file accepted");
+		} catch (InvalidPlyFormatException e) {}
+		try {
+			new PlyReader(file(""));
+			fail("Invalid file accepted");
+		} catch (InvalidPlyFormatException e) {}
+	}
+
+	@Test
+	public void invalidHeaders() throws IOException {
+		String[] headers={
+			"ply\nend_header\n",
+			"ply\nformat ascii 2.0\nend_header\n",
+			"ply\nformat binary 1.0\nend_header\n",
+			"ply\nformat ascii 1.0\nproperty float x\nend_header\n",
+			"ply\nformat ascii 1.0\nelement vertex -1\nend_header\n",
+			"ply\nformat ascii 1.0\nelement vertex many\nend_header\n",
+			"ply\nformat ascii 1.0\nelement vertex\nend_header\n",
+			"ply\nformat ascii 1.0\nelement vertex 1\nproperty quad x\nend_header\n",
+			"ply\nformat ascii 1.0\nelement vertex 1\nproperty list float int x\nend_header\n",
+			"ply\nformat ascii 1.0\nelement vertex 1\nproperty\nend_header\n",
+			"ply\nformat ascii 1.0\n\nend_header\n",
+			"ply\nformat ascii 1.0\nunknown\nend_header\n"
+		};
+		for (String header: headers) {
+			try {
+				new PlyReader(file(header));
+				fail("Invalid header accepted: "+header);
+			} catch (InvalidPlyFormatException e) {}
+		}
+	}
+
+	@Test
+	public void invalidVertexIndex() throws IOException {
+		for (int index: new int[]{3, -1}) {
+			PlySchemaWriter writer=new PlySchemaWriter();
+			writer.addElement("vertex", 3)
+					.property("x", Type.FLOAT, new float[3])
+					.property("y", Type.FLOAT, new float[3])
+					.property("z", Type.FLOAT, new float[3]);
+			writer.addElement("face", 1)
+					.listProperty("vertex_indices", Type.UCHAR, Type.INT, 3, new int[]{0, 1, index});
+			for (PlyFormat format: PlyFormat.values())
+				assertInvalid(write(writer, format), "Invalid vertex index: "+index);
+		}
+	}
+
+	@Test
+	public void unsupportedFaces() throws IOException {
+		for (int size: new int[]{2, 5}) {
+			PlySchemaWriter writer=new PlySchemaWriter();
+			writer.addElement("vertex", 5)
+					.property("x", Type.FLOAT, new float[5])
+					.property("y", Type.FLOAT, new float[5])
+					.property("z", Type.FLOAT, new float[5]);
+			writer.addElement("face", 1)
+					.listProperty("vertex_indices", Type.UCHAR, Type.INT, size, new int[]{0, 1, 2, 3, 4});
+			for (PlyFormat format: PlyFormat.values()) {
+				assertInvalid(write(writer, format), "vertices");
+				// the vertices can still be read
+				assertEquals(5, new PlyReader(write(writer, format)).readVertices().getPointCount());
+			}
+		}
+	}
+
+	@Test
+	public void missingVertexIndices() throws IOException {
+		try {
+			new PlyReader(file("ply\nformat ascii 1.0\nelement vertex 1\nproperty float x\nproperty float y\nproperty float z\n"
+					+"element face 1\nproperty list uchar int indices\nend_header\n0 0 0\n3 0 0 0\n"));
+			fail("Invalid file accepted");
+		} catch (InvalidPlyFormatException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("vertex_indices"));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Guards the core decode loop against regressions in allocation and throughput. The limits are far from the measured
+ * values, so that they only fail when decoding gets substantially worse: the binary formats allocate at most a boxed
+ * number per value (less once the JIT compiler eliminates them), and decode well over ten million records per second;
+ * the ASCII format allocates a few kilobytes per record, and decodes a few hundred thousand records per second.
+ * @author Kazó Csaba
+ */
+public class DecodeRegressionTest {
+	private static final int RUNS=5;
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	/**
+	 * A sink discarding everything it receives, except for the number of records.
+	 */
+	private static final class CountingSink implements PlyReader.MeshSink {
+		long vertices, triangles;
+
+		@Override
+		public void vertex(double x, double y, double z) {
+			vertices++;
+		}
+
+		@Override
+		public void color(int red, int green, int blue, int alpha) {}
+
+		@Override
+		public void triangle(long v1, long v2, long v3) {
+			triangles++;
+		}
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue("Allocation counting is not available", bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean counter=(com.sun.management.ThreadMXBean)bean;
+		Assume.assumeTrue("Allocation counting is not available", counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled());
+		return counter;
+	}
+
+	/**
+	 * Decodes a file several times, and checks the lowest allocation and the highest throughput measured.
+	 * @param maxBytesPerRecord the allowed allocation per vertex or face
+	 * @param minRecordsPerSecond the required throughput, in vertices and faces per second
+	 */
+	private void check(PlyFormat format, int vertexCount, int faceCount, long maxBytesPerRecord, double minRecordsPerSecond) throws IOException {
+		Path file=folder.newFile().toPath();
+		writeMesh(mesh(new Random(1), vertexCount, faceCount), format, file);
+		PlyReader reader=new PlyReader(file);
+		com.sun.management.ThreadMXBean counter=allocationCounter();
+		long threadId=Thread.currentThread().getId();
+		long records=vertexCount+faceCount;
+
+		double bytesPerRecord=Double.POSITIVE_INFINITY, recordsPerSecond=0;
+		for (int run=0; run<RUNS; run++) {
+			CountingSink sink=new CountingSink();
+			long allocatedBefore=counter.getThreadAllocatedBytes(threadId);
+			long start=System.nanoTime();
+			reader.decode(sink, false, true);
+			long time=System.nanoTime()-start;
+			long allocated=counter.getThreadAllocatedBytes(threadId)-allocatedBefore;
+			assertEquals(vertexCount, sink.vertices);
+			assertEquals(faceCount, sink.triangles);
+			bytesPerRecord=Math.min(bytesPerRecord, (double)allocated/records);
+			recordsPerSecond=Math.max(recordsPerSecond, records*1e9/Math.max(time, 1));
+		}
+		assertTrue(format+": "+bytesPerRecord+" bytes allocated per record", bytesPerRecord<=maxBytesPerRecord);
+		assertTrue(format+": "+recordsPerSecond+" records decoded per second", recordsPerSecond>=minRecordsPerSecond);
+	}
+
+	@Test
+	public void binaryLittleEndian() throws IOException {
+		check(PlyFormat.BINARY_LITTLE_ENDIAN, 200000, 400000, 128, 1e6);
+	}
+
+	@Test
+	public void binaryBigEndian() throws IOException {
+		check(PlyFormat.BINARY_BIG_ENDIAN, 200000, 400000, 128, 1e6);
+	}
+
+	@Test
+	public void ascii() throws IOException {
+		check(PlyFormat.ASCII, 20000, 30000, 16384, 2e4);
+	}
+}
@@ -0,0 +1,418 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.PointList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads files with randomly generated schemas, and randomly corrupted files. The files are written by
+ * {@link PlySchemaWriter}, using every type for the coordinates, the colors and the vertex indices, with unrelated
+ * properties and elements mixed in. Corrupted files may only be rejected with an {@code IOException}.
+ * @author Kazó Csaba
+ */
+public class FuzzTest {
+	private static final int SCHEMAS=150;
+	private static final int MUTATIONS=1500;
+	private static final Type[] INTEGRAL_TYPES={Type.CHAR, Type.UCHAR, Type.SHORT, Type.USHORT, Type.INT, Type.UINT};
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	/**
+	 * A generated file, with the content the reader is expected to return.
+	 */
+	private static final class Sample {
+		final PlySchemaWriter writer=new PlySchemaWriter();
+		double[][] points;
+		/** The packed colors of the vertices, or {@code null} if they have none. */
+		int[] colors;
+		boolean alpha;
+		/** The triangles, or {@code null} if there is no face element. */
+		List<int[]> triangles;
+	}
+
+	private static Type randomType(Random random) {
+		return Type.values()[random.nextInt(Type.values().length)];
+	}
+
+	private static long min(Type type) {
+		switch (type) {
+			case CHAR: return Byte.MIN_VALUE;
+			case SHORT: return Short.MIN_VALUE;
+			case INT: return Integer.MIN_VALUE;
+			default: return 0;
+		}
+	}
+
+	private static long max(Type type) {
+		switch (type) {
+			case CHAR: return Byte.MAX_VALUE;
+			case UCHAR: return 255;
+			case SHORT: return Short.MAX_VALUE;
+			case USHORT: return 65535;
+			case INT: return Integer.MAX_VALUE;
+			case UINT: return 4294967295L;
+			default: throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Returns a random value that the type represents exactly, often one of the extremes of its range.
+	 */
+	private static double value(Random random, Type type) {
+		switch (type) {
+			case FLOAT:
+				return (float)((random.nextDouble()-.5)*Math.pow(10, random.nextInt(12)-4));
+			case DOUBLE:
+				return (random.nextDouble()-.5)*Math.pow(10, random.nextInt(40)-20);
+			default:
+				switch (random.nextInt(4)) {
+					case 0: return min(type);
+					case 1: return max(type);
+					default: return min(type)+(long)(random.nextDouble()*(max(type)-min(type)));
+				}
+		}
+	}
+
+	private static double[] values(Random random, Type type, int count) {
+		double[] values=new double[count];
+		for (int i=0; i<count; i++)
+			values[i]=value(random, type);
+		return values;
+	}
+
+	/**
+	 * Adds a property that the reader should skip, with random values.
+	 */
+	private static void addIgnoredProperty(Random random, PlySchemaWriter.ElementSchema element, String name) {
+		int count=element.getCount();
+		if (random.nextBoolean()) {
+			Type type=randomType(random);
+			element.property(name, type, values(random, type, count));
+		} else {
+			Type countType=INTEGRAL_TYPES[random.nextInt(INTEGRAL_TYPES.length)];
+			Type elementType=randomType(random);
+			int[] offsets=new int[count+1];
+			for (int i=0; i<count; i++)
+				offsets[i+1]=offsets[i]+random.nextInt(5);
+			int[] values=new int[offsets[count]];
+			for (int i=0; i<values.length; i++)
+				values[i]=elementType.isIntegral() ? (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value(random, elementType))) : random.nextInt();
+			element.listProperty(name, countType, elementType, offsets, values);
+		}
+	}
+
+	private static Sample sample(Random random, int maxVertices) {
+		Sample sample=new Sample();
+		int vertexCount=random.nextInt(maxVertices+1);
+		List<Consumer<PlySchemaWriter>> elements=new ArrayList<>();
+
+		// the vertices
+		sample.points=new double[vertexCount][3];
+		Type[] coordinateTypes={randomType(random), randomType(random), randomType(random)};
+		double[][] coordinates=new double[3][];
+		for (int axis=0; axis<3; axis++) {
+			coordinates[axis]=values(random, coordinateTypes[axis], vertexCount);
+			for (int i=0; i<vertexCount; i++)
+				sample.points[i][axis]=coordinates[axis][i];
+		}
+		Type colorType=null;
+		double[][] colorValues=null;
+		if (random.nextBoolean()) {
+			// integral components must be in [0, 255], floating point ones in [0, 1]
+			colorType=Type.values()[1+random.nextInt(Type.values().length-1)];
+			sample.alpha=random.nextBoolean();
+			colorValues=new double[sample.alpha ? 4 : 3][vertexCount];
+			sample.colors=new int[vertexCount];
+			for (int i=0; i<vertexCount; i++) {
+				int[] components={random.nextInt(256), random.nextInt(256), random.nextInt(256), sample.alpha ? random.nextInt(256) : 255};
+				for (int c=0; c<colorValues.length; c++)
+					colorValues[c][i]=colorType.isIntegral() ? components[c] : components[c]/255.;
+				sample.colors[i]=PackedColorPointList.pack(components[0], components[1], components[2], components[3]);
+			}
+		}
+		final Type finalColorType=colorType;
+		final double[][] finalColorValues=colorValues;
+		elements.add(writer -> {
+			PlySchemaWriter.ElementSchema vertex=writer.addElement("vertex", vertexCount);
+			List<Consumer<PlySchemaWriter.ElementSchema>> properties=new ArrayList<>();
+			for (int axis=0; axis<3; axis++) {
+				String name="xyz".substring(axis, axis+1);
+				Type type=coordinateTypes[axis];
+				double[] values=coordinates[axis];
+				properties.add(element -> element.property(name, type, values));
+			}
+			if (finalColorType!=null) {
+				String[] names={"red", "green", "blue", "alpha"};
+				for (int c=0; c<finalColorValues.length; c++) {
+					String name=names[c];
+					double[] values=finalColorValues[c];
+					properties.add(element -> element.property(name, finalColorType, values));
+				}
+			}
+			int ignored=random.nextInt(3);
+			for (int p=0; p<ignored; p++) {
+				String name="ignored"+p;
+				properties.add(element -> addIgnoredProperty(random, element, name));
+			}
+			Collections.shuffle(properties, random);
+			for (Consumer<PlySchemaWriter.ElementSchema> property: properties)
+				property.accept(vertex);
+		});
+
+		// the faces
+		if (random.nextInt(4)!=0) {
+			int faceCount=vertexCount==0 ? 0 : random.nextInt(2*maxVertices+1);
+			Type countType=INTEGRAL_TYPES[random.nextInt(INTEGRAL_TYPES.length)];
+			Type indexType;
+			do {
+				indexType=INTEGRAL_TYPES[random.nextInt(INTEGRAL_TYPES.length)];
+			} while (!indexType.contains(vertexCount-1));
+			final Type finalIndexType=indexType;
+			int[] offsets=new int[faceCount+1];
+			List<Integer> indices=new ArrayList<>();
+			sample.triangles=new ArrayList<>();
+			for (int f=0; f<faceCount; f++) {
+				int[] face=new int[3+random.nextInt(2)];
+				for (int v=0; v<face.length; v++) {
+					face[v]=random.nextInt(vertexCount);
+					indices.add(face[v]);
+				}
+				offsets[f+1]=indices.size();
+				sample.triangles.add(new int[]{face[0], face[1], face[2]});
+				if (face.length==4) sample.triangles.add(new int[]{face[0], face[2], face[3]});
+			}
+			int[] values=indices.stream().mapToInt(Integer::intValue).toArray();
+			elements.add(writer -> {
+				PlySchemaWriter.ElementSchema face=writer.addElement("face", faceCount);
+				int ignoredBefore=random.nextInt(2), ignoredAfter=random.nextInt(2);
+				for (int p=0; p<ignoredBefore; p++)
+					addIgnoredProperty(random, face, "before"+p);
+				face.listProperty("vertex_indices", countType, finalIndexType, offsets, values);
+				for (int p=0; p<ignoredAfter; p++)
+					addIgnoredProperty(random, face, "after"+p);
+			});
+		}
+
+		// unrelated elements
+		int extra=random.nextInt(3);
+		for (int e=0; e<extra; e++) {
+			String name="extra"+e;
+			int count=random.nextInt(20);
+			elements.add(writer -> {
+				PlySchemaWriter.ElementSchema element=writer.addElement(name, count);
+				int properties=1+random.nextInt(3);
+				for (int p=0; p<properties; p++)
+					addIgnoredProperty(random, element, "p"+p);
+			});
+		}
+
+		Collections.shuffle(elements, random);
+		for (Consumer<PlySchemaWriter> element: elements)
+			element.accept(sample.writer);
+		return sample;
+	}
+
+	private static void assertPoints(double[][] expected, PointList actual) {
+		assertEquals(expected.length, actual.getPointCount());
+		for (int i=0; i<expected.length; i++) {
+			assertEquals(expected[i][0], actual.getPoint(i).getX(), 0);
+			assertEquals(expected[i][1], actual.getPoint(i).getY(), 0);
+			assertEquals(expected[i][2], actual.getPoint(i).getZ(), 0);
+		}
+	}
+
+	private static void assertTriangles(List<int[]> expected, IndexedTriangleMesh actual) {
+		TestData.assertTriangles(expected.toArray(new int[expected.size()][]), actual);
+	}
+
+	private static void check(Sample sample, PlyReader reader) throws IOException {
+		assertPoints(sample.points, reader.readVertices());
+		try (Stream<Vector3> stream=reader.vertexStream()) {
+			Vector3[] streamed=stream.toArray(Vector3[]::new);
+			assertEquals(sample.points.length, streamed.length);
+			for (int i=0; i<streamed.length; i++)
+				assertEquals(sample.points[i][2], streamed[i].getZ(), 0);
+		}
+		assertEquals(sample.colors!=null, reader.hasVertexColors());
+		if (sample.colors!=null) {
+			PackedColorPointList colors=reader.readPackedColorVertices();
+			assertPoints(sample.points, colors);
+			assertEquals(sample.alpha, colors.hasAlpha());
+			for (int i=0; i<sample.colors.length; i++)
+				assertEquals(sample.colors[i], colors.getColor(i));
+		}
+		if (sample.triangles!=null && !sample.triangles.isEmpty()) {
+			IndexedTriangleMesh mesh=reader.readMesh();
+			assertPoints(sample.points, mesh);
+			assertTriangles(sample.triangles, mesh);
+			int[] indices=reader.triangleIndexStream().toArray();
+			assertEquals(sample.triangles.size()*3, indices.length);
+			for (int t=0; t<sample.triangles.size(); t++)
+				for (int p=0; p<3; p++)
+					assertEquals(sample.triangles.get(t)[p], indices[t*3+p]);
+			if (reader.canMapMesh()) assertTriangles(sample.triangles, reader.mapMesh());
+			try (OffHeapMesh offHeap=reader.readOffHeap()) {
+				assertEquals(sample.triangles.size(), offHeap.getTriangleCount());
+				for (int t=0; t<sample.triangles.size(); t++)
+					assertEquals(sample.triangles.get(t)[1], offHeap.getTrianglePointIndex(t, 1));
+			}
+		} else {
+			assertFalse(reader.hasFaces());
+		}
+		if (reader.canMapVertices()) assertPoints(sample.points, reader.mapVertices());
+	}
+
+	@Test
+	public void randomSchemas() throws IOException {
+		for (int seed=0; seed<SCHEMAS; seed++) {
+			Sample sample=sample(new Random(seed), 50);
+			for (PlyFormat format: PlyFormat.values()) {
+				Path file=folder.newFile().toPath();
+				sample.writer.setFormat(format).write(null, file);
+				try {
+					check(sample, new PlyReader(file));
+				} catch (AssertionError | IOException | RuntimeException e) {
+					throw new AssertionError("Seed "+seed+", "+format+": "+e, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A read method of {@link PlyReader}.
+	 */
+	private interface ReadMode {
+		void read(PlyReader reader) throws IOException;
+	}
+
+	private static final ReadMode[] READ_MODES={
+		reader -> reader.readVertices(),
+		reader -> reader.readColoredVertices(),
+		reader -> reader.readPackedColorVertices(),
+		// a maximum error that any finite extent allows
+		reader -> reader.readQuantizedVertices(1e300),
+		reader -> reader.readMesh(),
+		reader -> reader.readMeshWithAdjacency(),
+		reader -> reader.readWeldedMesh(1e-6),
+		reader -> reader.readOffHeap().close(),
+		reader -> {
+			try (Stream<Vector3> stream=reader.vertexStream()) {
+				stream.forEach(v -> {});
+			}
+		},
+		reader -> reader.triangleIndexStream().sum(),
+		reader -> {
+			if (!reader.canMapMesh()) return;
+			IndexedTriangleMesh mesh=reader.mapMesh();
+			for (int t=0; t<mesh.getTriangleCount(); t++)
+				mesh.getTrianglePointIndex(t, 2);
+		},
+		reader -> {
+			if (!reader.canMapVertices()) return;
+			PointList points=reader.mapVertices();
+			for (int i=0; i<points.getPointCount(); i++)
+				points.getPoint(i);
+		}
+	};
+
+	/**
+	 * Corrupts a file by changing, inserting or removing a few bytes. Changes are biased towards the header and the
+	 * digits of numbers, where they are most likely to produce a file that still looks plausible.
+	 */
+	private static byte[] mutate(Random random, byte[] data) {
+		int headerEnd=new String(data, StandardCharsets.ISO_8859_1).indexOf("end_header");
+		int position=random.nextBoolean() && headerEnd>0 ? random.nextInt(headerEnd) : random.nextInt(data.length);
+		switch (random.nextInt(5)) {
+			case 0:
+				// change a byte
+				data=data.clone();
+				data[position]=(byte)random.nextInt(256);
+				return data;
+			case 1:
+				// change a digit
+				data=data.clone();
+				for (int i=position; i<data.length; i++)
+					if (data[i]>='0' && data[i]<='9') {
+						data[i]=(byte)('0'+random.nextInt(10));
+						break;
+					}
+				return data;
+			case 2:
+				// truncate
+				return Arrays.copyOf(data, position);
+			case 3: {
+				// insert bytes
+				byte[] inserted=new byte[1+random.nextInt(4)];
+				random.nextBytes(inserted);
+				byte[] result=new byte[data.length+inserted.length];
+				System.arraycopy(data, 0, result, 0, position);
+				System.arraycopy(inserted, 0, result, position, inserted.length);
+				System.arraycopy(data, position, result, position+inserted.length, data.length-position);
+				return result;
+			}
+			default: {
+				// remove bytes
+				int length=Math.min(data.length-position, 1+random.nextInt(4));
+				byte[] result=new byte[data.length-length];
+				System.arraycopy(data, 0, result, 0, position);
+				System.arraycopy(data, position+length, result, position, result.length-position);
+				return result;
+			}
+		}
+	}
+
+	@Test
+	public void corruptedFiles() throws IOException {
+		for (int seed=0; seed<MUTATIONS; seed++) {
+			Random random=new Random(seed);
+			Sample sample=sample(random, 10);
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			sample.writer.setFormat(PlyFormat.values()[random.nextInt(PlyFormat.values().length)]).write(null, out);
+			byte[] data=out.toByteArray();
+			int mutations=1+random.nextInt(3);
+			for (int m=0; m<mutations && data.length>0; m++)
+				data=mutate(random, data);
+			Path file=folder.newFile().toPath();
+			Files.write(file, data);
+
+			PlyReader reader;
+			try {
+				reader=new PlyReader(file).setMemoryBudget(64<<20);
+			} catch (IOException e) {
+				continue;
+			} catch (RuntimeException e) {
+				throw new AssertionError("Seed "+seed+", opening: "+e, e);
+			}
+			for (int mode=0; mode<READ_MODES.length; mode++) {
+				try {
+					READ_MODES[mode].read(reader);
+				} catch (IOException | UncheckedIOException | IllegalStateException e) {
+					// rejected properly; IllegalStateException signals that the file lacks the data to read
+				} catch (RuntimeException e) {
+					throw new AssertionError("Seed "+seed+", read mode "+mode+": "+e, e);
+				}
+			}
+			Files.delete(file);
+		}
+	}
+}
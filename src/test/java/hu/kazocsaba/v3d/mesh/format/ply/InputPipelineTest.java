@@ -0,0 +1,90 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.TriangleMesh;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the buffer strategy, reading ahead and asynchronous reading don't affect the data read.
+ * @author Kazó Csaba
+ */
+public class InputPipelineTest {
+	private static final BufferStrategy[] STRATEGIES={
+		BufferStrategy.DEFAULT,
+		BufferStrategy.heap(BufferStrategy.MINIMUM_SIZE),
+		BufferStrategy.direct(BufferStrategy.MINIMUM_SIZE),
+		BufferStrategy.heap(1000).pooled()
+	};
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	/**
+	 * Writes a mesh with a header line longer than the smallest buffers.
+	 */
+	private Path write(TriangleMesh mesh, PlyFormat format) throws IOException {
+		char[] comment=new char[3*BufferStrategy.MINIMUM_SIZE];
+		Arrays.fill(comment, 'c');
+		Path file=folder.newFile().toPath();
+		if (format==PlyFormat.BINARY_LITTLE_ENDIAN) {
+			Path bigEndian=folder.newFile().toPath();
+			new PlyWriter().setBinary(true).write(mesh, new String(comment), bigEndian);
+			new PlyTranscoder().setFormat(format).transcode(bigEndian, file);
+			Files.delete(bigEndian);
+		} else {
+			new PlyWriter().setBinary(format.isBinary()).write(mesh, new String(comment), file);
+		}
+		return file;
+	}
+
+	@Test
+	public void bufferStrategies() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(1), 5000, 8000);
+		for (PlyFormat format: PlyFormat.values()) {
+			Path file=write(mesh, format);
+			for (BufferStrategy strategy: STRATEGIES)
+				for (int readAhead: new int[]{0, 1, 3})
+					assertSameMesh(mesh, new PlyReader(file).setBufferStrategy(strategy).setReadAhead(readAhead).readMesh());
+		}
+	}
+
+	/**
+	 * Many concurrent asynchronous reads, on the default executor and on a given one.
+	 */
+	@Test
+	public void asyncReads() throws Exception {
+		Random random=new Random(2);
+		IndexedTriangleMesh[] meshes=new IndexedTriangleMesh[4];
+		Path[] files=new Path[meshes.length];
+		for (int i=0; i<meshes.length; i++) {
+			meshes[i]=mesh(random, 2000, 3000);
+			files[i]=write(meshes[i], PlyFormat.values()[i%PlyFormat.values().length]);
+		}
+		ExecutorService executor=Executors.newFixedThreadPool(3);
+		try {
+			List<CompletableFuture<IndexedTriangleMesh>> results=new ArrayList<>();
+			for (int i=0; i<64; i++) {
+				PlyReader reader=new PlyReader(files[i%files.length]);
+				results.add(i%2==0 ? reader.readMeshAsync() : reader.readMeshAsync(executor));
+			}
+			for (int i=0; i<results.size(); i++)
+				assertSameMesh(meshes[i%meshes.length], results.get(i).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.PointList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the memory estimates and the enforcement of the memory budget.
+ * @author Kazó Csaba
+ */
+public class MemoryBudgetTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	@Test
+	public void estimates() throws IOException {
+		Path file=folder.newFile().toPath();
+		writeMesh(mesh(new Random(1), 10000, 20000), PlyFormat.BINARY_BIG_ENDIAN, file);
+		PlyReader reader=new PlyReader(file);
+		long vertices=reader.estimateMemory(LoadMode.VERTICES);
+		assertTrue(vertices>=10000L*3*8);
+		assertTrue(reader.estimateMemory(LoadMode.QUANTIZED_VERTICES)<vertices);
+		assertTrue(reader.estimateMemory(LoadMode.MESH)>=vertices+20000L*3*4);
+		assertTrue(reader.estimateMemory(LoadMode.MESH_WITH_ADJACENCY)>reader.estimateMemory(LoadMode.MESH));
+		try {
+			reader.estimateMemory(LoadMode.PACKED_COLOR_VERTICES);
+			fail("Estimate for missing colors");
+		} catch (IllegalStateException e) {}
+
+		// the estimate is a function of the header only
+		Path larger=folder.newFile().toPath();
+		writeMesh(mesh(new Random(2), 20000, 40000), PlyFormat.ASCII, larger);
+		assertTrue(new PlyReader(larger).estimateMemory(LoadMode.MESH)>reader.estimateMemory(LoadMode.MESH));
+	}
+
+	@Test
+	public void budget() throws IOException {
+		Path file=folder.newFile().toPath();
+		IndexedTriangleMesh mesh=mesh(new Random(3), 10000, 20000);
+		writeMesh(mesh, PlyFormat.BINARY_BIG_ENDIAN, file);
+		PlyReader reader=new PlyReader(file);
+		long estimate=reader.estimateMemory(LoadMode.MESH);
+		reader.setMemoryBudget(estimate-1);
+		try {
+			reader.readMesh();
+			fail("Budget exceeded");
+		} catch (MemoryBudgetExceededException e) {
+			assertEquals(LoadMode.MESH, e.getMode());
+			assertEquals(estimate, e.getEstimate());
+			assertEquals(estimate-1, e.getBudget());
+		}
+		assertSameMesh(mesh, reader.setMemoryBudget(estimate).readMesh());
+	}
+
+	/**
+	 * A file that is not memory mapped is subsampled to fit in the budget.
+	 */
+	@Test
+	public void subsample() throws IOException {
+		Path file=folder.newFile().toPath();
+		PointList points=points(new Random(4), 10000);
+		writePoints(points, PlyFormat.ASCII, file);
+		PlyReader reader=new PlyReader(file);
+		assertSamePoints(points, reader.readVerticesWithinBudget());
+
+		reader.setMemoryBudget(reader.estimateMemory(LoadMode.VERTICES)/3);
+		PointList sample=reader.readVerticesWithinBudget();
+		int step=1;
+		while (sample.getPoint(1).getX()!=points.getPoint(step).getX()) step++;
+		assertTrue(step>=3);
+		assertEquals((points.getPointCount()+step-1)/step, sample.getPointCount());
+		for (int i=0; i<sample.getPointCount(); i++)
+			assertSamePoint(points.getPoint(i*step), sample.getPoint(i));
+	}
+
+	/**
+	 * A binary file is memory mapped instead of being subsampled.
+	 */
+	@Test
+	public void mapped() throws IOException {
+		Path file=folder.newFile().toPath();
+		PackedColorPointList points=packedColorPoints(new Random(5), 10000, false);
+		writePoints(points, PlyFormat.BINARY_LITTLE_ENDIAN, file);
+		PlyReader reader=new PlyReader(file).setMemoryBudget(1000);
+		assertSamePoints(points, reader.readVerticesWithinBudget());
+	}
+}
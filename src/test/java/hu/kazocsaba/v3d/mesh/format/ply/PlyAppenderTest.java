@@ -0,0 +1,91 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.PointListImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the vertices appended by a {@link PlyAppender} are read back after the original ones.
+ * @author Kazó Csaba
+ */
+public class PlyAppenderTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static PackedColorPointList concat(PackedColorPointList... parts) {
+		List<Vector3> vertices=new ArrayList<>();
+		List<Integer> colors=new ArrayList<>();
+		for (PackedColorPointList part: parts)
+			for (int i=0; i<part.getPointCount(); i++) {
+				vertices.add(part.getPoint(i));
+				colors.add(part.getColor(i));
+			}
+		int[] colorArray=new int[colors.size()];
+		for (int i=0; i<colorArray.length; i++)
+			colorArray[i]=colors.get(i);
+		return new PackedColorPointList(new PointListImpl(vertices), colorArray, parts[0].hasAlpha());
+	}
+
+	@Test
+	public void appendAndRead() throws IOException {
+		Random random=new Random(1);
+		PackedColorPointList original=packedColorPoints(random, 1000, true);
+		PackedColorPointList first=packedColorPoints(random, 500, true), second=packedColorPoints(random, 20000, true);
+		Path file=folder.newFile().toPath();
+		new PlyWriter().setBinary(true).setAppendable(true).write(original, null, file);
+
+		try (PlyAppender appender=new PlyReader(file).openAppender()) {
+			appender.append(first);
+			appender.append(second);
+			assertEquals(21500, appender.getVertexCount());
+		}
+		assertSameColors(concat(original, first, second), new PlyReader(file).readPackedColorVertices());
+	}
+
+	/**
+	 * Without reserved space, the vertex count can only grow while it has no more digits than the original. A failed
+	 * append leaves the file unchanged.
+	 */
+	@Test
+	public void countWidth() throws IOException {
+		Random random=new Random(2);
+		PointList original=points(random, 5);
+		Path file=folder.newFile().toPath();
+		new PlyWriter().setBinary(true).write(original, null, file);
+		try (PlyAppender appender=new PlyReader(file).openAppender()) {
+			appender.append(points(random, 4));
+			byte[] data=Files.readAllBytes(file);
+			try {
+				appender.append(points(random, 1));
+				fail("Vertex count with more digits accepted");
+			} catch (IllegalStateException e) {}
+			assertArrayEquals(data, Files.readAllBytes(file));
+		}
+		PointList points=new PlyReader(file).readVertices();
+		assertEquals(9, points.getPointCount());
+		for (int i=0; i<original.getPointCount(); i++)
+			assertSamePoint(original.getPoint(i), points.getPoint(i));
+	}
+
+	@Test
+	public void asciiFile() throws IOException {
+		Path file=folder.newFile().toPath();
+		writePoints(points(new Random(3), 10), PlyFormat.ASCII, file);
+		assertFalse(new PlyReader(file).canAppend());
+	}
+}
@@ -0,0 +1,110 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the invalidation and the accounting of {@link PlyCache}.
+ * @author Kazó Csaba
+ */
+public class PlyCacheTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	/**
+	 * A modified file is read again, and the entries of its previous versions don't stay in the cache.
+	 */
+	@Test
+	public void modifiedFile() throws IOException {
+		Path file=folder.newFile().toPath();
+		PlyCache cache=new PlyCache(Long.MAX_VALUE);
+		Random random=new Random(1);
+		for (int version=0; version<4; version++) {
+			IndexedTriangleMesh mesh=mesh(random, 1000+version*100, 500);
+			writeMesh(mesh, PlyFormat.BINARY_BIG_ENDIAN, file);
+			assertSameMesh(mesh, cache.getMesh(file));
+			assertSamePoints(mesh, cache.getVertices(file));
+
+			PlyCache fresh=new PlyCache(Long.MAX_VALUE);
+			fresh.getMesh(file);
+			fresh.getVertices(file);
+			assertEquals(fresh.getWeight(), cache.getWeight());
+		}
+		cache.invalidate(file);
+		assertEquals(0, cache.getWeight());
+	}
+
+	/**
+	 * Concurrent requests for the same file share a single read.
+	 */
+	@Test
+	public void concurrentRequests() throws IOException, InterruptedException, ExecutionException {
+		final Path file=folder.newFile().toPath();
+		IndexedTriangleMesh mesh=mesh(new Random(2), 20000, 40000);
+		writeMesh(mesh, PlyFormat.ASCII, file);
+		final PlyCache cache=new PlyCache(Long.MAX_VALUE);
+		ExecutorService executor=Executors.newFixedThreadPool(8);
+		try {
+			List<Future<IndexedTriangleMesh>> results=new ArrayList<>();
+			for (int i=0; i<16; i++)
+				results.add(executor.submit(new Callable<IndexedTriangleMesh>() {
+					@Override
+					public IndexedTriangleMesh call() throws Exception {
+						return cache.getMesh(file);
+					}
+				}));
+			IndexedTriangleMesh first=results.get(0).get();
+			assertSameMesh(mesh, first);
+			for (Future<IndexedTriangleMesh> result: results)
+				assertSame(first, result.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertNotSame(cache.getReader(file), cache.getReader(file));
+	}
+
+	/**
+	 * When the weight limit is exceeded, the least recently used entries are evicted.
+	 */
+	@Test
+	public void eviction() throws IOException {
+		Random random=new Random(3);
+		Path[] files=new Path[3];
+		for (int i=0; i<files.length; i++) {
+			files[i]=folder.newFile().toPath();
+			writeMesh(mesh(random, 1000, 2000), PlyFormat.BINARY_BIG_ENDIAN, files[i]);
+		}
+		PlyCache unbounded=new PlyCache(Long.MAX_VALUE);
+		unbounded.getMesh(files[0]);
+		long single=unbounded.getWeight();
+
+		PlyCache cache=new PlyCache(2*single);
+		IndexedTriangleMesh first=cache.getMesh(files[0]);
+		IndexedTriangleMesh second=cache.getMesh(files[1]);
+		assertSame(first, cache.getMesh(files[0]));
+		cache.getMesh(files[2]);
+		assertTrue(cache.getWeight()<=2*single);
+		// the second file was used least recently
+		assertSame(first, cache.getMesh(files[0]));
+		assertNotSame(second, cache.getMesh(files[1]));
+		assertTrue(cache.getWeight()<=2*single);
+	}
+}
@@ -0,0 +1,66 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.PointListImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the structure of the pyramids written by {@link PlyLodWriter}.
+ * @author Kazó Csaba
+ */
+public class PlyLodWriterTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	/**
+	 * Duplicated points, common in scan data, can never be separated, so they drive the octree to its maximum depth.
+	 * Every node must still have a distinct file, and cell bounds containing its points.
+	 */
+	@Test
+	public void duplicatedPoints() throws IOException {
+		Random random=new Random(1);
+		List<Vector3> vertices=new ArrayList<>();
+		for (int i=0; i<2000; i++)
+			vertices.add(MatrixFactory.createVector(random.nextDouble(), random.nextDouble(), random.nextDouble()));
+		for (int i=0; i<2000; i++)
+			vertices.add(MatrixFactory.createVector(.3, .3, .3));
+		Path directory=folder.newFolder().toPath();
+		List<PlyLodWriter.Node> nodes=new PlyLodWriter().setMaxNodeSize(50).write(new PointListImpl(vertices), null, directory);
+
+		Set<Path> files=new HashSet<>();
+		int maxLevel=0;
+		long pointCount=0;
+		for (PlyLodWriter.Node node: nodes) {
+			assertTrue("Duplicate file "+node.getFile(), files.add(node.getFile()));
+			assertEquals(node.getLevel()+5, node.getFile().getFileName().toString().length());
+			PointList points=new PlyReader(node.getFile()).readVertices();
+			assertEquals(node.getPointCount(), points.getPointCount());
+			pointCount+=points.getPointCount();
+			for (int i=0; i<points.getPointCount(); i++) {
+				Vector3 point=points.getPoint(i);
+				// the points are written as floats
+				double tolerance=1e-6;
+				assertTrue(node.getFile()+" "+node.getMin()+" "+point, point.getX()>=node.getMin().getX()-tolerance && point.getX()<=node.getMax().getX()+tolerance);
+				assertTrue(node.getFile()+" "+node.getMin()+" "+point, point.getY()>=node.getMin().getY()-tolerance && point.getY()<=node.getMax().getY()+tolerance);
+				assertTrue(node.getFile()+" "+node.getMin()+" "+point, point.getZ()>=node.getMin().getZ()-tolerance && point.getZ()<=node.getMax().getZ()+tolerance);
+			}
+			maxLevel=Math.max(maxLevel, node.getLevel());
+		}
+		assertEquals(vertices.size(), pointCount);
+		assertEquals(21, maxLevel);
+	}
+}
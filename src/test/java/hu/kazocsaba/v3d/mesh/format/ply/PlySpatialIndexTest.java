@@ -0,0 +1,95 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.PointList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that box queries using a {@link PlySpatialIndex} return exactly the vertices found by filtering the whole
+ * file.
+ * @author Kazó Csaba
+ */
+public class PlySpatialIndexTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static boolean inside(Vector3 p, Vector3 min, Vector3 max) {
+		return p.getX()>=min.getX() && p.getX()<=max.getX()
+				&& p.getY()>=min.getY() && p.getY()<=max.getY()
+				&& p.getZ()>=min.getZ() && p.getZ()<=max.getZ();
+	}
+
+	/**
+	 * Asserts that a box query returns the vertices of a point list in the box, in their original order.
+	 */
+	private static void assertBox(ColoredPointList all, Vector3 min, Vector3 max, PointList actual) {
+		List<Integer> expected=new ArrayList<>();
+		for (int i=0; i<all.getPointCount(); i++)
+			if (inside(all.getPoint(i), min, max)) expected.add(i);
+		assertEquals(expected.size(), actual.getPointCount());
+		for (int i=0; i<expected.size(); i++) {
+			assertSamePoint(all.getPoint(expected.get(i)), actual.getPoint(i));
+			assertEquals(all.getPointColor(expected.get(i)).getRGB(), ((ColoredPointList)actual).getPointColor(i).getRGB());
+		}
+	}
+
+	@Test
+	public void indexedQueriesMatchFullScan() throws IOException {
+		Random random=new Random(1);
+		Path file=folder.newFile().toPath();
+		writePoints(coloredPoints(random, 20000), PlyFormat.BINARY_LITTLE_ENDIAN, file);
+		ColoredPointList all=new PlyReader(file).readColoredVertices();
+
+		List<Vector3[]> boxes=new ArrayList<>();
+		for (int i=0; i<20; i++) {
+			Vector3 a=all.getPoint(random.nextInt(all.getPointCount())), b=all.getPoint(random.nextInt(all.getPointCount()));
+			// the corners are vertices, so vertices on the boundary are included
+			boxes.add(new Vector3[]{
+				MatrixFactory.createVector(Math.min(a.getX(), b.getX()), Math.min(a.getY(), b.getY()), Math.min(a.getZ(), b.getZ())),
+				MatrixFactory.createVector(Math.max(a.getX(), b.getX()), Math.max(a.getY(), b.getY()), Math.max(a.getZ(), b.getZ()))});
+		}
+		boxes.add(new Vector3[]{MatrixFactory.createVector(1e9, 1e9, 1e9), MatrixFactory.createVector(2e9, 2e9, 2e9)});
+		boxes.add(new Vector3[]{MatrixFactory.createVector(-1e9, -1e9, -1e9), MatrixFactory.createVector(1e9, 1e9, 1e9)});
+
+		PlyReader reader=new PlyReader(file);
+		assertTrue(reader.canBuildSpatialIndex());
+		for (Vector3[] box: boxes)
+			assertBox(all, box[0], box[1], reader.readVertices(box[0], box[1]));
+
+		PlySpatialIndex index=reader.buildSpatialIndex(64);
+		assertTrue(Files.exists(PlySpatialIndex.sidecarPath(file)));
+		assertEquals((20000+63)/64, index.getBlockCount());
+		for (Vector3[] box: boxes)
+			assertBox(all, box[0], box[1], new PlyReader(file).readVertices(box[0], box[1]));
+	}
+
+	/**
+	 * An index of a previous version of the file is not used.
+	 */
+	@Test
+	public void staleIndex() throws IOException {
+		Random random=new Random(2);
+		Path file=folder.newFile().toPath();
+		writePoints(coloredPoints(random, 5000), PlyFormat.BINARY_BIG_ENDIAN, file);
+		new PlyReader(file).buildSpatialIndex(100);
+		writePoints(coloredPoints(random, 6000), PlyFormat.BINARY_BIG_ENDIAN, file);
+		assertEquals(6000, new PlyReader(file).readVertices(MatrixFactory.createVector(-1e9, -1e9, -1e9), MatrixFactory.createVector(1e9, 1e9, 1e9)).getPointCount());
+		ColoredPointList all=new PlyReader(file).readColoredVertices();
+		Vector3 min=MatrixFactory.createVector(-100, -1, 0), max=MatrixFactory.createVector(100, 1, 1);
+		assertBox(all, min, max, new PlyReader(file).readVertices(min, max));
+	}
+}
@@ -0,0 +1,84 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.PointListImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the tiles written by {@link PlyTiledWriter} partition the points, and agree with the manifest.
+ * @author Kazó Csaba
+ */
+public class PlyTiledWriterTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static void add(Map<String, Integer> counts, Vector3 point, int color, int count) {
+		String key=point.getX()+" "+point.getY()+" "+point.getZ()+" "+color;
+		Integer old=counts.get(key);
+		counts.put(key, (old==null ? 0 : old)+count);
+	}
+
+	@Test
+	public void tiles() throws IOException {
+		Random random=new Random(1);
+		int count=30000;
+		List<Vector3> vertices=new ArrayList<>(randomVectors(random, count));
+		// a cluster that cannot be split by the octree
+		for (int i=0; i<3000; i++)
+			vertices.set(i, MatrixFactory.createVector(1, .5, 1e-4));
+		int[] colors=new int[count];
+		for (int i=0; i<count; i++)
+			colors[i]=random.nextInt() | 0xFF;
+		PackedColorPointList points=new PackedColorPointList(new PointListImpl(vertices), colors, false);
+
+		Path directory=folder.newFolder().toPath();
+		List<PlyTiledWriter.Tile> tiles=new PlyTiledWriter(new PlyWriter().setBinary(true))
+				.setMaxTileSize(1000).setParallelism(3).write(points, "tiles", directory);
+
+		Map<String, Integer> counts=new HashMap<>();
+		for (int i=0; i<count; i++)
+			add(counts, points.getPoint(i), points.getColor(i), 1);
+		Set<Path> files=new HashSet<>();
+		String manifest=new String(Files.readAllBytes(directory.resolve(PlyTiledWriter.MANIFEST_NAME)), StandardCharsets.UTF_8);
+		assertTrue(manifest.contains("\"pointCount\": "+count+","));
+		long total=0;
+		for (PlyTiledWriter.Tile tile: tiles) {
+			assertTrue(files.add(tile.getFile()));
+			assertTrue(tile.getPointCount()<=1000);
+			assertTrue(manifest.contains("{\"file\": \""+tile.getFile().getFileName()+"\", \"pointCount\": "+tile.getPointCount()+","));
+			PackedColorPointList tilePoints=new PlyReader(tile.getFile()).readPackedColorVertices();
+			assertEquals(tile.getPointCount(), tilePoints.getPointCount());
+			for (int i=0; i<tilePoints.getPointCount(); i++) {
+				Vector3 p=tilePoints.getPoint(i);
+				assertTrue(p.getX()>=tile.getMin().getX() && p.getX()<=tile.getMax().getX());
+				assertTrue(p.getY()>=tile.getMin().getY() && p.getY()<=tile.getMax().getY());
+				assertTrue(p.getZ()>=tile.getMin().getZ() && p.getZ()<=tile.getMax().getZ());
+				add(counts, p, tilePoints.getColor(i), -1);
+			}
+			total+=tile.getPointCount();
+		}
+		assertEquals(count, total);
+		for (int c: counts.values())
+			assertEquals(0, c);
+		// the cluster is divided into tiles with the same bounds
+		assertTrue(files.size()>count/1000+2);
+	}
+}
@@ -0,0 +1,65 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link PlyTranscoder} never loses the input or leaves a partial output behind.
+ * @author Kazó Csaba
+ */
+public class PlyTranscoderTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	@Test
+	public void transcodeIntoItself() throws IOException {
+		Path file=folder.newFile().toPath();
+		writeMesh(mesh(new Random(1), 10, 5), PlyFormat.ASCII, file);
+		byte[] data=Files.readAllBytes(file);
+		try {
+			new PlyTranscoder().setFormat(PlyFormat.BINARY_BIG_ENDIAN).transcode(file, file);
+			fail("Transcoding into the input accepted");
+		} catch (IllegalArgumentException e) {}
+		assertArrayEquals(data, Files.readAllBytes(file));
+	}
+
+	@Test
+	public void failedTranscodeKeepsOutput() throws IOException {
+		Path input=folder.newFile().toPath(), output=folder.newFile().toPath();
+		Files.write(input, "not a PLY file".getBytes(StandardCharsets.US_ASCII));
+		Files.write(output, "previous".getBytes(StandardCharsets.US_ASCII));
+		try {
+			new PlyTranscoder().transcode(input, output);
+			fail("Invalid input accepted");
+		} catch (InvalidPlyFormatException e) {}
+		assertArrayEquals("previous".getBytes(StandardCharsets.US_ASCII), Files.readAllBytes(output));
+		try (Stream<Path> files=Files.list(folder.getRoot().toPath())) {
+			assertEquals(2, files.count());
+		}
+	}
+
+	@Test
+	public void replaceOutput() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(2), 10, 5);
+		Path input=folder.newFile().toPath(), output=folder.newFile().toPath();
+		writeMesh(mesh, PlyFormat.ASCII, input);
+		Files.write(output, "previous".getBytes(StandardCharsets.US_ASCII));
+		new PlyTranscoder().setFormat(PlyFormat.BINARY_LITTLE_ENDIAN).transcode(input, output);
+		PlyReader reader=new PlyReader(output);
+		assertEquals(PlyFormat.BINARY_LITTLE_ENDIAN, reader.getFormat());
+		assertSameMesh(mesh, reader.readMesh());
+	}
+}
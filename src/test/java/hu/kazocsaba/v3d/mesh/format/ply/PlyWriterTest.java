@@ -0,0 +1,143 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMeshImpl;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.TriangleMesh;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that reordering on write keeps the points and triangles, and improves their locality.
+ * @author Kazó Csaba
+ */
+public class PlyWriterTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private static String key(Vector3 p) {
+		return p.getX()+" "+p.getY()+" "+p.getZ();
+	}
+
+	private static <T> void add(Map<T, Integer> counts, T key, int count) {
+		Integer old=counts.get(key);
+		counts.put(key, (old==null ? 0 : old)+count);
+	}
+
+	/**
+	 * Returns the triangles of a mesh by the coordinates of their vertices, each starting with the smallest vertex, so
+	 * that rotations of the same triangle are equal, but triangles of opposite orientation are not.
+	 */
+	private static Map<String, Integer> triangles(IndexedTriangleMesh mesh) {
+		Map<String, Integer> triangles=new HashMap<>();
+		for (int t=0; t<mesh.getTriangleCount(); t++) {
+			String[] vertices=new String[3];
+			int first=0;
+			for (int p=0; p<3; p++) {
+				vertices[p]=key(mesh.getPoint(mesh.getTrianglePointIndex(t, p)));
+				if (vertices[p].compareTo(vertices[first])<0) first=p;
+			}
+			add(triangles, vertices[first]+", "+vertices[(first+1)%3]+", "+vertices[(first+2)%3], 1);
+		}
+		return triangles;
+	}
+
+	/**
+	 * Returns the average number of vertices fetched per triangle by a FIFO vertex cache.
+	 */
+	private static double cacheMissRatio(IndexedTriangleMesh mesh, int cacheSize) {
+		ArrayDeque<Integer> cache=new ArrayDeque<>();
+		int misses=0;
+		for (int t=0; t<mesh.getTriangleCount(); t++)
+			for (int p=0; p<3; p++) {
+				int vertex=mesh.getTrianglePointIndex(t, p);
+				if (!cache.contains(vertex)) {
+					misses++;
+					cache.addLast(vertex);
+					if (cache.size()>cacheSize) cache.removeFirst();
+				}
+			}
+		return misses/(double)mesh.getTriangleCount();
+	}
+
+	/**
+	 * Returns the length of the path visiting the points in order.
+	 */
+	private static double pathLength(PointList points) {
+		double length=0;
+		for (int i=1; i<points.getPointCount(); i++)
+			length+=points.getPoint(i).minus(points.getPoint(i-1)).norm();
+		return length;
+	}
+
+	@Test
+	public void reorderPoints() throws IOException {
+		PackedColorPointList points=packedColorPoints(new Random(1), 50000, true);
+		Path file=folder.newFile().toPath();
+		new PlyWriter().setBinary(true).setReorder(true).write(points, null, file);
+		PackedColorPointList result=new PlyReader(file).readPackedColorVertices();
+
+		Map<String, Integer> counts=new HashMap<>();
+		for (int i=0; i<points.getPointCount(); i++)
+			add(counts, key(points.getPoint(i))+" "+points.getColor(i), 1);
+		for (int i=0; i<result.getPointCount(); i++)
+			add(counts, key(result.getPoint(i))+" "+result.getColor(i), -1);
+		for (int count: counts.values())
+			assertEquals(0, count);
+		assertTrue(pathLength(result)<pathLength(points)/4);
+	}
+
+	/**
+	 * A grid mesh with shuffled vertices and triangles is reordered for the vertex cache.
+	 */
+	@Test
+	public void reorderMesh() throws IOException {
+		Random random=new Random(2);
+		int size=100;
+		List<Integer> order=new ArrayList<>();
+		for (int i=0; i<size*size; i++)
+			order.add(i);
+		Collections.shuffle(order, random);
+		List<Vector3> vertices=new ArrayList<>();
+		int[] index=new int[size*size];
+		for (int i=0; i<size*size; i++) {
+			vertices.add(MatrixFactory.createVector(order.get(i)/size, order.get(i)%size, random.nextDouble()));
+			index[order.get(i)]=i;
+		}
+		List<int[]> triangles=new ArrayList<>();
+		for (int i=0; i<size-1; i++)
+			for (int j=0; j<size-1; j++) {
+				int q=i*size+j;
+				triangles.add(new int[]{index[q], index[q+1], index[q+size]});
+				triangles.add(new int[]{index[q+1], index[q+size+1], index[q+size]});
+			}
+		Collections.shuffle(triangles, random);
+		IndexedTriangleMesh mesh=new IndexedTriangleMeshImpl(vertices, triangles);
+
+		Path file=folder.newFile().toPath();
+		new PlyWriter().setBinary(true).setReorder(true).write((TriangleMesh)mesh, null, file);
+		IndexedTriangleMesh result=new PlyReader(file).readMesh();
+
+		assertEquals(mesh.getPointCount(), result.getPointCount());
+		assertEquals(triangles(mesh), triangles(result));
+		assertTrue(cacheMissRatio(mesh, 16)>2.5);
+		assertTrue(cacheMissRatio(result, 16)<1);
+		assertTrue(pathLength(result)<pathLength(mesh)/4);
+	}
+}
@@ -0,0 +1,132 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.TriangleMesh;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the progress reported while reading and writing, and the cancellation of these operations.
+ * @author Kazó Csaba
+ */
+public class ProgressTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	/**
+	 * A listener recording the reports it receives, and optionally cancelling the operation at the first report.
+	 */
+	private static final class Recorder implements ProgressListener {
+		final List<long[]> reports=new ArrayList<>();
+		final CancellationToken token;
+
+		Recorder(CancellationToken token) {
+			this.token = token;
+		}
+
+		@Override
+		public synchronized void progress(long elements, long totalElements, long bytes, long totalBytes) {
+			reports.add(new long[]{elements, totalElements, bytes, totalBytes});
+			if (token!=null) token.cancel();
+		}
+
+		/**
+		 * Checks that the reports don't go backwards, and returns the last one.
+		 */
+		synchronized long[] last() {
+			assertFalse(reports.isEmpty());
+			for (int i=1; i<reports.size(); i++) {
+				assertTrue(reports.get(i)[0]>=reports.get(i-1)[0]);
+				assertTrue(reports.get(i)[2]>=reports.get(i-1)[2]);
+			}
+			return reports.get(reports.size()-1);
+		}
+	}
+
+	@Test
+	public void readProgress() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(1), 100000, 50000);
+		for (PlyFormat format: PlyFormat.values()) {
+			Path file=folder.newFile().toPath();
+			writeMesh(mesh, format, file);
+			for (int parallelism: new int[]{1, 4}) {
+				Recorder recorder=new Recorder(null);
+				new PlyReader(file).setParallelism(parallelism).setProgressListener(recorder).readMesh();
+				long[] last=recorder.last();
+				assertEquals(150000, last[0]);
+				assertEquals(150000, last[1]);
+				assertEquals(Files.size(file), last[2]);
+				assertEquals(Files.size(file), last[3]);
+			}
+		}
+	}
+
+	@Test
+	public void writeProgress() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(2), 100000, 50000);
+		Path file=folder.newFile().toPath();
+		Recorder recorder=new Recorder(null);
+		new PlyWriter().setBinary(true).setProgressListener(recorder).write((TriangleMesh)mesh, null, file);
+		long[] last=recorder.last();
+		assertEquals(150000, last[0]);
+		assertEquals(150000, last[1]);
+		assertEquals(Files.size(file), last[2]);
+		assertEquals(-1, last[3]);
+	}
+
+	@Test
+	public void cancelRead() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(3), 100000, 50000);
+		for (PlyFormat format: PlyFormat.values()) {
+			Path file=folder.newFile().toPath();
+			writeMesh(mesh, format, file);
+			for (int parallelism: new int[]{1, 4}) {
+				CancellationToken token=new CancellationToken();
+				try {
+					new PlyReader(file).setParallelism(parallelism).setProgressListener(new Recorder(token)).setCancellationToken(token).readMesh();
+					fail("Cancelled read completed");
+				} catch (OperationCancelledException e) {}
+				assertTrue(token.isCancelled());
+			}
+		}
+	}
+
+	/**
+	 * A cancelled write deletes the partially written file, even if it replaced an existing file.
+	 */
+	@Test
+	public void cancelWrite() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(4), 100000, 50000);
+		Path file=folder.newFile().toPath();
+		Files.write(file, new byte[]{1, 2, 3});
+		for (boolean binary: new boolean[]{false, true}) {
+			CancellationToken token=new CancellationToken();
+			try {
+				new PlyWriter().setBinary(binary).setProgressListener(new Recorder(token)).setCancellationToken(token).write((TriangleMesh)mesh, null, file);
+				fail("Cancelled write completed");
+			} catch (OperationCancelledException e) {}
+			assertFalse(Files.exists(file));
+		}
+
+		CancellationToken token=new CancellationToken();
+		token.cancel();
+		try {
+			new PlyWriter().setCancellationToken(token).write(points(new Random(5), 100000), null, file);
+			fail("Cancelled write completed");
+		} catch (OperationCancelledException e) {}
+		assertFalse(Files.exists(file));
+	}
+}
@@ -0,0 +1,175 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static hu.kazocsaba.v3d.mesh.format.ply.TestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.PointList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Writes meshes and point lists with {@link PlyWriter} in each format, and checks that every read mode of
+ * {@link PlyReader} returns them unchanged, both sequentially and in parallel. The data sets are large enough for the
+ * parallel readers to be used.
+ * @author Kazó Csaba
+ */
+@RunWith(Parameterized.class)
+public class RoundTripTest {
+	private static final int POINT_COUNT=100000;
+	private static final int TRIANGLE_COUNT=80000;
+
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+
+	private final PlyFormat format;
+	private final int parallelism;
+
+	@Parameters(name="{0}, parallelism {1}")
+	public static Collection<Object[]> parameters() {
+		List<Object[]> parameters=new ArrayList<>();
+		for (PlyFormat format: PlyFormat.values())
+			for (int parallelism: new int[]{1, 4})
+				parameters.add(new Object[]{format, parallelism});
+		return parameters;
+	}
+
+	public RoundTripTest(PlyFormat format, int parallelism) {
+		this.format = format;
+		this.parallelism = parallelism;
+	}
+
+	private PlyReader reader(Path file) throws IOException {
+		PlyReader reader=new PlyReader(file).setParallelism(parallelism);
+		assertEquals(format, reader.getFormat());
+		return reader;
+	}
+
+	@Test
+	public void pointList() throws IOException {
+		PointList points=points(new Random(1), POINT_COUNT);
+		Path file=folder.newFile().toPath();
+		writePoints(points, format, file);
+
+		PlyReader reader=reader(file);
+		assertTrue(reader.hasVertices());
+		assertFalse(reader.hasVertexColors());
+		assertFalse(reader.hasFaces());
+		assertEquals(Arrays.asList("test"), reader.getComments());
+		assertSamePoints(points, reader.readVertices());
+		assertSamePoints(points, reader.readVerticesWithinBudget());
+		try (Stream<Vector3> stream=reader.vertexStream()) {
+			List<Vector3> streamed=stream.collect(Collectors.toList());
+			assertEquals(POINT_COUNT, streamed.size());
+			for (int i=0; i<POINT_COUNT; i++)
+				assertSamePoint(points.getPoint(i), streamed.get(i));
+		}
+		double[] y=reader.coordinateStream(1).toArray();
+		assertEquals(POINT_COUNT, y.length);
+		for (int i=0; i<POINT_COUNT; i++)
+			assertEquals(points.getPoint(i).getY(), y[i], 0);
+		assertEquals(format.isBinary(), reader.canMapVertices());
+		if (reader.canMapVertices()) assertSamePoints(points, reader.mapVertices());
+	}
+
+	@Test
+	public void coloredPointList() throws IOException {
+		ColoredPointList points=coloredPoints(new Random(2), POINT_COUNT);
+		Path file=folder.newFile().toPath();
+		writePoints(points, format, file);
+
+		PlyReader reader=reader(file);
+		assertTrue(reader.hasVertexColors());
+		assertFalse(reader.hasVertexAlpha());
+		assertSameColors(points, reader.readColoredVertices());
+		ColoredPointList read=(ColoredPointList)reader.readVertices();
+		assertSameColors(points, read);
+		PackedColorPointList packed=reader.readPackedColorVertices();
+		assertFalse(packed.hasAlpha());
+		for (int i=0; i<POINT_COUNT; i++)
+			assertEquals(points.getPointColor(i).getRGB()<<8 | 0xFF, packed.getColor(i));
+	}
+
+	@Test
+	public void packedColorsWithAlpha() throws IOException {
+		PackedColorPointList points=packedColorPoints(new Random(3), POINT_COUNT, true);
+		Path file=folder.newFile().toPath();
+		writePoints(points, format, file);
+
+		PlyReader reader=reader(file);
+		assertTrue(reader.hasVertexAlpha());
+		assertSameColors(points, reader.readPackedColorVertices());
+	}
+
+	@Test
+	public void triangleMesh() throws IOException {
+		IndexedTriangleMesh mesh=mesh(new Random(4), POINT_COUNT, TRIANGLE_COUNT);
+		Path file=folder.newFile().toPath();
+		writeMesh(mesh, format, file);
+
+		PlyReader reader=reader(file);
+		assertTrue(reader.hasFaces());
+		assertSameMesh(mesh, reader.readMesh());
+		assertSameMesh(mesh, reader.readMeshAsync().join());
+		try (Stream<int[]> stream=reader.triangleStream()) {
+			List<int[]> triangles=stream.collect(Collectors.toList());
+			assertEquals(TRIANGLE_COUNT, triangles.size());
+			for (int t=0; t<TRIANGLE_COUNT; t++)
+				for (int p=0; p<3; p++)
+					assertEquals(mesh.getTrianglePointIndex(t, p), triangles.get(t)[p]);
+		}
+		int[] indices=reader.triangleIndexStream().toArray();
+		assertEquals(TRIANGLE_COUNT*3, indices.length);
+		for (int t=0; t<TRIANGLE_COUNT; t++)
+			for (int p=0; p<3; p++)
+				assertEquals(mesh.getTrianglePointIndex(t, p), indices[t*3+p]);
+		try (OffHeapMesh offHeap=reader.readOffHeap()) {
+			assertEquals(POINT_COUNT, offHeap.getVertexCount());
+			assertEquals(TRIANGLE_COUNT, offHeap.getTriangleCount());
+			for (int i=0; i<POINT_COUNT; i+=97) {
+				assertEquals(mesh.getPoint(i).getX(), offHeap.getX(i), 0);
+				assertEquals(mesh.getPoint(i).getZ(), offHeap.getZ(i), 0);
+			}
+			for (int t=0; t<TRIANGLE_COUNT; t+=89)
+				assertEquals(mesh.getTrianglePointIndex(t, 2), offHeap.getTrianglePointIndex(t, 2));
+		}
+		if (reader.canMapMesh()) assertSameMesh(mesh, reader.mapMesh());
+	}
+
+	@Test
+	public void batch() throws IOException {
+		Random random=new Random(5);
+		IndexedTriangleMesh first=mesh(random, 100, 200), second=mesh(random, 50, 70);
+		Path firstFile=folder.newFile().toPath(), secondFile=folder.newFile().toPath();
+		writeMesh(first, format, firstFile);
+		writeMesh(second, format, secondFile);
+
+		IndexedTriangleMesh merged=new PlyBatchReader(Arrays.asList(firstFile, secondFile)).readMesh();
+		assertEquals(150, merged.getPointCount());
+		assertEquals(270, merged.getTriangleCount());
+		for (int i=0; i<100; i++)
+			assertSamePoint(first.getPoint(i), merged.getPoint(i));
+		for (int i=0; i<50; i++)
+			assertSamePoint(second.getPoint(i), merged.getPoint(100+i));
+		for (int t=0; t<70; t++)
+			for (int p=0; p<3; p++)
+				assertEquals(100+second.getTrianglePointIndex(t, p), merged.getTrianglePointIndex(200+t, p));
+	}
+}
@@ -0,0 +1,144 @@
+package hu.kazocsaba.v3d.mesh.format.ply;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import hu.kazocsaba.math.matrix.MatrixFactory;
+import hu.kazocsaba.math.matrix.Vector3;
+import hu.kazocsaba.v3d.mesh.ColoredPointList;
+import hu.kazocsaba.v3d.mesh.ColoredPointListImpl;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMesh;
+import hu.kazocsaba.v3d.mesh.IndexedTriangleMeshImpl;
+import hu.kazocsaba.v3d.mesh.PointList;
+import hu.kazocsaba.v3d.mesh.PointListImpl;
+import hu.kazocsaba.v3d.mesh.TriangleMesh;
+
+/**
+ * Generates meshes and point lists, writes them in each format, and compares them with the results of reading.
+ * @author Kazó Csaba
+ */
+final class TestData {
+	private TestData() {}
+
+	static List<Vector3> randomVectors(Random random, int count) {
+		List<Vector3> vectors=new ArrayList<>(count);
+		for (int i=0; i<count; i++)
+			vectors.add(MatrixFactory.createVector((random.nextDouble()-.5)*1000, random.nextGaussian(), random.nextDouble()*1e-3));
+		return vectors;
+	}
+
+	static PointList points(Random random, int count) {
+		return new PointListImpl(randomVectors(random, count));
+	}
+
+	static ColoredPointList coloredPoints(Random random, int count) {
+		List<Color> colors=new ArrayList<>(count);
+		for (int i=0; i<count; i++)
+			colors.add(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+		return new ColoredPointListImpl(randomVectors(random, count), colors);
+	}
+
+	static PackedColorPointList packedColorPoints(Random random, int count, boolean alpha) {
+		int[] colors=new int[count];
+		for (int i=0; i<count; i++)
+			colors[i]=alpha ? random.nextInt() : random.nextInt() | 0xFF;
+		return new PackedColorPointList(points(random, count), colors, alpha);
+	}
+
+	static IndexedTriangleMesh mesh(Random random, int vertexCount, int triangleCount) {
+		List<int[]> triangles=new ArrayList<>(triangleCount);
+		for (int i=0; i<triangleCount; i++)
+			triangles.add(new int[]{random.nextInt(vertexCount), random.nextInt(vertexCount), random.nextInt(vertexCount)});
+		return new IndexedTriangleMeshImpl(randomVectors(random, vertexCount), triangles);
+	}
+
+	/**
+	 * Writes a point list with {@link PlyWriter}. The little endian format, which the writer doesn't produce, is
+	 * created by transcoding its big endian output.
+	 */
+	static void writePoints(PointList points, PlyFormat format, Path file) throws IOException {
+		if (format==PlyFormat.BINARY_LITTLE_ENDIAN) {
+			Path bigEndian=file.resolveSibling(file.getFileName()+".be");
+			new PlyWriter().setBinary(true).write(points, "test", bigEndian);
+			new PlyTranscoder().setFormat(format).transcode(bigEndian, file);
+			Files.delete(bigEndian);
+		} else {
+			new PlyWriter().setBinary(format.isBinary()).write(points, "test", file);
+		}
+	}
+
+	/**
+	 * Writes a mesh with {@link PlyWriter}, like {@link #writePoints(PointList, PlyFormat, Path)}.
+	 */
+	static void writeMesh(TriangleMesh mesh, PlyFormat format, Path file) throws IOException {
+		if (format==PlyFormat.BINARY_LITTLE_ENDIAN) {
+			Path bigEndian=file.resolveSibling(file.getFileName()+".be");
+			new PlyWriter().setBinary(true).write(mesh, "test", bigEndian);
+			new PlyTranscoder().setFormat(format).transcode(bigEndian, file);
+			Files.delete(bigEndian);
+		} else {
+			new PlyWriter().setBinary(format.isBinary()).write(mesh, "test", file);
+		}
+	}
+
+	static void assertSamePoint(Vector3 expected, Vector3 actual) {
+		assertEquals(expected.getX(), actual.getX(), 0);
+		assertEquals(expected.getY(), actual.getY(), 0);
+		assertEquals(expected.getZ(), actual.getZ(), 0);
+	}
+
+	static void assertSamePoints(PointList expected, PointList actual) {
+		assertEquals(expected.getPointCount(), actual.getPointCount());
+		for (int i=0; i<expected.getPointCount(); i++)
+			assertSamePoint(expected.getPoint(i), actual.getPoint(i));
+	}
+
+	static void assertSameColors(ColoredPointList expected, ColoredPointList actual) {
+		assertSamePoints(expected, actual);
+		for (int i=0; i<expected.getPointCount(); i++)
+			assertEquals(expected.getPointColor(i).getRGB(), actual.getPointColor(i).getRGB());
+	}
+
+	static void assertSameColors(PackedColorPointList expected, PackedColorPointList actual) {
+		assertSamePoints(expected, actual);
+		assertEquals(expected.hasAlpha(), actual.hasAlpha());
+		for (int i=0; i<expected.getPointCount(); i++)
+			assertEquals(expected.getColor(i), actual.getColor(i));
+	}
+
+	static void assertSameMesh(IndexedTriangleMesh expected, IndexedTriangleMesh actual) {
+		assertSamePoints(expected, actual);
+		assertSameTriangles(expected, actual);
+	}
+
+	static void assertSameTriangles(IndexedTriangleMesh expected, IndexedTriangleMesh actual) {
+		assertEquals(expected.getTriangleCount(), actual.getTriangleCount());
+		for (int t=0; t<expected.getTriangleCount(); t++)
+			for (int p=0; p<3; p++)
+				assertEquals(expected.getTrianglePointIndex(t, p), actual.getTrianglePointIndex(t, p));
+	}
+
+	/**
+	 * Asserts that a mesh contains the expected triangles, given as vertex index triples.
+	 */
+	static void assertTriangles(int[][] expected, IndexedTriangleMesh actual) {
+		assertEquals(expected.length, actual.getTriangleCount());
+		for (int t=0; t<expected.length; t++)
+			for (int p=0; p<3; p++)
+				assertEquals(expected[t][p], actual.getTrianglePointIndex(t, p));
+	}
+
+	/**
+	 * Appends bytes to the end of a file.
+	 */
+	static void append(Path file, byte[] data) throws IOException {
+		Files.write(file, data, StandardOpenOption.APPEND);
+	}
+}